@@ -0,0 +1,259 @@
+package it.unitn.ds1.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.workload.Workload;
+
+/**
+ * Command line of the benchmark drivers:
+ *
+ * <pre>
+ * --servers N --coordinators N --clients N --keys N
+ * --duration SECONDS | --transactions N
+ * --rate TXN_PER_SECOND
+ * --crashes --fifo-mailboxes --txn-actors --log off|info|debug --check-interval MS
+ * --cluster SERVER_NODES,COORDINATOR_NODES --wal-dir DIR
+ * --workload ycsb-a|ycsb-b|ycsb-c
+ * --uniform | --zipfian THETA | --hotspot HOT_SET_FRACTION,HOT_FRACTION
+ * --ops MIN,MAX --keys-per-op N --writes P --read-only P --commits P
+ * </pre>
+ *
+ * With --transactions the run ends once the clients completed that many
+ * transactions, shared among them, otherwise after --duration. With --rate
+ * the clients are open loop: altogether they begin that many transactions per
+ * second however many are still running, and the latency is measured from
+ * when a transaction was due. Otherwise each client runs one transaction at a
+ * time. The simulated crashes are off unless --crashes is given. With
+ * --fifo-mailboxes servers and coordinators take their messages in arrival
+ * order, instead of votes and decisions ahead of reads. With --txn-actors
+ * each transaction is run by a child actor of its coordinator (txn.txn-actors
+ * in application.conf). The events of the
+ * nodes are not logged unless --log is given (see EventLog). With
+ * --check-interval the sum of the values is also checked on a snapshot of the
+ * running system every MS ms, not only before and after the run. With
+ * --cluster the servers and the coordinators run in that many JVM processes of
+ * their own on this machine, connected with Akka remoting (see TxnCluster),
+ * instead of the JVM of the benchmark. The write-ahead logs of a run are kept
+ * in a fresh temporary directory, or in the --wal-dir one emptied first, so
+ * that every run starts from empty servers. The workload options apply in order to
+ * the default workload of the system, or to the --workload preset.
+ */
+public class BenchmarkOptions {
+  public int servers;
+  public int coordinators;
+  public int clients;
+  // 0 for 10 keys per server
+  public int keys;
+  public int durationSeconds = 30;
+  // 0 to run for durationSeconds
+  public long transactions;
+  // TXNs begun per second by all the clients, 0 for closed loop clients
+  public double rate;
+  public boolean crashes;
+  // mailbox-type of the servers and coordinators instead of the priority one
+  public boolean fifoMailboxes;
+  // a child actor of the coordinator for each transaction
+  public boolean txnActors;
+  public EventLog.Level logLevel = EventLog.Level.OFF;
+  // ms between the snapshots checking the sum during the run, 0 for none
+  public int checkInterval;
+  // JVM processes of the servers and of the coordinators, 0 for none
+  public int serverNodes;
+  public int coordinatorNodes;
+  // directory of the write-ahead logs, null for a temporary one
+  public String walDir;
+  public Workload workload;
+
+  public BenchmarkOptions(int servers, int coordinators, int clients, Workload workload) {
+    this.servers = servers;
+    this.coordinators = coordinators;
+    this.clients = clients;
+    this.workload = workload;
+  }
+
+  /**
+   * Override the defaults with the options given on the command line
+   *
+   * @param args
+   * @return this
+   * @throws IllegalArgumentException on an unknown option or a missing value
+   */
+  public BenchmarkOptions parse(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+      case "--servers":
+        servers = Integer.parseInt(valueOf(args, ++i));
+        break;
+      case "--coordinators":
+        coordinators = Integer.parseInt(valueOf(args, ++i));
+        break;
+      case "--clients":
+        clients = Integer.parseInt(valueOf(args, ++i));
+        break;
+      case "--keys":
+        keys = Integer.parseInt(valueOf(args, ++i));
+        break;
+      case "--duration":
+        durationSeconds = Integer.parseInt(valueOf(args, ++i));
+        break;
+      case "--transactions":
+        transactions = Long.parseLong(valueOf(args, ++i));
+        break;
+      case "--rate":
+        rate = Double.parseDouble(valueOf(args, ++i));
+        break;
+      case "--crashes":
+        crashes = true;
+        break;
+      case "--fifo-mailboxes":
+        fifoMailboxes = true;
+        break;
+      case "--txn-actors":
+        txnActors = true;
+        break;
+      case "--log":
+        logLevel = EventLog.Level.valueOf(valueOf(args, ++i).toUpperCase());
+        break;
+      case "--check-interval":
+        checkInterval = Integer.parseInt(valueOf(args, ++i));
+        break;
+      case "--cluster": {
+        double[] nodes = pairOf(args, ++i);
+        serverNodes = (int) nodes[0];
+        coordinatorNodes = (int) nodes[1];
+        break;
+      }
+      case "--wal-dir":
+        walDir = valueOf(args, ++i);
+        break;
+      case "--workload":
+        workload = Workload.preset(valueOf(args, ++i));
+        break;
+      case "--uniform":
+        workload = workload.withUniform();
+        break;
+      case "--zipfian":
+        workload = workload.withZipfian(Double.parseDouble(valueOf(args, ++i)));
+        break;
+      case "--hotspot": {
+        double[] hotspot = pairOf(args, ++i);
+        workload = workload.withHotspot(hotspot[0], hotspot[1]);
+        break;
+      }
+      case "--ops": {
+        double[] ops = pairOf(args, ++i);
+        workload = workload.withOps((int) ops[0], (int) ops[1]);
+        break;
+      }
+      case "--keys-per-op":
+        workload = workload.withKeysPerOp(Integer.parseInt(valueOf(args, ++i)));
+        break;
+      case "--writes":
+        workload = workload.withWrites(Double.parseDouble(valueOf(args, ++i)));
+        break;
+      case "--read-only":
+        workload = workload.withReadOnly(Double.parseDouble(valueOf(args, ++i)));
+        break;
+      case "--commits":
+        workload = workload.withCommits(Double.parseDouble(valueOf(args, ++i)));
+        break;
+      default:
+        throw new IllegalArgumentException("unknown option " + args[i]);
+      }
+    }
+    if (keys == 0)
+      keys = 10 * servers;
+    return this;
+  }
+
+  /**
+   * Transactions the given client has to run, 0 when running for a duration
+   *
+   * @param client index of the client
+   */
+  public int transactionsOf(int client) {
+    if (transactions == 0)
+      return 0;
+    long share = transactions / clients + (client < transactions % clients ? 1 : 0);
+    // at least one, as 0 means no limit
+    return (int) Math.max(share, 1);
+  }
+
+  /**
+   * @return TXNs begun per second by each client, 0 for a closed loop
+   */
+  public double clientRate() {
+    return rate / clients;
+  }
+
+  /**
+   * Directory of the write-ahead logs of this run: a new temporary one, or
+   * --wal-dir emptied of what a previous run left
+   *
+   * @return the directory, existing and empty
+   * @throws IOException
+   */
+  public Path createWalDir() throws IOException {
+    if (walDir == null)
+      return Files.createTempDirectory("txn-wal");
+    Path dir = Paths.get(walDir);
+    if (Files.exists(dir)) {
+      List<Path> entries;
+      try (Stream<Path> walk = Files.walk(dir)) {
+        // children before their directory
+        entries = walk.filter(path -> !path.equals(dir)).sorted(Comparator.reverseOrder())
+            .collect(Collectors.toList());
+      }
+      for (Path entry : entries)
+        Files.delete(entry);
+    }
+    return Files.createDirectories(dir);
+  }
+
+  @Override
+  public String toString() {
+    return servers + " servers, " + coordinators + " coordinators, " + clients + " clients, " + keys + " keys, "
+        + (transactions > 0 ? transactions + " transactions" : durationSeconds + " s")
+        + (rate > 0 ? ", " + rate + " txn/s" : "")
+        + (crashes ? ", crashes" : "") + (fifoMailboxes ? ", FIFO mailboxes" : "")
+        + (txnActors ? ", TXN actors" : "")
+        + (checkInterval > 0 ? ", checked every " + checkInterval + " ms" : "")
+        + (serverNodes > 0 ? ", " + serverNodes + "+" + coordinatorNodes + " node processes" : "") + "\nWorkload: "
+        + workload;
+  }
+
+  /**
+   * @return configuration of the actor system for these options, over
+   *         application.conf
+   */
+  public String config() {
+    String config = "akka.loglevel = WARNING\n";
+    if (fifoMailboxes)
+      config += "txn.server-dispatcher.mailbox-type = \"akka.dispatch.UnboundedMailbox\"\n"
+          + "txn.coordinator-dispatcher.mailbox-type = \"akka.dispatch.UnboundedMailbox\"\n";
+    if (txnActors)
+      config += "txn.txn-actors = on\n";
+    return config;
+  }
+
+  private static String valueOf(String[] args, int i) {
+    if (i >= args.length)
+      throw new IllegalArgumentException("missing value for " + args[i - 1]);
+    return args[i];
+  }
+
+  private static double[] pairOf(String[] args, int i) {
+    String[] pair = valueOf(args, i).split(",");
+    if (pair.length != 2)
+      throw new IllegalArgumentException("A,B expected for " + args[i - 1]);
+    return new double[] { Double.parseDouble(pair[0]), Double.parseDouble(pair[1]) };
+  }
+}
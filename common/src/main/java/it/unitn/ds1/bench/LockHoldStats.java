@@ -0,0 +1,42 @@
+package it.unitn.ds1.bench;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * How long the transactions kept their validation locks on a server, from the
+ * vote to the decision. The stats of the servers are added up by the benchmark
+ * driver.
+ */
+public class LockHoldStats implements Serializable {
+  // microseconds, resized as needed
+  private final Histogram holdTime = new Histogram(3);
+
+  public void recordHold(long nanos) {
+    holdTime.recordValue(nanos / 1000);
+  }
+
+  public LockHoldStats add(LockHoldStats other) {
+    holdTime.add(other.holdTime);
+    return this;
+  }
+
+  /**
+   * @return a copy, to hand over to another thread
+   */
+  public LockHoldStats copy() {
+    return new LockHoldStats().add(this);
+  }
+
+  public long holds() {
+    return holdTime.getTotalCount();
+  }
+
+  public void report(PrintStream out) {
+    out.format("lock hold       %d holds, p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms%n", holds(),
+        holdTime.getValueAtPercentile(50) / 1000.0, holdTime.getValueAtPercentile(99) / 1000.0,
+        holdTime.getValueAtPercentile(99.9) / 1000.0, holdTime.getMaxValue() / 1000.0);
+  }
+}
@@ -0,0 +1,93 @@
+package it.unitn.ds1.bench;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import it.unitn.ds1.txn.AdaptiveTimeout;
+
+/**
+ * The adaptive timeouts of the nodes (see AdaptiveTimeout) at one point in
+ * time, one entry per channel: the votes of each server at each coordinator,
+ * the decisions at each server. The stats of the nodes are added up by the
+ * benchmark driver.
+ */
+public class TimeoutStats implements Serializable {
+  /**
+   * A timeout, its latency estimate and how often it expired
+   */
+  public static class Entry implements Serializable {
+    // e.g. "coordinator0 votes of server3"
+    public final String name;
+    public final int timeout;
+    public final double smoothed;
+    public final double deviation;
+    public final long samples;
+    public final long expirations;
+
+    Entry(String name, AdaptiveTimeout timeout) {
+      this.name = name;
+      this.timeout = timeout.timeout();
+      this.smoothed = timeout.smoothed();
+      this.deviation = timeout.deviation();
+      this.samples = timeout.samples();
+      this.expirations = timeout.expirations();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d ms (latency %.3f ms +- %.3f ms, %d samples, %d expired)", name, timeout, smoothed,
+          deviation, samples, expirations);
+    }
+  }
+
+  private final List<Entry> vote = new ArrayList<>();
+  private final List<Entry> decision = new ArrayList<>();
+
+  public TimeoutStats addVote(String name, AdaptiveTimeout timeout) {
+    vote.add(new Entry(name, timeout));
+    return this;
+  }
+
+  public TimeoutStats addDecision(String name, AdaptiveTimeout timeout) {
+    decision.add(new Entry(name, timeout));
+    return this;
+  }
+
+  public TimeoutStats add(TimeoutStats other) {
+    vote.addAll(other.vote);
+    decision.addAll(other.decision);
+    return this;
+  }
+
+  public List<Entry> getVote() {
+    return vote;
+  }
+
+  public List<Entry> getDecision() {
+    return decision;
+  }
+
+  public void report(PrintStream out) {
+    report(out, "vote timeout    ", vote);
+    report(out, "decision timeout", decision);
+  }
+
+  private static void report(PrintStream out, String label, List<Entry> entries) {
+    if (entries.isEmpty())
+      return;
+    int min = Integer.MAX_VALUE;
+    int max = 0;
+    long total = 0;
+    long expirations = 0;
+    for (Entry entry : entries) {
+      min = Math.min(min, entry.timeout);
+      max = Math.max(max, entry.timeout);
+      total += entry.timeout;
+      expirations += entry.expirations;
+    }
+    out.format("%s %d channels, min %d ms, mean %.1f ms, max %d ms, %d expired%n", label, entries.size(), min,
+        (double) total / entries.size(), max, expirations);
+  }
+}
@@ -0,0 +1,90 @@
+package it.unitn.ds1.bench;
+
+import java.io.PrintStream;
+import java.io.Serializable;
+
+import org.HdrHistogram.Histogram;
+
+import it.unitn.ds1.txn.AbortCause;
+
+/**
+ * Outcomes of the transactions of a client: commits, aborts by cause and
+ * latency from begin to outcome. The stats of the clients are added up by the
+ * benchmark driver.
+ */
+public class TxnStats implements Serializable {
+  // microseconds, resized as needed
+  private final Histogram commitLatency = new Histogram(3);
+  private final Histogram abortLatency = new Histogram(3);
+  private long commits;
+  private final long[] aborts = new long[AbortCause.values().length];
+
+  public void recordCommit(long latencyNanos) {
+    commits++;
+    commitLatency.recordValue(latencyNanos / 1000);
+  }
+
+  public void recordAbort(AbortCause cause, long latencyNanos) {
+    aborts[cause.ordinal()]++;
+    abortLatency.recordValue(latencyNanos / 1000);
+  }
+
+  public void add(TxnStats other) {
+    commits += other.commits;
+    for (int i = 0; i < aborts.length; i++)
+      aborts[i] += other.aborts[i];
+    commitLatency.add(other.commitLatency);
+    abortLatency.add(other.abortLatency);
+  }
+
+  public long commits() {
+    return commits;
+  }
+
+  public long aborts() {
+    long total = 0;
+    for (long count : aborts)
+      total += count;
+    return total;
+  }
+
+  public long aborts(AbortCause cause) {
+    return aborts[cause.ordinal()];
+  }
+
+  public long transactions() {
+    return commits + aborts();
+  }
+
+  /**
+   * Print throughput, abort rate by cause, the latency percentiles and the
+   * HdrHistogram distribution of the commit latency (in milliseconds)
+   *
+   * @param out
+   * @param seconds time the transactions were run for
+   */
+  public void report(PrintStream out, double seconds) {
+    long transactions = transactions();
+    out.format("transactions    %d in %.1f s%n", transactions, seconds);
+    out.format("commits/s       %.1f%n", commits / seconds);
+    out.format("abort rate      %.2f%%%n", percentOf(aborts(), transactions));
+    for (AbortCause cause : AbortCause.values())
+      out.format("  %-17s %d (%.2f%%)%n", cause, aborts(cause), percentOf(aborts(cause), transactions));
+    printLatency(out, "commit latency", commitLatency);
+    printLatency(out, "abort latency", abortLatency);
+    if (commitLatency.getTotalCount() > 0) {
+      out.println("commit latency distribution (ms)");
+      commitLatency.outputPercentileDistribution(out, 1000.0);
+    }
+  }
+
+  private static void printLatency(PrintStream out, String name, Histogram latency) {
+    out.format("%-15s p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms%n", name,
+        latency.getValueAtPercentile(50) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+        latency.getValueAtPercentile(99.9) / 1000.0, latency.getMaxValue() / 1000.0);
+  }
+
+  private static double percentOf(long count, long total) {
+    return total > 0 ? 100.0 * count / total : 0;
+  }
+}
@@ -0,0 +1,96 @@
+package it.unitn.ds1.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Static placement of the servers and coordinators of a run on JVM processes
+ * (nodes) of one machine. The driver, running the clients and the consistency
+ * checker, listens on basePort and node k on basePort + 1 + k. The first
+ * serverNodes nodes share the servers, server i on node i % serverNodes, the
+ * next coordinatorNodes share the coordinators the same way.
+ *
+ * Every process computes the same layout from the same settings, so the actors
+ * are found at fixed addresses without any discovery service.
+ */
+public class ClusterLayout {
+  public final String hostname;
+  public final int basePort;
+  public final int serverNodes;
+  public final int coordinatorNodes;
+  public final int servers;
+  public final int coordinators;
+
+  /**
+   * @throws IllegalArgumentException if a node would have no actor
+   */
+  public ClusterLayout(String hostname, int basePort, int serverNodes, int coordinatorNodes, int servers,
+      int coordinators) {
+    if (serverNodes < 1 || serverNodes > servers)
+      throw new IllegalArgumentException(serverNodes + " server nodes for " + servers + " servers");
+    if (coordinatorNodes < 1 || coordinatorNodes > coordinators)
+      throw new IllegalArgumentException(coordinatorNodes + " coordinator nodes for " + coordinators + " coordinators");
+    this.hostname = hostname;
+    this.basePort = basePort;
+    this.serverNodes = serverNodes;
+    this.coordinatorNodes = coordinatorNodes;
+    this.servers = servers;
+    this.coordinators = coordinators;
+  }
+
+  public int nodes() {
+    return serverNodes + coordinatorNodes;
+  }
+
+  public int portOf(int node) {
+    return basePort + 1 + node;
+  }
+
+  public int nodeOfServer(int server) {
+    return server % serverNodes;
+  }
+
+  public int nodeOfCoordinator(int coordinator) {
+    return serverNodes + coordinator % coordinatorNodes;
+  }
+
+  /**
+   * @param node
+   * @return ids of the servers placed on the node, none for a coordinator node
+   */
+  public List<Integer> serversOf(int node) {
+    List<Integer> ids = new ArrayList<>();
+    if (node < serverNodes)
+      for (int server = node; server < servers; server += serverNodes)
+        ids.add(server);
+    return ids;
+  }
+
+  /**
+   * @param node
+   * @return ids of the coordinators placed on the node, none for a server node
+   */
+  public List<Integer> coordinatorsOf(int node) {
+    List<Integer> ids = new ArrayList<>();
+    if (node >= serverNodes)
+      for (int coordinator = node - serverNodes; coordinator < coordinators; coordinator += coordinatorNodes)
+        ids.add(coordinator);
+    return ids;
+  }
+
+  /**
+   * @param systemName name of the actor system of every process
+   * @param node
+   * @return akka://systemName@hostname:port, prefix of the paths of the actors
+   *         of the node
+   */
+  public String addressOf(String systemName, int node) {
+    return "akka://" + systemName + "@" + hostname + ":" + portOf(node);
+  }
+
+  @Override
+  public String toString() {
+    return serverNodes + " server nodes, " + coordinatorNodes + " coordinator nodes on " + hostname + ":"
+        + portOf(0) + "-" + portOf(nodes() - 1);
+  }
+}
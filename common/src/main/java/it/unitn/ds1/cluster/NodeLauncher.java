@@ -0,0 +1,75 @@
+package it.unitn.ds1.cluster;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts nodes as child JVMs of this one, with the same java binary and class
+ * path. They write to the console of this process and read from a pipe: a node
+ * exits once its standard input is closed (see {@link #awaitLauncherExit()}),
+ * by {@link #stop()} or because this process died, so that no node outlives
+ * the driver.
+ */
+public class NodeLauncher {
+  // given to a node to terminate its actor system before it is killed
+  private static final long STOP_TIMEOUT_SECONDS = 10;
+  private final String mainClass;
+  private final List<String> jvmOptions;
+  private final List<Process> processes = new ArrayList<>();
+
+  /**
+   * @param mainClass  main of the nodes
+   * @param jvmOptions given to every node, before the class path
+   */
+  public NodeLauncher(String mainClass, List<String> jvmOptions) {
+    this.mainClass = mainClass;
+    this.jvmOptions = jvmOptions;
+  }
+
+  /**
+   * @param args program arguments of the node
+   * @throws IOException if the JVM could not be started
+   */
+  public void launch(String... args) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    command.addAll(jvmOptions);
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(mainClass);
+    command.addAll(Arrays.asList(args));
+    processes.add(new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.INHERIT)
+        .redirectError(ProcessBuilder.Redirect.INHERIT).start());
+  }
+
+  /**
+   * Close the input of every node and wait for them to exit, killing those
+   * still running after STOP_TIMEOUT_SECONDS
+   */
+  public void stop() throws InterruptedException {
+    for (Process process : processes) {
+      try {
+        process.getOutputStream().close();
+      } catch (IOException e) {
+        process.destroy();
+      }
+    }
+    for (Process process : processes) {
+      if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        process.destroyForcibly();
+    }
+    processes.clear();
+  }
+
+  /**
+   * Block a node until the process which launched it closes its input
+   */
+  public static void awaitLauncherExit() throws IOException {
+    while (System.in.read() != -1)
+      ;
+  }
+}
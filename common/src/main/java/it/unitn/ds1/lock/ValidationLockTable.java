@@ -0,0 +1,168 @@
+package it.unitn.ds1.lock;
+
+import it.unitn.ds1.txn.TransactionIds;
+
+/**
+ * Exclusive per-key locks taken during the validation phase, each one owned by
+ * the transaction that acquired it.
+ *
+ * Locks are kept in an open-addressing table (linear probing, backward-shift
+ * deletion) sized by the number of locked keys, not by the key space, so two
+ * transactions only conflict when they really validate the same key. The
+ * table is meant to be owned by a single actor and is not thread-safe.
+ */
+public class ValidationLockTable {
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private int[] keys;
+  private long[] owners; // TransactionIds.NONE marks a free slot
+  private int mask;
+  private int size;
+
+  // statistics
+  private long acquired;
+  private long contended;
+
+  public ValidationLockTable(int expectedLocks) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expectedLocks)
+      capacity <<= 1;
+    allocate(capacity);
+  }
+
+  /**
+   * Lock key on behalf of owner. Locking a key again by the same owner succeeds
+   * without counting a new acquisition.
+   * 
+   * @param key
+   * @param owner
+   * @return false if the key is locked by another transaction
+   */
+  public boolean tryLock(int key, long owner) {
+    if (owner == TransactionIds.NONE)
+      throw new IllegalArgumentException("invalid owner");
+    int slot = probe(key);
+    if (owners[slot] != TransactionIds.NONE) {
+      if (owners[slot] == owner)
+        return true;
+      contended++;
+      return false;
+    }
+    if (size >= keys.length * LOAD_FACTOR) {
+      rehash(keys.length << 1);
+      slot = probe(key);
+    }
+    keys[slot] = key;
+    owners[slot] = owner;
+    size++;
+    acquired++;
+    return true;
+  }
+
+  /**
+   * Release the lock on key if it is held by owner
+   * 
+   * @param key
+   * @param owner
+   * @return true if the lock was released
+   */
+  public boolean unlock(int key, long owner) {
+    int slot = probe(key);
+    if (owners[slot] == TransactionIds.NONE || owners[slot] != owner)
+      return false;
+    remove(slot);
+    return true;
+  }
+
+  /**
+   * @param key
+   * @return true if any transaction holds the lock on key
+   */
+  public boolean isLocked(int key) {
+    return owners[probe(key)] != TransactionIds.NONE;
+  }
+
+  /**
+   * @param key
+   * @return the transaction holding the lock on key, TransactionIds.NONE if the
+   *         key is free
+   */
+  public long ownerOf(int key) {
+    return owners[probe(key)];
+  }
+
+  /**
+   * @return number of keys currently locked
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return number of successful acquisitions since creation
+   */
+  public long acquired() {
+    return acquired;
+  }
+
+  /**
+   * @return number of acquisitions refused because another transaction held
+   *         the lock
+   */
+  public long contended() {
+    return contended;
+  }
+
+  @Override
+  public String toString() {
+    return "locked=" + size + " acquired=" + acquired + " contended=" + contended;
+  }
+
+  private int probe(int key) {
+    int slot = hash(key) & mask;
+    while (owners[slot] != TransactionIds.NONE && keys[slot] != key)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  // backward-shift deletion: move following entries of the cluster into the hole
+  private void remove(int slot) {
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while (owners[next] != TransactionIds.NONE) {
+      int home = hash(keys[next]) & mask;
+      // the entry can fill the hole if its home is not between hole and next
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        keys[hole] = keys[next];
+        owners[hole] = owners[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    owners[hole] = TransactionIds.NONE;
+    size--;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldKeys = keys;
+    long[] oldOwners = owners;
+    allocate(capacity);
+    for (int slot = 0; slot < oldKeys.length; slot++)
+      if (oldOwners[slot] != TransactionIds.NONE) {
+        int newSlot = probe(oldKeys[slot]);
+        keys[newSlot] = oldKeys[slot];
+        owners[newSlot] = oldOwners[slot];
+      }
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    owners = new long[capacity];
+    mask = capacity - 1;
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,187 @@
+package it.unitn.ds1.log;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import it.unitn.ds1.txn.TransactionIds;
+
+/**
+ * Structured events of the nodes, one line each:
+ *
+ * <pre>
+ * t=1618308712345 node=coordinator-2 event=abort txn=2.41 cause=TIMEOUT
+ * </pre>
+ *
+ * An actor only puts the event in a bounded ring buffer: a background thread
+ * formats the events and writes them to stdout in batches, so actors neither
+ * format nor wait for the console. When the buffer is full the event is
+ * dropped and counted.
+ *
+ * The buffer takes no lock: an actor claims a slot with a compare-and-set on
+ * the tail and then publishes the event in it, the writer (the only consumer)
+ * takes the published events in order and clears their slots before moving
+ * the head past them. The writer is started with the class and parks while
+ * the buffer is empty.
+ *
+ * Events below the level set with setLevel() are discarded at once.
+ */
+public final class EventLog {
+  public enum Level {
+    // no event
+    OFF,
+    // outcomes of the transactions, crashes, recoveries and timeouts
+    INFO,
+    // every operation
+    DEBUG
+  }
+
+  private static final int CAPACITY = 1 << 16;
+  private static final int MASK = CAPACITY - 1;
+  private static final int BATCH_SIZE = 1024;
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static volatile Level level = Level.INFO;
+  // slot of sequence s: s & MASK, null until the event is published
+  private static final AtomicReferenceArray<Event> buffer = new AtomicReferenceArray<>(CAPACITY);
+  // next sequence to claim (producers)
+  private static final AtomicLong tail = new AtomicLong();
+  // next sequence to take, only moved by the writer
+  private static volatile long head;
+  private static final AtomicLong dropped = new AtomicLong();
+  private static volatile long written;
+
+  static {
+    Thread writer = new Thread(() -> write(System.out), "event-log");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private static class Event {
+    final long time;
+    final String node;
+    final String event;
+    final long transactionId;
+    // key, value, key, value...
+    final Object[] fields;
+
+    Event(long time, String node, String event, long transactionId, Object[] fields) {
+      this.time = time;
+      this.node = node;
+      this.event = event;
+      this.transactionId = transactionId;
+      this.fields = fields;
+    }
+  }
+
+  private EventLog() {
+  }
+
+  public static void setLevel(Level level) {
+    EventLog.level = level;
+  }
+
+  public static Level level() {
+    return level;
+  }
+
+  public static boolean enabled(Level level) {
+    return level != Level.OFF && level.compareTo(EventLog.level) <= 0;
+  }
+
+  public static void info(String node, String event, long transactionId, Object... fields) {
+    log(Level.INFO, node, event, transactionId, fields);
+  }
+
+  public static void debug(String node, String event, long transactionId, Object... fields) {
+    log(Level.DEBUG, node, event, transactionId, fields);
+  }
+
+  /**
+   * @param level
+   * @param node          name of the actor
+   * @param event
+   * @param transactionId TransactionIds.NONE if the event is not about a
+   *                      transaction
+   * @param fields        alternating names and values, formatted by the
+   *                      writer: they must not change afterwards
+   */
+  public static void log(Level level, String node, String event, long transactionId, Object... fields) {
+    if (!enabled(level))
+      return;
+    Event entry = new Event(System.currentTimeMillis(), node, event, transactionId, fields);
+    while (true) {
+      long sequence = tail.get();
+      if (sequence - head >= CAPACITY) {
+        dropped.incrementAndGet();
+        return;
+      }
+      if (tail.compareAndSet(sequence, sequence + 1)) {
+        buffer.lazySet((int) (sequence & MASK), entry);
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return number of events lost because the buffer was full
+   */
+  public static long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * Wait until the events logged so far are written
+   *
+   * @throws InterruptedException
+   */
+  public static void flush() throws InterruptedException {
+    long target = tail.get();
+    while (written < target)
+      Thread.sleep(1);
+  }
+
+  private static void write(PrintStream out) {
+    StringBuilder text = new StringBuilder();
+    long reportedDrops = 0;
+    while (true) {
+      // events published in order from the head, a claimed slot not
+      // published yet ends the batch
+      long taken = 0;
+      while (taken < BATCH_SIZE) {
+        int slot = (int) (head & MASK);
+        Event event = buffer.get(slot);
+        if (event == null)
+          break;
+        buffer.lazySet(slot, null);
+        head = head + 1;
+        format(event, text);
+        taken++;
+      }
+      if (taken == 0) {
+        LockSupport.parkNanos(IDLE_NANOS);
+        continue;
+      }
+      long drops = dropped.get();
+      if (drops > reportedDrops) {
+        text.append("event=dropped count=").append(drops - reportedDrops).append('\n');
+        reportedDrops = drops;
+      }
+      out.print(text);
+      out.flush();
+      written += taken;
+      text.setLength(0);
+    }
+  }
+
+  private static void format(Event event, StringBuilder text) {
+    text.append("t=").append(event.time).append(" node=").append(event.node).append(" event=").append(event.event);
+    if (event.transactionId != TransactionIds.NONE)
+      text.append(" txn=").append(TransactionIds.toString(event.transactionId));
+    for (int i = 0; i + 1 < event.fields.length; i += 2)
+      text.append(' ').append(event.fields[i]).append('=').append(event.fields[i + 1]);
+    text.append('\n');
+  }
+}
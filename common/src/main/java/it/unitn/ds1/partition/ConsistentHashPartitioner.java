@@ -0,0 +1,64 @@
+package it.unitn.ds1.partition;
+
+import java.util.Arrays;
+
+/**
+ * Consistent hashing on a ring where every server owns several virtual nodes.
+ * A key belongs to the server of the first virtual node at or after the hash
+ * of the key; more virtual nodes give a more even share of the key space.
+ */
+public class ConsistentHashPartitioner implements Partitioner {
+  public static final int DEFAULT_VIRTUAL_NODES = 64;
+  // keeps virtual node positions apart from the hashes of small keys
+  private static final long RING_SALT = 0x9E3779B97F4A7C15L;
+
+  private final int numKeys;
+  private final int numServers;
+  // positions of the virtual nodes, sorted, and the server owning each of them
+  private final long[] ring;
+  private final int[] owners;
+
+  public ConsistentHashPartitioner(int numKeys, int numServers) {
+    this(numKeys, numServers, DEFAULT_VIRTUAL_NODES);
+  }
+
+  public ConsistentHashPartitioner(int numKeys, int numServers, int virtualNodes) {
+    if (numKeys < 1 || numServers < 1 || virtualNodes < 1)
+      throw new IllegalArgumentException("need at least one key, one server and one virtual node");
+    this.numKeys = numKeys;
+    this.numServers = numServers;
+    long[] points = new long[numServers * virtualNodes];
+    for (int server = 0; server < numServers; server++)
+      for (int v = 0; v < virtualNodes; v++) {
+        // keep the owner in the low bits so that sorting the points sorts the owners too
+        long position = Hashing.mix64((((long) server << 32) | v) ^ RING_SALT) & ~0xFFFFFL;
+        points[server * virtualNodes + v] = position | server;
+      }
+    Arrays.sort(points);
+    ring = new long[points.length];
+    owners = new int[points.length];
+    for (int i = 0; i < points.length; i++) {
+      ring[i] = points[i] & ~0xFFFFFL;
+      owners[i] = (int) (points[i] & 0xFFFFFL);
+    }
+  }
+
+  @Override
+  public int numKeys() {
+    return numKeys;
+  }
+
+  @Override
+  public int numServers() {
+    return numServers;
+  }
+
+  @Override
+  public int serverOf(int key) {
+    long hash = Hashing.mix64(key) & ~0xFFFFFL;
+    int i = Arrays.binarySearch(ring, hash);
+    if (i < 0)
+      i = -i - 1;
+    return owners[i == ring.length ? 0 : i];
+  }
+}
@@ -0,0 +1,15 @@
+package it.unitn.ds1.partition;
+
+final class Hashing {
+  private Hashing() {
+  }
+
+  /**
+   * Finalizer of SplitMix64, spreads consecutive keys over all 64 bits
+   */
+  static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -0,0 +1,40 @@
+package it.unitn.ds1.partition;
+
+/**
+ * Jump consistent hash (Lamping and Veach): no state besides the number of
+ * servers, and only about 1/n of the keys move when a server is added.
+ */
+public class JumpHashPartitioner implements Partitioner {
+  private final int numKeys;
+  private final int numServers;
+
+  public JumpHashPartitioner(int numKeys, int numServers) {
+    if (numKeys < 1 || numServers < 1)
+      throw new IllegalArgumentException("need at least one key and one server");
+    this.numKeys = numKeys;
+    this.numServers = numServers;
+  }
+
+  @Override
+  public int numKeys() {
+    return numKeys;
+  }
+
+  @Override
+  public int numServers() {
+    return numServers;
+  }
+
+  @Override
+  public int serverOf(int key) {
+    long state = Hashing.mix64(key);
+    long bucket = -1;
+    long next = 0;
+    while (next < numServers) {
+      bucket = next;
+      state = state * 2862933555777941757L + 1;
+      next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((state >>> 33) + 1)));
+    }
+    return (int) bucket;
+  }
+}
@@ -0,0 +1,19 @@
+package it.unitn.ds1.partition;
+
+/**
+ * Available {@link Partitioner} implementations
+ */
+public enum PartitionScheme {
+  RANGE, JUMP_HASH, CONSISTENT_HASH;
+
+  public Partitioner create(int numKeys, int numServers) {
+    switch (this) {
+    case JUMP_HASH:
+      return new JumpHashPartitioner(numKeys, numServers);
+    case CONSISTENT_HASH:
+      return new ConsistentHashPartitioner(numKeys, numServers);
+    default:
+      return new RangePartitioner(numKeys, numServers);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package it.unitn.ds1.partition;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Assignment of the keys [0, numKeys) to the servers [0, numServers).
+ *
+ * The same partitioner instance is handed to coordinators (to route requests)
+ * and to servers (to know which rows they own), so both sides always agree.
+ */
+public interface Partitioner extends Serializable {
+
+  /**
+   * @return size of the key space
+   */
+  int numKeys();
+
+  /**
+   * @return number of servers the keys are spread over
+   */
+  int numServers();
+
+  /**
+   * @param key
+   * @return id of the server owning key
+   */
+  int serverOf(int key);
+
+  /**
+   * Keys owned by a server, in increasing order
+   * 
+   * @param serverId
+   * @return
+   */
+  default int[] keysOf(int serverId) {
+    int[] keys = new int[16];
+    int size = 0;
+    for (int key = 0; key < numKeys(); key++)
+      if (serverOf(key) == serverId) {
+        if (size == keys.length)
+          keys = Arrays.copyOf(keys, size << 1);
+        keys[size++] = key;
+      }
+    return Arrays.copyOf(keys, size);
+  }
+}
@@ -0,0 +1,47 @@
+package it.unitn.ds1.partition;
+
+/**
+ * Split the key space in contiguous ranges of (almost) equal size, one per
+ * server. With 10 keys per server this is the original key / 10 routing.
+ */
+public class RangePartitioner implements Partitioner {
+  private final int numKeys;
+  private final int numServers;
+
+  public RangePartitioner(int numKeys, int numServers) {
+    if (numKeys < 1 || numServers < 1)
+      throw new IllegalArgumentException("need at least one key and one server");
+    this.numKeys = numKeys;
+    this.numServers = numServers;
+  }
+
+  @Override
+  public int numKeys() {
+    return numKeys;
+  }
+
+  @Override
+  public int numServers() {
+    return numServers;
+  }
+
+  @Override
+  public int serverOf(int key) {
+    return (int) ((long) key * numServers / numKeys);
+  }
+
+  @Override
+  public int[] keysOf(int serverId) {
+    int from = firstKeyOf(serverId);
+    int to = firstKeyOf(serverId + 1);
+    int[] keys = new int[to - from];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = from + i;
+    return keys;
+  }
+
+  // smallest key k with k * numServers / numKeys >= serverId
+  private int firstKeyOf(int serverId) {
+    return (int) (((long) serverId * numKeys + numServers - 1) / numServers);
+  }
+}
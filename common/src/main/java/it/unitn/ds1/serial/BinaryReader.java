@@ -0,0 +1,85 @@
+package it.unitn.ds1.serial;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the fields written by {@link BinaryWriter}, in the same order.
+ * Reading past the end or a malformed varint raises
+ * {@link IllegalArgumentException}.
+ */
+public class BinaryReader {
+  private final byte[] bytes;
+  private int position;
+
+  public BinaryReader(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  public int readByte() {
+    if (position >= bytes.length)
+      throw new IllegalArgumentException("truncated message, " + bytes.length + " bytes");
+    return bytes[position++];
+  }
+
+  public boolean readBoolean() {
+    return readByte() != 0;
+  }
+
+  public int readVarInt() {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IllegalArgumentException("malformed varint at " + position);
+  }
+
+  public int readSignedVarInt() {
+    int zigzag = readVarInt();
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  public long readVarLong() {
+    long value = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      int b = readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IllegalArgumentException("malformed varint at " + position);
+  }
+
+  public int[] readIntArray() {
+    int[] values = new int[readLength()];
+    for (int i = 0; i < values.length; i++)
+      values[i] = readSignedVarInt();
+    return values;
+  }
+
+  public String readString() {
+    int length = readLength();
+    if (position + length > bytes.length)
+      throw new IllegalArgumentException("truncated message, " + bytes.length + " bytes");
+    String s = new String(bytes, position, length, StandardCharsets.UTF_8);
+    position += length;
+    return s;
+  }
+
+  /**
+   * @return true once every byte was read
+   */
+  public boolean atEnd() {
+    return position == bytes.length;
+  }
+
+  // a length larger than what is left cannot be right, do not allocate for it
+  private int readLength() {
+    int length = readVarInt();
+    if (length < 0 || length > bytes.length - position)
+      throw new IllegalArgumentException("invalid length " + length + " at " + position);
+    return length;
+  }
+}
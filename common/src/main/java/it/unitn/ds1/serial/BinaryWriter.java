@@ -0,0 +1,94 @@
+package it.unitn.ds1.serial;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer encoding the fields of a message: non-negative ints
+ * (keys, ids, sizes) and longs as varints, values which may be negative as
+ * zigzag varints, so that most fields take one or two bytes. Read back with
+ * {@link BinaryReader}, field by field in the same order.
+ */
+public class BinaryWriter {
+  private byte[] buffer;
+  private int size;
+
+  public BinaryWriter(int expectedSize) {
+    buffer = new byte[Math.max(16, expectedSize)];
+  }
+
+  public BinaryWriter writeByte(int b) {
+    ensure(1);
+    buffer[size++] = (byte) b;
+    return this;
+  }
+
+  public BinaryWriter writeBoolean(boolean b) {
+    return writeByte(b ? 1 : 0);
+  }
+
+  /**
+   * @param value non-negative, a negative value takes 5 bytes
+   */
+  public BinaryWriter writeVarInt(int value) {
+    ensure(5);
+    while ((value & ~0x7F) != 0) {
+      buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[size++] = (byte) value;
+    return this;
+  }
+
+  public BinaryWriter writeSignedVarInt(int value) {
+    return writeVarInt((value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * @param value non-negative, a negative value takes 10 bytes
+   */
+  public BinaryWriter writeVarLong(long value) {
+    ensure(10);
+    while ((value & ~0x7FL) != 0) {
+      buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    buffer[size++] = (byte) value;
+    return this;
+  }
+
+  /**
+   * Length, then the values as zigzag varints
+   */
+  public BinaryWriter writeIntArray(int[] values) {
+    writeVarInt(values.length);
+    for (int value : values)
+      writeSignedVarInt(value);
+    return this;
+  }
+
+  /**
+   * Length in bytes, then the UTF-8 bytes
+   */
+  public BinaryWriter writeString(String s) {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(bytes.length);
+    ensure(bytes.length);
+    System.arraycopy(bytes, 0, buffer, size, bytes.length);
+    size += bytes.length;
+    return this;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, size);
+  }
+
+  private void ensure(int bytes) {
+    if (size + bytes > buffer.length)
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + bytes));
+  }
+}
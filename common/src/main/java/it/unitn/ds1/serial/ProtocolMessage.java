@@ -0,0 +1,12 @@
+package it.unitn.ds1.serial;
+
+import java.io.Serializable;
+
+/**
+ * Message of the transaction protocol exchanged between clients, coordinators
+ * and servers. application.conf binds this interface to the binary serializer
+ * of the system, so that these messages never go through Java serialization
+ * when the actors run on different JVMs.
+ */
+public interface ProtocolMessage extends Serializable {
+}
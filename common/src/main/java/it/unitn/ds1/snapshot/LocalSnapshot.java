@@ -0,0 +1,79 @@
+package it.unitn.ds1.snapshot;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import it.unitn.ds1.util.LongMap;
+
+/**
+ * Part of a consistent snapshot (Chandy-Lamport) taken by one server: the sum
+ * of its values when it got the first marker, plus the commit decisions which
+ * were in flight on its incoming channels at that moment.
+ *
+ * The server records the state with the change of the sum each of its prepared
+ * transactions would make, then sends its markers. A decision received on a
+ * channel whose marker has not arrived yet was sent before the snapshot of its
+ * sender, so it belongs to the snapshot: committing a recorded transaction adds
+ * its change, once, even if the server already applied the transaction through
+ * another channel. The snapshot is complete once a marker arrived on every
+ * channel.
+ *
+ * @param <C> identifies a channel, by its sender
+ */
+public class LocalSnapshot<C> {
+  private final int id;
+  private final int sum;
+  private final LongMap<Integer> prepared;
+  // senders whose marker has not arrived yet
+  private final Set<C> recording;
+  private int inFlight;
+
+  /**
+   * @param id       of the snapshot, given by the markers
+   * @param sum      of the values of the server
+   * @param prepared change of the sum by each prepared transaction if committed
+   * @param channels senders of the incoming channels which may carry decisions
+   */
+  public LocalSnapshot(int id, int sum, LongMap<Integer> prepared, Collection<C> channels) {
+    this.id = id;
+    this.sum = sum;
+    this.prepared = prepared;
+    this.recording = new HashSet<>(channels);
+  }
+
+  public int id() {
+    return id;
+  }
+
+  /**
+   * Record a decision received from sender, before it is applied
+   *
+   * @param sender
+   * @param transactionId
+   * @param commit
+   */
+  public void onDecision(C sender, long transactionId, boolean commit) {
+    if (!recording.contains(sender))
+      return;
+    Integer change = prepared.remove(transactionId);
+    if (change != null && commit)
+      inFlight += change;
+  }
+
+  /**
+   * @param sender
+   * @return true once a marker arrived on every channel
+   */
+  public boolean onMarker(C sender) {
+    recording.remove(sender);
+    return recording.isEmpty();
+  }
+
+  /**
+   * @return sum of the values of the server in the snapshot
+   */
+  public int sum() {
+    return sum + inFlight;
+  }
+}
@@ -0,0 +1,40 @@
+package it.unitn.ds1.store;
+
+import java.util.Arrays;
+
+/**
+ * Keys and new values written by a transaction on one server, kept in two
+ * parallel int arrays so that they can be applied without boxing.
+ */
+public class ChangeSet {
+  private int[] keys;
+  private int[] values;
+  private int size;
+
+  public ChangeSet(int expectedSize) {
+    keys = new int[Math.max(1, expectedSize)];
+    values = new int[keys.length];
+  }
+
+  public void add(int key, int value) {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size << 1);
+      values = Arrays.copyOf(values, size << 1);
+    }
+    keys[size] = key;
+    values[size] = value;
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int keyAt(int i) {
+    return keys[i];
+  }
+
+  public int valueAt(int i) {
+    return values[i];
+  }
+}
@@ -0,0 +1,59 @@
+package it.unitn.ds1.store;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reference {@link RowStore} backed by a HashMap with one object per row
+ */
+public class HashRowStore implements RowStore {
+  private final Map<Integer, int[]> rows;
+
+  public HashRowStore(int expectedSize) {
+    this.rows = new HashMap<>(Math.max(16, expectedSize * 2));
+  }
+
+  @Override
+  public int size() {
+    return rows.size();
+  }
+
+  @Override
+  public boolean contains(int key) {
+    return rows.containsKey(key);
+  }
+
+  @Override
+  public int getVersion(int key) {
+    return row(key)[0];
+  }
+
+  @Override
+  public int getValue(int key) {
+    return row(key)[1];
+  }
+
+  @Override
+  public void put(int key, int version, int value) {
+    int[] row = rows.get(key);
+    if (row == null)
+      rows.put(key, new int[] { version, value });
+    else {
+      row[0] = version;
+      row[1] = value;
+    }
+  }
+
+  @Override
+  public void forEach(RowConsumer consumer) {
+    for (Map.Entry<Integer, int[]> row : rows.entrySet())
+      consumer.accept(row.getKey(), row.getValue()[0], row.getValue()[1]);
+  }
+
+  private int[] row(int key) {
+    int[] row = rows.get(key);
+    if (row == null)
+      throw new IllegalArgumentException("unknown key " + key);
+    return row;
+  }
+}
@@ -0,0 +1,134 @@
+package it.unitn.ds1.store;
+
+import java.util.Arrays;
+
+/**
+ * {@link RowStore} keeping keys, versions and values in flat int arrays.
+ *
+ * The key array is an open-addressing table with linear probing: the slot
+ * where a key is found is also the index of its version and value. Lookups
+ * and updates of existing rows never allocate; the arrays are only rebuilt
+ * when inserting a new row would exceed the load factor.
+ */
+public class PrimitiveRowStore implements RowStore {
+  // key reserved to mark empty slots
+  private static final int FREE = Integer.MIN_VALUE;
+  private static final float LOAD_FACTOR = 0.5f;
+
+  private int[] keys;
+  private int[] versions;
+  private int[] values;
+  private int mask;
+  private int size;
+  private int resizeAt;
+
+  public PrimitiveRowStore(int expectedSize) {
+    allocate(tableSizeFor(expectedSize));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(int key) {
+    return slotOf(key) >= 0;
+  }
+
+  @Override
+  public int getVersion(int key) {
+    return versions[existingSlot(key)];
+  }
+
+  @Override
+  public int getValue(int key) {
+    return values[existingSlot(key)];
+  }
+
+  @Override
+  public void put(int key, int version, int value) {
+    if (key == FREE)
+      throw new IllegalArgumentException("key " + key + " is reserved");
+    int slot = probe(key);
+    if (keys[slot] == FREE) {
+      if (size >= resizeAt) {
+        rehash(keys.length << 1);
+        slot = probe(key);
+      }
+      keys[slot] = key;
+      size++;
+    }
+    versions[slot] = version;
+    values[slot] = value;
+  }
+
+  @Override
+  public void forEach(RowConsumer consumer) {
+    for (int slot = 0; slot < keys.length; slot++)
+      if (keys[slot] != FREE)
+        consumer.accept(keys[slot], versions[slot], values[slot]);
+  }
+
+  /**
+   * @param key
+   * @return slot of key, or -1 if the key is not stored
+   */
+  private int slotOf(int key) {
+    int slot = probe(key);
+    return keys[slot] == FREE ? -1 : slot;
+  }
+
+  private int existingSlot(int key) {
+    int slot = slotOf(key);
+    if (slot < 0)
+      throw new IllegalArgumentException("unknown key " + key);
+    return slot;
+  }
+
+  /**
+   * @param key
+   * @return slot holding key, or the free slot where it would be inserted
+   */
+  private int probe(int key) {
+    int slot = hash(key) & mask;
+    while (keys[slot] != FREE && keys[slot] != key)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private void rehash(int capacity) {
+    int[] oldKeys = keys;
+    int[] oldVersions = versions;
+    int[] oldValues = values;
+    allocate(capacity);
+    for (int slot = 0; slot < oldKeys.length; slot++)
+      if (oldKeys[slot] != FREE) {
+        int newSlot = probe(oldKeys[slot]);
+        keys[newSlot] = oldKeys[slot];
+        versions[newSlot] = oldVersions[slot];
+        values[newSlot] = oldValues[slot];
+      }
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    Arrays.fill(keys, FREE);
+    versions = new int[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+    resizeAt = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static int tableSizeFor(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expectedSize)
+      capacity <<= 1;
+    return capacity;
+  }
+}
@@ -0,0 +1,57 @@
+package it.unitn.ds1.store;
+
+/**
+ * Storage of the rows (key, version, value) owned by a server.
+ *
+ * Keys and rows are handled as primitives so that implementations are free to
+ * avoid boxing and per-row objects. Reading a key which is not stored is an
+ * error and raises {@link IllegalArgumentException}.
+ */
+public interface RowStore {
+
+  /**
+   * Callback used to visit every row of a store
+   */
+  interface RowConsumer {
+    void accept(int key, int version, int value);
+  }
+
+  /**
+   * @return number of stored rows
+   */
+  int size();
+
+  /**
+   * @param key
+   * @return true if the row with key is stored
+   */
+  boolean contains(int key);
+
+  /**
+   * @param key
+   * @return current version of the row
+   */
+  int getVersion(int key);
+
+  /**
+   * @param key
+   * @return current value of the row
+   */
+  int getValue(int key);
+
+  /**
+   * Insert a new row or overwrite an existing one
+   * 
+   * @param key
+   * @param version
+   * @param value
+   */
+  void put(int key, int version, int value);
+
+  /**
+   * Visit all rows, in no particular order
+   * 
+   * @param consumer
+   */
+  void forEach(RowConsumer consumer);
+}
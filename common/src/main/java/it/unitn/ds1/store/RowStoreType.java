@@ -0,0 +1,23 @@
+package it.unitn.ds1.store;
+
+/**
+ * Available {@link RowStore} implementations
+ */
+public enum RowStoreType {
+  HASH, PRIMITIVE;
+
+  /**
+   * Create an empty store of this type
+   * 
+   * @param expectedSize number of rows the store is sized for
+   * @return
+   */
+  public RowStore create(int expectedSize) {
+    switch (this) {
+    case HASH:
+      return new HashRowStore(expectedSize);
+    default:
+      return new PrimitiveRowStore(expectedSize);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package it.unitn.ds1.txn;
+
+/**
+ * Why a transaction was aborted, sent to its client with the outcome
+ */
+public enum AbortCause {
+  // the client asked to abort
+  CLIENT,
+  // an item read was changed by a transaction committed since
+  STALE_READ,
+  // an item was locked by another transaction being validated
+  LOCK_CONFLICT,
+  // a participant did not vote in time
+  TIMEOUT,
+  // the coordinator crashed before deciding
+  COORDINATOR_CRASH
+}
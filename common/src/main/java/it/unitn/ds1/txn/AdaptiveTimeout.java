@@ -0,0 +1,91 @@
+package it.unitn.ds1.txn;
+
+/**
+ * Timeout following the latency observed on one channel, as the TCP
+ * retransmission timeout (RFC 6298): the smoothed latency plus deviations
+ * times its mean deviation, within [min, max]. Each expiry without a new
+ * sample doubles it, so that a busy or crashed peer is not timed out again and
+ * again; the next sample brings it back to the estimate. The initial value is
+ * used until the first sample.
+ */
+public class AdaptiveTimeout {
+  // gains of the smoothed latency and of its deviation
+  private static final double ALPHA = 1.0 / 8;
+  private static final double BETA = 1.0 / 4;
+  private final int initial;
+  private final int min;
+  private final int max;
+  private final int deviations;
+  // ms
+  private double smoothed;
+  private double deviation;
+  private long samples;
+  private long expirations;
+  // doublings since the last sample
+  private int backoff;
+
+  public AdaptiveTimeout(int initial, int min, int max, int deviations) {
+    this.initial = initial;
+    this.min = min;
+    this.max = max;
+    this.deviations = deviations;
+  }
+
+  /**
+   * Record the latency of an answer which was not sent again
+   *
+   * @param nanos
+   */
+  public void sample(long nanos) {
+    double latency = nanos / 1e6;
+    if (samples == 0) {
+      smoothed = latency;
+      deviation = latency / 2;
+    } else {
+      deviation += BETA * (Math.abs(smoothed - latency) - deviation);
+      smoothed += ALPHA * (latency - smoothed);
+    }
+    samples++;
+    backoff = 0;
+  }
+
+  /**
+   * The timeout expired before the answer
+   */
+  public void expired() {
+    expirations++;
+    if (backoff < 30)
+      backoff++;
+  }
+
+  /**
+   * @return current timeout, ms
+   */
+  public int timeout() {
+    long estimate = samples == 0 ? initial : Math.round(smoothed + deviations * deviation);
+    estimate = Math.max(min, Math.min(max, estimate));
+    return (int) Math.min(max, estimate << backoff);
+  }
+
+  /**
+   * @return smoothed latency, ms
+   */
+  public double smoothed() {
+    return smoothed;
+  }
+
+  /**
+   * @return mean deviation of the latency, ms
+   */
+  public double deviation() {
+    return deviation;
+  }
+
+  public long samples() {
+    return samples;
+  }
+
+  public long expirations() {
+    return expirations;
+  }
+}
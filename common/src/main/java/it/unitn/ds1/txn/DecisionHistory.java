@@ -0,0 +1,253 @@
+package it.unitn.ds1.txn;
+
+import java.util.Arrays;
+
+import it.unitn.ds1.util.LongMap;
+
+/**
+ * Bounded record of the commit/abort decisions known by a node, used to answer
+ * late decision requests.
+ *
+ * Decisions are stored in one ring per coordinator, indexed by the sequence
+ * number of the transaction id, with two bits per transaction. A ring keeps a
+ * window of the most recent sequence numbers and forgets the oldest ones as
+ * newer decisions are recorded. A decision recorded with {@code awaitAcks} is
+ * pinned until {@link #acknowledged(long)} is called, i.e. until every
+ * participant confirmed it knows the outcome: the ring never slides past the
+ * lowest pinned decision (the watermark) and grows instead, so a decision that
+ * somebody may still ask for is never lost. Memory therefore stays flat as
+ * long as participants keep acknowledging.
+ */
+public class DecisionHistory {
+  public static final int DEFAULT_WINDOW = 1 << 16;
+
+  private final int window;
+  // ring of each coordinator, indexed by coordinator id
+  private Ring[] rings = new Ring[0];
+  // pinned decisions older than the window of their ring
+  private final LongMap<Boolean> late = new LongMap<>();
+  private long evicted;
+
+  public DecisionHistory() {
+    this(DEFAULT_WINDOW);
+  }
+
+  /**
+   * @param window number of decisions kept per coordinator, rounded up to a
+   *               power of two
+   */
+  public DecisionHistory(int window) {
+    int capacity = 64;
+    while (capacity < window)
+      capacity <<= 1;
+    this.window = capacity;
+  }
+
+  /**
+   * Record the decision of a transaction, unless one is already known
+   * 
+   * @param transactionId
+   * @param commit
+   * @param awaitAcks     keep the decision until {@link #acknowledged(long)}
+   * @return false if the transaction was already decided
+   */
+  public boolean record(long transactionId, boolean commit, boolean awaitAcks) {
+    if (lookup(transactionId) != null)
+      return false;
+    Ring ring = ring(TransactionIds.coordinatorOf(transactionId));
+    long sequence = TransactionIds.sequenceOf(transactionId);
+    if (!ring.set(sequence, commit, awaitAcks)) {
+      // older than the window: only worth keeping if somebody may still ask
+      if (awaitAcks)
+        late.put(transactionId, commit);
+      else
+        evicted++;
+    }
+    return true;
+  }
+
+  /**
+   * @param transactionId
+   * @return the decision, or null if it is unknown or was forgotten
+   */
+  public Boolean lookup(long transactionId) {
+    int coordinatorId = TransactionIds.coordinatorOf(transactionId);
+    if (coordinatorId < rings.length && rings[coordinatorId] != null) {
+      Boolean decision = rings[coordinatorId].get(TransactionIds.sequenceOf(transactionId));
+      if (decision != null)
+        return decision;
+    }
+    return late.get(transactionId);
+  }
+
+  /**
+   * All participants know the decision: it can be forgotten when it falls out
+   * of the window
+   * 
+   * @param transactionId
+   */
+  public void acknowledged(long transactionId) {
+    if (late.remove(transactionId) != null) {
+      evicted++;
+      return;
+    }
+    int coordinatorId = TransactionIds.coordinatorOf(transactionId);
+    if (coordinatorId < rings.length && rings[coordinatorId] != null)
+      rings[coordinatorId].unpin(TransactionIds.sequenceOf(transactionId));
+  }
+
+  /**
+   * @return number of decisions still waiting for acknowledgements
+   */
+  public int pinned() {
+    int pinned = late.size();
+    for (Ring ring : rings)
+      if (ring != null)
+        pinned += ring.pinned;
+    return pinned;
+  }
+
+  /**
+   * @return number of decisions forgotten so far
+   */
+  public long evicted() {
+    long total = evicted;
+    for (Ring ring : rings)
+      if (ring != null)
+        total += ring.evicted;
+    return total;
+  }
+
+  @Override
+  public String toString() {
+    return "pinned=" + pinned() + " evicted=" + evicted();
+  }
+
+  private Ring ring(int coordinatorId) {
+    if (coordinatorId >= rings.length)
+      rings = Arrays.copyOf(rings, coordinatorId + 1);
+    if (rings[coordinatorId] == null)
+      rings[coordinatorId] = new Ring(window);
+    return rings[coordinatorId];
+  }
+
+  /**
+   * Decisions of the sequence numbers [base, base + capacity) of one
+   * coordinator: 2 bits per sequence (0 unknown, 1 abort, 2 commit) plus one
+   * bit telling whether the decision is pinned.
+   */
+  private static class Ring {
+    private static final int UNKNOWN = 0, ABORT = 1, COMMIT = 2;
+
+    private long base = 1;
+    private int capacity;
+    private long[] decisions;
+    private long[] pins;
+    private int pinned;
+    // no pinned sequence below this one (hint for the watermark search)
+    private long watermark = 1;
+    private long evicted;
+
+    Ring(int capacity) {
+      this.capacity = capacity;
+      this.decisions = new long[capacity / 32];
+      this.pins = new long[capacity / 64];
+    }
+
+    Boolean get(long sequence) {
+      if (sequence < base || sequence >= base + capacity)
+        return null;
+      int code = code(sequence);
+      return code == UNKNOWN ? null : code == COMMIT;
+    }
+
+    /**
+     * @return false if the sequence is below the window
+     */
+    boolean set(long sequence, boolean commit, boolean pin) {
+      if (sequence < base)
+        return false;
+      if (sequence >= base + capacity)
+        slide(sequence);
+      int slot = (int) (sequence & (capacity - 1));
+      decisions[slot >>> 5] |= (long) (commit ? COMMIT : ABORT) << ((slot & 31) << 1);
+      if (pin) {
+        pins[slot >>> 6] |= 1L << slot;
+        pinned++;
+        watermark = Math.min(watermark, sequence);
+      }
+      return true;
+    }
+
+    void unpin(long sequence) {
+      if (sequence < base || sequence >= base + capacity)
+        return;
+      int slot = (int) (sequence & (capacity - 1));
+      if ((pins[slot >>> 6] & (1L << slot)) != 0) {
+        pins[slot >>> 6] &= ~(1L << slot);
+        pinned--;
+      }
+    }
+
+    // make room for sequence, forgetting the oldest decisions up to the watermark
+    private void slide(long sequence) {
+      long newBase = Math.min(sequence - capacity + 1, lowestPinned());
+      if (newBase - base >= capacity) {
+        evicted += count(base, base + capacity);
+        Arrays.fill(decisions, 0);
+      } else
+        for (long s = base; s < newBase; s++) {
+          int slot = (int) (s & (capacity - 1));
+          if (((decisions[slot >>> 5] >>> ((slot & 31) << 1)) & 3) != UNKNOWN)
+            evicted++;
+          decisions[slot >>> 5] &= ~(3L << ((slot & 31) << 1));
+        }
+      base = newBase;
+      watermark = Math.max(watermark, base);
+      // pinned decisions are in the way: grow instead of forgetting them
+      while (sequence >= base + capacity)
+        grow();
+    }
+
+    private long lowestPinned() {
+      if (pinned == 0)
+        return Long.MAX_VALUE;
+      while (watermark < base + capacity) {
+        int slot = (int) (watermark & (capacity - 1));
+        if ((pins[slot >>> 6] & (1L << slot)) != 0)
+          return watermark;
+        watermark++;
+      }
+      return Long.MAX_VALUE;
+    }
+
+    private void grow() {
+      long[] oldDecisions = decisions;
+      long[] oldPins = pins;
+      int oldCapacity = capacity;
+      capacity <<= 1;
+      decisions = new long[capacity / 32];
+      pins = new long[capacity / 64];
+      for (long s = base; s < base + oldCapacity; s++) {
+        int oldSlot = (int) (s & (oldCapacity - 1));
+        int slot = (int) (s & (capacity - 1));
+        decisions[slot >>> 5] |= ((oldDecisions[oldSlot >>> 5] >>> ((oldSlot & 31) << 1)) & 3) << ((slot & 31) << 1);
+        if ((oldPins[oldSlot >>> 6] & (1L << oldSlot)) != 0)
+          pins[slot >>> 6] |= 1L << slot;
+      }
+    }
+
+    private int code(long sequence) {
+      int slot = (int) (sequence & (capacity - 1));
+      return (int) ((decisions[slot >>> 5] >>> ((slot & 31) << 1)) & 3);
+    }
+
+    private long count(long from, long to) {
+      long known = 0;
+      for (long s = from; s < to; s++)
+        if (code(s) != UNKNOWN)
+          known++;
+      return known;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package it.unitn.ds1.txn;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import it.unitn.ds1.wal.DurableFiles;
+
+/**
+ * Sequence numbers of the transaction ids of a coordinator which survive a
+ * restart: a new incarnation of the coordinator never hands out an id that an
+ * earlier one may have used, so the prepared transactions a server replays
+ * from its log cannot collide with new ones.
+ *
+ * The file only holds the highest sequence number reserved so far. Numbers are
+ * reserved in blocks of {@value #BLOCK}, so the file is written once per block
+ * and a restart skips at most one block. Every number below
+ * {@link #first()} belongs to an earlier incarnation, whose decisions this one
+ * does not know.
+ */
+public class SequenceLease {
+  public static final int BLOCK = DecisionHistory.DEFAULT_WINDOW;
+
+  // null: kept in memory only, numbering starts again on restart
+  private final Path file;
+  private final long first;
+  private long last;
+  private long reserved;
+
+  /**
+   * @param file where the reservation is kept, null to keep it in memory only
+   */
+  public SequenceLease(Path file) {
+    this.file = file;
+    this.last = file != null ? read(file) : 0;
+    this.reserved = last;
+    this.first = last + 1;
+  }
+
+  /**
+   * @return next sequence number, reserving a new block first if needed
+   */
+  public long next() {
+    if (last == reserved) {
+      reserved += BLOCK;
+      if (file != null)
+        write(file, reserved);
+    }
+    return ++last;
+  }
+
+  /**
+   * @return first sequence number handed out by this incarnation
+   */
+  public long first() {
+    return first;
+  }
+
+  /**
+   * @param sequence
+   * @return whether the number was handed out by an earlier incarnation
+   */
+  public boolean isPrevious(long sequence) {
+    return sequence < first;
+  }
+
+  private static long read(Path file) {
+    try {
+      if (!Files.exists(file))
+        return 0;
+      return ByteBuffer.wrap(Files.readAllBytes(file)).getLong();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // forced to a temporary file, then atomically renamed (see DurableFiles)
+  private static void write(Path file, long reserved) {
+    Path tmp = DurableFiles.temporary(file);
+    try {
+      if (file.getParent() != null)
+        Files.createDirectories(file.getParent());
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        ByteBuffer out = ByteBuffer.allocate(8).putLong(reserved);
+        out.flip();
+        while (out.hasRemaining())
+          channel.write(out);
+        channel.force(true);
+      }
+      DurableFiles.replace(tmp, file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package it.unitn.ds1.txn;
+
+/**
+ * Key of a timer of a node (Akka Timers): one timer of each kind per
+ * transaction, or per server for the batching windows. Starting a timer with
+ * the key of a running one replaces it, and a cancelled timer delivers
+ * nothing, so a deadline no longer needed leaves no message behind.
+ */
+public final class TimerKey {
+  public enum Kind {
+    // the participants of the transaction must have voted
+    VOTE,
+    // the participant asks the decision of the transaction again
+    DECISION,
+    // the decision of the transaction is sent again to who did not acknowledge
+    // it
+    ACK,
+    // the batch of messages waiting for a server is sent
+    FLUSH,
+    // the log is synced for the replies waiting for it (group commit)
+    SYNC
+  }
+
+  public static final TimerKey SYNC = new TimerKey(Kind.SYNC, 0);
+
+  public final Kind kind;
+  // transaction id, or server id for FLUSH
+  public final long id;
+
+  private TimerKey(Kind kind, long id) {
+    this.kind = kind;
+    this.id = id;
+  }
+
+  public static TimerKey vote(long transactionId) {
+    return new TimerKey(Kind.VOTE, transactionId);
+  }
+
+  public static TimerKey decision(long transactionId) {
+    return new TimerKey(Kind.DECISION, transactionId);
+  }
+
+  public static TimerKey ack(long transactionId) {
+    return new TimerKey(Kind.ACK, transactionId);
+  }
+
+  public static TimerKey flush(int serverId) {
+    return new TimerKey(Kind.FLUSH, serverId);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TimerKey))
+      return false;
+    TimerKey other = (TimerKey) o;
+    return kind == other.kind && id == other.id;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * kind.hashCode() + Long.hashCode(id);
+  }
+
+  @Override
+  public String toString() {
+    if (kind == Kind.SYNC)
+      return kind.toString();
+    return kind + " " + (kind == Kind.FLUSH ? "server " + id : TransactionIds.toString(id));
+  }
+}
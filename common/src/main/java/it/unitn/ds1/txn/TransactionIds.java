@@ -0,0 +1,44 @@
+package it.unitn.ds1.txn;
+
+/**
+ * Transaction identifiers packed in a long: the id of the coordinator which
+ * created the transaction in the high bits, and the coordinator-local sequence
+ * number in the low {@value #SEQUENCE_BITS} bits.
+ *
+ * Sequence numbers start at 1, so {@link #NONE} is never a valid id.
+ */
+public final class TransactionIds {
+  public static final long NONE = 0;
+  public static final int SEQUENCE_BITS = 40;
+  public static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+  private TransactionIds() {
+  }
+
+  /**
+   * @param coordinatorId
+   * @param sequence      strictly positive sequence number
+   * @return
+   */
+  public static long of(int coordinatorId, long sequence) {
+    if (sequence <= 0 || sequence > SEQUENCE_MASK)
+      throw new IllegalArgumentException("sequence out of range: " + sequence);
+    return ((long) coordinatorId << SEQUENCE_BITS) | sequence;
+  }
+
+  public static int coordinatorOf(long transactionId) {
+    return (int) (transactionId >>> SEQUENCE_BITS);
+  }
+
+  public static long sequenceOf(long transactionId) {
+    return transactionId & SEQUENCE_MASK;
+  }
+
+  /**
+   * @param transactionId
+   * @return readable form coordinator.sequence
+   */
+  public static String toString(long transactionId) {
+    return coordinatorOf(transactionId) + "." + sequenceOf(transactionId);
+  }
+}
@@ -0,0 +1,192 @@
+package it.unitn.ds1.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to objects, with open addressing (linear
+ * probing, backward-shift deletion). Null values are allowed.
+ *
+ * The key 0 is reserved to mark free slots; it is never a valid transaction
+ * id (see {@code TransactionIds.NONE}). Not thread-safe.
+ *
+ * @param <V> type of the values
+ */
+public class LongMap<V> {
+  private static final float LOAD_FACTOR = 0.5f;
+
+  /**
+   * Callback used to visit every entry of the map
+   */
+  public interface EntryConsumer<V> {
+    void accept(long key, V value);
+  }
+
+  private long[] keys;
+  private Object[] values;
+  private int mask;
+  private int size;
+
+  public LongMap() {
+    this(16);
+  }
+
+  public LongMap(int expectedSize) {
+    int capacity = 16;
+    while (capacity * LOAD_FACTOR < expectedSize)
+      capacity <<= 1;
+    allocate(capacity);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean containsKey(long key) {
+    return key != 0 && keys[probe(key)] != 0;
+  }
+
+  /**
+   * @param key
+   * @return the value mapped to key, null if there is none
+   */
+  @SuppressWarnings("unchecked")
+  public V get(long key) {
+    return key == 0 ? null : (V) values[probe(key)];
+  }
+
+  /**
+   * @param key
+   * @param value
+   * @return the previous value mapped to key, null if there was none
+   */
+  @SuppressWarnings("unchecked")
+  public V put(long key, V value) {
+    if (key == 0)
+      throw new IllegalArgumentException("key 0 is reserved");
+    int slot = probe(key);
+    if (keys[slot] != 0) {
+      V previous = (V) values[slot];
+      values[slot] = value;
+      return previous;
+    }
+    if (size >= keys.length * LOAD_FACTOR) {
+      rehash(keys.length << 1);
+      slot = probe(key);
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    size++;
+    return null;
+  }
+
+  /**
+   * Map key to value unless it is already mapped to a non-null value, like
+   * {@link java.util.Map#putIfAbsent}
+   * 
+   * @param key
+   * @param value
+   * @return the current value, null if value was put
+   */
+  public V putIfAbsent(long key, V value) {
+    V current = get(key);
+    if (current == null)
+      put(key, value);
+    return current;
+  }
+
+  /**
+   * @param key
+   * @return the value that was mapped to key, null if there was none
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(long key) {
+    if (key == 0)
+      return null;
+    int slot = probe(key);
+    if (keys[slot] == 0)
+      return null;
+    V previous = (V) values[slot];
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while (keys[next] != 0) {
+      int home = hash(keys[next]) & mask;
+      // the entry can fill the hole if its home is not between hole and next
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        keys[hole] = keys[next];
+        values[hole] = values[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[hole] = 0;
+    values[hole] = null;
+    size--;
+    return previous;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, 0);
+    Arrays.fill(values, null);
+    size = 0;
+  }
+
+  /**
+   * Copy of the current keys, safe to iterate while the map is modified
+   * 
+   * @return
+   */
+  public long[] keys() {
+    long[] result = new long[size];
+    int i = 0;
+    for (long key : keys)
+      if (key != 0)
+        result[i++] = key;
+    return result;
+  }
+
+  /**
+   * Visit all entries, the map must not be modified meanwhile
+   * 
+   * @param consumer
+   */
+  @SuppressWarnings("unchecked")
+  public void forEach(EntryConsumer<V> consumer) {
+    for (int slot = 0; slot < keys.length; slot++)
+      if (keys[slot] != 0)
+        consumer.accept(keys[slot], (V) values[slot]);
+  }
+
+  private int probe(long key) {
+    int slot = hash(key) & mask;
+    while (keys[slot] != 0 && keys[slot] != key)
+      slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(capacity);
+    for (int slot = 0; slot < oldKeys.length; slot++)
+      if (oldKeys[slot] != 0) {
+        int newSlot = probe(oldKeys[slot]);
+        keys[newSlot] = oldKeys[slot];
+        values[newSlot] = oldValues[slot];
+      }
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+  }
+
+  private static int hash(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+}
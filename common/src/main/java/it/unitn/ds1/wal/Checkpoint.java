@@ -0,0 +1,136 @@
+package it.unitn.ds1.wal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import it.unitn.ds1.store.ChangeSet;
+import it.unitn.ds1.store.RowStore;
+import it.unitn.ds1.store.RowStoreType;
+import it.unitn.ds1.util.LongMap;
+
+/**
+ * Memory-mapped image of the rows of a server and of its prepared (not yet
+ * decided) transactions, which lets a server restart from the image plus the
+ * tail of its write-ahead log instead of the whole history.
+ *
+ * Layout: [int magic][long log generation][long StorageLayout][int rows]
+ * [int prepared], the rows as fixed-width (int key, int version, int value)
+ * entries, then for each prepared transaction [long id][int n] and n (int key,
+ * int value) pairs.
+ *
+ * A checkpoint is written to a temporary file, forced and then atomically
+ * renamed (see DurableFiles), so a crash leaves either the previous checkpoint
+ * or the new one. A checkpoint of another layout is ignored. It is tagged with
+ * the generation of the log which follows it: the caller resets its log to
+ * that generation once the checkpoint is in place.
+ */
+public class Checkpoint {
+  private static final int MAGIC = 0x434b5054; // "CKPT"
+  private static final int HEADER = 4 + 8 + 8 + 4 + 4;
+  private static final int ROW = 4 + 4 + 4;
+
+  private final long generation;
+  private final RowStore data;
+  private final LongMap<ChangeSet> prepared;
+
+  private Checkpoint(long generation, RowStore data, LongMap<ChangeSet> prepared) {
+    this.generation = generation;
+    this.data = data;
+    this.prepared = prepared;
+  }
+
+  /**
+   * @return generation of the log written after this checkpoint
+   */
+  public long generation() {
+    return generation;
+  }
+
+  public RowStore data() {
+    return data;
+  }
+
+  public LongMap<ChangeSet> prepared() {
+    return prepared;
+  }
+
+  /**
+   * Write the image of a server
+   *
+   * @param file
+   * @param generation generation of the log which will follow the checkpoint
+   * @param layout     see StorageLayout
+   * @param data
+   * @param prepared   changes of the transactions voted but not decided
+   */
+  public static void write(Path file, long generation, long layout, RowStore data, LongMap<ChangeSet> prepared) {
+    long[] size = { HEADER + (long) data.size() * ROW };
+    prepared.forEach((transactionId, changes) -> size[0] += 8 + 4 + changes.size() * 8);
+    if (size[0] > Integer.MAX_VALUE)
+      throw new IllegalStateException("checkpoint too large: " + size[0] + " bytes");
+    Path tmp = DurableFiles.temporary(file);
+    try {
+      if (file.getParent() != null)
+        Files.createDirectories(file.getParent());
+      try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size[0]);
+        out.putInt(MAGIC).putLong(generation).putLong(layout).putInt(data.size()).putInt(prepared.size());
+        data.forEach((key, version, value) -> out.putInt(key).putInt(version).putInt(value));
+        prepared.forEach((transactionId, changes) -> {
+          out.putLong(transactionId).putInt(changes.size());
+          for (int i = 0; i < changes.size(); i++)
+            out.putInt(changes.keyAt(i)).putInt(changes.valueAt(i));
+        });
+        out.force();
+      }
+      DurableFiles.replace(tmp, file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Map the latest checkpoint of a server
+   *
+   * @param file
+   * @param storeType store to load the rows in
+   * @param layout    see StorageLayout
+   * @return null if the server has no checkpoint yet, or only one written with
+   *         another layout
+   */
+  public static Checkpoint read(Path file, RowStoreType storeType, long layout) {
+    if (!Files.exists(file))
+      return null;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (in.remaining() < HEADER || in.getInt() != MAGIC)
+        throw new IOException("not a checkpoint: " + file);
+      long generation = in.getLong();
+      if (in.getLong() != layout)
+        return null;
+      int rows = in.getInt();
+      int transactions = in.getInt();
+      RowStore data = storeType.create(rows);
+      for (int i = 0; i < rows; i++)
+        data.put(in.getInt(), in.getInt(), in.getInt());
+      LongMap<ChangeSet> prepared = new LongMap<>();
+      for (int t = 0; t < transactions; t++) {
+        long transactionId = in.getLong();
+        int n = in.getInt();
+        ChangeSet changes = new ChangeSet(n);
+        for (int i = 0; i < n; i++)
+          changes.add(in.getInt(), in.getInt());
+        prepared.put(transactionId, changes);
+      }
+      return new Checkpoint(generation, data, prepared);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
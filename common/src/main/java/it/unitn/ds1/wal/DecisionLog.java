@@ -0,0 +1,150 @@
+package it.unitn.ds1.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import it.unitn.ds1.store.ChangeSet;
+import it.unitn.ds1.util.LongMap;
+
+/**
+ * Durable commit decisions of a coordinator, which make presumed abort safe
+ * across restarts: a commit is logged and synced before anybody learns it, so
+ * a transaction of the coordinator which is neither running nor in this log
+ * was never committed and can be answered ABORT. Aborts are not logged.
+ *
+ * A commit stays outstanding until every participant acknowledged it (END
+ * record). When the log grows past its limit, it is rewritten with the
+ * outstanding commits only, to a temporary log which then atomically replaces
+ * it, so that a crash during the rewrite leaves one of the two complete.
+ *
+ * Same group commit as the WriteAheadLog: commits logged since the last
+ * sync() are not outstanding yet and must not be revealed. Not thread-safe,
+ * meant to be owned by a single actor.
+ */
+public class DecisionLog implements Closeable {
+  private final Path file;
+  private final long compactSize;
+  private WriteAheadLog wal;
+  // commits durable and not acknowledged by every participant yet
+  private final LongMap<Boolean> outstanding = new LongMap<>();
+  // commits logged since the last sync
+  private final LongMap<Boolean> unsynced = new LongMap<>();
+
+  /**
+   * Open (or create) the log of a coordinator, keeping the commits a previous
+   * run left outstanding
+   *
+   * @param file
+   * @param compactSize size in bytes above which the log is rewritten
+   */
+  public DecisionLog(Path file, long compactSize) {
+    this.file = file;
+    this.compactSize = compactSize;
+    wal = new WriteAheadLog(file);
+    wal.replay(new WriteAheadLog.Replay() {
+      @Override
+      public void prepared(long transactionId, ChangeSet changes) {
+      }
+
+      @Override
+      public void decided(long transactionId, boolean commit) {
+        if (commit)
+          outstanding.put(transactionId, Boolean.TRUE);
+      }
+
+      @Override
+      public void ended(long transactionId) {
+        outstanding.remove(transactionId);
+      }
+    });
+    compact();
+  }
+
+  /**
+   * Log a commit, durable at the next sync()
+   *
+   * @param transactionId
+   */
+  public void logCommit(long transactionId) {
+    wal.logDecision(transactionId, true);
+    unsynced.put(transactionId, Boolean.TRUE);
+  }
+
+  /**
+   * Every participant acknowledged the decision of the transaction, its commit
+   * (if any) no longer needs to be kept
+   *
+   * @param transactionId
+   */
+  public void acknowledged(long transactionId) {
+    if (outstanding.remove(transactionId) != null)
+      wal.logEnd(transactionId);
+  }
+
+  /**
+   * @param transactionId
+   * @return whether a durable commit of the transaction is outstanding
+   */
+  public boolean committed(long transactionId) {
+    return outstanding.containsKey(transactionId);
+  }
+
+  /**
+   * @return number of commits logged and not synced yet
+   */
+  public int pending() {
+    return unsynced.size();
+  }
+
+  /**
+   * Make the logged commits durable, rewriting the log if it grew too large
+   *
+   * @return the transactions whose commit just became durable, in no
+   *         particular order
+   */
+  public long[] sync() {
+    wal.sync();
+    long[] durable = unsynced.keys();
+    for (long transactionId : durable)
+      outstanding.put(transactionId, Boolean.TRUE);
+    unsynced.clear();
+    if (wal.size() >= compactSize)
+      compact();
+    return durable;
+  }
+
+  public int outstanding() {
+    return outstanding.size();
+  }
+
+  @Override
+  public void close() {
+    wal.close();
+  }
+
+  @Override
+  public String toString() {
+    return wal + " outstanding=" + outstanding.size();
+  }
+
+  // the log is synced: rewrite it with the outstanding commits only
+  private void compact() {
+    Path tmp = DurableFiles.temporary(file);
+    try {
+      Files.deleteIfExists(tmp);
+      WriteAheadLog compacted = new WriteAheadLog(tmp);
+      compacted.reset(wal.generation() + 1);
+      for (long transactionId : outstanding.keys())
+        compacted.logDecision(transactionId, true);
+      compacted.close();
+      wal.close();
+      DurableFiles.replace(tmp, file);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    wal = new WriteAheadLog(file);
+  }
+}
@@ -0,0 +1,62 @@
+package it.unitn.ds1.wal;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Atomic replacement of a file which survives a crash: the new content is
+ * written and forced to a temporary file by the caller, renamed over the file,
+ * then the directory is forced so that the rename itself is durable.
+ */
+public final class DurableFiles {
+  private DurableFiles() {
+  }
+
+  /**
+   * @param file
+   * @return the temporary file to write the new content of file to
+   */
+  public static Path temporary(Path file) {
+    return file.resolveSibling(file.getFileName() + ".tmp");
+  }
+
+  /**
+   * Rename tmp, already forced, over file and force their directory
+   *
+   * @param tmp
+   * @param file
+   * @throws IOException
+   */
+  public static void replace(Path tmp, Path file) throws IOException {
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    forceDirectory(file.toAbsolutePath().getParent());
+  }
+
+  /**
+   * Force the entries of a directory (creations, renames) to disk. Some
+   * platforms cannot open a directory: there the rename is as durable as the
+   * platform makes it
+   *
+   * @param directory
+   * @throws IOException
+   */
+  public static void forceDirectory(Path directory) throws IOException {
+    if (directory == null)
+      return;
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(directory, StandardOpenOption.READ);
+    } catch (IOException e) {
+      return;
+    }
+    try {
+      channel.force(true);
+    } finally {
+      channel.close();
+    }
+  }
+}
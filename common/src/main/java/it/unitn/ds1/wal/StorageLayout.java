@@ -0,0 +1,33 @@
+package it.unitn.ds1.wal;
+
+import it.unitn.ds1.partition.Partitioner;
+
+/**
+ * Fingerprint of what the durable state of a server depends on: the partition
+ * scheme, the number of keys and of servers, and the id of the server. The
+ * checkpoint and the log are tagged with it, and state left by a run with
+ * another layout is discarded instead of being recovered: its rows would not
+ * be the ones the server owns now.
+ */
+public final class StorageLayout {
+  // state which does not depend on the partitioning (coordinator decisions)
+  public static final long NONE = 0;
+
+  private StorageLayout() {
+  }
+
+  /**
+   * @param partitioner
+   * @param serverId
+   * @return fingerprint, never NONE
+   */
+  public static long of(Partitioner partitioner, int serverId) {
+    long h = 0xcbf29ce484222325L;
+    for (char c : partitioner.getClass().getName().toCharArray())
+      h = (h ^ c) * 0x100000001b3L;
+    h = (h ^ partitioner.numKeys()) * 0x100000001b3L;
+    h = (h ^ partitioner.numServers()) * 0x100000001b3L;
+    h = (h ^ serverId) * 0x100000001b3L;
+    return h == NONE ? 1 : h;
+  }
+}
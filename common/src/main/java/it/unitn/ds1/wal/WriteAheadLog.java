@@ -0,0 +1,324 @@
+package it.unitn.ds1.wal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import it.unitn.ds1.store.ChangeSet;
+
+/**
+ * Append-only log of the prepared changes and the decisions of a server, or of
+ * the commit decisions of a coordinator (see DecisionLog).
+ *
+ * Records are first appended to an in-memory buffer and become durable on
+ * sync(), which writes the buffer with a single FileChannel write and forces it
+ * to disk: every record appended since the previous sync shares that flush
+ * (group commit). A caller must not reveal a record (vote YES, acknowledge a
+ * decision) before the sync that covers it.
+ *
+ * The log starts with its generation number and its StorageLayout, two longs:
+ * a checkpoint covering the log is tagged with the next generation and the log
+ * is then reset to it, so that a log older than the latest checkpoint is
+ * recognized and dropped. A log of another layout is emptied when opened.
+ * Each record is framed as [int length][body][int crc32 of body], with body
+ * [byte type][long transaction id] followed, for PREPARE, by [int n] and n
+ * (key, value) pairs. END marks a decision every participant acknowledged. A
+ * torn or corrupt tail left by a crash in the middle of a write is dropped when
+ * the log is opened.
+ *
+ * Not thread-safe, meant to be owned by a single actor. I/O failures are
+ * rethrown as UncheckedIOException so that the actor is restarted and
+ * recovers from the log.
+ */
+public class WriteAheadLog implements Closeable {
+  private static final byte PREPARE = 1;
+  private static final byte COMMIT = 2;
+  private static final byte ABORT = 3;
+  private static final byte END = 4;
+  private static final int HEADER = 1 + 8;
+  private static final int FRAME = 4 + 4;
+  private static final int START = 8 + 8;
+
+  /**
+   * Receives the records of the log in the order they were appended
+   */
+  public interface Replay {
+    void prepared(long transactionId, ChangeSet changes);
+
+    void decided(long transactionId, boolean commit);
+
+    default void ended(long transactionId) {
+    }
+  }
+
+  private final Path file;
+  private final long layout;
+  private final FileChannel channel;
+  private final CRC32 crc = new CRC32();
+  private ByteBuffer buffer = ByteBuffer.allocate(4096);
+  private int pending; // records in the buffer
+  private long generation;
+  // the content left by a run of another layout was dropped
+  private boolean discarded;
+
+  // statistics
+  private long records;
+  private long syncs;
+
+  /**
+   * Open (or create) a log which does not depend on the partitioning
+   *
+   * @param file
+   */
+  public WriteAheadLog(Path file) {
+    this(file, StorageLayout.NONE);
+  }
+
+  /**
+   * Open (or create) the log, dropping a torn tail, or the whole content if it
+   * was written with another layout
+   *
+   * @param file
+   * @param layout see StorageLayout
+   */
+  public WriteAheadLog(Path file, long layout) {
+    this.file = file;
+    this.layout = layout;
+    try {
+      if (file.getParent() != null)
+        Files.createDirectories(file.getParent());
+      channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      if (channel.size() < START) {
+        writeGeneration(0);
+      } else {
+        ByteBuffer header = ByteBuffer.allocate(START);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0)
+          ;
+        generation = header.getLong(0);
+        if (header.getLong(8) != layout) {
+          discarded = true;
+          writeGeneration(0);
+        }
+      }
+      long end = scan(null);
+      channel.truncate(end);
+      channel.position(end);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Pass every complete record of the log to replay
+   *
+   * @param replay
+   */
+  public void replay(Replay replay) {
+    try {
+      scan(replay);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public void logPrepare(long transactionId, ChangeSet changes) {
+    int body = HEADER + 4 + changes.size() * 8;
+    ensure(FRAME + body);
+    int start = buffer.position();
+    buffer.putInt(body).put(PREPARE).putLong(transactionId).putInt(changes.size());
+    for (int i = 0; i < changes.size(); i++)
+      buffer.putInt(changes.keyAt(i)).putInt(changes.valueAt(i));
+    seal(start, body);
+  }
+
+  public void logDecision(long transactionId, boolean commit) {
+    ensure(FRAME + HEADER);
+    int start = buffer.position();
+    buffer.putInt(HEADER).put(commit ? COMMIT : ABORT).putLong(transactionId);
+    seal(start, HEADER);
+  }
+
+  /**
+   * Every participant knows the decision of the transaction
+   *
+   * @param transactionId
+   */
+  public void logEnd(long transactionId) {
+    ensure(FRAME + HEADER);
+    int start = buffer.position();
+    buffer.putInt(HEADER).put(END).putLong(transactionId);
+    seal(start, HEADER);
+  }
+
+  /**
+   * @return true if some records are not durable yet
+   */
+  public boolean hasPending() {
+    return pending > 0;
+  }
+
+  /**
+   * Write the buffered records and force them to disk with one flush
+   */
+  public void sync() {
+    if (pending == 0)
+      return;
+    try {
+      buffer.flip();
+      while (buffer.hasRemaining())
+        channel.write(buffer);
+      channel.force(false);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    buffer.clear();
+    pending = 0;
+    syncs++;
+  }
+
+  /**
+   * Drop the whole content of the log, which starts again with the given
+   * generation
+   *
+   * @param generation
+   */
+  public void reset(long generation) {
+    buffer.clear();
+    pending = 0;
+    try {
+      writeGeneration(generation);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public long generation() {
+    return generation;
+  }
+
+  /**
+   * @return whether the content of the log was dropped when opened, as it was
+   *         written with another layout
+   */
+  public boolean discarded() {
+    return discarded;
+  }
+
+  /**
+   * @return size of the durable part of the log in bytes
+   */
+  public long size() {
+    try {
+      return channel.size();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public long records() {
+    return records;
+  }
+
+  public long syncs() {
+    return syncs;
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  @Override
+  public void close() {
+    try {
+      sync();
+      channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "generation=" + generation + " records=" + records + " syncs=" + syncs;
+  }
+
+  private void writeGeneration(long generation) throws IOException {
+    channel.truncate(0);
+    ByteBuffer header = ByteBuffer.allocate(START);
+    header.putLong(generation).putLong(layout).flip();
+    while (header.hasRemaining())
+      channel.write(header, header.position());
+    channel.force(true);
+    channel.position(START);
+    this.generation = generation;
+  }
+
+  private void ensure(int bytes) {
+    if (buffer.remaining() >= bytes)
+      return;
+    ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() << 1, buffer.position() + bytes));
+    buffer.flip();
+    larger.put(buffer);
+    buffer = larger;
+  }
+
+  private void seal(int start, int body) {
+    crc.reset();
+    crc.update(buffer.array(), start + 4, body);
+    buffer.putInt((int) crc.getValue());
+    pending++;
+    records++;
+  }
+
+  /**
+   * Read the log from the beginning
+   *
+   * @param replay receives the records, may be null
+   * @return position after the last complete record
+   */
+  private long scan(Replay replay) throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("log too large: " + file);
+    ByteBuffer in = ByteBuffer.allocate((int) size);
+    while (in.hasRemaining() && channel.read(in, in.position()) >= 0)
+      ;
+    in.flip();
+    in.position(START);
+    int end = START;
+    while (in.remaining() >= FRAME + HEADER) {
+      int start = in.position();
+      int body = in.getInt();
+      if (body < HEADER || body > in.remaining() - 4)
+        break;
+      crc.reset();
+      crc.update(in.array(), start + 4, body);
+      if (in.getInt(start + 4 + body) != (int) crc.getValue())
+        break;
+      byte type = in.get();
+      long transactionId = in.getLong();
+      if (type == PREPARE) {
+        int n = in.getInt();
+        ChangeSet changes = new ChangeSet(n);
+        for (int i = 0; i < n; i++)
+          changes.add(in.getInt(), in.getInt());
+        if (replay != null)
+          replay.prepared(transactionId, changes);
+      } else if (replay != null) {
+        if (type == END)
+          replay.ended(transactionId);
+        else
+          replay.decided(transactionId, type == COMMIT);
+      }
+      end = start + 4 + body + 4;
+      in.position(end);
+    }
+    return end;
+  }
+}
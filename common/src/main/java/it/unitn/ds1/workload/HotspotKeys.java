@@ -0,0 +1,40 @@
+package it.unitn.ds1.workload;
+
+import java.util.Random;
+
+/**
+ * A fraction of the accesses goes to a small set of hot keys, the lowest ones,
+ * uniformly; the rest goes uniformly to the other keys. With range
+ * partitioning the hot keys are on the first server(s), which makes a hot
+ * server as well.
+ */
+public class HotspotKeys implements KeyDistribution {
+  private final int numKeys;
+  private final int hotKeys;
+  private final double hotFraction;
+
+  /**
+   * @param numKeys
+   * @param hotSetFraction fraction of the keys which are hot
+   * @param hotFraction    fraction of the accesses going to the hot keys
+   */
+  public HotspotKeys(int numKeys, double hotSetFraction, double hotFraction) {
+    if (hotSetFraction <= 0 || hotSetFraction >= 1 || hotFraction < 0 || hotFraction > 1)
+      throw new IllegalArgumentException("hot set fraction in (0, 1) and hot fraction in [0, 1] expected");
+    this.numKeys = numKeys;
+    this.hotKeys = Math.max(1, Math.min(numKeys - 1, (int) (numKeys * hotSetFraction)));
+    this.hotFraction = hotFraction;
+  }
+
+  @Override
+  public int numKeys() {
+    return numKeys;
+  }
+
+  @Override
+  public int next(Random random) {
+    if (random.nextDouble() < hotFraction)
+      return random.nextInt(hotKeys);
+    return hotKeys + random.nextInt(numKeys - hotKeys);
+  }
+}
@@ -0,0 +1,20 @@
+package it.unitn.ds1.workload;
+
+import java.util.Random;
+
+/**
+ * Distribution of the keys [0, numKeys) accessed by the clients
+ */
+public interface KeyDistribution {
+
+  /**
+   * @return size of the key space
+   */
+  int numKeys();
+
+  /**
+   * @param random source of randomness of the client
+   * @return next key to access
+   */
+  int next(Random random);
+}
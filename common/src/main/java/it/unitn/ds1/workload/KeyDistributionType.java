@@ -0,0 +1,8 @@
+package it.unitn.ds1.workload;
+
+/**
+ * Available {@link KeyDistribution} implementations
+ */
+public enum KeyDistributionType {
+  UNIFORM, ZIPFIAN, HOTSPOT
+}
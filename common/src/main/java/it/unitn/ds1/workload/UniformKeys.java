@@ -0,0 +1,24 @@
+package it.unitn.ds1.workload;
+
+import java.util.Random;
+
+/**
+ * Every key is equally likely
+ */
+public class UniformKeys implements KeyDistribution {
+  private final int numKeys;
+
+  public UniformKeys(int numKeys) {
+    this.numKeys = numKeys;
+  }
+
+  @Override
+  public int numKeys() {
+    return numKeys;
+  }
+
+  @Override
+  public int next(Random random) {
+    return random.nextInt(numKeys);
+  }
+}
@@ -0,0 +1,232 @@
+package it.unitn.ds1.workload;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * What the clients run: a transaction is a number of operations, each reading
+ * keysPerOp distinct keys and, with writeProbability, moving some amount from
+ * the first of them to the others (so that the sum of the values does not
+ * change). A transaction is read-only with readOnlyProbability, and ends with a
+ * commit request with commitProbability, with an abort request otherwise.
+ *
+ * Instances are immutable, the with* methods return a modified copy.
+ */
+public class Workload implements Serializable {
+  private final KeyDistributionType distribution;
+  private final double zipfianTheta;
+  private final double hotSetFraction;
+  private final double hotFraction;
+  private final int minOps;
+  private final int maxOps;
+  private final int keysPerOp;
+  private final double writeProbability;
+  private final double readOnlyProbability;
+  private final double commitProbability;
+
+  /**
+   * Transfers between two uniformly chosen keys
+   *
+   * @param minOps            minimum number of operations of a transaction
+   * @param maxOps            maximum number of operations, the number is
+   *                          uniform in [minOps, maxOps]
+   * @param writeProbability  probability of an operation to write
+   * @param commitProbability probability of the client to ask for the commit
+   */
+  public Workload(int minOps, int maxOps, double writeProbability, double commitProbability) {
+    this(KeyDistributionType.UNIFORM, 0.99, 0.2, 0.8, minOps, maxOps, 2, writeProbability, 0, commitProbability);
+  }
+
+  private Workload(KeyDistributionType distribution, double zipfianTheta, double hotSetFraction, double hotFraction,
+      int minOps, int maxOps, int keysPerOp, double writeProbability, double readOnlyProbability,
+      double commitProbability) {
+    if (minOps < 1 || maxOps < minOps)
+      throw new IllegalArgumentException("1 <= minOps <= maxOps expected: " + minOps + ", " + maxOps);
+    if (keysPerOp < 2)
+      throw new IllegalArgumentException("a transfer needs at least 2 keys: " + keysPerOp);
+    this.distribution = distribution;
+    this.zipfianTheta = zipfianTheta;
+    this.hotSetFraction = hotSetFraction;
+    this.hotFraction = hotFraction;
+    this.minOps = minOps;
+    this.maxOps = maxOps;
+    this.keysPerOp = keysPerOp;
+    this.writeProbability = writeProbability;
+    this.readOnlyProbability = readOnlyProbability;
+    this.commitProbability = commitProbability;
+  }
+
+  /**
+   * YCSB workload A (update heavy): zipfian keys, half of the operations write
+   */
+  public static Workload ycsbA() {
+    return new Workload(1, 4, 0.5, 1).withZipfian(0.99);
+  }
+
+  /**
+   * YCSB workload B (read mostly): zipfian keys, 5% of the operations write
+   */
+  public static Workload ycsbB() {
+    return new Workload(1, 4, 0.05, 1).withZipfian(0.99);
+  }
+
+  /**
+   * YCSB workload C (read only): zipfian keys, no write
+   */
+  public static Workload ycsbC() {
+    return new Workload(1, 4, 0, 1).withZipfian(0.99).withReadOnly(1);
+  }
+
+  /**
+   * @param name ycsb-a, ycsb-b or ycsb-c
+   * @return the preset of that name
+   * @throws IllegalArgumentException if unknown
+   */
+  public static Workload preset(String name) {
+    switch (name) {
+    case "ycsb-a":
+      return ycsbA();
+    case "ycsb-b":
+      return ycsbB();
+    case "ycsb-c":
+      return ycsbC();
+    default:
+      throw new IllegalArgumentException("unknown workload " + name);
+    }
+  }
+
+  public Workload withUniform() {
+    return new Workload(KeyDistributionType.UNIFORM, zipfianTheta, hotSetFraction, hotFraction, minOps, maxOps,
+        keysPerOp, writeProbability, readOnlyProbability, commitProbability);
+  }
+
+  /**
+   * @param theta skew, in (0, 1)
+   */
+  public Workload withZipfian(double theta) {
+    return new Workload(KeyDistributionType.ZIPFIAN, theta, hotSetFraction, hotFraction, minOps, maxOps, keysPerOp,
+        writeProbability, readOnlyProbability, commitProbability);
+  }
+
+  /**
+   * @param hotSetFraction fraction of the keys which are hot
+   * @param hotFraction    fraction of the accesses going to them
+   */
+  public Workload withHotspot(double hotSetFraction, double hotFraction) {
+    return new Workload(KeyDistributionType.HOTSPOT, zipfianTheta, hotSetFraction, hotFraction, minOps, maxOps,
+        keysPerOp, writeProbability, readOnlyProbability, commitProbability);
+  }
+
+  public Workload withOps(int minOps, int maxOps) {
+    return new Workload(distribution, zipfianTheta, hotSetFraction, hotFraction, minOps, maxOps, keysPerOp,
+        writeProbability, readOnlyProbability, commitProbability);
+  }
+
+  public Workload withKeysPerOp(int keysPerOp) {
+    return new Workload(distribution, zipfianTheta, hotSetFraction, hotFraction, minOps, maxOps, keysPerOp,
+        writeProbability, readOnlyProbability, commitProbability);
+  }
+
+  public Workload withWrites(double writeProbability) {
+    return new Workload(distribution, zipfianTheta, hotSetFraction, hotFraction, minOps, maxOps, keysPerOp,
+        writeProbability, readOnlyProbability, commitProbability);
+  }
+
+  public Workload withReadOnly(double readOnlyProbability) {
+    return new Workload(distribution, zipfianTheta, hotSetFraction, hotFraction, minOps, maxOps, keysPerOp,
+        writeProbability, readOnlyProbability, commitProbability);
+  }
+
+  public Workload withCommits(double commitProbability) {
+    return new Workload(distribution, zipfianTheta, hotSetFraction, hotFraction, minOps, maxOps, keysPerOp,
+        writeProbability, readOnlyProbability, commitProbability);
+  }
+
+  /**
+   * Distribution of the keys to access, to create once per client
+   *
+   * @param numKeys size of the key space
+   */
+  public KeyDistribution keys(int numKeys) {
+    if (numKeys < keysPerOp)
+      throw new IllegalArgumentException(numKeys + " keys, " + keysPerOp + " per operation");
+    switch (distribution) {
+    case ZIPFIAN:
+      return new ZipfianKeys(numKeys, zipfianTheta);
+    case HOTSPOT:
+      return new HotspotKeys(numKeys, hotSetFraction, hotFraction);
+    default:
+      return new UniformKeys(numKeys);
+    }
+  }
+
+  /**
+   * @return number of operations of the next transaction
+   */
+  public int nextOps(Random random) {
+    return minOps + random.nextInt(maxOps - minOps + 1);
+  }
+
+  public boolean nextReadOnly(Random random) {
+    return random.nextDouble() < readOnlyProbability;
+  }
+
+  public boolean nextWrite(Random random) {
+    return random.nextDouble() < writeProbability;
+  }
+
+  public boolean nextCommit(Random random) {
+    return random.nextDouble() < commitProbability;
+  }
+
+  /**
+   * @return keysPerOp distinct keys for the next operation
+   */
+  public int[] nextKeys(KeyDistribution keys, Random random) {
+    int[] opKeys = new int[keysPerOp];
+    for (int i = 0; i < keysPerOp; i++) {
+      int key;
+      do {
+        key = keys.next(random);
+      } while (contains(opKeys, i, key));
+      opKeys[i] = key;
+    }
+    return opKeys;
+  }
+
+  /**
+   * Take a random amount (at least 1 if possible) from the first value and
+   * spread it over the others
+   *
+   * @param values values read, by key of the operation
+   * @return values to write, with the same sum
+   */
+  public static int[] transfer(int[] values, Random random) {
+    int[] written = values.clone();
+    int amount = values[0] >= 1 ? 1 + random.nextInt(values[0]) : 0;
+    written[0] -= amount;
+    for (int i = 1; i < written.length; i++) {
+      // the last one gets what is left
+      int share = i < written.length - 1 ? random.nextInt(amount + 1) : amount;
+      written[i] += share;
+      amount -= share;
+    }
+    return written;
+  }
+
+  @Override
+  public String toString() {
+    String keys = distribution == KeyDistributionType.ZIPFIAN ? "zipfian(" + zipfianTheta + ")"
+        : distribution == KeyDistributionType.HOTSPOT ? "hotspot(" + hotSetFraction + ", " + hotFraction + ")"
+            : "uniform";
+    return keys + " keys, " + minOps + "-" + maxOps + " ops of " + keysPerOp + " keys, writes " + writeProbability
+        + ", read-only " + readOnlyProbability + ", commits " + commitProbability;
+  }
+
+  private static boolean contains(int[] keys, int size, int key) {
+    for (int i = 0; i < size; i++)
+      if (keys[i] == key)
+        return true;
+    return false;
+  }
+}
@@ -0,0 +1,81 @@
+package it.unitn.ds1.workload;
+
+import java.util.Random;
+
+/**
+ * Zipfian popularity of the keys: the key of rank i is accessed with
+ * probability proportional to 1 / i^theta, YCSB uses theta = 0.99.
+ *
+ * Ranks are drawn with the method of Gray et al. ("Quickly generating
+ * billion-record synthetic databases"), as YCSB does, after computing
+ * zeta(numKeys, theta) once. They are mapped to keys through a fixed
+ * permutation, the same for every client, so that the popular keys are spread
+ * over the servers rather than all on the first one.
+ */
+public class ZipfianKeys implements KeyDistribution {
+  private static final long PERMUTATION_SEED = 42;
+
+  private final int numKeys;
+  private final double theta;
+  private final double zetaN;
+  private final double alpha;
+  private final double eta;
+  // key of each rank
+  private final int[] keyOfRank;
+
+  /**
+   * @param numKeys
+   * @param theta   skew, in (0, 1)
+   */
+  public ZipfianKeys(int numKeys, double theta) {
+    if (theta <= 0 || theta >= 1)
+      throw new IllegalArgumentException("zipfian theta in (0, 1) expected: " + theta);
+    this.numKeys = numKeys;
+    this.theta = theta;
+    this.zetaN = zeta(numKeys, theta);
+    this.alpha = 1 / (1 - theta);
+    this.eta = (1 - Math.pow(2.0 / numKeys, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    this.keyOfRank = new int[numKeys];
+    for (int key = 0; key < numKeys; key++)
+      keyOfRank[key] = key;
+    // Fisher-Yates
+    Random shuffle = new Random(PERMUTATION_SEED);
+    for (int i = numKeys - 1; i > 0; i--) {
+      int j = shuffle.nextInt(i + 1);
+      int key = keyOfRank[i];
+      keyOfRank[i] = keyOfRank[j];
+      keyOfRank[j] = key;
+    }
+  }
+
+  @Override
+  public int numKeys() {
+    return numKeys;
+  }
+
+  @Override
+  public int next(Random random) {
+    return keyOfRank[nextRank(random)];
+  }
+
+  /**
+   * @param random
+   * @return rank of the next key, 0 being the most popular
+   */
+  int nextRank(Random random) {
+    double u = random.nextDouble();
+    double uz = u * zetaN;
+    if (uz < 1)
+      return 0;
+    if (uz < 1 + Math.pow(0.5, theta))
+      return 1;
+    return Math.min(numKeys - 1, (int) (numKeys * Math.pow(eta * u - eta + 1, alpha)));
+  }
+
+  private static double zeta(int n, double theta) {
+    double sum = 0;
+    for (int i = 1; i <= n; i++)
+      sum += 1 / Math.pow(i, theta);
+    return sum;
+  }
+}
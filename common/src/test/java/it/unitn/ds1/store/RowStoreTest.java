@@ -0,0 +1,89 @@
+package it.unitn.ds1.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Both {@link RowStore} implementations against a HashMap
+ */
+class RowStoreTest {
+
+  @Test
+  void putOverwritesRows() {
+    for (RowStoreType type : RowStoreType.values()) {
+      RowStore store = type.create(4);
+      store.put(7, 0, 100);
+      store.put(7, 1, 42);
+      assertEquals(1, store.size());
+      assertEquals(1, store.getVersion(7));
+      assertEquals(42, store.getValue(7));
+    }
+  }
+
+  @Test
+  void unknownKeyIsAnError() {
+    for (RowStoreType type : RowStoreType.values()) {
+      RowStore store = type.create(4);
+      store.put(1, 0, 100);
+      assertFalse(store.contains(2));
+      assertThrows(IllegalArgumentException.class, () -> store.getValue(2));
+      assertThrows(IllegalArgumentException.class, () -> store.getVersion(2));
+    }
+  }
+
+  @Test
+  void reservedKeyIsRejected() {
+    RowStore store = new PrimitiveRowStore(4);
+    assertThrows(IllegalArgumentException.class, () -> store.put(Integer.MIN_VALUE, 0, 0));
+  }
+
+  @Test
+  void keepsRowsAcrossResizes() {
+    for (RowStoreType type : RowStoreType.values()) {
+      // sized for far fewer rows than inserted: the table is rebuilt several
+      // times
+      RowStore store = type.create(1);
+      Map<Integer, int[]> expected = new HashMap<>();
+      Random random = new Random(1);
+      for (int i = 0; i < 5000; i++) {
+        int key = random.nextInt(2000) - 1000;
+        int[] row = { random.nextInt(10), random.nextInt() };
+        store.put(key, row[0], row[1]);
+        expected.put(key, row);
+      }
+      assertEquals(expected.size(), store.size(), type.name());
+      for (Map.Entry<Integer, int[]> entry : expected.entrySet()) {
+        assertTrue(store.contains(entry.getKey()));
+        assertEquals(entry.getValue()[0], store.getVersion(entry.getKey()));
+        assertEquals(entry.getValue()[1], store.getValue(entry.getKey()));
+      }
+      Map<Integer, int[]> visited = new HashMap<>();
+      store.forEach((key, version, value) -> assertNull(visited.put(key, new int[] { version, value })));
+      assertEquals(expected.size(), visited.size());
+      for (Map.Entry<Integer, int[]> entry : visited.entrySet())
+        assertArrayEquals(expected.get(entry.getKey()), entry.getValue());
+    }
+  }
+
+  @Test
+  void changeSetGrows() {
+    ChangeSet changes = new ChangeSet(0);
+    for (int i = 0; i < 100; i++)
+      changes.add(i, -i);
+    assertEquals(100, changes.size());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, changes.keyAt(i));
+      assertEquals(-i, changes.valueAt(i));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package it.unitn.ds1.txn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link AdaptiveTimeout}: estimate from the samples, bounds and backoff
+ */
+class AdaptiveTimeoutTest {
+  private static final long MS = 1000000;
+
+  @Test
+  void initialUntilFirstSample() {
+    AdaptiveTimeout timeout = new AdaptiveTimeout(1000, 50, 10000, 4);
+    assertEquals(1000, timeout.timeout());
+    // latency plus 4 times half the latency
+    timeout.sample(100 * MS);
+    assertEquals(300, timeout.timeout());
+    assertEquals(100, timeout.smoothed(), 1e-9);
+    assertEquals(50, timeout.deviation(), 1e-9);
+  }
+
+  @Test
+  void convergesToSteadyLatency() {
+    AdaptiveTimeout timeout = new AdaptiveTimeout(1000, 50, 10000, 4);
+    timeout.sample(100 * MS);
+    timeout.sample(100 * MS);
+    assertEquals(250, timeout.timeout());
+    for (int i = 0; i < 200; i++)
+      timeout.sample(100 * MS);
+    assertEquals(100, timeout.timeout());
+    assertEquals(202, timeout.samples());
+  }
+
+  @Test
+  void followsSlowerLatency() {
+    AdaptiveTimeout timeout = new AdaptiveTimeout(1000, 50, 10000, 4);
+    for (int i = 0; i < 100; i++)
+      timeout.sample(100 * MS);
+    timeout.sample(500 * MS);
+    // smoothed 150, deviation 100
+    assertEquals(550, timeout.timeout());
+  }
+
+  @Test
+  void staysWithinBounds() {
+    AdaptiveTimeout fast = new AdaptiveTimeout(1000, 50, 10000, 4);
+    fast.sample(MS);
+    assertEquals(50, fast.timeout());
+    AdaptiveTimeout slow = new AdaptiveTimeout(1000, 50, 10000, 4);
+    slow.sample(60000 * MS);
+    assertEquals(10000, slow.timeout());
+  }
+
+  @Test
+  void expiriesBackOffUntilNextSample() {
+    AdaptiveTimeout timeout = new AdaptiveTimeout(1000, 50, 10000, 4);
+    timeout.sample(100 * MS);
+    timeout.expired();
+    assertEquals(600, timeout.timeout());
+    timeout.expired();
+    assertEquals(1200, timeout.timeout());
+    for (int i = 0; i < 100; i++)
+      timeout.expired();
+    assertEquals(10000, timeout.timeout());
+    assertEquals(102, timeout.expirations());
+    timeout.sample(100 * MS);
+    assertEquals(250, timeout.timeout());
+  }
+}
@@ -0,0 +1,102 @@
+package it.unitn.ds1.txn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link DecisionHistory}: window of each coordinator, and the watermark of
+ * the decisions pinned until acknowledged
+ */
+class DecisionHistoryTest {
+  // smallest window
+  private static final int WINDOW = 64;
+
+  @Test
+  void recordsEachDecisionOnce() {
+    DecisionHistory history = new DecisionHistory(WINDOW);
+    long commit = TransactionIds.of(1, 1);
+    long abort = TransactionIds.of(1, 2);
+    assertTrue(history.record(commit, true, false));
+    assertTrue(history.record(abort, false, false));
+    assertFalse(history.record(commit, false, false));
+    assertEquals(Boolean.TRUE, history.lookup(commit));
+    assertEquals(Boolean.FALSE, history.lookup(abort));
+    assertNull(history.lookup(TransactionIds.of(1, 3)));
+  }
+
+  @Test
+  void coordinatorsHaveWindowsOfTheirOwn() {
+    DecisionHistory history = new DecisionHistory(WINDOW);
+    history.record(TransactionIds.of(0, 1), true, false);
+    for (long sequence = 1; sequence <= 10 * WINDOW; sequence++)
+      history.record(TransactionIds.of(3, sequence), false, false);
+    assertEquals(Boolean.TRUE, history.lookup(TransactionIds.of(0, 1)));
+    assertNull(history.lookup(TransactionIds.of(2, 1)));
+  }
+
+  @Test
+  void forgetsDecisionsOutOfTheWindow() {
+    DecisionHistory history = new DecisionHistory(WINDOW);
+    int decisions = 3 * WINDOW + 5;
+    for (long sequence = 1; sequence <= decisions; sequence++)
+      history.record(TransactionIds.of(1, sequence), sequence % 2 == 0, false);
+    for (long sequence = 1; sequence <= decisions; sequence++) {
+      Boolean decision = history.lookup(TransactionIds.of(1, sequence));
+      if (sequence <= decisions - WINDOW)
+        assertNull(decision);
+      else
+        assertEquals(sequence % 2 == 0, decision);
+    }
+    assertEquals(decisions - WINDOW, history.evicted());
+    assertEquals(0, history.pinned());
+  }
+
+  @Test
+  void pinnedDecisionHoldsTheWatermark() {
+    DecisionHistory history = new DecisionHistory(WINDOW);
+    long pinned = TransactionIds.of(1, 1);
+    history.record(pinned, true, true);
+    for (long sequence = 2; sequence <= 10 * WINDOW; sequence++)
+      history.record(TransactionIds.of(1, sequence), false, false);
+    // the ring grew instead of sliding past the pinned decision
+    assertEquals(Boolean.TRUE, history.lookup(pinned));
+    assertEquals(Boolean.FALSE, history.lookup(TransactionIds.of(1, 2)));
+    assertEquals(1, history.pinned());
+    assertEquals(0, history.evicted());
+
+    history.acknowledged(pinned);
+    assertEquals(0, history.pinned());
+    // the ring now holds 16 * WINDOW decisions
+    for (long sequence = 10 * WINDOW + 1; sequence <= 40 * WINDOW; sequence++)
+      history.record(TransactionIds.of(1, sequence), false, false);
+    assertNull(history.lookup(pinned));
+    assertTrue(history.evicted() > 0);
+  }
+
+  @Test
+  void pinnedDecisionBelowTheWindowIsKeptAside() {
+    DecisionHistory history = new DecisionHistory(WINDOW);
+    for (long sequence = 1; sequence <= 3 * WINDOW; sequence++)
+      history.record(TransactionIds.of(1, sequence), false, false);
+    long evicted = history.evicted();
+    // a late decision nobody acknowledged yet is not dropped
+    long late = TransactionIds.of(1, 5);
+    assertTrue(history.record(late, true, true));
+    assertEquals(Boolean.TRUE, history.lookup(late));
+    assertEquals(1, history.pinned());
+    history.acknowledged(late);
+    assertNull(history.lookup(late));
+    assertEquals(0, history.pinned());
+    assertEquals(evicted + 1, history.evicted());
+
+    // without acknowledgements to wait for, it is forgotten right away
+    long old = TransactionIds.of(1, 6);
+    assertTrue(history.record(old, true, false));
+    assertNull(history.lookup(old));
+    assertEquals(evicted + 2, history.evicted());
+  }
+}
@@ -0,0 +1,50 @@
+package it.unitn.ds1.txn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * {@link SequenceLease}: a restarted coordinator never reuses a sequence
+ * number
+ */
+class SequenceLeaseTest {
+  @TempDir
+  Path dir;
+
+  @Test
+  void restartSkipsTheReservedBlock() {
+    Path file = dir.resolve("coordinator0.seq");
+    SequenceLease lease = new SequenceLease(file);
+    assertEquals(1, lease.first());
+    for (long sequence = 1; sequence <= SequenceLease.BLOCK + 3; sequence++)
+      assertEquals(sequence, lease.next());
+
+    SequenceLease restarted = new SequenceLease(file);
+    assertEquals(2L * SequenceLease.BLOCK + 1, restarted.first());
+    assertEquals(restarted.first(), restarted.next());
+    assertTrue(restarted.isPrevious(SequenceLease.BLOCK + 3));
+    assertFalse(restarted.isPrevious(restarted.first()));
+  }
+
+  @Test
+  void restartWithoutNumbersHandedOut() {
+    Path file = dir.resolve("coordinator0.seq");
+    new SequenceLease(file);
+    // nothing was reserved
+    assertEquals(1, new SequenceLease(file).next());
+  }
+
+  @Test
+  void inMemoryLeaseStartsAgain() {
+    SequenceLease lease = new SequenceLease(null);
+    lease.next();
+    lease.next();
+    assertEquals(1, new SequenceLease(null).next());
+  }
+}
@@ -0,0 +1,105 @@
+package it.unitn.ds1.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * {@link LongMap} against a HashMap, with removals in the middle of probe
+ * chains and resizes
+ */
+class LongMapTest {
+
+  @Test
+  void randomOperationsMatchHashMap() {
+    LongMap<Integer> map = new LongMap<>();
+    Map<Long, Integer> expected = new HashMap<>();
+    Random random = new Random(1);
+    for (int i = 0; i < 100000; i++) {
+      // few distinct keys: long probe chains, many removals inside them
+      long key = 1 + random.nextInt(512);
+      if (random.nextInt(3) == 0)
+        assertEquals(expected.remove(key), map.remove(key));
+      else
+        assertEquals(expected.put(key, i), map.put(key, i));
+      assertEquals(expected.size(), map.size());
+    }
+    for (long key = 1; key <= 512; key++) {
+      assertEquals(expected.containsKey(key), map.containsKey(key));
+      assertEquals(expected.get(key), map.get(key));
+    }
+  }
+
+  @Test
+  void removedKeysAreNotFound() {
+    LongMap<String> map = new LongMap<>();
+    // transaction ids of one coordinator: same high bits
+    for (long sequence = 1; sequence <= 1000; sequence++)
+      map.put(2L << 40 | sequence, "v" + sequence);
+    for (long sequence = 1; sequence <= 1000; sequence += 2)
+      assertEquals("v" + sequence, map.remove(2L << 40 | sequence));
+    assertEquals(500, map.size());
+    for (long sequence = 1; sequence <= 1000; sequence++) {
+      boolean kept = sequence % 2 == 0;
+      assertEquals(kept, map.containsKey(2L << 40 | sequence));
+      assertEquals(kept ? "v" + sequence : null, map.get(2L << 40 | sequence));
+    }
+    assertNull(map.remove(2L << 40 | 1));
+  }
+
+  @Test
+  void nullValuesAndPutIfAbsent() {
+    LongMap<String> map = new LongMap<>();
+    map.put(1, null);
+    assertTrue(map.containsKey(1));
+    assertNull(map.get(1));
+    // a null value counts as absent, as in java.util.Map
+    assertNull(map.putIfAbsent(1, "a"));
+    assertEquals("a", map.putIfAbsent(1, "b"));
+    assertEquals("a", map.get(1));
+    assertEquals(1, map.size());
+  }
+
+  @Test
+  void keyZeroIsReserved() {
+    LongMap<String> map = new LongMap<>();
+    assertThrows(IllegalArgumentException.class, () -> map.put(0, "a"));
+    assertFalse(map.containsKey(0));
+    assertNull(map.get(0));
+    assertNull(map.remove(0));
+  }
+
+  @Test
+  void keysAndForEachVisitEveryEntry() {
+    LongMap<Long> map = new LongMap<>(4);
+    for (long key = -50; key <= 50; key++)
+      if (key != 0)
+        map.put(key, key * 10);
+    long[] keys = map.keys();
+    Arrays.sort(keys);
+    long[] expected = new long[100];
+    for (int i = 0; i < 100; i++)
+      expected[i] = i < 50 ? i - 50 : i - 49;
+    assertArrayEquals(expected, keys);
+    long[] sum = new long[1];
+    map.forEach((key, value) -> {
+      assertEquals(key * 10, (long) value);
+      sum[0] += value;
+    });
+    assertEquals(0, sum[0]);
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertEquals(0, map.keys().length);
+    assertFalse(map.containsKey(7));
+  }
+}
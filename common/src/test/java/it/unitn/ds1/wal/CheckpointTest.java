@@ -0,0 +1,137 @@
+package it.unitn.ds1.wal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.unitn.ds1.partition.PartitionScheme;
+import it.unitn.ds1.partition.Partitioner;
+import it.unitn.ds1.store.ChangeSet;
+import it.unitn.ds1.store.RowStore;
+import it.unitn.ds1.store.RowStoreType;
+import it.unitn.ds1.util.LongMap;
+
+/**
+ * {@link Checkpoint} round trip and recovery of a server from its checkpoint
+ * plus the tail of its log, and {@link StorageLayout}
+ */
+class CheckpointTest {
+  private static final long LAYOUT = 7;
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void roundTrip() {
+    Path file = dir.resolve("server0.ckpt");
+    RowStore data = RowStoreType.PRIMITIVE.create(100);
+    for (int key = 0; key < 100; key++)
+      data.put(key, key % 3, 100 + key);
+    LongMap<ChangeSet> prepared = new LongMap<>();
+    prepared.put(5, changes(1, 10, 2, 20));
+    prepared.put(6, changes());
+    Checkpoint.write(file, 4, LAYOUT, data, prepared);
+    assertFalse(Files.exists(DurableFiles.temporary(file)));
+
+    for (RowStoreType type : RowStoreType.values()) {
+      Checkpoint checkpoint = Checkpoint.read(file, type, LAYOUT);
+      assertEquals(4, checkpoint.generation());
+      assertEquals(100, checkpoint.data().size());
+      for (int key = 0; key < 100; key++) {
+        assertEquals(key % 3, checkpoint.data().getVersion(key));
+        assertEquals(100 + key, checkpoint.data().getValue(key));
+      }
+      assertEquals(2, checkpoint.prepared().size());
+      ChangeSet changes = checkpoint.prepared().get(5);
+      assertEquals(2, changes.size());
+      assertEquals(2, changes.keyAt(1));
+      assertEquals(20, changes.valueAt(1));
+      assertEquals(0, checkpoint.prepared().get(6).size());
+    }
+  }
+
+  @Test
+  void noCheckpointOrAnotherLayout() {
+    Path file = dir.resolve("server0.ckpt");
+    assertNull(Checkpoint.read(file, RowStoreType.PRIMITIVE, LAYOUT));
+    Checkpoint.write(file, 1, LAYOUT, RowStoreType.PRIMITIVE.create(1), new LongMap<>());
+    assertNull(Checkpoint.read(file, RowStoreType.PRIMITIVE, LAYOUT + 1));
+  }
+
+  @Test
+  void recoversFromCheckpointAndLogTail() {
+    Path checkpointFile = dir.resolve("server0.ckpt");
+    Path logFile = dir.resolve("server0.wal");
+    // as a server: prepare, checkpoint, reset the log, keep logging
+    WriteAheadLog wal = new WriteAheadLog(logFile, LAYOUT);
+    RowStore data = RowStoreType.PRIMITIVE.create(2);
+    data.put(1, 0, 100);
+    data.put(2, 0, 100);
+    LongMap<ChangeSet> prepared = new LongMap<>();
+    prepared.put(9, changes(1, 50));
+    wal.logPrepare(9, prepared.get(9));
+    wal.sync();
+    Checkpoint.write(checkpointFile, wal.generation() + 1, LAYOUT, data, prepared);
+    wal.reset(wal.generation() + 1);
+    wal.logDecision(9, true);
+    wal.close();
+
+    Checkpoint checkpoint = Checkpoint.read(checkpointFile, RowStoreType.PRIMITIVE, LAYOUT);
+    wal = new WriteAheadLog(logFile, LAYOUT);
+    assertEquals(checkpoint.generation(), wal.generation());
+    LongMap<ChangeSet> pending = checkpoint.prepared();
+    wal.replay(new WriteAheadLog.Replay() {
+      @Override
+      public void prepared(long transactionId, ChangeSet changes) {
+        pending.put(transactionId, changes);
+      }
+
+      @Override
+      public void decided(long transactionId, boolean commit) {
+        ChangeSet changes = pending.remove(transactionId);
+        if (commit)
+          for (int i = 0; i < changes.size(); i++)
+            checkpoint.data().put(changes.keyAt(i), checkpoint.data().getVersion(changes.keyAt(i)) + 1,
+                changes.valueAt(i));
+      }
+    });
+    wal.close();
+    assertEquals(50, checkpoint.data().getValue(1));
+    assertEquals(1, checkpoint.data().getVersion(1));
+    assertEquals(100, checkpoint.data().getValue(2));
+    assertEquals(0, pending.size());
+  }
+
+  @Test
+  void layoutsDiffer() {
+    Set<Long> layouts = new HashSet<>();
+    for (PartitionScheme scheme : PartitionScheme.values())
+      for (int servers = 1; servers <= 4; servers++) {
+        Partitioner partitioner = scheme.create(10 * servers, servers);
+        for (int id = 0; id < servers; id++) {
+          long layout = StorageLayout.of(partitioner, id);
+          assertNotEquals(StorageLayout.NONE, layout);
+          layouts.add(layout);
+        }
+      }
+    assertEquals(3 * (1 + 2 + 3 + 4), layouts.size());
+    assertEquals(StorageLayout.of(PartitionScheme.RANGE.create(20, 2), 1),
+        StorageLayout.of(PartitionScheme.RANGE.create(20, 2), 1));
+  }
+
+  private static ChangeSet changes(int... keyValues) {
+    ChangeSet changes = new ChangeSet(keyValues.length / 2);
+    for (int i = 0; i < keyValues.length; i += 2)
+      changes.add(keyValues[i], keyValues[i + 1]);
+    return changes;
+  }
+}
@@ -0,0 +1,80 @@
+package it.unitn.ds1.wal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * {@link DecisionLog}: commits revealed only once synced, kept across restarts
+ * until acknowledged, and compaction
+ */
+class DecisionLogTest {
+  private static final long COMPACT_SIZE = 1 << 20;
+
+  @TempDir
+  Path dir;
+
+  @Test
+  void commitIsOutstandingOnceSynced() {
+    DecisionLog log = new DecisionLog(dir.resolve("coordinator0.log"), COMPACT_SIZE);
+    log.logCommit(1);
+    log.logCommit(2);
+    assertEquals(2, log.pending());
+    assertFalse(log.committed(1));
+    long[] durable = log.sync();
+    Arrays.sort(durable);
+    assertArrayEquals(new long[] { 1, 2 }, durable);
+    assertEquals(0, log.pending());
+    assertTrue(log.committed(1));
+    assertTrue(log.committed(2));
+    assertFalse(log.committed(3));
+    log.close();
+  }
+
+  @Test
+  void keepsUnacknowledgedCommitsAcrossRestarts() {
+    Path file = dir.resolve("coordinator0.log");
+    DecisionLog log = new DecisionLog(file, COMPACT_SIZE);
+    log.logCommit(1);
+    log.logCommit(2);
+    log.sync();
+    log.acknowledged(1);
+    log.close();
+
+    log = new DecisionLog(file, COMPACT_SIZE);
+    assertFalse(log.committed(1));
+    assertTrue(log.committed(2));
+    assertEquals(1, log.outstanding());
+    log.close();
+  }
+
+  @Test
+  void compactionKeepsOutstandingCommits() throws Exception {
+    Path file = dir.resolve("coordinator0.log");
+    // rewritten at almost every sync
+    DecisionLog log = new DecisionLog(file, 64);
+    for (long transactionId = 1; transactionId <= 1000; transactionId++) {
+      log.logCommit(transactionId);
+      log.sync();
+      if (transactionId % 10 != 0)
+        log.acknowledged(transactionId);
+    }
+    assertEquals(100, log.outstanding());
+    log.close();
+    assertFalse(Files.exists(DurableFiles.temporary(file)));
+
+    log = new DecisionLog(file, 64);
+    assertEquals(100, log.outstanding());
+    for (long transactionId = 1; transactionId <= 1000; transactionId++)
+      assertEquals(transactionId % 10 == 0, log.committed(transactionId));
+    log.close();
+  }
+}
@@ -0,0 +1,174 @@
+package it.unitn.ds1.wal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.unitn.ds1.store.ChangeSet;
+
+/**
+ * {@link WriteAheadLog} records read back after a restart, torn or corrupt
+ * tails, generations and layouts
+ */
+class WriteAheadLogTest {
+  @TempDir
+  Path dir;
+
+  @Test
+  void replaysRecordsInOrder() {
+    Path file = dir.resolve("server0.wal");
+    WriteAheadLog wal = new WriteAheadLog(file);
+    wal.logPrepare(1, changes(10, 100, 11, 110));
+    wal.logDecision(1, true);
+    wal.logPrepare(2, changes());
+    wal.logDecision(2, false);
+    wal.logEnd(1);
+    assertTrue(wal.hasPending());
+    wal.sync();
+    assertFalse(wal.hasPending());
+    assertEquals(5, wal.records());
+    assertEquals(1, wal.syncs());
+    wal.close();
+
+    assertEquals(Arrays.asList("prepare 1 [10=100, 11=110]", "commit 1", "prepare 2 []", "abort 2", "end 1"),
+        replay(file));
+  }
+
+  @Test
+  void dropsTornTail() throws IOException {
+    Path file = dir.resolve("server0.wal");
+    WriteAheadLog wal = new WriteAheadLog(file);
+    wal.logPrepare(1, changes(10, 100));
+    wal.logDecision(1, true);
+    wal.close();
+    long complete = Files.size(file);
+    // crash in the middle of the write of a record
+    append(file, new byte[] { 0, 0, 0, 25, 1, 0, 0 });
+
+    wal = new WriteAheadLog(file);
+    assertEquals(complete, wal.size());
+    wal.logDecision(2, false);
+    wal.close();
+    assertEquals(Arrays.asList("prepare 1 [10=100]", "commit 1", "abort 2"), replay(file));
+  }
+
+  @Test
+  void dropsRecordWithBadChecksum() throws IOException {
+    Path file = dir.resolve("server0.wal");
+    WriteAheadLog wal = new WriteAheadLog(file);
+    wal.logDecision(1, true);
+    wal.close();
+    long first = Files.size(file);
+    wal = new WriteAheadLog(file);
+    wal.logPrepare(2, changes(10, 100));
+    wal.logDecision(3, true);
+    wal.close();
+    // flip a bit of the value written by the prepare: it and every record
+    // after it are dropped
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      long value = first + 4 + 1 + 8 + 4 + 4;
+      ByteBuffer b = ByteBuffer.allocate(1);
+      channel.read(b, value);
+      b.put(0, (byte) (b.get(0) ^ 1));
+      b.rewind();
+      channel.write(b, value);
+    }
+
+    assertEquals(Arrays.asList("commit 1"), replay(file));
+    assertEquals(first, Files.size(file));
+  }
+
+  @Test
+  void resetKeepsGeneration() {
+    Path file = dir.resolve("server0.wal");
+    WriteAheadLog wal = new WriteAheadLog(file);
+    wal.logDecision(1, true);
+    wal.sync();
+    wal.reset(3);
+    wal.logDecision(2, false);
+    wal.close();
+
+    wal = new WriteAheadLog(file);
+    assertEquals(3, wal.generation());
+    wal.close();
+    assertEquals(Arrays.asList("abort 2"), replay(file));
+  }
+
+  @Test
+  void discardsLogOfAnotherLayout() {
+    Path file = dir.resolve("server0.wal");
+    WriteAheadLog wal = new WriteAheadLog(file, 42);
+    wal.reset(2);
+    wal.logDecision(1, true);
+    wal.close();
+
+    wal = new WriteAheadLog(file, 42);
+    assertFalse(wal.discarded());
+    assertEquals(2, wal.generation());
+    wal.close();
+
+    wal = new WriteAheadLog(file, 43);
+    assertTrue(wal.discarded());
+    assertEquals(0, wal.generation());
+    List<String> records = new ArrayList<>();
+    wal.replay(recorder(records));
+    wal.close();
+    assertTrue(records.isEmpty());
+  }
+
+  private static ChangeSet changes(int... keyValues) {
+    ChangeSet changes = new ChangeSet(keyValues.length / 2);
+    for (int i = 0; i < keyValues.length; i += 2)
+      changes.add(keyValues[i], keyValues[i + 1]);
+    return changes;
+  }
+
+  private static List<String> replay(Path file) {
+    List<String> records = new ArrayList<>();
+    WriteAheadLog wal = new WriteAheadLog(file);
+    wal.replay(recorder(records));
+    wal.close();
+    return records;
+  }
+
+  private static WriteAheadLog.Replay recorder(List<String> records) {
+    return new WriteAheadLog.Replay() {
+      @Override
+      public void prepared(long transactionId, ChangeSet changes) {
+        List<String> pairs = new ArrayList<>();
+        for (int i = 0; i < changes.size(); i++)
+          pairs.add(changes.keyAt(i) + "=" + changes.valueAt(i));
+        records.add("prepare " + transactionId + " " + pairs);
+      }
+
+      @Override
+      public void decided(long transactionId, boolean commit) {
+        records.add((commit ? "commit " : "abort ") + transactionId);
+      }
+
+      @Override
+      public void ended(long transactionId) {
+        records.add("end " + transactionId);
+      }
+    };
+  }
+
+  private static void append(Path file, byte[] bytes) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(bytes));
+    }
+  }
+}
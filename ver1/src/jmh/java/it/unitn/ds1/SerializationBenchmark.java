@@ -0,0 +1,103 @@
+package it.unitn.ds1;
+
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.TransactionIds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Round trip of a protocol message through TxnSerializer and through Java serialization, as done by Akka when
+ * the actors are on different JVMs. The setup checks that the binary encoding gives the message back (encoding
+ * it again gives the same bytes) and prints the size of both encodings.
+ * SnapshotMarker is left out: its ActorRef needs an actor system to be resolved
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationBenchmark {
+    @Param({"read", "writeBatch", "readBatchResult", "voteResponse", "decision", "txnResult"})
+    public String message;
+
+    @Param({"8"})
+    public int txnSize;
+
+    private TxnSerializer serializer;
+    private Serializable msg;
+    private String manifest;
+
+    @Setup
+    public void setup() throws IOException {
+        serializer = new TxnSerializer(null);
+        msg = message(message, txnSize);
+        manifest = serializer.manifest(msg);
+        byte[] bytes = serializer.toBinary(msg);
+        Object decoded = serializer.fromBinary(bytes, manifest);
+        if (decoded.getClass() != msg.getClass() || !Arrays.equals(serializer.toBinary(decoded), bytes))
+            throw new IllegalStateException("round trip of " + message + " changed the message");
+        System.out.println(message + ": " + bytes.length + " bytes, Java serialization " + javaBytes(msg).length);
+    }
+
+    @Benchmark
+    public Object binaryRoundTrip() throws NotSerializableException {
+        return serializer.fromBinary(serializer.toBinary(msg), manifest);
+    }
+
+    @Benchmark
+    public Object javaRoundTrip() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes(msg)))) {
+            return in.readObject();
+        }
+    }
+
+    static Serializable message(String name, int txnSize) {
+        long transactionId = TransactionIds.of(3, 123456);
+        SplittableRandom random = new SplittableRandom(42);
+        int[] keys = new int[txnSize];
+        int[] values = new int[txnSize];
+        for (int i = 0; i < txnSize; i++) {
+            keys[i] = random.nextInt(100000);
+            values[i] = random.nextInt(-100, 200);
+        }
+        switch (name) {
+            case "read":
+                return new Message.ReadMsg(17, transactionId, keys[0]);
+            case "writeBatch":
+                return new Message.WriteBatchMsg(17, transactionId, keys, values);
+            case "readBatchResult":
+                return new Message.ReadBatchResultMsg(transactionId, keys, values);
+            case "voteResponse":
+                return new Message.VoteResponseMsg(transactionId, AbortCause.LOCK_CONFLICT);
+            case "decision":
+                return new Message.DecisionMsg(transactionId, true);
+            case "txnResult":
+                return new Message.TxnResultMsg(false, transactionId, AbortCause.STALE_READ);
+            default:
+                throw new IllegalArgumentException("unknown message " + name);
+        }
+    }
+
+    private static byte[] javaBytes(Serializable msg) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(msg);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,91 @@
+package it.unitn.ds1;
+
+import it.unitn.ds1.store.RowStore;
+import it.unitn.ds1.txn.AbortCause;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Workspace, validation (onVoteRequestMsg) and update (onDecisionMsg) of a server, driven through ServerState
+ * without actors. Each operation runs one transaction reading txnSize keys and writing half of them, then decides
+ * the oldest of the inFlight transactions still holding their locks: a larger inFlight or a smaller key space
+ * means more lock conflicts
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServerStateBenchmark {
+    private static final int KEY_STREAM = 1 << 16;
+
+    @Param({"1000", "100000"})
+    public int keys;
+
+    @Param({"2", "8"})
+    public int txnSize;
+
+    @Param({"0", "16"})
+    public int inFlight;
+
+    private ServerState state;
+    private int[] keyStream;
+    private int nextKey;
+    private long[] prepared;
+    private long nextTransaction;
+
+    @Setup
+    public void setup() {
+        RowStore data = Main.ROW_STORE.create(keys);
+        for (int key = 0; key < keys; key++) {
+            data.put(key, 0, 100);
+        }
+        state = new ServerState(data);
+        SplittableRandom random = new SplittableRandom(42);
+        keyStream = new int[KEY_STREAM];
+        for (int i = 0; i < KEY_STREAM; i++) {
+            keyStream[i] = random.nextInt(keys);
+        }
+        prepared = new long[inFlight + 1];
+    }
+
+    @Benchmark
+    public boolean transaction() {
+        long transactionId = ++nextTransaction;
+        for (int i = 0; i < txnSize; i++) {
+            int key = nextKey();
+            int value = state.read(transactionId, key);
+            if (i % 2 == 0)
+                state.write(transactionId, key, value + 1);
+        }
+        boolean canCommit = state.prepare(transactionId) == null;
+        if (!canCommit)
+            state.finish(transactionId, false);
+        //Ring of the transactions waiting for their decision
+        int slot = (int) (transactionId % prepared.length);
+        if (prepared[slot] != 0)
+            state.finish(prepared[slot], true);
+        prepared[slot] = canCommit ? transactionId : 0;
+        return canCommit;
+    }
+
+    @Benchmark
+    public AbortCause readOnlyValidation() {
+        long transactionId = ++nextTransaction;
+        for (int i = 0; i < txnSize; i++) {
+            state.read(transactionId, nextKey());
+        }
+        return state.validateReadOnly(transactionId);
+    }
+
+    private int nextKey() {
+        return keyStream[nextKey++ & (KEY_STREAM - 1)];
+    }
+}
@@ -0,0 +1,170 @@
+package it.unitn.ds1;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.txn.TransactionIds;
+import scala.concurrent.duration.Duration;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Checks that the sum of the values of all the servers does not change, on a CheckConsistentRequest and
+ * every checkInterval ms if not 0. Each check is a consistent snapshot (Chandy-Lamport) of the running system:
+ * the checker sends a SnapshotMarker to every coordinator and server, the servers record their sum and the
+ * decisions in flight towards them (see LocalSnapshot) and send their part back. The total is compared with
+ * the one of the first check, the results go to a single file, one line per check, and to the sender of the
+ * request.
+ * A snapshot is given up after SNAPSHOT_TIMEOUT, a crashed node does not pass the markers on
+ */
+public class ConsistencyChecker extends AbstractActor {
+    private static final int SNAPSHOT_TIMEOUT = 5000;
+    private final List<ActorRef> coordinators;
+    private final List<ActorRef> servers;
+    private final String fileName;
+    private final int checkInterval;
+    private BufferedWriter out;
+    // sum of the first check, null until then
+    private Integer expectedSum;
+    private int violations;
+    private int nextSnapshotId;
+    // checks waiting for the servers, by snapshot id
+    private final HashMap<Integer, Check> running;
+
+    private static class Check {
+        private final int checkId;
+        private final ActorRef replyTo;
+        private int answered;
+        private int sum;
+
+        Check(int checkId, ActorRef replyTo) {
+            this.checkId = checkId;
+            this.replyTo = replyTo;
+        }
+    }
+
+    public ConsistencyChecker(List<ActorRef> coordinators, List<ActorRef> servers, String fileName, int checkInterval) {
+        this.coordinators = coordinators;
+        this.servers = servers;
+        this.fileName = fileName;
+        this.checkInterval = checkInterval;
+        this.running = new HashMap<>();
+    }
+
+    /*
+     * fileName null to only log the results, checkInterval 0 to check only when asked
+     */
+    static public Props props(List<ActorRef> coordinators, List<ActorRef> servers, String fileName, int checkInterval) {
+        return Props.create(ConsistencyChecker.class,
+                () -> new ConsistencyChecker(coordinators, servers, fileName, checkInterval));
+    }
+
+    @Override
+    public void preStart() throws IOException {
+        if (fileName != null) {
+            out = Files.newBufferedWriter(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        if (checkInterval > 0) {
+            schedule(checkInterval, new Message.CheckTick());
+        }
+    }
+
+    @Override
+    public void postStop() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    private void onCheckConsistentRequest(Message.CheckConsistentRequest msg) {
+        startSnapshot(msg.checkId, getSender());
+    }
+
+    private void onCheckTick(Message.CheckTick msg) {
+        startSnapshot(-1, getContext().getSystem().deadLetters());
+        schedule(checkInterval, msg);
+    }
+
+    private void startSnapshot(int checkId, ActorRef replyTo) {
+        int snapshotId = nextSnapshotId++;
+        running.put(snapshotId, new Check(checkId, replyTo));
+        Message.SnapshotMarker marker = new Message.SnapshotMarker(snapshotId, getSelf());
+        for (ActorRef coordinator : coordinators) {
+            coordinator.tell(marker, getSelf());
+        }
+        for (ActorRef server : servers) {
+            server.tell(marker, getSelf());
+        }
+        schedule(SNAPSHOT_TIMEOUT, new Message.CheckTimeout(snapshotId));
+    }
+
+    private void onCheckConsistentResponse(Message.CheckConsistentResponse msg) {
+        Check check = running.get(msg.checkId);
+        if (check == null) {
+            return;
+        }
+        check.sum += msg.sum;
+        if (++check.answered < servers.size()) {
+            return;
+        }
+        running.remove(msg.checkId);
+        if (expectedSum == null) {
+            expectedSum = check.sum;
+        }
+        boolean consistent = check.sum == expectedSum;
+        if (!consistent) {
+            violations++;
+        }
+        EventLog.info(getSelf().path().name(), "check", TransactionIds.NONE, "snapshot", msg.checkId, "sum", check.sum,
+                "consistent", consistent);
+        if (out != null) {
+            try {
+                out.write(msg.checkId + ", " + check.sum + ", " + (consistent ? "OK" : "VIOLATED"));
+                out.newLine();
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (!check.replyTo.equals(getContext().getSystem().deadLetters())) {
+            check.replyTo.tell(new Message.CheckConsistentResult(check.checkId, check.sum, consistent, violations),
+                    getSelf());
+        }
+    }
+
+    private void onCheckTimeout(Message.CheckTimeout msg) {
+        Check check = running.remove(msg.snapshotId);
+        if (check != null) {
+            EventLog.info(getSelf().path().name(), "checkIncomplete", TransactionIds.NONE, "snapshot", msg.snapshotId,
+                    "answered", check.answered);
+        }
+    }
+
+    private void schedule(int delay, Object msg) {
+        getContext().system().scheduler().scheduleOnce(
+                Duration.create(delay, TimeUnit.MILLISECONDS),
+                getSelf(),
+                msg,
+                getContext().system().dispatcher(), getSelf()
+        );
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Message.CheckConsistentRequest.class, this::onCheckConsistentRequest)
+                .match(Message.CheckConsistentResponse.class, this::onCheckConsistentResponse)
+                .match(Message.CheckTick.class, this::onCheckTick)
+                .match(Message.CheckTimeout.class, this::onCheckTimeout)
+                .build();
+    }
+}
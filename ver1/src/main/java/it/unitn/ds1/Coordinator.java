@@ -2,97 +2,258 @@ package it.unitn.ds1;
 
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import it.unitn.ds1.bench.TimeoutStats;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.partition.Partitioner;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.AdaptiveTimeout;
+import it.unitn.ds1.txn.SequenceLease;
+import it.unitn.ds1.txn.TimerKey;
+import it.unitn.ds1.txn.TransactionIds;
+import it.unitn.ds1.util.LongMap;
+import it.unitn.ds1.wal.DecisionLog;
 
-import java.io.Serializable;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.UUID;
+import java.util.Map;
 
 public class Coordinator extends Node {
     protected int id;
     protected HashMap<Integer, ActorRef> mapServerByKey;
-    private final HashMap<String, ActorRef> mapTransaction2Client;
-    private final HashMap<ActorRef, String> mapClient2Transaction;
-    private final HashMap<String, HashSet<ActorRef>> yesVoters;
-    private final HashMap<String, Integer> checkSum;
-    private final HashMap<String, HashSet<ActorRef>> checkSumResponse;
+    protected Partitioner partitioner;
+    //Sequence numbers of the transaction ids, never reused by a restarted coordinator
+    private SequenceLease sequences;
+    private int lastSnapshotId = -1;
+    private final LongMap<ActorRef> mapTransaction2Client;
+    // servers the transaction read from or wrote to, and the ones it wrote to
+    private final LongMap<HashSet<ActorRef>> participants;
+    private final LongMap<HashSet<ActorRef>> writers;
+    private final LongMap<HashSet<ActorRef>> voters;
+    private final LongMap<HashSet<ActorRef>> yesVoters;
+    private final LongMap<HashSet<ActorRef>> awaitingAck;
+    // why the transaction was aborted, told to the client with the decision
+    private final LongMap<AbortCause> abortCause;
     private static final double CRASH_PROBABILITY_1 = 0.5;
     private static final double CRASH_PROBABILITY_2 = 0.5;
 
     private final int VOTE_REQUEST_TIMEOUT = 1000;
+    // when the vote requests of a transaction were sent (System.nanoTime())
+    private final LongMap<Long> voteSentAt;
+    // timeout of the votes of each server, following their latency; the acknowledgements of the decisions are
+    // expected as fast
+    private final HashMap<ActorRef, AdaptiveTimeout> voteTimeouts;
+    // txn.txn-actors: each transaction run by a TxnHandler child until the client ends it
+    private boolean txnActors;
+    //Commits made durable before they are sent, null without walDir
+    private DecisionLog decisionLog;
 
-    public Coordinator(int id, HashMap<Integer, ActorRef> map) {
+    public Coordinator(int id, HashMap<Integer, ActorRef> map, Partitioner partitioner) {
         super();
         this.id = id;
         this.mapServerByKey = map;
-        mapTransaction2Client = new HashMap<>();
-        mapClient2Transaction = new HashMap<>();
-        yesVoters = new HashMap<>();
-        checkSum = new HashMap<>();
-        checkSumResponse = new HashMap<>();
+        this.partitioner = partitioner;
+        mapTransaction2Client = new LongMap<>();
+        participants = new LongMap<>();
+        writers = new LongMap<>();
+        voters = new LongMap<>();
+        yesVoters = new LongMap<>();
+        awaitingAck = new LongMap<>();
+        abortCause = new LongMap<>();
+        voteSentAt = new LongMap<>();
+        voteTimeouts = new HashMap<>();
+        for (ActorRef server : map.values()) {
+            voteTimeouts.put(server, adaptiveTimeout(VOTE_REQUEST_TIMEOUT));
+        }
+    }
+
+    static public Props props(int id, HashMap<Integer, ActorRef> map, Partitioner partitioner) {
+        return Props.create(Coordinator.class, () -> new Coordinator(id, map, partitioner))
+                .withDispatcher(Main.COORDINATOR_DISPATCHER);
     }
 
-    static public Props props(int id, HashMap<Integer, ActorRef> map) {
-        return Props.create(Coordinator.class, () -> new Coordinator(id, map));
+    @Override
+    public void preStart() {
+        txnActors = getContext().getSystem().settings().config().getBoolean("txn.txn-actors");
+        sequences = new SequenceLease(Main.walDir != null ? Paths.get(Main.walDir, "coordinator-" + id + ".seq") : null);
+        if (Main.walDir != null) {
+            decisionLog = new DecisionLog(Paths.get(Main.walDir, "coordinator-" + id + ".log"), Main.CHECKPOINT_LOG_SIZE);
+            EventLog.info(name(), "replay", TransactionIds.NONE, "log", decisionLog);
+        }
+    }
+
+    @Override
+    public void postStop() {
+        if (decisionLog != null)
+            decisionLog.close();
     }
 
     /*
      * At beginning of each transaction
-     * Create transactionId and keep map between transactionID and client
+     * Create transactionId (coordinator id + local sequence) and keep map between transactionID and client,
+     * which names the transaction in its requests (it may run several at once)
+     * With txn-actors a TxnHandler child accepts the transaction and gets its requests until the end
      */
     private void onTxnBeginMsg(Message.TxnBeginMsg msg) {
         ActorRef client = getSender();
-        String transactionId = UUID.randomUUID().toString();
+        long transactionId = TransactionIds.of(id, sequences.next());
         mapTransaction2Client.put(transactionId, client);
-        mapClient2Transaction.put(client, transactionId);
-        client.tell(new Message.TxnAcceptMsg(), getSelf());
+        if (txnActors) {
+            getContext().actorOf(TxnHandler.props(transactionId, client, msg.requestId, mapServerByKey, partitioner),
+                    "txn" + TransactionIds.sequenceOf(transactionId));
+        } else {
+            client.tell(new Message.TxnAcceptMsg(msg.requestId, transactionId), getSelf());
+        }
     }
 
     /*
      * Receiving the read message from client
-     * Attach client transactionID and forward message to the server base on key
+     * Forward message to the server base on key, unless the transaction already ended (the client was told)
      */
     private void onReadMsg(Message.ReadMsg msg) {
-        int serverId = msg.key / 10;
+        if (!isExecuting(msg.transactionId)) {
+            return;
+        }
+        int serverId = partitioner.serverOf(msg.key);
         ActorRef server = mapServerByKey.get(serverId);
-        msg.transactionId = mapClient2Transaction.get(getSender());
+        addServer(participants, msg.transactionId, server);
         server.tell(msg, getSelf());
     }
 
     private void onReadResultMsg(Message.ReadResultMsg msg) {
         ActorRef client = mapTransaction2Client.get(msg.transactionId);
-        client.tell(msg, getSelf());
+        //Already ended, the client was told
+        if (client != null) {
+            client.tell(msg, getSelf());
+        }
+    }
+
+    /*
+     * Receiving a read of several keys from client
+     * Forward one message to each server with its keys
+     */
+    private void onReadBatchMsg(Message.ReadBatchMsg msg) {
+        if (!isExecuting(msg.transactionId)) {
+            return;
+        }
+        HashMap<Integer, ArrayList<Integer>> indexes = indexesByServer(partitioner, msg.keys);
+        for (Map.Entry<Integer, ArrayList<Integer>> serverIndexes : indexes.entrySet()) {
+            ActorRef server = mapServerByKey.get(serverIndexes.getKey());
+            addServer(participants, msg.transactionId, server);
+            server.tell(new Message.ReadBatchMsg(msg.clientId, msg.transactionId,
+                    pick(msg.keys, serverIndexes.getValue())), getSelf());
+        }
+    }
+
+    private void onReadBatchResultMsg(Message.ReadBatchResultMsg msg) {
+        ActorRef client = mapTransaction2Client.get(msg.transactionId);
+        if (client != null) {
+            client.tell(msg, getSelf());
+        }
     }
 
     /*
      * Receiving the writing message from client
-     * Attach client transactionID and forward message to the server base on key
+     * Forward message to the server base on key
      */
     private void onWriteMsg(Message.WriteMsg msg) {
-        ActorRef server = mapServerByKey.get(msg.key / 10);
-        msg.transactionID = mapClient2Transaction.get(getSender());
+        if (!isExecuting(msg.transactionID)) {
+            return;
+        }
+        ActorRef server = mapServerByKey.get(partitioner.serverOf(msg.key));
+        addServer(participants, msg.transactionID, server);
+        addServer(writers, msg.transactionID, server);
         server.tell(msg, getSelf());
     }
 
+    /*
+     * Receiving a write of several keys from client
+     * Forward one message to each server with its keys
+     */
+    private void onWriteBatchMsg(Message.WriteBatchMsg msg) {
+        if (!isExecuting(msg.transactionId)) {
+            return;
+        }
+        HashMap<Integer, ArrayList<Integer>> indexes = indexesByServer(partitioner, msg.keys);
+        for (Map.Entry<Integer, ArrayList<Integer>> serverIndexes : indexes.entrySet()) {
+            ActorRef server = mapServerByKey.get(serverIndexes.getKey());
+            addServer(participants, msg.transactionId, server);
+            addServer(writers, msg.transactionId, server);
+            server.tell(new Message.WriteBatchMsg(msg.clientId, msg.transactionId,
+                    pick(msg.keys, serverIndexes.getValue()), pick(msg.values, serverIndexes.getValue())), getSelf());
+        }
+    }
+
+    /*
+     * Whether the transaction was begun here and the client did not end it yet: reads and writes of an unknown or
+     * ended one are dropped, they would only make the servers hold a workspace nobody decides
+     */
+    private boolean isExecuting(long transactionId) {
+        return mapTransaction2Client.containsKey(transactionId) && !mapTransaction2Decision.containsKey(transactionId);
+    }
+
+    /*
+     * Positions of the keys by the id of the server owning them
+     */
+    static HashMap<Integer, ArrayList<Integer>> indexesByServer(Partitioner partitioner, int[] keys) {
+        HashMap<Integer, ArrayList<Integer>> indexes = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            indexes.computeIfAbsent(partitioner.serverOf(keys[i]), serverId -> new ArrayList<>()).add(i);
+        }
+        return indexes;
+    }
+
+    static int[] pick(int[] array, ArrayList<Integer> indexes) {
+        int[] picked = new int[indexes.size()];
+        for (int i = 0; i < picked.length; i++) {
+            picked[i] = array[indexes.get(i)];
+        }
+        return picked;
+    }
 
     private void onTxnEndMsg(Message.TxnEndMsg msg) {
-        mapTransaction2Decision.put(mapClient2Transaction.get(getSender()), null);
-        if (msg.commit) {
-            System.out.println(mapClient2Transaction.get(getSender()) + " beginTxnEndMsg at "+getSelf().toString()+"------->>>>>>>");
-            yesVoters.put(mapClient2Transaction.get(getSender()), new HashSet<>());
-            if(r.nextDouble() > CRASH_PROBABILITY_1){
-                multicast(new Message.VoteRequestMsg(mapClient2Transaction.get(getSender())));
-            }else{
-                multicastAndCrash(new Message.VoteRequestMsg(mapClient2Transaction.get(getSender())), 3000);
+        endTransaction(msg.transactionId, msg.commit);
+    }
+
+    /*
+     * The TxnHandler of the transaction ended it, take over the servers it touched
+     */
+    private void onTxnEnded(Message.TxnEnded msg) {
+        participants.put(msg.transactionId, msg.participants);
+        writers.put(msg.transactionId, msg.writers);
+        endTransaction(msg.transactionId, msg.commit);
+    }
+
+    private void endTransaction(long transactionId, boolean commit) {
+        //Already ended, e.g. by a client which timed out on its TxnAcceptMsg
+        if (!mapTransaction2Client.containsKey(transactionId) || mapTransaction2Decision.containsKey(transactionId)) {
+            return;
+        }
+        mapTransaction2Decision.put(transactionId, null);
+        if (commit) {
+            EventLog.debug(name(), "end", transactionId, "commit", true);
+            yesVoters.put(transactionId, new HashSet<>());
+            voters.put(transactionId, new HashSet<>(serversOf(participants, transactionId)));
+            //A transaction which touched no server has nothing to validate, a read-only one neither in snapshot mode
+            if (voters.get(transactionId).isEmpty() || (Main.SNAPSHOT_READS && serversOf(writers, transactionId).isEmpty())) {
+                fixDecision(transactionId, true);
+                //The participants only have to drop what they read
+                multicastDecision(transactionId);
+                tellDecision2Client(transactionId);
+                return;
             }
-            setTimeout(VOTE_REQUEST_TIMEOUT, mapClient2Transaction.get(getSender()));
+            voteSentAt.put(transactionId, System.nanoTime());
+            requestVotes(transactionId, shouldCrash(CRASH_PROBABILITY_1));
+            //One timeout for all the votes, the one of the slowest server
+            setTimeout(timeoutOf(voters.get(transactionId)), transactionId);
         }
-        //If abort message, the coordinator will multicast the abort decision to all server
+        //If abort message, the coordinator will multicast the abort decision to the participants
         else {
-            String transactionId = mapClient2Transaction.get(getSender());
-            fixDecision(transactionId, false);
-            multicast(new Message.DecisionMsg(transactionId, mapTransaction2Decision.get(transactionId)));
-            System.out.println(transactionId + " abort by itself -> tellDecision2Client ------>>>>>>>>");
+            abort(transactionId, AbortCause.CLIENT);
+            multicastDecision(transactionId);
+            EventLog.info(name(), "abort", transactionId, "cause", AbortCause.CLIENT);
             tellDecision2Client(transactionId);
         }
     }
@@ -100,110 +261,342 @@ public class Coordinator extends Node {
     private void onVoteResponseMsg(Message.VoteResponseMsg msg) {
         //Check if already send decision to client and server
         if (mapTransaction2Client.containsKey(msg.transactionId)) {
+            //The participants of a read-only transaction forget it once they voted, they are not part of the decision
+            if (serversOf(writers, msg.transactionId).isEmpty()) {
+                serversOf(participants, msg.transactionId).remove(getSender());
+            }
+            Long sentAt = voteSentAt.get(msg.transactionId);
+            if (sentAt != null && mapTransaction2Decision.get(msg.transactionId) == null) {
+                voteTimeouts.get(getSender()).sample(System.nanoTime() - sentAt);
+            }
             if (msg.commit) {
                 HashSet<ActorRef> tranYesVoters = yesVoters.get(msg.transactionId);
                 tranYesVoters.add(getSender());
                 yesVoters.put(msg.transactionId, tranYesVoters);
                 if (allVotedYes(msg.transactionId)) {
-                    fixDecision(msg.transactionId, true);
-                    if (r.nextDouble() > CRASH_PROBABILITY_2) {
-                        decideChange(msg.transactionId);
-                    } else {
-                        multicastAndCrash(new Message.DecisionMsg(msg.transactionId, mapTransaction2Decision.get(msg.transactionId)), 3000);
-                    }
-                    System.out.println(msg.transactionId + " allVoteYes -> tellDecision2Client from " + getSelf().toString() + " ------>>>>>>>>");
+                    commitDurably(msg.transactionId);
                 }
             }
             else {
-                fixDecision(msg.transactionId, false);
-                if(r.nextDouble() > CRASH_PROBABILITY_2) {
+                abort(msg.transactionId, msg.cause);
+                if (!shouldCrash(CRASH_PROBABILITY_2)) {
                     decideChange(msg.transactionId);
                 }else{
-                    multicastAndCrash(new Message.DecisionMsg(msg.transactionId, mapTransaction2Decision.get(msg.transactionId)), 3000);
+                    multicastDecisionAndCrash(msg.transactionId, 3000);
                 }
-                System.out.println(msg.transactionId + " existing voteNo -> tellDecision2Client ------>>>>>>>>");
+                EventLog.info(name(), "abort", msg.transactionId, "cause", msg.cause);
             }
         }
     }
 
-    private void decideChange(String transactionId){
-        multicast(new Message.DecisionMsg(transactionId, mapTransaction2Decision.get(transactionId)));
-        tellDecision2Client(transactionId);
-        checkConsistent(transactionId);
+    /*
+     * Every participant voted yes: log the commit and send it once durable, sharing one sync with the commits of
+     * up to GROUP_COMMIT_WINDOW ms or GROUP_COMMIT_SIZE transactions. A transaction which wrote nothing leaves no
+     * participant to recover, its commit is sent at once
+     */
+    private void commitDurably(long transactionId) {
+        if (decisionLog == null || serversOf(writers, transactionId).isEmpty()) {
+            commit(transactionId);
+            return;
+        }
+        decisionLog.logCommit(transactionId);
+        //Decided, the votes are no longer waited for
+        cancelTimeout(transactionId);
+        if (decisionLog.pending() >= Main.GROUP_COMMIT_SIZE) {
+            syncDecisionLog();
+        } else if (decisionLog.pending() == 1) {
+            getTimers().startSingleTimer(TimerKey.SYNC, new Message.SyncLog(), Duration.ofMillis(Main.GROUP_COMMIT_WINDOW));
+        }
     }
 
-    private void checkConsistent(String transactionId) {
-        checkSum.put(transactionId, 0);
-        checkSumResponse.put(transactionId, new HashSet<>());
-        multicast(new Message.CheckConsistentRequest(transactionId));
+    /*
+     * Sync the decision log and send the commits it made durable. If sending one crashes the coordinator, the
+     * recovery sends the rest
+     */
+    private void syncDecisionLog() {
+        //Synced before the end of its window
+        getTimers().cancel(TimerKey.SYNC);
+        for (long transactionId : decisionLog.sync()) {
+            if (!commit(transactionId)) {
+                return;
+            }
+        }
     }
 
-    private void onCheckConsistentResponseMsg(Message.CheckConsistentResponse msg) {
-        HashSet<ActorRef> voterCheck = checkSumResponse.get(msg.transactionId);
-        voterCheck.add(getSender());
-        checkSumResponse.put(msg.transactionId, voterCheck);
-        int votedSum = checkSum.get(msg.transactionId);
-        checkSum.put(msg.transactionId, votedSum + msg.sum);
-        if (checkSumResponse.get(msg.transactionId).size() == mapServerByKey.size()) {
-            System.out.println(">>>>>>>>>>>>>> " + msg.transactionId + " checkSum = " + checkSum.get(msg.transactionId) + " <<<<<<<<<<<<<<<");
+    /*
+     * Fix the commit and send it
+     * @return false if the coordinator crashed
+     */
+    private boolean commit(long transactionId) {
+        fixDecision(transactionId, true);
+        EventLog.info(name(), "commit", transactionId);
+        if (!shouldCrash(CRASH_PROBABILITY_2)) {
+            decideChange(transactionId);
+            return true;
         }
+        multicastDecisionAndCrash(transactionId, 3000);
+        return false;
+    }
+
+    private void decideChange(long transactionId){
+        multicastDecision(transactionId);
+        tellDecision2Client(transactionId);
+    }
+
+    private void abort(long transactionId, AbortCause cause) {
+        abortCause.put(transactionId, cause);
+        fixDecision(transactionId, false);
     }
 
     private void onTimeout(Message.Timeout msg){
-        if (mapTransaction2Decision.containsKey(msg.transactionId) && mapTransaction2Decision.get(msg.transactionId) == null) {
-            System.out.println(getSelf().toString() + "Timeout " + msg.transactionId + " ABORT");
-            fixDecision(msg.transactionId, false);
+        //Every vote yes: its commit is being logged
+        if (mapTransaction2Decision.containsKey(msg.transactionId) && mapTransaction2Decision.get(msg.transactionId) == null
+                && !allVotedYes(msg.transactionId)) {
+            EventLog.info(name(), "abort", msg.transactionId, "cause", AbortCause.TIMEOUT);
+            //The next transactions wait longer for the servers which did not vote
+            for (ActorRef p : voters.get(msg.transactionId)) {
+                if (!yesVoters.get(msg.transactionId).contains(p)) {
+                    voteTimeouts.get(p).expired();
+                }
+            }
+            abort(msg.transactionId, AbortCause.TIMEOUT);
             decideChange(msg.transactionId);
         }
 
     }
 
-    void multicast(Serializable m) {
-        for (ActorRef p : mapServerByKey.values()) {
-            p.tell(m, getSelf());
+    /*
+     * Ask the participants of the transaction to vote, crashing after the first request if asked to. A read-only
+     * transaction is validated without locks; the participants of a writing one all lock what they validate,
+     * including the ones it only read from, until the decision (no write skew)
+     */
+    private void requestVotes(long transactionId, boolean crash) {
+        boolean readOnly = serversOf(writers, transactionId).isEmpty();
+        for (ActorRef p : voters.get(transactionId)) {
+            p.tell(new Message.VoteRequestMsg(transactionId, readOnly), getSelf());
+            if (crash) {
+                crash(3000);
+                return;
+            }
+        }
+    }
+
+    /*
+     * Send the decision to the participants, it is kept in the history until all of them acknowledged it
+     */
+    void multicastDecision(long transactionId) {
+        awaitAcknowledgements(transactionId);
+        Message.DecisionMsg decision = new Message.DecisionMsg(transactionId, decisionOf(transactionId));
+        for (ActorRef p : serversOf(participants, transactionId)) {
+            p.tell(decision, getSelf());
+        }
+    }
+
+    void multicastDecisionAndCrash(long transactionId, int recoverIn) {
+        awaitAcknowledgements(transactionId);
+        Message.DecisionMsg decision = new Message.DecisionMsg(transactionId, decisionOf(transactionId));
+        for (ActorRef p : serversOf(participants, transactionId)) {
+            p.tell(decision, getSelf());
+            break;
         }
+        crash(recoverIn);
     }
 
-    void multicastAndCrash(Serializable m, int recoverIn) {
-        for (ActorRef p : mapServerByKey.values()) {
-            p.tell(m, getSelf());
-            crash(recoverIn);
+    private void awaitAcknowledgements(long transactionId) {
+        HashSet<ActorRef> informed = serversOf(participants, transactionId);
+        if (informed.isEmpty()) {
+            decisionHistory.acknowledged(transactionId);
             return;
         }
+        awaitingAck.put(transactionId, new HashSet<>(informed));
+        setAckTimeout(transactionId, timeoutOf(informed));
+    }
+
+    private void addServer(LongMap<HashSet<ActorRef>> map, long transactionId, ActorRef server) {
+        HashSet<ActorRef> set = map.get(transactionId);
+        if (set == null) {
+            set = new HashSet<>();
+            map.put(transactionId, set);
+        }
+        set.add(server);
+    }
+
+    private HashSet<ActorRef> serversOf(LongMap<HashSet<ActorRef>> map, long transactionId) {
+        HashSet<ActorRef> set = map.get(transactionId);
+        return set != null ? set : new HashSet<>();
+    }
+
+    /*
+     * A server asking the decision of a transaction of this coordinator which is not running here gets ABORT
+     * (presumed abort): it is unknown, forgotten or was started by an earlier incarnation of this coordinator, and
+     * a commit is logged before it is sent, so it was never committed. A running transaction gets its decision once taken. The transactions of
+     * the other coordinators are answered only if their decision is known
+     */
+    @Override
+    public void onDecisionRequest(Message.DecisionRequest msg) {
+        long transactionId = msg.transactionId;
+        Boolean decision = decisionOf(transactionId);
+        if (decision == null && decisionLog != null && decisionLog.committed(transactionId)) {
+            decision = true;
+        }
+        if (decision == null) {
+            //Not decided yet, or its commit is not durable yet
+            if (TransactionIds.coordinatorOf(transactionId) != id || mapTransaction2Client.containsKey(transactionId)) {
+                return;
+            }
+            EventLog.debug(name(), "presumed-abort", transactionId, "previous",
+                    sequences.isPrevious(TransactionIds.sequenceOf(transactionId)));
+            decision = false;
+        }
+        getSender().tell(new Message.DecisionMsg(transactionId, decision), getSelf());
+    }
+
+    private void onDecisionAckMsg(Message.DecisionAckMsg msg) {
+        HashSet<ActorRef> waiting = awaitingAck.get(msg.transactionId);
+        if (waiting != null) {
+            waiting.remove(getSender());
+            if (waiting.isEmpty()) {
+                awaitingAck.remove(msg.transactionId);
+                decisionHistory.acknowledged(msg.transactionId);
+                if (decisionLog != null) {
+                    decisionLog.acknowledged(msg.transactionId);
+                }
+                getTimers().cancel(TimerKey.ack(msg.transactionId));
+            }
+        }
     }
 
-    boolean allVotedYes(String transactionId) {
-        return (yesVoters.get(transactionId).size() == mapServerByKey.size());
+    /*
+     * Some servers did not acknowledge the decision in time, send it to them again
+     */
+    private void onAckTimeout(Message.AckTimeout msg) {
+        HashSet<ActorRef> waiting = awaitingAck.get(msg.transactionId);
+        if (waiting != null) {
+            for (ActorRef p : waiting) {
+                p.tell(new Message.DecisionMsg(msg.transactionId, decisionOf(msg.transactionId)), getSelf());
+            }
+            setAckTimeout(msg.transactionId, Math.min(2 * msg.delay, Main.MAX_TIMEOUT));
+        }
     }
 
-    void tellDecision2Client(String transactionId) {
+    private void setAckTimeout(long transactionId, int delay) {
+        getTimers().startSingleTimer(TimerKey.ack(transactionId), new Message.AckTimeout(transactionId, delay),
+                Duration.ofMillis(delay));
+    }
+
+    /*
+     * Longest vote timeout of the given servers, ms
+     */
+    private int timeoutOf(HashSet<ActorRef> servers) {
+        int timeout = Main.MIN_TIMEOUT;
+        for (ActorRef server : servers) {
+            timeout = Math.max(timeout, voteTimeouts.get(server).timeout());
+        }
+        return timeout;
+    }
+
+    private void onTimeoutStatsRequest(Message.TimeoutStatsRequest msg) {
+        TimeoutStats stats = new TimeoutStats();
+        for (Map.Entry<ActorRef, AdaptiveTimeout> timeout : voteTimeouts.entrySet()) {
+            stats.addVote(name() + " votes of " + timeout.getKey().path().name(), timeout.getValue());
+        }
+        getSender().tell(stats, getSelf());
+    }
+
+    boolean allVotedYes(long transactionId) {
+        return (yesVoters.get(transactionId).size() == voters.get(transactionId).size());
+    }
+
+    void tellDecision2Client(long transactionId) {
         try {
             ActorRef client = mapTransaction2Client.get(transactionId);
             boolean txnResult = mapTransaction2Decision.get(transactionId);
             mapTransaction2Decision.remove(transactionId);
-            mapClient2Transaction.remove(client);
             mapTransaction2Client.remove(transactionId);
             yesVoters.remove(transactionId);
-            client.tell(new Message.TxnResultMsg(txnResult, transactionId), getSelf());
+            voters.remove(transactionId);
+            participants.remove(transactionId);
+            writers.remove(transactionId);
+            //Decided, the votes are no longer waited for
+            voteSentAt.remove(transactionId);
+            cancelTimeout(transactionId);
+            AbortCause cause = abortCause.remove(transactionId);
+            client.tell(new Message.TxnResultMsg(txnResult, transactionId, txnResult ? null : cause), getSelf());
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    @Override
+    protected boolean retainDecisions() {
+        return true;
+    }
+
+    @Override
+    protected TimerKey timeoutKey(long transactionId) {
+        return TimerKey.vote(transactionId);
+    }
+
     @Override
     protected void onRecovery(Message.Recovery msg) {
         getContext().become(createReceive());
-        for (String transactionId : mapTransaction2Decision.keySet()) {
+        // ack timeouts were dropped while crashed
+        for (long transactionId : awaitingAck.keys()) {
+            setAckTimeout(transactionId, timeoutOf(awaitingAck.get(transactionId)));
+        }
+        //The commits logged before the crash are durable once synced, then sent with the other decisions
+        if (decisionLog != null) {
+            decisionLog.sync();
+        }
+        // decideChange removes the transactions from the map, iterate over a copy of the keys
+        for (long transactionId : mapTransaction2Decision.keys()) {
+            if (mapTransaction2Decision.get(transactionId) == null && decisionLog != null
+                    && decisionLog.committed(transactionId)) {
+                fixDecision(transactionId, true);
+            }
             if (mapTransaction2Decision.get(transactionId) == null) {
-                System.out.println(getSelf().toString()+"Recovering "+transactionId+", NOT DECIDED");
-                fixDecision(transactionId, false);
+                EventLog.info(name(), "recover", transactionId, "decided", false);
+                abort(transactionId, AbortCause.COORDINATOR_CRASH);
             }else{
-                System.out.println(getSelf().toString()+"Recovering "+transactionId+" decided before crash");
+                EventLog.info(name(), "recover", transactionId, "decided", true);
             }
             decideChange(transactionId);
         }
     }
 
+    /*
+     * First marker of a snapshot: pass it on to every server. The state of the coordinator is not part of the
+     * snapshot, the markers only separate the decisions sent before it from the ones sent after
+     */
+    private void onSnapshotMarker(Message.SnapshotMarker msg) {
+        if (msg.snapshotId > lastSnapshotId) {
+            lastSnapshotId = msg.snapshotId;
+            for (ActorRef server : mapServerByKey.values()) {
+                server.tell(msg, getSelf());
+            }
+        }
+    }
+
+    /*
+     * A transaction whose TxnHandler ended while crashed is aborted on recovery, as it was not decided
+     */
+    private void onTxnEndedWhileCrashed(Message.TxnEnded msg) {
+        participants.put(msg.transactionId, msg.participants);
+        writers.put(msg.transactionId, msg.writers);
+        mapTransaction2Decision.put(msg.transactionId, null);
+    }
+
+    @Override
+    public Receive crashed() {
+        return receiveBuilder()
+                .match(Message.Recovery.class, this::onRecovery)
+                .match(Message.TxnEnded.class, this::onTxnEndedWhileCrashed)
+                .match(Message.TimeoutStatsRequest.class, this::onTimeoutStatsRequest)
+                .matchAny(msg -> {
+                })
+                .build();
+    }
+
     @Override
     public Receive createReceive() {
         return receiveBuilder()
@@ -211,11 +604,19 @@ public class Coordinator extends Node {
                 .match(Message.ReadMsg.class, this::onReadMsg)
                 .match(Message.ReadResultMsg.class, this::onReadResultMsg)
                 .match(Message.WriteMsg.class, this::onWriteMsg)
+                .match(Message.ReadBatchMsg.class, this::onReadBatchMsg)
+                .match(Message.ReadBatchResultMsg.class, this::onReadBatchResultMsg)
+                .match(Message.WriteBatchMsg.class, this::onWriteBatchMsg)
                 .match(Message.TxnEndMsg.class, this::onTxnEndMsg)
+                .match(Message.TxnEnded.class, this::onTxnEnded)
                 .match(Message.VoteResponseMsg.class, this::onVoteResponseMsg)
-                .match(Message.CheckConsistentResponse.class, this::onCheckConsistentResponseMsg)
                 .match(Message.Timeout.class, this::onTimeout)
                 .match(Message.DecisionRequest.class, this::onDecisionRequest)
+                .match(Message.DecisionAckMsg.class, this::onDecisionAckMsg)
+                .match(Message.AckTimeout.class, this::onAckTimeout)
+                .match(Message.SnapshotMarker.class, this::onSnapshotMarker)
+                .match(Message.TimeoutStatsRequest.class, this::onTimeoutStatsRequest)
+                .match(Message.SyncLog.class, msg -> syncDecisionLog())
                 .build();
     }
 }
\ No newline at end of file
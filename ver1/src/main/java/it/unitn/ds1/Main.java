@@ -2,7 +2,16 @@ package it.unitn.ds1;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.partition.PartitionScheme;
+import it.unitn.ds1.partition.Partitioner;
+import it.unitn.ds1.store.RowStoreType;
+import it.unitn.ds1.workload.Workload;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -11,27 +20,79 @@ public class Main {
     final static int N_COORDINATORS = 5;
     final static int N_CLIENT = 20;
     final static int N_SERVER = 10;
+    final static int N_KEYS = 10 * N_SERVER;
+    final static PartitionScheme PARTITION_SCHEME = PartitionScheme.RANGE;
+    final static RowStoreType ROW_STORE = RowStoreType.PRIMITIVE;
+    // Read-only transactions commit without validation: they never abort, but their reads are only
+    // read-committed (values of different transactions may be mixed). false validates them in one lock-free round
+    final static boolean SNAPSHOT_READS = false;
+    // Directory of the servers' write-ahead logs, null keeps the servers in memory only (TxnBenchmark gives
+    // each run a directory of its own). Replies waiting for their record share one sync for up to
+    // GROUP_COMMIT_WINDOW ms or GROUP_COMMIT_SIZE replies
+    static String walDir = "wal";
+    final static int GROUP_COMMIT_WINDOW = 2;
+    final static int GROUP_COMMIT_SIZE = 64;
+    // A server checkpoints its rows and starts a new log once the log reaches this size,
+    // a restart loads the checkpoint and replays only the log
+    final static long CHECKPOINT_LOG_SIZE = 4 << 20;
+    // What the clients run: 50-60 transfers between two uniform keys, half of them writing, 90% of the
+    // transactions asking for the commit. See Workload for skewed keys and the YCSB-style presets
+    final static Workload WORKLOAD = new Workload(50, 60, 0.5, 0.9);
+    // TXNs begun per second by each client whatever the outcome of its running ones (open loop), 0 for one
+    // TXN at a time (closed loop)
+    final static double CLIENT_RATE = 0;
+    // Dispatchers (thread pools and mailboxes) of the actors, in application.conf
+    final static String SERVER_DISPATCHER = "txn.server-dispatcher";
+    final static String COORDINATOR_DISPATCHER = "txn.coordinator-dispatcher";
+    final static String CLIENT_DISPATCHER = "txn.client-dispatcher";
+    // Events logged by the nodes (see EventLog), DEBUG for every step
+    final static EventLog.Level LOG_LEVEL = EventLog.Level.INFO;
+    // Results of the consistency checks, one line per check, taken every CHECK_INTERVAL ms (0 for only on
+    // demand) on the running system
+    final static String CHECK_FILE = "sum.txt";
+    final static int CHECK_INTERVAL = 1000;
+    final static Duration CHECK_TIMEOUT = Duration.ofSeconds(10);
+    // The vote and decision timeouts start from the constants of Coordinator and Server, then follow the latency
+    // observed on each channel: smoothed latency plus TIMEOUT_DEVIATIONS times its deviation, within
+    // [MIN_TIMEOUT, MAX_TIMEOUT] ms (see AdaptiveTimeout). The floor keeps a few fast samples from timing out on a
+    // GC pause or a checkpoint
+    final static int TIMEOUT_DEVIATIONS = 4;
+    final static int MIN_TIMEOUT = 500;
+    final static int MAX_TIMEOUT = 10000;
+    // Turned off by TxnBenchmark: the simulated crashes, unless asked for
+    static boolean injectCrashes = true;
 
-    public static void main(String[] args) {
-        final ActorSystem system = ActorSystem.create("distributed-transactions");
+    public static void main(String[] args) throws Exception {
+        EventLog.setLevel(LOG_LEVEL);
+        final Partitioner partitioner = PARTITION_SCHEME.create(N_KEYS, N_SERVER);
+        final ActorSystem system;
+        List<ActorRef> servers;
+        List<ActorRef> coordinators;
+        //--cluster: servers and coordinators in processes of their own, see TxnCluster
+        TxnCluster cluster = null;
+        if (args.length > 0 && args[0].equals("--cluster")) {
+            cluster = TxnCluster.start(N_SERVER, N_COORDINATORS, N_KEYS, 0, 0, "");
+            System.out.println("Cluster: " + cluster.layout);
+            system = cluster.system;
+            servers = cluster.servers;
+            coordinators = cluster.coordinators;
+        } else {
+            system = ActorSystem.create("distributed-transactions");
 
-        //Construct servers
-        HashMap<Integer, ActorRef> mapServerByKey = new HashMap<>();
-        List<ActorRef> servers = new ArrayList<>();
-        for(int i=0; i<N_SERVER; i++){
-            HashMap<Integer, Server.Value> data = new HashMap<>();
-            for(int j=0; j<10; j++){
-                data.put(10*i+j, new Server.Value(0, 100));
+            //Construct servers
+            HashMap<Integer, ActorRef> mapServerByKey = new HashMap<>();
+            servers = new ArrayList<>();
+            for(int i=0; i<N_SERVER; i++){
+                ActorRef server = system.actorOf(Server.props(i, partitioner), "server-"+i);
+                mapServerByKey.put(i, server);
+                servers.add(server);
             }
-            ActorRef server = system.actorOf(Server.props(i, data), "server-"+i);
-            mapServerByKey.put(i, server);
-            servers.add(server);
-        }
 
-        //Construct the coordinators
-        List<ActorRef> coordinators = new ArrayList<>();
-        for (int i = 0; i < N_COORDINATORS; i++) {
-            coordinators.add(system.actorOf(Coordinator.props(i, mapServerByKey), "coordinator-" + i));
+            //Construct the coordinators
+            coordinators = new ArrayList<>();
+            for (int i = 0; i < N_COORDINATORS; i++) {
+                coordinators.add(system.actorOf(Coordinator.props(i, mapServerByKey, partitioner), "coordinator-" + i));
+            }
         }
 
         //For each server initialize coordinator and other data-store
@@ -42,12 +103,34 @@ public class Main {
         //Construct client
         List<ActorRef> clients = new ArrayList<>();
         for (int i = 0; i < N_CLIENT; i++) {
-            clients.add(system.actorOf(TxnClient.props(i), "client-" + i));
+            clients.add(system.actorOf(TxnClient.props(i, CLIENT_RATE), "client-" + i));
         }
 
-        Message.WelcomeMsg start = new Message.WelcomeMsg(N_SERVER*10-1, coordinators);
+        //The first check gives the sum the next ones must find, taken before the clients start
+        ActorRef checker = system.actorOf(ConsistencyChecker.props(coordinators, servers, CHECK_FILE, CHECK_INTERVAL), "checker");
+        int checkId = 0;
+        Patterns.ask(checker, new Message.CheckConsistentRequest(checkId++), CHECK_TIMEOUT).toCompletableFuture().get();
+
+        Message.WelcomeMsg start = new Message.WelcomeMsg(N_KEYS-1, coordinators, WORKLOAD);
         for (ActorRef c : clients) {
             c.tell(start, null);
         }
+
+        //Debug commands: "d" prints the data of every server, "s" checks the sum of the values
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = input.readLine()) != null) {
+            if (line.trim().equals("d")) {
+                for (ActorRef server : servers) {
+                    server.tell(new Message.DumpRequest(), null);
+                }
+            } else if (line.trim().equals("s")) {
+                checker.tell(new Message.CheckConsistentRequest(checkId++), null);
+            }
+        }
+        //End of the input: the nodes of a cluster would not outlive this JVM anyway
+        if (cluster != null) {
+            cluster.stop();
+        }
     }
 }
\ No newline at end of file
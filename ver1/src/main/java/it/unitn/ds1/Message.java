@@ -1,30 +1,39 @@
 package it.unitn.ds1;
 
 import akka.actor.ActorRef;
+import it.unitn.ds1.bench.TxnStats;
+import it.unitn.ds1.serial.ProtocolMessage;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.TransactionIds;
+import it.unitn.ds1.workload.Workload;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 public class Message {
-    // message the client sends to a coordinator to begin the TXN
-    public static class TxnBeginMsg implements Serializable {
+    // message the client sends to a coordinator to begin a TXN
+    public static class TxnBeginMsg implements ProtocolMessage {
         public final Integer clientId;
+        public final Integer requestId; // returned in TxnAcceptMsg
 
-        public TxnBeginMsg(int clientId) {
+        public TxnBeginMsg(int clientId, int requestId) {
             this.clientId = clientId;
+            this.requestId = requestId;
         }
     }
 
     // READ request from the client to the coordinator
-    public static class ReadMsg implements Serializable {
+    public static class ReadMsg implements ProtocolMessage {
         public final Integer clientId;
         public final Integer key; // the key of the value to read
-        public String transactionId;
+        public long transactionId;
 
-        public ReadMsg(int clientId, int key) {
+        public ReadMsg(int clientId, long transactionId, int key) {
             this.clientId = clientId;
+            this.transactionId = transactionId;
             this.key = key;
         }
 
@@ -33,19 +42,21 @@ public class Message {
             return "ReadMsg{" +
                     "clientId=" + clientId +
                     ", key=" + key +
-                    ", transactionId='" + transactionId + '\'' +
+                    ", transactionId=" + TransactionIds.toString(transactionId) +
                     '}';
         }
     }
 
-    // send this message to the client at startup to inform it about the coordinators and the keys
+    // send this message to the client at startup to inform it about the coordinators, the keys and the workload
     public static class WelcomeMsg implements Serializable {
         public final Integer maxKey;
         public final List<ActorRef> coordinators;
+        public final Workload workload;
 
-        public WelcomeMsg(int maxKey, List<ActorRef> coordinators) {
+        public WelcomeMsg(int maxKey, List<ActorRef> coordinators, Workload workload) {
             this.maxKey = maxKey;
             this.coordinators = Collections.unmodifiableList(new ArrayList<>(coordinators));
+            this.workload = workload;
         }
     }
 
@@ -53,47 +64,122 @@ public class Message {
     public static class StopMsg implements Serializable {
     }
 
-    // reply from the coordinator receiving TxnBeginMsg
-    public static class TxnAcceptMsg implements Serializable {
+    // sent by TxnBenchmark before WelcomeMsg: record the outcome of each TXN and stop after the given number
+    // of TXNs (0 for no limit)
+    public static class MeasureMsg implements Serializable {
+        public final int transactions;
+
+        public MeasureMsg(int transactions) {
+            this.transactions = transactions;
+        }
+    }
+
+    // sent by TxnBenchmark: stop beginning TXNs and reply with the TxnStats, once the TXNs of MeasureMsg are done
+    public static class ReportMsg implements Serializable {
+    }
+
+    // reply from the coordinator receiving TxnBeginMsg, with the id of the new TXN
+    public static class TxnAcceptMsg implements ProtocolMessage {
+        public final Integer requestId;
+        public final long transactionId;
+
+        public TxnAcceptMsg(int requestId, long transactionId) {
+            this.requestId = requestId;
+            this.transactionId = transactionId;
+        }
     }
 
     // the client may timeout waiting for TXN begin confirmation (TxnAcceptMsg)
     public static class TxnAcceptTimeoutMsg implements Serializable {
+        public final Integer requestId;
+
+        public TxnAcceptTimeoutMsg(int requestId) {
+            this.requestId = requestId;
+        }
+    }
+
+    // sent by the client to itself: the think time elapsed (closed loop), or the next arrival tick (open loop)
+    public static class NextTxnMsg implements Serializable {
     }
 
     // message the client sends to a coordinator to end the TXN;
-    // it may ask for commit (with probability COMMIT_PROBABILITY), or abort
-    public static class TxnEndMsg implements Serializable {
+    // it may ask for commit (with the commit probability of the workload), or abort
+    public static class TxnEndMsg implements ProtocolMessage {
         public final Integer clientId;
+        public final long transactionId;
         public final Boolean commit; // if false, the transaction should abort
 
-        public TxnEndMsg(int clientId, boolean commit) {
+        public TxnEndMsg(int clientId, long transactionId, boolean commit) {
             this.clientId = clientId;
+            this.transactionId = transactionId;
             this.commit = commit;
         }
     }
 
     // WRITE request from the client to the coordinator
-    public static class WriteMsg implements Serializable {
+    public static class WriteMsg implements ProtocolMessage {
         public final Integer clientId;
         public final Integer key; // the key of the value to write
         public final Integer value; // the new value to write
-        public String transactionID;
+        public long transactionID;
 
-        public WriteMsg(int clientId, int key, int value) {
+        public WriteMsg(int clientId, long transactionID, int key, int value) {
             this.clientId = clientId;
+            this.transactionID = transactionID;
             this.key = key;
             this.value = value;
         }
     }
 
+    // READ request for several keys at once, sent by the coordinator to each server with its own keys; the
+    // server replies with a single ReadBatchResultMsg, which the coordinator forwards to the client
+    public static class ReadBatchMsg implements ProtocolMessage {
+        public final Integer clientId;
+        public final long transactionId;
+        public final int[] keys; // the keys of the values to read
+
+        public ReadBatchMsg(int clientId, long transactionId, int[] keys) {
+            this.clientId = clientId;
+            this.transactionId = transactionId;
+            this.keys = keys;
+        }
+    }
+
+    // WRITE request for several keys at once, split by server by the coordinator
+    public static class WriteBatchMsg implements ProtocolMessage {
+        public final Integer clientId;
+        public final long transactionId;
+        public final int[] keys; // the keys of the values to write
+        public final int[] values; // the new values, in the order of the keys
+
+        public WriteBatchMsg(int clientId, long transactionId, int[] keys, int[] values) {
+            this.clientId = clientId;
+            this.transactionId = transactionId;
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    // reply of a server to a ReadBatchMsg
+    public static class ReadBatchResultMsg implements ProtocolMessage {
+        public final long transactionId;
+        public final int[] keys;
+        public final int[] values; // in the order of the keys
+
+        public ReadBatchResultMsg(long transactionId, int[] keys, int[] values) {
+            this.transactionId = transactionId;
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
     // reply from the coordinator when requested a READ on a given key
-    public static class ReadResultMsg implements Serializable {
+    public static class ReadResultMsg implements ProtocolMessage {
         public final Integer key; // the key associated to the requested item
         public final Integer value; // the value found in the data store for that item
-        public String transactionId;
+        public long transactionId;
 
-        public ReadResultMsg(int key, int value, String transactionId) {
+        public ReadResultMsg(int key, int value, long transactionId) {
             this.key = key;
             this.value = value;
             this.transactionId = transactionId;
@@ -104,85 +190,183 @@ public class Message {
             return "ReadResultMsg{" +
                     "key=" + key +
                     ", value=" + value +
-                    ", transactionId='" + transactionId + '\'' +
+                    ", transactionId=" + TransactionIds.toString(transactionId) +
                     '}';
         }
     }
 
     // message from the coordinator to the client with the outcome of the TXN
-    public static class TxnResultMsg implements Serializable {
+    public static class TxnResultMsg implements ProtocolMessage {
         public final Boolean commit; // if false, the transaction was aborted
-        public final String transactionId;
+        public final long transactionId;
+        public final AbortCause cause; // why it was aborted, null if committed
 
-        public TxnResultMsg(boolean commit, String transactionId) {
+        public TxnResultMsg(boolean commit, long transactionId, AbortCause cause) {
             this.commit = commit;
             this.transactionId = transactionId;
+            this.cause = cause;
         }
     }
 
-    public static class VoteRequestMsg implements Serializable {
-        public String transactionId;
+    public static class VoteRequestMsg implements ProtocolMessage {
+        public long transactionId;
+        // the transaction wrote nothing: the server validates without locking and expects no decision
+        public final boolean readOnly;
 
-        public VoteRequestMsg(String transactionId) {
+        public VoteRequestMsg(long transactionId, boolean readOnly) {
             this.transactionId = transactionId;
+            this.readOnly = readOnly;
         }
     }
 
-    public static class VoteResponseMsg implements Serializable {
+    public static class VoteResponseMsg implements ProtocolMessage {
         public final boolean commit;
-        public String transactionId;
+        public final AbortCause cause; // why the vote is no, null for yes
+        public long transactionId;
 
-        public VoteResponseMsg(String transactionId, boolean commit) {
+        public VoteResponseMsg(long transactionId, AbortCause cause) {
             this.transactionId = transactionId;
-            this.commit = commit;
+            this.commit = cause == null;
+            this.cause = cause;
         }
     }
 
-    public static class DecisionMsg implements Serializable {
+    public static class DecisionMsg implements ProtocolMessage {
         public final boolean commit;
-        public String transactionId;
+        public long transactionId;
 
-        public DecisionMsg(String transactionId, boolean commit) {
+        public DecisionMsg(long transactionId, boolean commit) {
             this.transactionId = transactionId;
             this.commit = commit;
         }
     }
 
-    public static class CheckConsistentRequest implements Serializable {
-        public String transactionId;
+    // the server applied (or discarded) a decision, sent to the coordinator of the transaction
+    public static class DecisionAckMsg implements ProtocolMessage {
+        public final long transactionId;
+
+        public DecisionAckMsg(long transactionId) {
+            this.transactionId = transactionId;
+        }
+    }
 
-        public CheckConsistentRequest(String transactionId) {
+    public static class AckTimeout implements Serializable {
+        public final long transactionId;
+        public final int delay; // ms waited, doubled for the next one
+        public AckTimeout(long transactionId, int delay){
             this.transactionId = transactionId;
+            this.delay = delay;
+        }
+    }
+
+    // asks the ConsistencyChecker for a check, which takes a snapshot of the servers
+    public static class CheckConsistentRequest implements Serializable {
+        public final int checkId;
+
+        public CheckConsistentRequest(int checkId) {
+            this.checkId = checkId;
         }
     }
 
-    public static class CheckConsistentResponse implements Serializable {
+    // part of a snapshot taken by a server, sent to the ConsistencyChecker once complete
+    public static class CheckConsistentResponse implements ProtocolMessage {
         public final int sum;
-        public final String transactionId;
+        public final int checkId; // of the snapshot
 
-        public CheckConsistentResponse(int sum, String transactionId) {
+        public CheckConsistentResponse(int sum, int checkId) {
             this.sum = sum;
-            this.transactionId = transactionId;
+            this.checkId = checkId;
         }
     }
 
+    // the ConsistencyChecker replies with the sum of all the servers in the snapshot
+    public static class CheckConsistentResult implements Serializable {
+        public final int checkId;
+        public final int sum;
+        public final boolean consistent;
+        public final int violations; // checks so far which found another sum than the first one
+
+        public CheckConsistentResult(int checkId, int sum, boolean consistent, int violations) {
+            this.checkId = checkId;
+            this.sum = sum;
+            this.consistent = consistent;
+            this.violations = violations;
+        }
+    }
+
+    // marker of a consistent snapshot, sent on every channel from the coordinators to the servers,
+    // the servers to the coordinators and between servers
+    public static class SnapshotMarker implements ProtocolMessage {
+        public final int snapshotId;
+        public final ActorRef checker; // collects the parts of the snapshot
+
+        public SnapshotMarker(int snapshotId, ActorRef checker) {
+            this.snapshotId = snapshotId;
+            this.checker = checker;
+        }
+    }
+
+    // debug command: the server prints all its data
+    public static class DumpRequest implements Serializable {
+    }
+
+    // asked by TxnBenchmark, the server replies with a copy of its LockHoldStats
+    public static class LockStatsRequest implements Serializable {
+    }
+
+    // asked by TxnBenchmark, the node replies with the TimeoutStats of its adaptive timeouts
+    public static class TimeoutStatsRequest implements Serializable {
+    }
+
     public static class Recovery implements Serializable {
     }
 
+    // from a TxnHandler to its coordinator when the client ends the TXN, with the servers it read from or wrote to
+    public static class TxnEnded implements Serializable {
+        public final long transactionId;
+        public final Boolean commit;
+        public final HashSet<ActorRef> participants;
+        public final HashSet<ActorRef> writers;
+
+        public TxnEnded(long transactionId, boolean commit, HashSet<ActorRef> participants,
+                        HashSet<ActorRef> writers) {
+            this.transactionId = transactionId;
+            this.commit = commit;
+            this.participants = participants;
+            this.writers = writers;
+        }
+    }
+
     public static class Timeout implements Serializable {
-        public final String transactionId;
-        public Timeout(String transactionId){
+        public final long transactionId;
+        public Timeout(long transactionId){
             this.transactionId = transactionId;
         }
     }
 
-    public static class DecisionRequest implements Serializable {
-        public final String transactionId;
-        public DecisionRequest(String transactionId){
+    public static class DecisionRequest implements ProtocolMessage {
+        public final long transactionId;
+        public DecisionRequest(long transactionId){
             this.transactionId = transactionId;
         }
     }
 
+    public static class SyncLog implements Serializable {
+    }
+
+    // the ConsistencyChecker gives up on a snapshot which is not complete in time (a node is crashed)
+    public static class CheckTimeout implements Serializable {
+        public final int snapshotId;
+
+        public CheckTimeout(int snapshotId) {
+            this.snapshotId = snapshotId;
+        }
+    }
+
+    // the ConsistencyChecker takes a snapshot every CHECK_INTERVAL
+    public static class CheckTick implements Serializable {
+    }
+
     public static class InitialSetting implements Serializable{
         public final List<ActorRef> coordinators;
         public final List<ActorRef> servers;
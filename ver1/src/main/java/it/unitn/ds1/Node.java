@@ -1,54 +1,110 @@
 package it.unitn.ds1;
 
-import akka.actor.AbstractActor;
-import scala.concurrent.duration.Duration;
-
-import java.util.HashMap;
+import akka.actor.AbstractActorWithTimers;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.txn.AdaptiveTimeout;
+import it.unitn.ds1.txn.DecisionHistory;
+import it.unitn.ds1.txn.TimerKey;
+import it.unitn.ds1.txn.TransactionIds;
+import it.unitn.ds1.util.LongMap;
+import java.time.Duration;
 import java.util.Random;
-import java.util.concurrent.TimeUnit;
 
-public abstract class Node extends AbstractActor {
-    protected HashMap<String, Boolean> mapTransaction2Decision;
+/*
+ * Crash simulation and decisions shared by servers and coordinators. The timeouts of the protocol are timers of the
+ * node keyed by transaction (TimerKey): setting one again replaces it, and it is cancelled once decided
+ */
+public abstract class Node extends AbstractActorWithTimers {
+    // transactions in progress at this node, mapped to null until decided
+    protected LongMap<Boolean> mapTransaction2Decision;
+    // bounded record of the decisions, used to answer DecisionRequest
+    protected DecisionHistory decisionHistory;
     protected final Random r;
+    private String name;
 
     public Node() {
-        mapTransaction2Decision = new HashMap<>();
+        mapTransaction2Decision = new LongMap<>();
+        decisionHistory = new DecisionHistory();
         r = new Random();
     }
 
     protected abstract void onRecovery(Message.Recovery msg);
 
-    void fixDecision(String transactionId, boolean commit) {
-        mapTransaction2Decision.putIfAbsent(transactionId, commit);
+    /*
+     * Whether decisions taken by this node must be kept until acknowledged by the participants
+     */
+    protected abstract boolean retainDecisions();
+
+    /*
+     * Key of the Timeout of a transaction: its votes at a coordinator, its decision at a server
+     */
+    protected abstract TimerKey timeoutKey(long transactionId);
+
+    void fixDecision(long transactionId, boolean commit) {
+        if (mapTransaction2Decision.containsKey(transactionId))
+            mapTransaction2Decision.putIfAbsent(transactionId, commit);
+        decisionHistory.record(transactionId, commit, retainDecisions());
+    }
+
+    /*
+     * Decision known for transactionId, null if undecided or forgotten
+     */
+    Boolean decisionOf(long transactionId) {
+        Boolean decision = mapTransaction2Decision.get(transactionId);
+        return decision != null ? decision : decisionHistory.lookup(transactionId);
     }
 
     public void onDecisionRequest(Message.DecisionRequest msg) {
-        String transactionId = msg.transactionId;
-        if (mapTransaction2Decision.get(transactionId) != null) {
-            getSender().tell(new Message.DecisionMsg(transactionId, mapTransaction2Decision.get(transactionId)), getSelf());
+        long transactionId = msg.transactionId;
+        Boolean decision = decisionOf(transactionId);
+        if (decision != null) {
+            getSender().tell(new Message.DecisionMsg(transactionId, decision), getSelf());
         }
 
     }
 
+    /*
+     * Whether to simulate a crash now, with the given probability
+     */
+    boolean shouldCrash(double probability) {
+        return Main.injectCrashes && r.nextDouble() < probability;
+    }
+
+    /*
+     * Name of the actor in the events it logs (see EventLog)
+     */
+    String name() {
+        if (name == null)
+            name = getSelf().path().name();
+        return name;
+    }
+
     void crash(int recoverIn) {
         getContext().become(crashed());
-        System.out.println(getSelf().toString() + " CRASH!!!!!!!");
+        EventLog.info(name(), "crash", TransactionIds.NONE, "recoverIn", recoverIn);
 
         getContext().system().scheduler().scheduleOnce(
-                Duration.create(recoverIn, TimeUnit.MILLISECONDS),
+                Duration.ofMillis(recoverIn),
                 getSelf(),
                 new Message.Recovery(),
                 getContext().system().dispatcher(), getSelf()
         );
     }
 
-    void setTimeout(int time, String transactionId) {
-        getContext().system().scheduler().scheduleOnce(
-                Duration.create(time, TimeUnit.MILLISECONDS),
-                getSelf(),
-                new Message.Timeout(transactionId),
-                getContext().system().dispatcher(), getSelf()
-        );
+    /*
+     * New adaptive timeout starting from initial ms, see Main.TIMEOUT_DEVIATIONS
+     */
+    static AdaptiveTimeout adaptiveTimeout(int initial) {
+        return new AdaptiveTimeout(initial, Main.MIN_TIMEOUT, Main.MAX_TIMEOUT, Main.TIMEOUT_DEVIATIONS);
+    }
+
+    void setTimeout(int time, long transactionId) {
+        getTimers().startSingleTimer(timeoutKey(transactionId), new Message.Timeout(transactionId),
+                Duration.ofMillis(time));
+    }
+
+    void cancelTimeout(long transactionId) {
+        getTimers().cancel(timeoutKey(transactionId));
     }
 
     public Receive crashed() {
@@ -2,71 +2,118 @@ package it.unitn.ds1;
 
 import akka.actor.ActorRef;
 import akka.actor.Props;
-
+import it.unitn.ds1.bench.TimeoutStats;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.partition.Partitioner;
+import it.unitn.ds1.snapshot.LocalSnapshot;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.AdaptiveTimeout;
+import it.unitn.ds1.txn.TimerKey;
+import it.unitn.ds1.txn.TransactionIds;
+import it.unitn.ds1.util.LongMap;
+import it.unitn.ds1.store.ChangeSet;
+import it.unitn.ds1.store.RowStore;
+import it.unitn.ds1.wal.Checkpoint;
+import it.unitn.ds1.wal.StorageLayout;
+import it.unitn.ds1.wal.WriteAheadLog;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.*;
 
 public class Server extends Node {
     protected int id;
-    protected Map<Integer, Value> data;
-    protected Map<String, HashMap<Integer, Value>> workspace;
-    protected boolean[] validationLock;
+    protected final Partitioner partitioner;
+    protected ServerState state;
     protected List<ActorRef> coordinators;
     protected List<ActorRef> servers;
+    // durable log, and the replies waiting for the sync covering their record
+    private WriteAheadLog wal;
+    //Keys, partitioning and id the durable state was written for (see StorageLayout)
+    private long layout;
+    private final List<ActorRef> deferredTo = new ArrayList<>();
+    private final List<Serializable> deferredReplies = new ArrayList<>();
+    // snapshot being taken, null once its part was sent to the checker
+    private LocalSnapshot<ActorRef> snapshot;
+    private int lastSnapshotId = -1;
     private final int DECISION_TIMEOUT = 1000;
+    // when the prepared transactions voted yes (System.nanoTime()), and the timeout of their decision, following
+    // the time the decisions took
+    private final LongMap<Long> votedAt = new LongMap<>();
+    private final AdaptiveTimeout decisionTimeout = adaptiveTimeout(DECISION_TIMEOUT);
     private static final double CRASH_PROBABILITY = 0.5;
 
-    public static class Value {
-        private int version;
-        private int value;
-
-        public int getVersion() {
-            return version;
-        }
-
-        public int getValue() {
-            return value;
-        }
-
-        public void setValue(int value) {
-            this.value = value;
-        }
+    public Server(int id, Partitioner partitioner) {
+        super();
+        this.id = id;
+        this.partitioner = partitioner;
+    }
 
-        public void setVersion(int version) {
-            this.version = version;
-        }
+    static public Props props(int id, Partitioner partitioner) {
+        return Props.create(Server.class, () -> new Server(id, partitioner))
+                .withDispatcher(Main.SERVER_DISPATCHER);
+    }
 
-        public Value(int version, int value) {
-            this.version = version;
-            this.value = value;
+    @Override
+    public void preStart() {
+        Checkpoint checkpoint = null;
+        layout = StorageLayout.of(partitioner, id);
+        //State left by a run with other keys or servers is not recovered
+        if (Main.walDir != null)
+            checkpoint = Checkpoint.read(storageFile(".ckpt"), Main.ROW_STORE, layout);
+        //Start from the latest checkpoint if any, otherwise from the initial rows of the keys of this server
+        if (checkpoint != null) {
+            state = new ServerState(checkpoint.data());
+        } else {
+            int[] keys = partitioner.keysOf(id);
+            RowStore data = Main.ROW_STORE.create(keys.length);
+            for (int key : keys) {
+                data.put(key, 0, 100);
+            }
+            state = new ServerState(data);
         }
-
-        @Override
-        public String toString() {
-            return "Value{" +
-                    "version=" + version +
-                    ", value=" + value +
-                    '}';
+        if (Main.walDir != null) {
+            wal = new WriteAheadLog(storageFile(".wal"), layout);
+            if (wal.discarded())
+                EventLog.info(name(), "discard", TransactionIds.NONE, "log", wal.getFile(), "cause", "layout");
+            //A log older than the checkpoint is already part of it
+            if (checkpoint != null && wal.generation() < checkpoint.generation())
+                wal.reset(checkpoint.generation());
+            replayLog(checkpoint != null ? checkpoint.prepared() : new LongMap<>());
         }
     }
 
-    public Server(int id, Map<Integer, Value> data) {
-        super();
-        this.id = id;
-        this.data = data;
-        this.workspace = new HashMap<>();
-        constructValidationLock();
+    @Override
+    public void postStop() {
+        if (wal != null)
+            wal.close();
     }
 
-    private void constructValidationLock() {
-        Set<Integer> listKey = data.keySet();
-        validationLock = new boolean[listKey.size()];
-        for (Integer k : listKey) {
-            validationLock[k % 10] = false;
-        }
-    }
+    /*
+     * Rebuild the state left by a previous run: apply the committed writes and lock again the prepared ones
+     */
+    private void replayLog(LongMap<ChangeSet> prepared) {
+        wal.replay(new WriteAheadLog.Replay() {
+            @Override
+            public void prepared(long transactionId, ChangeSet changes) {
+                prepared.put(transactionId, changes);
+            }
 
-    static public Props props(int id, Map<Integer, Value> data) {
-        return Props.create(Server.class, () -> new Server(id, data));
+            @Override
+            public void decided(long transactionId, boolean commit) {
+                ChangeSet changes = prepared.remove(transactionId);
+                if (changes != null && commit)
+                    state.applyWrites(changes);
+            }
+        });
+        for (long transactionId : prepared.keys()) {
+            state.restore(transactionId, prepared.get(transactionId));
+            mapTransaction2Decision.put(transactionId, null);
+            setTimeout(decisionTimeout.timeout(), transactionId);
+        }
+        EventLog.info(name(), "replay", TransactionIds.NONE, "log", wal, "prepared", prepared.size());
     }
 
     private void initialSetting(Message.InitialSetting msg){
@@ -78,167 +125,239 @@ public class Server extends Node {
      * Receiving read message
      */
     private void onReadMsg(Message.ReadMsg msg) {
-        ActorRef coordinator = getSender();
-        int value;
-
-        // Check in private workspace that if this transaction are modifying value, return modifying value
-        if (workspace.containsKey(msg.transactionId)) {
-            HashMap<Integer, Value> modifiedWorkspace = workspace.get(msg.transactionId);
-            if (modifiedWorkspace.containsKey(msg.key)) {
-                value = modifiedWorkspace.get(msg.key).getValue();
-            } else {
-                value = data.get(msg.key).getValue();
-            }
-        }
-        // Construct new workspace which is a copy of result in actual store
-        else {
-            Value modifyingValue = data.get(msg.key);
-            value = modifyingValue.getValue();
-            HashMap<Integer, Value> modifyingWorkspace = new HashMap<>();
-            modifyingWorkspace.put(msg.key, new Value(modifyingValue.getVersion(), value));
-            workspace.put(msg.transactionId, modifyingWorkspace);
-        }
-        coordinator.tell(new Message.ReadResultMsg(msg.key, value, msg.transactionId), getSelf());
+        int value = state.read(msg.transactionId, msg.key);
+        getSender().tell(new Message.ReadResultMsg(msg.key, value, msg.transactionId), getSelf());
     }
 
     /*
      * Receiving write message
      */
     private void onWriteMsg(Message.WriteMsg msg) {
-        // Check in private workspace that if this transaction are modifying value, modifying value in private workspace
-        if (workspace.containsKey(msg.transactionID)) {
-            HashMap<Integer, Value> modifiedWorkspace = workspace.get(msg.transactionID);
-            if (modifiedWorkspace.containsKey(msg.key)) {
-                Value modifiedValue = modifiedWorkspace.get(msg.key);
-                modifiedValue.setValue(msg.value);
-                modifiedWorkspace.put(msg.key, modifiedValue);
-            } else {
-                Value modifyingValue = data.get(msg.key);
-                modifiedWorkspace.put(msg.key, new Value(modifyingValue.getVersion(), msg.value));
-            }
+        state.write(msg.transactionID, msg.key, msg.value);
+    }
+
+    /*
+     * Receiving read message for several keys, answered with a single message
+     */
+    private void onReadBatchMsg(Message.ReadBatchMsg msg) {
+        int[] values = new int[msg.keys.length];
+        for (int i = 0; i < msg.keys.length; i++) {
+            values[i] = state.read(msg.transactionId, msg.keys[i]);
         }
-        // Construct new workspace which is a copy of result in actual store and modify the constructed copy
-        else {
-            Value modifyingValue = data.get(msg.key);
-            HashMap<Integer, Value> modifyingWorkspace = new HashMap<>();
-            modifyingWorkspace.put(msg.key, new Value(modifyingValue.getVersion(), msg.value));
-            workspace.put(msg.transactionID, modifyingWorkspace);
+        getSender().tell(new Message.ReadBatchResultMsg(msg.transactionId, msg.keys, values), getSelf());
+    }
+
+    /*
+     * Receiving write message for several keys
+     */
+    private void onWriteBatchMsg(Message.WriteBatchMsg msg) {
+        for (int i = 0; i < msg.keys.length; i++) {
+            state.write(msg.transactionId, msg.keys[i], msg.values[i]);
         }
     }
 
     private void onVoteRequestMsg(Message.VoteRequestMsg msg) {
         ActorRef coordinator = getSender();
-        mapTransaction2Decision.put(msg.transactionId, null);
 
         // If does not contain any modification of sending transactionId, this server can commit
-        if (!workspace.containsKey(msg.transactionId)) {
-            coordinator.tell(new Message.VoteResponseMsg(msg.transactionId, true), getSelf());
+        if (!state.hasWorkspace(msg.transactionId)) {
+            coordinator.tell(new Message.VoteResponseMsg(msg.transactionId, null), getSelf());
+        }
+        //Read-only transaction: validate the versions read without locking, the transaction is over here
+        else if (msg.readOnly) {
+            coordinator.tell(new Message.VoteResponseMsg(msg.transactionId, state.validateReadOnly(msg.transactionId)), getSelf());
         }
         //Validation-phase
         else {
-            HashMap<Integer, Value> modifiedWorkspace = workspace.get(msg.transactionId);
-            // Check each modifying data-item is in validation phase of other transaction
-            for (Integer key : modifiedWorkspace.keySet()) {
-                if (validationLock[key % 10]) {
-                    fixDecision(msg.transactionId, false);
-                    coordinator.tell(new Message.VoteResponseMsg(msg.transactionId, false), getSelf());
-                    return;
-                }
-                validationLock[key % 10] = true;
-            }
-
-            //Check if there is exist data-item has the different version from stored data-item
-            boolean canCommit = true;
-            for (Integer key : modifiedWorkspace.keySet()) {
-                if (data.get(key).getVersion() != modifiedWorkspace.get(key).getVersion()) {
-                    canCommit = false;
-                    break;
-                }
-            }
-
-            if(!canCommit)
+            mapTransaction2Decision.put(msg.transactionId, null);
+            AbortCause cause = state.prepare(msg.transactionId);
+            if (cause != null) {
                 fixDecision(msg.transactionId, false);
-            coordinator.tell(new Message.VoteResponseMsg(msg.transactionId, canCommit), getSelf());
-            setTimeout(DECISION_TIMEOUT, msg.transactionId);
-            if(r.nextDouble() < CRASH_PROBABILITY){
+                coordinator.tell(new Message.VoteResponseMsg(msg.transactionId, cause), getSelf());
+            } else {
+                //The yes vote waits until the prepared writes are durable
+                if (wal != null)
+                    wal.logPrepare(msg.transactionId, state.writesOf(msg.transactionId));
+                tellDurably(coordinator, new Message.VoteResponseMsg(msg.transactionId, null));
+                //Uncertain until the decision arrives, a no vote already decided
+                votedAt.put(msg.transactionId, System.nanoTime());
+                setTimeout(decisionTimeout.timeout(), msg.transactionId);
+            }
+            if (shouldCrash(CRASH_PROBABILITY)) {
                 crash(3000);
             }
         }
     }
 
     private void onDecisionMsg(Message.DecisionMsg msg) {
-        System.out.println("onDecisionMsg::" + msg.transactionId);
-        if (workspace.containsKey(msg.transactionId)) {
-            HashMap<Integer, Value> modifiedWorkspace = workspace.get(msg.transactionId);
-            if (msg.commit) {
-                System.out.println("onDecisionMsg::" + msg.transactionId + " apply change");
-                for (Map.Entry<Integer, Value> element : modifiedWorkspace.entrySet()) {
-                    Value updatingValue = data.get(element.getKey());
-                    updatingValue.setValue(element.getValue().getValue());
-                    updatingValue.setVersion(updatingValue.getVersion() + 1);
-                }
-                fixDecision(msg.transactionId, true);
-            }else
-                fixDecision(msg.transactionId, false);
+        if (snapshot != null)
+            snapshot.onDecision(getSender(), msg.transactionId, msg.commit);
+        boolean held = state.finish(msg.transactionId, msg.commit);
+        EventLog.debug(name(), "decision", msg.transactionId, "commit", msg.commit, "applied", held && msg.commit);
+        if (held) {
+            if (wal != null)
+                wal.logDecision(msg.transactionId, msg.commit);
+        }
+        fixDecision(msg.transactionId, msg.commit);
+        mapTransaction2Decision.remove(msg.transactionId);
+        cancelTimeout(msg.transactionId);
+        Long voted = votedAt.remove(msg.transactionId);
+        if (voted != null) {
+            decisionTimeout.sample(System.nanoTime() - voted);
+        }
+        // acknowledge once the decision is durable, so that the coordinator can forget it
+        tellDurably(coordinatorOf(msg.transactionId), new Message.DecisionAckMsg(msg.transactionId));
+    }
 
-            workspace.remove(msg.transactionId);
+    private ActorRef coordinatorOf(long transactionId) {
+        return coordinators.get(TransactionIds.coordinatorOf(transactionId));
+    }
 
-            for (Integer key : modifiedWorkspace.keySet()) {
-                validationLock[key % 10] = false;
-            }
+    /*
+     * Send once the records logged so far are durable. Messages are held until GROUP_COMMIT_SIZE of them
+     * are waiting or GROUP_COMMIT_WINDOW expires, so that they share one sync
+     */
+    private void tellDurably(ActorRef to, Serializable msg) {
+        if (wal == null || !wal.hasPending() && deferredReplies.isEmpty()) {
+            to.tell(msg, getSelf());
+            return;
+        }
+        deferredTo.add(to);
+        deferredReplies.add(msg);
+        if (deferredReplies.size() >= Main.GROUP_COMMIT_SIZE) {
+            syncLog();
+        } else if (deferredReplies.size() == 1) {
+            getTimers().startSingleTimer(TimerKey.SYNC, new Message.SyncLog(), Duration.ofMillis(Main.GROUP_COMMIT_WINDOW));
         }
-
-        printData(msg.transactionId);
     }
 
-    private void onCheckConsistentMsg(Message.CheckConsistentRequest msg) {
-        int sum = sumToCheck();
-        ActorRef coordinator = getSender();
-        coordinator.tell(new Message.CheckConsistentResponse(sum, msg.transactionId), getSelf());
+    private void syncLog() {
+        //Synced before the end of its window
+        getTimers().cancel(TimerKey.SYNC);
+        wal.sync();
+        for (int i = 0; i < deferredReplies.size(); i++) {
+            deferredTo.get(i).tell(deferredReplies.get(i), getSelf());
+        }
+        deferredTo.clear();
+        deferredReplies.clear();
+        if (wal.size() >= Main.CHECKPOINT_LOG_SIZE)
+            checkpoint();
     }
 
-    private void printData(String transactionId) {
-        StringBuilder printResult = new StringBuilder("========= it.unitn.ds1.Server-" + this.id + " with " + transactionId + " =========\n");
-        for (Map.Entry<Integer, Value> element : data.entrySet()) {
-            printResult.append(element.getKey()).append(": ").append(element.getValue().toString()).append("\n");
+    /*
+     * Write the rows and the prepared transactions to a new checkpoint and start a new generation of the log.
+     * The log must be synced
+     */
+    private void checkpoint() {
+        LongMap<ChangeSet> prepared = new LongMap<>();
+        for (long transactionId : state.getWorkspace().keys()) {
+            if (mapTransaction2Decision.containsKey(transactionId) && mapTransaction2Decision.get(transactionId) == null)
+                prepared.put(transactionId, state.writesOf(transactionId));
         }
-        printResult.append("======>>>>>> sum = ").append(sumToCheck());
-        System.out.println(printResult);
+        long generation = wal.generation() + 1;
+        Checkpoint.write(storageFile(".ckpt"), generation, layout, state.getData(), prepared);
+        wal.reset(generation);
+    }
+
+    private Path storageFile(String extension) {
+        return Paths.get(Main.walDir, "server-" + id + extension);
     }
 
-    private int sumToCheck() {
-        Iterator<Map.Entry<Integer, Value>> it = data.entrySet().iterator();
-        int sum = 0;
-        while (it.hasNext()) {
-            Map.Entry<Integer, Value> element = it.next();
-            sum += element.getValue().getValue();
+    /*
+     * The first marker of a snapshot records the sum and the prepared transactions, then a marker is sent on
+     * every channel leaving the server. Its part of the snapshot goes to the checker once a marker came on every
+     * channel which may bring a decision
+     */
+    private void onSnapshotMarker(Message.SnapshotMarker msg) {
+        if (msg.snapshotId > lastSnapshotId) {
+            lastSnapshotId = msg.snapshotId;
+            //The replies waiting for the log are sent before the marker
+            if (wal != null)
+                syncLog();
+            LongMap<Integer> prepared = new LongMap<>();
+            for (long transactionId : state.getWorkspace().keys()) {
+                if (mapTransaction2Decision.containsKey(transactionId) && mapTransaction2Decision.get(transactionId) == null)
+                    prepared.put(transactionId, state.sumChange(transactionId));
+            }
+            List<ActorRef> channels = new ArrayList<>(coordinators);
+            for (ActorRef p : servers) {
+                if (p != getSelf())
+                    channels.add(p);
+            }
+            snapshot = new LocalSnapshot<>(msg.snapshotId, state.sum(), prepared, channels);
+            for (ActorRef p : channels) {
+                p.tell(msg, getSelf());
+            }
+        }
+        if (snapshot != null && snapshot.id() == msg.snapshotId && snapshot.onMarker(getSender())) {
+            msg.checker.tell(new Message.CheckConsistentResponse(snapshot.sum(), msg.snapshotId), getSelf());
+            snapshot = null;
         }
-        return sum;
+    }
+
+    private void onLockStatsRequest(Message.LockStatsRequest msg) {
+        getSender().tell(state.getLockHold().copy(), getSelf());
+    }
+
+    private void onTimeoutStatsRequest(Message.TimeoutStatsRequest msg) {
+        getSender().tell(new TimeoutStats().addDecision(name() + " decisions", decisionTimeout), getSelf());
+    }
+
+    /*
+     * Debug command: print all the data of the server, its sum and its locks
+     */
+    private void onDumpRequest(Message.DumpRequest msg) {
+        StringBuilder printResult = new StringBuilder("========= it.unitn.ds1.Server-" + this.id + " =========\n");
+        state.getData().forEach((key, version, value) -> printResult.append(key).append(": ")
+                .append(new ServerState.Value(version, value)).append("\n"));
+        printResult.append("======>>>>>> sum = ").append(state.sum()).append("\n");
+        printResult.append("======>>>>>> validation locks: ").append(state.getValidationLock());
+        System.out.println(printResult);
     }
 
     private void onTimeout(Message.Timeout msg){
-        if (mapTransaction2Decision.get(msg.transactionId) == null) {
-            System.out.println(getSelf().toString() + "Timeout " + msg.transactionId + " Asking around");
+        //After a restart the other nodes are unknown until InitialSetting arrives
+        if (coordinators == null) {
+            setTimeout(decisionTimeout.timeout(), msg.transactionId);
+            return;
+        }
+        if (mapTransaction2Decision.containsKey(msg.transactionId) && mapTransaction2Decision.get(msg.transactionId) == null) {
+            EventLog.info(name(), "timeout", msg.transactionId);
+            //Asked again, the time the decision takes is no longer a sample
+            votedAt.remove(msg.transactionId);
+            decisionTimeout.expired();
             for (ActorRef p : servers)
                 if(p != getSelf())
                     p.tell(new Message.DecisionRequest(msg.transactionId), getSelf());
 
-            for (ActorRef p : coordinators)
-                p.tell(new Message.DecisionRequest(msg.transactionId), getSelf());
-            setTimeout(DECISION_TIMEOUT, msg.transactionId);
+            //Only the coordinator of the transaction knows its decision, it presumes abort if it does not
+            coordinatorOf(msg.transactionId).tell(new Message.DecisionRequest(msg.transactionId), getSelf());
+            setTimeout(decisionTimeout.timeout(), msg.transactionId);
         }
     }
 
+    @Override
+    protected boolean retainDecisions() {
+        return false;
+    }
+
+    @Override
+    protected TimerKey timeoutKey(long transactionId) {
+        return TimerKey.decision(transactionId);
+    }
+
     @Override
     protected void onRecovery(Message.Recovery msg) {
         getContext().become(createReceive());
-        for (String transactionId : mapTransaction2Decision.keySet()) {
+        //Replies produced before the crash, their sync was dropped while crashed
+        if (wal != null)
+            syncLog();
+        for (long transactionId : mapTransaction2Decision.keys()) {
             if (mapTransaction2Decision.get(transactionId) == null) {
-                System.out.println(getSelf() + " Recovery asking coordinator for transaction " + transactionId);
-                for (ActorRef p : coordinators) {
-                    p.tell(new Message.DecisionRequest(transactionId), getSelf());
-                    setTimeout(DECISION_TIMEOUT, transactionId);
-                }
+                EventLog.info(name(), "recover", transactionId, "decided", false);
+                votedAt.remove(transactionId);
+                coordinatorOf(transactionId).tell(new Message.DecisionRequest(transactionId), getSelf());
+                setTimeout(decisionTimeout.timeout(), transactionId);
             }
         }
     }
@@ -248,12 +367,18 @@ public class Server extends Node {
         return receiveBuilder()
                 .match(Message.ReadMsg.class, this::onReadMsg)
                 .match(Message.WriteMsg.class, this::onWriteMsg)
+                .match(Message.ReadBatchMsg.class, this::onReadBatchMsg)
+                .match(Message.WriteBatchMsg.class, this::onWriteBatchMsg)
                 .match(Message.VoteRequestMsg.class, this::onVoteRequestMsg)
                 .match(Message.DecisionMsg.class, this::onDecisionMsg)
-                .match(Message.CheckConsistentRequest.class, this::onCheckConsistentMsg)
+                .match(Message.SnapshotMarker.class, this::onSnapshotMarker)
+                .match(Message.LockStatsRequest.class, this::onLockStatsRequest)
+                .match(Message.TimeoutStatsRequest.class, this::onTimeoutStatsRequest)
+                .match(Message.DumpRequest.class, this::onDumpRequest)
                 .match(Message.InitialSetting.class, this::initialSetting)
                 .match(Message.Timeout.class, this::onTimeout)
                 .match(Message.DecisionRequest.class, this::onDecisionRequest)
+                .match(Message.SyncLog.class, msg -> syncLog())
                 .build();
     }
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package it.unitn.ds1;
+
+import it.unitn.ds1.bench.LockHoldStats;
+import it.unitn.ds1.lock.ValidationLockTable;
+import it.unitn.ds1.store.ChangeSet;
+import it.unitn.ds1.store.RowStore;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.util.LongMap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Data of a server with the private workspaces and validation locks of the transactions using it.
+ * Server handles the messages, this class reads, validates and applies, so it can also be used without actors
+ */
+public class ServerState {
+    private final RowStore data;
+    private final LongMap<HashMap<Integer, Value>> workspace;
+    private final ValidationLockTable validationLock;
+    // when the prepared transactions took their locks (System.nanoTime())
+    private final LongMap<Long> lockedSince;
+    private final LockHoldStats lockHold;
+    // sum of the values, updated by each commit
+    private int sum;
+
+    public static class Value {
+        private int version;
+        private int value;
+        // false when the transaction only read the item
+        private boolean written;
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int value) {
+            this.value = value;
+        }
+
+        public void setVersion(int version) {
+            this.version = version;
+        }
+
+        public boolean isWritten() {
+            return written;
+        }
+
+        public void setWritten(boolean written) {
+            this.written = written;
+        }
+
+        public Value(int version, int value) {
+            this.version = version;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "Value{" +
+                    "version=" + version +
+                    ", value=" + value +
+                    '}';
+        }
+    }
+
+    public ServerState(RowStore data) {
+        this.data = data;
+        this.workspace = new LongMap<>();
+        this.validationLock = new ValidationLockTable(data.size());
+        this.lockedSince = new LongMap<>();
+        this.lockHold = new LockHoldStats();
+        int[] total = {0};
+        data.forEach((key, version, value) -> total[0] += value);
+        this.sum = total[0];
+    }
+
+    /*
+     * Value of key seen by transactionId, its first read is recorded in the workspace with the version
+     */
+    public int read(long transactionId, int key) {
+        // Check in private workspace that if this transaction are modifying value, return modifying value
+        HashMap<Integer, Value> modifiedWorkspace = workspace.get(transactionId);
+        if (modifiedWorkspace != null) {
+            Value modifiedValue = modifiedWorkspace.get(key);
+            return modifiedValue != null ? modifiedValue.getValue() : data.getValue(key);
+        }
+        // Construct new workspace which is a copy of result in actual store
+        int value = data.getValue(key);
+        HashMap<Integer, Value> modifyingWorkspace = new HashMap<>();
+        modifyingWorkspace.put(key, new Value(data.getVersion(key), value));
+        workspace.put(transactionId, modifyingWorkspace);
+        return value;
+    }
+
+    public void write(long transactionId, int key, int value) {
+        HashMap<Integer, Value> modifiedWorkspace = workspace.get(transactionId);
+        // Construct new workspace which is a copy of result in actual store and modify the constructed copy
+        if (modifiedWorkspace == null) {
+            modifiedWorkspace = new HashMap<>();
+            workspace.put(transactionId, modifiedWorkspace);
+        }
+        Value modifiedValue = modifiedWorkspace.get(key);
+        if (modifiedValue != null) {
+            modifiedValue.setValue(value);
+            modifiedValue.setWritten(true);
+        } else {
+            modifiedWorkspace.put(key, writtenValue(key, value));
+        }
+    }
+
+    public boolean hasWorkspace(long transactionId) {
+        return workspace.containsKey(transactionId);
+    }
+
+    /*
+     * Validate the versions read by a read-only transaction without locking, the transaction is over here. The
+     * reads of a transaction which also writes are prepared instead
+     * Returns null if they are still valid, otherwise why not
+     */
+    public AbortCause validateReadOnly(long transactionId) {
+        HashMap<Integer, Value> readWorkspace = workspace.remove(transactionId);
+        for (Integer key : readWorkspace.keySet()) {
+            if (validationLock.isLocked(key)) {
+                return AbortCause.LOCK_CONFLICT;
+            }
+            if (data.getVersion(key) != readWorkspace.get(key).getVersion()) {
+                return AbortCause.STALE_READ;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Lock the items of the workspace and check their versions, the locks are kept until finish()
+     * unless another transaction holds one of them
+     * Returns null if the transaction can commit, otherwise why not
+     */
+    public AbortCause prepare(long transactionId) {
+        HashMap<Integer, Value> modifiedWorkspace = workspace.get(transactionId);
+        // Check each modifying data-item is in validation phase of other transaction
+        for (Integer key : modifiedWorkspace.keySet()) {
+            if (!validationLock.tryLock(key, transactionId)) {
+                // give back the locks already taken, the transaction is going to abort
+                releaseLocks(transactionId, modifiedWorkspace);
+                return AbortCause.LOCK_CONFLICT;
+            }
+        }
+        lockedSince.put(transactionId, System.nanoTime());
+        //Check if there is exist data-item has the different version from stored data-item
+        for (Integer key : modifiedWorkspace.keySet()) {
+            if (data.getVersion(key) != modifiedWorkspace.get(key).getVersion()) {
+                return AbortCause.STALE_READ;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Apply the writes of transactionId if committed, then drop its workspace and locks
+     * Returns false if there was no workspace for it
+     */
+    public boolean finish(long transactionId, boolean commit) {
+        HashMap<Integer, Value> modifiedWorkspace = workspace.remove(transactionId);
+        if (modifiedWorkspace == null)
+            return false;
+        if (commit)
+            applyWrites(writesOf(modifiedWorkspace));
+        releaseLocks(transactionId, modifiedWorkspace);
+        //Not timed if prepared before a restart, or not prepared at all
+        Long since = lockedSince.remove(transactionId);
+        if (since != null)
+            lockHold.recordHold(System.nanoTime() - since);
+        return true;
+    }
+
+    /*
+     * Items written by the transaction, the ones only read keep their version
+     */
+    public ChangeSet writesOf(long transactionId) {
+        return writesOf(workspace.get(transactionId));
+    }
+
+    public void applyWrites(ChangeSet writes) {
+        for (int i = 0; i < writes.size(); i++) {
+            int key = writes.keyAt(i);
+            sum += writes.valueAt(i) - data.getValue(key);
+            data.put(key, data.getVersion(key) + 1, writes.valueAt(i));
+        }
+    }
+
+    /*
+     * Take back the writes of a transaction prepared before a restart, locked again
+     */
+    public void restore(long transactionId, ChangeSet changes) {
+        HashMap<Integer, Value> modifiedWorkspace = new HashMap<>();
+        for (int i = 0; i < changes.size(); i++) {
+            modifiedWorkspace.put(changes.keyAt(i), writtenValue(changes.keyAt(i), changes.valueAt(i)));
+            validationLock.tryLock(changes.keyAt(i), transactionId);
+        }
+        workspace.put(transactionId, modifiedWorkspace);
+    }
+
+    public RowStore getData() {
+        return data;
+    }
+
+    public LongMap<HashMap<Integer, Value>> getWorkspace() {
+        return workspace;
+    }
+
+    /*
+     * Time the locks were held by the decided transactions
+     */
+    public LockHoldStats getLockHold() {
+        return lockHold;
+    }
+
+    public ValidationLockTable getValidationLock() {
+        return validationLock;
+    }
+
+    /*
+     * Sum of the values, kept up to date by applyWrites()
+     */
+    public int sum() {
+        return sum;
+    }
+
+    /*
+     * Change of sum() the writes of transactionId would make if committed now
+     */
+    public int sumChange(long transactionId) {
+        ChangeSet writes = writesOf(transactionId);
+        int change = 0;
+        for (int i = 0; i < writes.size(); i++) {
+            change += writes.valueAt(i) - data.getValue(writes.keyAt(i));
+        }
+        return change;
+    }
+
+    private Value writtenValue(int key, int value) {
+        Value written = new Value(data.getVersion(key), value);
+        written.setWritten(true);
+        return written;
+    }
+
+    private ChangeSet writesOf(HashMap<Integer, Value> modifiedWorkspace) {
+        ChangeSet writes = new ChangeSet(modifiedWorkspace.size());
+        for (Map.Entry<Integer, Value> element : modifiedWorkspace.entrySet()) {
+            if (element.getValue().isWritten())
+                writes.add(element.getKey(), element.getValue().getValue());
+        }
+        return writes;
+    }
+
+    /*
+     * Release the validation locks held by transactionId on the keys of its workspace
+     */
+    private void releaseLocks(long transactionId, HashMap<Integer, Value> modifiedWorkspace) {
+        for (Integer key : modifiedWorkspace.keySet()) {
+            validationLock.unlock(key, transactionId);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package it.unitn.ds1;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import com.typesafe.config.ConfigFactory;
+import it.unitn.ds1.bench.BenchmarkOptions;
+import it.unitn.ds1.bench.LockHoldStats;
+import it.unitn.ds1.bench.TimeoutStats;
+import it.unitn.ds1.bench.TxnStats;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.partition.Partitioner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Headless run of the system under a fixed load: ./gradlew :ver1:benchmark --args='--clients 20 --duration 60'
+ * (see BenchmarkOptions). Reports commits/s, the abort rate by cause and the latency of the transactions,
+ * then checks that the sum of the values did not change, exiting with status 1 if it did
+ */
+public class TxnBenchmark {
+    private static final Duration REPORT_TIMEOUT = Duration.ofMinutes(30);
+    private static final Duration SUM_TIMEOUT = Duration.ofSeconds(10);
+    // time for the transactions still running when the clients stopped to be decided, a crashed node is
+    // back after 3 s
+    private static final int DRAIN_TIME = 3000;
+    private static final int CRASH_TIME = 3000;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkOptions options = new BenchmarkOptions(Main.N_SERVER, Main.N_COORDINATORS, Main.N_CLIENT, Main.WORKLOAD)
+                .parse(args);
+        Main.injectCrashes = options.crashes;
+        Main.walDir = options.createWalDir().toString();
+        EventLog.setLevel(options.logLevel);
+        final Partitioner partitioner = Main.PARTITION_SCHEME.create(options.keys, options.servers);
+        System.out.println("Benchmark: " + options);
+        System.out.println("WAL: " + Main.walDir);
+
+        final ActorSystem system;
+        List<ActorRef> servers;
+        List<ActorRef> coordinators;
+        TxnCluster cluster = null;
+        if (options.serverNodes > 0) {
+            cluster = TxnCluster.start(options.servers, options.coordinators, options.keys, options.serverNodes,
+                    options.coordinatorNodes, options.config());
+            system = cluster.system;
+            servers = cluster.servers;
+            coordinators = cluster.coordinators;
+        } else {
+            system = ActorSystem.create("distributed-transactions-benchmark",
+                    ConfigFactory.parseString(options.config()).withFallback(ConfigFactory.load()));
+            HashMap<Integer, ActorRef> mapServerByKey = new HashMap<>();
+            servers = new ArrayList<>();
+            for (int i = 0; i < options.servers; i++) {
+                ActorRef server = system.actorOf(Server.props(i, partitioner), "server-" + i);
+                mapServerByKey.put(i, server);
+                servers.add(server);
+            }
+            coordinators = new ArrayList<>();
+            for (int i = 0; i < options.coordinators; i++) {
+                coordinators.add(system.actorOf(Coordinator.props(i, mapServerByKey, partitioner), "coordinator-" + i));
+            }
+        }
+        for (ActorRef server : servers) {
+            server.tell(new Message.InitialSetting(coordinators, servers), null);
+        }
+        List<ActorRef> clients = new ArrayList<>();
+        for (int i = 0; i < options.clients; i++) {
+            clients.add(system.actorOf(TxnClient.props(i, options.clientRate()), "client-" + i));
+        }
+
+        //The servers start empty, from the WAL directory of this run only: the first check gives the reference sum
+        ActorRef checker = system.actorOf(ConsistencyChecker.props(coordinators, servers, null, options.checkInterval), "checker");
+        int initialSum = check(checker, 0).sum;
+        Message.WelcomeMsg start = new Message.WelcomeMsg(options.keys - 1, coordinators, options.workload);
+        for (int i = 0; i < clients.size(); i++) {
+            clients.get(i).tell(new Message.MeasureMsg(options.transactionsOf(i)), null);
+            clients.get(i).tell(start, null);
+        }
+        long startTime = System.nanoTime();
+        if (options.transactions == 0) {
+            Thread.sleep(options.durationSeconds * 1000L);
+        }
+
+        //With a number of transactions, the clients reply once they ran theirs
+        List<CompletableFuture<Object>> reports = new ArrayList<>();
+        for (ActorRef client : clients) {
+            reports.add(Patterns.ask(client, new Message.ReportMsg(), REPORT_TIMEOUT).toCompletableFuture());
+        }
+        TxnStats stats = new TxnStats();
+        for (CompletableFuture<Object> report : reports) {
+            stats.add((TxnStats) report.get());
+        }
+        stats.report(System.out, (System.nanoTime() - startTime) / 1e9);
+
+        Thread.sleep(DRAIN_TIME + (options.crashes ? CRASH_TIME : 0));
+        //Once no server is crashed
+        lockHold(servers).report(System.out);
+        timeouts(servers, coordinators).report(System.out);
+        Message.CheckConsistentResult finalCheck = check(checker, 1);
+        int finalSum = finalCheck.sum;
+        //Including the checks taken every checkInterval during the run
+        boolean consistent = finalCheck.violations == 0;
+        System.out.println("sum invariant   " + (consistent ? "OK" : "VIOLATED")
+                + " (initial " + initialSum + ", final " + finalSum
+                + (finalCheck.violations > 0 ? ", " + finalCheck.violations + " snapshots violating it" : "") + ")");
+        if (cluster != null) {
+            cluster.stop();
+        } else {
+            system.terminate();
+        }
+        if (!consistent) {
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Time the locks were held on all the servers, fails if a server does not answer in time
+     */
+    private static LockHoldStats lockHold(List<ActorRef> servers) throws Exception {
+        List<CompletableFuture<Object>> responses = new ArrayList<>();
+        for (ActorRef server : servers) {
+            responses.add(Patterns.ask(server, new Message.LockStatsRequest(), SUM_TIMEOUT).toCompletableFuture());
+        }
+        LockHoldStats lockHold = new LockHoldStats();
+        for (CompletableFuture<Object> response : responses) {
+            lockHold.add((LockHoldStats) response.get());
+        }
+        return lockHold;
+    }
+
+    /*
+     * Adaptive timeouts of all the servers and coordinators, fails if a node does not answer in time
+     */
+    private static TimeoutStats timeouts(List<ActorRef> servers, List<ActorRef> coordinators) throws Exception {
+        List<CompletableFuture<Object>> responses = new ArrayList<>();
+        List<ActorRef> nodes = new ArrayList<>(coordinators);
+        nodes.addAll(servers);
+        for (ActorRef node : nodes) {
+            responses.add(Patterns.ask(node, new Message.TimeoutStatsRequest(), SUM_TIMEOUT).toCompletableFuture());
+        }
+        TimeoutStats timeouts = new TimeoutStats();
+        for (CompletableFuture<Object> response : responses) {
+            timeouts.add((TimeoutStats) response.get());
+        }
+        return timeouts;
+    }
+
+    /*
+     * Sum of the values of all the servers, fails if a server does not answer in time
+     */
+    private static Message.CheckConsistentResult check(ActorRef checker, int checkId) throws Exception {
+        return (Message.CheckConsistentResult) Patterns.ask(checker, new Message.CheckConsistentRequest(checkId),
+                SUM_TIMEOUT).toCompletableFuture().get();
+    }
+}
@@ -0,0 +1,19 @@
+package it.unitn.ds1;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.BoundedStablePriorityMailbox;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * TxnPriorityMailbox holding at most mailbox-capacity messages: a sender waits up to mailbox-push-timeout-time for
+ * room, then the message goes to the dead letters and the timeouts of the protocol take over
+ */
+public class TxnBoundedPriorityMailbox extends BoundedStablePriorityMailbox {
+    public TxnBoundedPriorityMailbox(ActorSystem.Settings settings, Config config) {
+        super(TxnPriorityMailbox.PRIORITY, config.getInt("mailbox-capacity"),
+                Duration.create(config.getDuration("mailbox-push-timeout-time").toNanos(), TimeUnit.NANOSECONDS));
+    }
+}
@@ -4,126 +4,177 @@ import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
+import it.unitn.ds1.bench.TxnStats;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.util.LongMap;
+import it.unitn.ds1.workload.KeyDistribution;
+import it.unitn.ds1.workload.Workload;
 import scala.concurrent.duration.Duration;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 public class TxnClient extends AbstractActor {
-    private static final double COMMIT_PROBABILITY = 0.9;
-    private static final double WRITE_PROBABILITY = 0.5;
-    private static final int MIN_TXN_LENGTH = 50;
-    private static final int MAX_TXN_LENGTH = 60;
-    private static final int RAND_LENGTH_RANGE = MAX_TXN_LENGTH - MIN_TXN_LENGTH + 1;
+    private static final int MAX_TXN = 10;
+    // closed loop: delay between the outcome of a TXN and the begin of the next one
+    private static final int THINK_TIME = 10;
+    // open loop: the TXNs due are begun every ARRIVAL_TICK ms
+    private static final int ARRIVAL_TICK = 10;
+    private static final int ACCEPT_TIMEOUT = 500;
 
     private final Integer clientId;
+    // TXNs begun per second in open loop, regardless of the outcome of the previous ones; 0 for a closed loop
+    // (one TXN at a time)
+    private final double rate;
     private List<ActorRef> coordinators;
 
     // the maximum key associated to items of the store
     private Integer maxKey;
 
+    // what the TXNs do (see Workload), and the keys they access
+    private Workload workload;
+    private KeyDistribution keys;
+
     // keep track of the number of TXNs (attempted, successfully committed)
     private Integer numAttemptedTxn;
     private Integer numCommittedTxn;
 
-    // TXN operation (move some amount from a value to another)
-    private Boolean acceptedTxn;
-    private ActorRef currentCoordinator;
-    private Integer firstKey, secondKey;
-    private Integer firstValue, secondValue;
-    private Integer numOpTotal;
-    private Integer numOpDone;
-    private Cancellable acceptTimeout;
+    // TXNs waiting for TxnAcceptMsg, by request id, then running, by TXN id
+    private int lastRequestId;
+    private final HashMap<Integer, Txn> beginningTxn;
+    private final LongMap<Txn> runningTxn;
+    // open loop: time of the first arrival and number of TXNs begun since
+    private long arrivalStart;
+    private long numArrivals;
     private final Random r;
 
+    // outcomes recorded for TxnBenchmark (null otherwise), and the TXNs to run (0 for no limit)
+    private TxnStats stats;
+    private int maxTxn;
+    // no TXN is begun once stopped, the benchmark is waiting for the stats
+    private boolean stopped;
+    private ActorRef reportTo;
+
+    // a TXN of the client (operations moving some amount from a value to the others)
+    private static class Txn {
+        ActorRef coordinator;
+        long transactionId;
+        // when the TXN was due to begin, the latency is measured from there
+        long start;
+        boolean readOnly;
+        int[] opKeys;
+        Integer[] opValues;
+        int numValuesRead;
+        int numOpTotal;
+        int numOpDone;
+        Cancellable acceptTimeout;
+    }
+
     /*-- Actor constructor ---------------------------------------------------- */
 
-    public TxnClient(int clientId) {
+    public TxnClient(int clientId, double rate) {
         this.clientId = clientId;
+        this.rate = rate;
         this.numAttemptedTxn = 0;
         this.numCommittedTxn = 0;
+        this.beginningTxn = new HashMap<>();
+        this.runningTxn = new LongMap<>();
         this.r = new Random();
     }
 
     static public Props props(int clientId) {
-        return Props.create(TxnClient.class, () -> new TxnClient(clientId));
+        return props(clientId, 0);
     }
 
-    /*-- Actor methods -------------------------------------------------------- */
+    /*
+     * rate: TXNs begun per second (open loop), 0 for a closed loop
+     */
+    static public Props props(int clientId, double rate) {
+        return Props.create(TxnClient.class, () -> new TxnClient(clientId, rate))
+                .withDispatcher(Main.CLIENT_DISPATCHER);
+    }
 
-    // start a new TXN: choose a random coordinator, send TxnBeginMsg and set timeout
-    void beginTxn() {
+    /*-- Actor methods -------------------------------------------------------- */
 
-        // some delay between transactions from the same client
-        try {
-            Thread.sleep(10);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    // start a new TXN, due at the given time (System.nanoTime())
+    void beginTxn(long start) {
+        //Unless measured, a client runs MAX_TXN transactions
+        if (stopped || (stats == null && numAttemptedTxn >= MAX_TXN)) {
+            return;
         }
-
-        acceptedTxn = false;
         numAttemptedTxn++;
 
-        // contact a random coordinator and begin TXN
-        currentCoordinator = coordinators.get(r.nextInt(coordinators.size()));
-        currentCoordinator.tell(new Message.TxnBeginMsg(clientId), getSelf());
-
+        Txn txn = new Txn();
+        txn.start = start;
         // how many operations (taking some amount and adding it somewhere else)?
-        int numExtraOp = RAND_LENGTH_RANGE > 0 ? r.nextInt(RAND_LENGTH_RANGE) : 0;
-        numOpTotal = MIN_TXN_LENGTH + numExtraOp;
-        numOpDone = 0;
+        txn.numOpTotal = workload.nextOps(r);
+        txn.readOnly = workload.nextReadOnly(r);
+        requestBegin(txn);
+    }
+
+    // choose a random coordinator, send TxnBeginMsg and set timeout
+    void requestBegin(Txn txn) {
+        int requestId = ++lastRequestId;
+        beginningTxn.put(requestId, txn);
+        txn.coordinator = coordinators.get(r.nextInt(coordinators.size()));
+        txn.coordinator.tell(new Message.TxnBeginMsg(clientId, requestId), getSelf());
 
         // timeout for confirmation of TXN by the coordinator (sent to self)
-        acceptTimeout = getContext().system().scheduler().scheduleOnce(
-                Duration.create(500, TimeUnit.MILLISECONDS),
+        txn.acceptTimeout = getContext().system().scheduler().scheduleOnce(
+                Duration.create(ACCEPT_TIMEOUT, TimeUnit.MILLISECONDS),
                 getSelf(),
-                new Message.TxnAcceptTimeoutMsg(), // message sent to myself
+                new Message.TxnAcceptTimeoutMsg(requestId), // message sent to myself
                 getContext().system().dispatcher(), getSelf()
         );
 //        System.out.println("CLIENT " + clientId + " BEGIN");
     }
 
-    // end the current TXN sending TxnEndMsg to the coordinator
-    void endTxn() {
-        boolean doCommit = r.nextDouble() < COMMIT_PROBABILITY;
-        currentCoordinator.tell(new Message.TxnEndMsg(clientId, doCommit), getSelf());
-        firstValue = null;
-        secondValue = null;
+    // end the TXN sending TxnEndMsg to the coordinator
+    void endTxn(Txn txn) {
+        boolean doCommit = workload.nextCommit(r);
+        txn.coordinator.tell(new Message.TxnEndMsg(clientId, txn.transactionId, doCommit), getSelf());
+        txn.opValues = null;
 //        System.out.println("CLIENT " + clientId + " END");
     }
 
-    // READ two items (will move some amount from the value of the first to the second)
-    void readTwo() {
+    // READ the items of an operation (will move some amount from the value of the first to the others)
+    void readKeys(Txn txn) {
 
-        // read two different keys
-        firstKey = r.nextInt(maxKey + 1);
-        int randKeyOffset = 1 + r.nextInt(maxKey - 1);
-        secondKey = (firstKey + randKeyOffset) % (maxKey + 1);
+        // read different keys, chosen by the workload
+        txn.opKeys = workload.nextKeys(keys, r);
+        txn.opValues = new Integer[txn.opKeys.length];
+        txn.numValuesRead = 0;
 
-        // READ requests
-        currentCoordinator.tell(new Message.ReadMsg(clientId, firstKey), getSelf());
-        currentCoordinator.tell(new Message.ReadMsg(clientId, secondKey), getSelf());
+        // READ request for all the keys, split by server by the coordinator
+        txn.coordinator.tell(new Message.ReadBatchMsg(clientId, txn.transactionId, txn.opKeys), getSelf());
 
-        // delete the current read values
-        firstValue = null;
-        secondValue = null;
-
-//        System.out.println("CLIENT " + clientId + " READ #" + numOpDone + " (" + firstKey + "), (" + secondKey + ")");
+//        System.out.println("CLIENT " + clientId + " READ #" + txn.numOpDone + " " + Arrays.toString(txn.opKeys));
     }
 
-    // WRITE two items (called with probability WRITE_PROBABILITY after readTwo() values are returned)
-    void writeTwo() {
+    // WRITE the items of an operation (called with the write probability of the workload after readKeys() values are returned)
+    void writeKeys(Txn txn) {
 
-        // take some amount from one value and pass it to the other, then request writes
-        Integer amountTaken = 0;
-        if (firstValue >= 1) amountTaken = 1 + r.nextInt(firstValue);
-        currentCoordinator.tell(new Message.WriteMsg(clientId, firstKey, firstValue - amountTaken), getSelf());
-        currentCoordinator.tell(new Message.WriteMsg(clientId, secondKey, secondValue + amountTaken), getSelf());
-//        System.out.println("CLIENT " + clientId + " WRITE #" + numOpDone
-//                + " taken " + amountTaken
-//                + " (" + firstKey + ", " + (firstValue - amountTaken) + "), ("
-//                + secondKey + ", " + (secondValue + amountTaken) + ")");
+        // take some amount from one value and pass it to the others, then request writes
+        int[] read = new int[txn.opValues.length];
+        for (int i = 0; i < read.length; i++) {
+            read[i] = txn.opValues[i];
+        }
+        int[] written = Workload.transfer(read, r);
+        txn.coordinator.tell(new Message.WriteBatchMsg(clientId, txn.transactionId, txn.opKeys, written), getSelf());
+//        System.out.println("CLIENT " + clientId + " WRITE #" + txn.numOpDone
+//                + " " + Arrays.toString(txn.opKeys) + " " + Arrays.toString(read) + " -> " + Arrays.toString(written));
+    }
+
+    // send NextTxnMsg to itself after the given delay
+    void scheduleNextTxn(int delay) {
+        getContext().system().scheduler().scheduleOnce(
+                Duration.create(delay, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new Message.NextTxnMsg(),
+                getContext().system().dispatcher(), getSelf()
+        );
     }
 
     /*-- it.unitn.ds1.Message handlers ----------------------------------------------------- */
@@ -132,68 +183,181 @@ public class TxnClient extends AbstractActor {
         this.coordinators = msg.coordinators;
 //        System.out.println(coordinators);
         this.maxKey = msg.maxKey;
-        beginTxn();
+        this.workload = msg.workload;
+        this.keys = workload.keys(maxKey + 1);
+        arrivalStart = System.nanoTime();
+        if (rate > 0) {
+            onNextTxnMsg(new Message.NextTxnMsg());
+        } else {
+            beginTxn(arrivalStart);
+        }
     }
 
     private void onStopMsg(Message.StopMsg msg) {
         getContext().stop(getSelf());
     }
 
+    private void onMeasureMsg(Message.MeasureMsg msg) {
+        stats = new TxnStats();
+        maxTxn = msg.transactions;
+    }
+
+    private void onReportMsg(Message.ReportMsg msg) {
+        reportTo = getSender();
+        if (maxTxn == 0 || stopped) {
+            stopped = true;
+            report();
+        }
+    }
+
+    /*
+     * Closed loop: begin the next TXN. Open loop: begin the TXNs due by now at the arrival rate, however many
+     * are still running
+     */
+    private void onNextTxnMsg(Message.NextTxnMsg msg) {
+        if (rate <= 0) {
+            beginTxn(System.nanoTime());
+            return;
+        }
+        if (stopped) {
+            return;
+        }
+        long due = (long) ((System.nanoTime() - arrivalStart) * rate / 1e9);
+        //With a number of TXNs to run, no more than that are begun
+        if (maxTxn > 0) {
+            due = Math.min(due, maxTxn);
+        }
+        for (; numArrivals < due; numArrivals++) {
+            beginTxn(arrivalStart + (long) (numArrivals * 1e9 / rate));
+        }
+        scheduleNextTxn(ARRIVAL_TICK);
+    }
+
     private void onTxnAcceptMsg(Message.TxnAcceptMsg msg) {
-        acceptedTxn = true;
-        acceptTimeout.cancel();
-        readTwo();
+        Txn txn = beginningTxn.remove(msg.requestId);
+        if (txn == null) {
+            //Accepted after the timeout, the TXN was begun again elsewhere
+            getSender().tell(new Message.TxnEndMsg(clientId, msg.transactionId, false), getSelf());
+            return;
+        }
+        txn.acceptTimeout.cancel();
+        txn.transactionId = msg.transactionId;
+        //The coordinator may run the TXN in a TxnHandler child, which accepted it
+        txn.coordinator = getSender();
+        runningTxn.put(txn.transactionId, txn);
+        readKeys(txn);
     }
 
     private void onTxnAcceptTimeoutMsg(Message.TxnAcceptTimeoutMsg msg) {
-        if (!acceptedTxn) beginTxn();
+        Txn txn = beginningTxn.remove(msg.requestId);
+        if (txn != null) {
+            requestBegin(txn);
+        }
     }
 
     private void onReadResultMsg(Message.ReadResultMsg msg) {
 //        System.out.println("CLIENT " + clientId + " READ RESULT (" + msg.key + ", " + msg.value + ")");
+        Txn txn = runningTxn.get(msg.transactionId);
+        if (txn == null || txn.opValues == null) {
+            return;
+        }
+        saveValue(txn, msg.key, msg.value);
+        continueTxn(txn);
+    }
 
-        // save the read value(s)
-        if (msg.key.equals(firstKey)) firstValue = msg.value;
-        if (msg.key.equals(secondKey)) secondValue = msg.value;
+    private void onReadBatchResultMsg(Message.ReadBatchResultMsg msg) {
+        Txn txn = runningTxn.get(msg.transactionId);
+        if (txn == null || txn.opValues == null) {
+            return;
+        }
+        for (int i = 0; i < msg.keys.length; i++) {
+            saveValue(txn, msg.keys[i], msg.values[i]);
+        }
+        continueTxn(txn);
+    }
 
-        boolean opDone = (firstValue != null && secondValue != null);
+    // save a value read by the current operation of the TXN
+    private void saveValue(Txn txn, int key, int value) {
+        for (int i = 0; i < txn.opKeys.length; i++) {
+            if (txn.opKeys[i] == key && txn.opValues[i] == null) {
+                txn.opValues[i] = value;
+                txn.numValuesRead++;
+            }
+        }
+    }
+
+    // once all the values of the operation are read, write them, then go on with the next operation or end
+    private void continueTxn(Txn txn) {
+        boolean opDone = txn.numValuesRead == txn.opKeys.length;
+        if (!opDone) return;
 
         // do we only read or also write?
-        double writeRandom = r.nextDouble();
-        boolean doWrite = writeRandom < WRITE_PROBABILITY;
-        if (doWrite && opDone) writeTwo();
+        if (!txn.readOnly && workload.nextWrite(r)) writeKeys(txn);
 
         // check if the transaction should end;
-        // otherwise, read two again
-        if (opDone) numOpDone++;
-        if (numOpDone >= numOpTotal) {
-            endTxn();
-        } else if (opDone) {
-            readTwo();
+        // otherwise, read again
+        txn.numOpDone++;
+        if (txn.numOpDone >= txn.numOpTotal) {
+            endTxn(txn);
+        } else {
+            readKeys(txn);
         }
     }
 
     private void onTxnResultMsg(Message.TxnResultMsg msg) {
+        Txn txn = runningTxn.remove(msg.transactionId);
+        if (txn == null) {
+            return;
+        }
+        if (stats != null && !stopped) {
+            record(txn, msg);
+        }
         if (msg.commit) {
             numCommittedTxn++;
-            System.out.println("Transaction " + msg.transactionId + " COMMIT OK (" + numCommittedTxn + "/" + numAttemptedTxn + ")");
+        }
+        EventLog.info(getSelf().path().name(), "result", msg.transactionId, "commit", msg.commit,
+                "committed", numCommittedTxn, "attempted", numAttemptedTxn);
+        if (rate <= 0) {
+            scheduleNextTxn(THINK_TIME);
+        }
+    }
+
+    /*
+     * Record the outcome and latency of the TXN, stopping once maxTxn of them are done
+     */
+    private void record(Txn txn, Message.TxnResultMsg msg) {
+        long latency = System.nanoTime() - txn.start;
+        if (msg.commit) {
+            stats.recordCommit(latency);
         } else {
-            System.out.println("Transaction " + msg.transactionId + " COMMIT FAIL (" + (numAttemptedTxn - numCommittedTxn) + "/" + numAttemptedTxn + ")");
+            stats.recordAbort(msg.cause, latency);
         }
-        if(numAttemptedTxn < 10){
-            beginTxn();
+        if (maxTxn > 0 && stats.transactions() >= maxTxn) {
+            stopped = true;
+            if (reportTo != null) {
+                report();
+            }
         }
     }
 
+    private void report() {
+        reportTo.tell(stats, getSelf());
+        reportTo = null;
+    }
+
     @Override
     public Receive createReceive() {
         return receiveBuilder()
                 .match(Message.WelcomeMsg.class, this::onWelcomeMsg)
                 .match(Message.TxnAcceptMsg.class, this::onTxnAcceptMsg)
                 .match(Message.TxnAcceptTimeoutMsg.class, this::onTxnAcceptTimeoutMsg)
+                .match(Message.NextTxnMsg.class, this::onNextTxnMsg)
                 .match(Message.ReadResultMsg.class, this::onReadResultMsg)
+                .match(Message.ReadBatchResultMsg.class, this::onReadBatchResultMsg)
                 .match(Message.TxnResultMsg.class, this::onTxnResultMsg)
                 .match(Message.StopMsg.class, this::onStopMsg)
+                .match(Message.MeasureMsg.class, this::onMeasureMsg)
+                .match(Message.ReportMsg.class, this::onReportMsg)
                 .build();
     }
 }
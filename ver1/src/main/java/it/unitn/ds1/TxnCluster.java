@@ -0,0 +1,173 @@
+package it.unitn.ds1;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigUtil;
+import it.unitn.ds1.cluster.ClusterLayout;
+import it.unitn.ds1.cluster.NodeLauncher;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.partition.Partitioner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/*
+ * Servers and coordinators in JVM processes of their own on this machine, connected with Akka Artery
+ * (cluster.conf), instead of all the actors in one actor system: ./gradlew :ver1:run --args='--cluster' or
+ * ./gradlew :ver1:benchmark --args='--cluster 2,1'.
+ * The driver (Main or TxnBenchmark) starts the nodes of the ClusterLayout with the main of this class and looks
+ * their actors up at the addresses of the layout, it keeps the clients and the ConsistencyChecker. Each node creates
+ * the servers and coordinators placed on it; a coordinator node first looks the servers up, given to the
+ * coordinators when created
+ */
+public class TxnCluster {
+    // the same in every process, part of the addresses of the actors
+    static final String SYSTEM_NAME = "distributed-transactions";
+    // the nodes start their JVM and actor system meanwhile
+    private static final Duration START_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration RESOLVE_TIMEOUT = Duration.ofSeconds(1);
+    private static final long RESOLVE_RETRY_MS = 200;
+    final ActorSystem system;
+    final ClusterLayout layout;
+    final List<ActorRef> servers;
+    final List<ActorRef> coordinators;
+    private final NodeLauncher launcher;
+
+    private TxnCluster(ActorSystem system, ClusterLayout layout, List<ActorRef> servers,
+                       List<ActorRef> coordinators, NodeLauncher launcher) {
+        this.system = system;
+        this.layout = layout;
+        this.servers = servers;
+        this.coordinators = coordinators;
+        this.launcher = launcher;
+    }
+
+    /*
+     * Start the actor system of the driver and the nodes, and wait for the servers and coordinators to be
+     * reachable. The nodes inject crashes, log and keep their write-ahead logs as this process (Main.injectCrashes,
+     * EventLog.level, Main.walDir).
+     * serverNodes and coordinatorNodes 0 for the ones of cluster.conf, config is the configuration of every process
+     * over cluster.conf. Fails if a node could not be started or an actor was not reachable within START_TIMEOUT
+     */
+    static TxnCluster start(int servers, int coordinators, int keys, int serverNodes, int coordinatorNodes,
+                            String config) throws Exception {
+        String settings = config + "txn.cluster.servers = " + servers + "\ntxn.cluster.coordinators = " + coordinators
+                + "\ntxn.cluster.keys = " + keys + "\ntxn.cluster.crashes = " + Main.injectCrashes
+                + "\ntxn.cluster.log-level = " + EventLog.level() + "\n";
+        if (Main.walDir != null) {
+            settings += "txn.cluster.wal-dir = " + ConfigUtil.quoteString(Main.walDir) + "\n";
+        }
+        if (serverNodes > 0) {
+            settings += "txn.cluster.server-nodes = " + serverNodes + "\n";
+        }
+        if (coordinatorNodes > 0) {
+            settings += "txn.cluster.coordinator-nodes = " + coordinatorNodes + "\n";
+        }
+        Config clusterConfig = load(settings);
+        ClusterLayout layout = layout(clusterConfig);
+        ActorSystem system = ActorSystem.create(SYSTEM_NAME, withAddress(clusterConfig, layout.hostname, layout.basePort));
+        NodeLauncher launcher = new NodeLauncher(TxnCluster.class.getName(),
+                clusterConfig.getStringList("txn.cluster.jvm-options"));
+        try {
+            for (int node = 0; node < layout.nodes(); node++) {
+                launcher.launch(settings + "txn.cluster.node = " + node + "\n");
+            }
+            List<ActorRef> coordinatorRefs = new ArrayList<>();
+            for (int i = 0; i < coordinators; i++) {
+                coordinatorRefs.add(resolve(system,
+                        layout.addressOf(SYSTEM_NAME, layout.nodeOfCoordinator(i)) + "/user/coordinator-" + i));
+            }
+            return new TxnCluster(system, layout, resolveServers(system, layout), coordinatorRefs, launcher);
+        } catch (Exception e) {
+            launcher.stop();
+            system.terminate();
+            throw e;
+        }
+    }
+
+    /*
+     * Terminate the actor system of the driver and the nodes
+     */
+    void stop() throws InterruptedException {
+        system.terminate();
+        launcher.stop();
+    }
+
+    /*
+     * Node started by TxnCluster.start: creates its servers and coordinators and runs until the driver exits.
+     * args[0] holds the settings of the run, txn.cluster.node the index of the node
+     */
+    public static void main(String[] args) throws Exception {
+        Config config = load(args[0]);
+        ClusterLayout layout = layout(config);
+        int node = config.getInt("txn.cluster.node");
+        Main.injectCrashes = config.getBoolean("txn.cluster.crashes");
+        EventLog.setLevel(EventLog.Level.valueOf(config.getString("txn.cluster.log-level")));
+        Main.walDir = config.hasPath("txn.cluster.wal-dir") ? config.getString("txn.cluster.wal-dir") : null;
+        ActorSystem system = ActorSystem.create(SYSTEM_NAME, withAddress(config, layout.hostname, layout.portOf(node)));
+        Partitioner partitioner = Main.PARTITION_SCHEME.create(config.getInt("txn.cluster.keys"), layout.servers);
+        for (int i : layout.serversOf(node)) {
+            system.actorOf(Server.props(i, partitioner), "server-" + i);
+        }
+        if (!layout.coordinatorsOf(node).isEmpty()) {
+            HashMap<Integer, ActorRef> mapServerByKey = new HashMap<>();
+            List<ActorRef> servers = resolveServers(system, layout);
+            for (int i = 0; i < servers.size(); i++) {
+                mapServerByKey.put(i, servers.get(i));
+            }
+            for (int i : layout.coordinatorsOf(node)) {
+                system.actorOf(Coordinator.props(i, mapServerByKey, partitioner), "coordinator-" + i);
+            }
+        }
+        System.out.println("Node " + node + " on port " + layout.portOf(node) + ": servers " + layout.serversOf(node)
+                + ", coordinators " + layout.coordinatorsOf(node));
+        NodeLauncher.awaitLauncherExit();
+        system.terminate();
+    }
+
+    private static Config load(String settings) {
+        return ConfigFactory.parseString(settings).withFallback(ConfigFactory.load("cluster"));
+    }
+
+    private static ClusterLayout layout(Config config) {
+        return new ClusterLayout(config.getString("txn.cluster.hostname"), config.getInt("txn.cluster.base-port"),
+                config.getInt("txn.cluster.server-nodes"), config.getInt("txn.cluster.coordinator-nodes"),
+                config.getInt("txn.cluster.servers"), config.getInt("txn.cluster.coordinators"));
+    }
+
+    private static Config withAddress(Config config, String hostname, int port) {
+        return ConfigFactory.parseString("akka.remote.artery.canonical.hostname = \"" + hostname
+                + "\"\nakka.remote.artery.canonical.port = " + port).withFallback(config);
+    }
+
+    private static List<ActorRef> resolveServers(ActorSystem system, ClusterLayout layout)
+            throws InterruptedException {
+        List<ActorRef> servers = new ArrayList<>();
+        for (int i = 0; i < layout.servers; i++) {
+            servers.add(resolve(system, layout.addressOf(SYSTEM_NAME, layout.nodeOfServer(i)) + "/user/server-" + i));
+        }
+        return servers;
+    }
+
+    /*
+     * Look an actor of a node up, retrying until START_TIMEOUT, IllegalStateException if it could not be reached
+     */
+    private static ActorRef resolve(ActorSystem system, String path) throws InterruptedException {
+        long deadline = System.nanoTime() + START_TIMEOUT.toNanos();
+        while (true) {
+            try {
+                return system.actorSelection(path).resolveOne(RESOLVE_TIMEOUT).toCompletableFuture().get();
+            } catch (ExecutionException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException(path + " not reachable after " + START_TIMEOUT, e);
+                }
+                Thread.sleep(RESOLVE_RETRY_MS);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package it.unitn.ds1;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import it.unitn.ds1.partition.Partitioner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/*
+ * Child of a Coordinator running one of its transactions until the client ends it, when txn.txn-actors is on in
+ * application.conf. The handler accepts the transaction, so that the client sends it the reads and writes directly,
+ * and forwards them to the servers, which answer the client. At the end it gives the servers the transaction
+ * touched to the coordinator, which runs the two phase commit as for its own transactions, and stops.
+ * The transactions of a coordinator so run on all the threads of its dispatcher instead of one message at a time
+ * in its mailbox; the votes and decisions stay with the coordinator, which sends the snapshot markers after them
+ */
+public class TxnHandler extends AbstractActor {
+    private final long transactionId;
+    private final ActorRef client;
+    private final int requestId;
+    private final HashMap<Integer, ActorRef> mapServerByKey;
+    private final Partitioner partitioner;
+    private final HashSet<ActorRef> participants = new HashSet<>();
+    private final HashSet<ActorRef> writers = new HashSet<>();
+
+    public TxnHandler(long transactionId, ActorRef client, int requestId, HashMap<Integer, ActorRef> map,
+                      Partitioner partitioner) {
+        this.transactionId = transactionId;
+        this.client = client;
+        this.requestId = requestId;
+        this.mapServerByKey = map;
+        this.partitioner = partitioner;
+    }
+
+    static public Props props(long transactionId, ActorRef client, int requestId, HashMap<Integer, ActorRef> map,
+                              Partitioner partitioner) {
+        return Props.create(TxnHandler.class, () -> new TxnHandler(transactionId, client, requestId, map, partitioner))
+                .withDispatcher(Main.COORDINATOR_DISPATCHER);
+    }
+
+    @Override
+    public void preStart() {
+        client.tell(new Message.TxnAcceptMsg(requestId, transactionId), getSelf());
+    }
+
+    /*
+     * Forward the read to the server of the key, on behalf of the client
+     */
+    private void onReadMsg(Message.ReadMsg msg) {
+        ActorRef server = mapServerByKey.get(partitioner.serverOf(msg.key));
+        participants.add(server);
+        server.tell(msg, client);
+    }
+
+    private void onReadBatchMsg(Message.ReadBatchMsg msg) {
+        HashMap<Integer, ArrayList<Integer>> indexes = Coordinator.indexesByServer(partitioner, msg.keys);
+        for (Map.Entry<Integer, ArrayList<Integer>> serverIndexes : indexes.entrySet()) {
+            ActorRef server = mapServerByKey.get(serverIndexes.getKey());
+            participants.add(server);
+            server.tell(new Message.ReadBatchMsg(msg.clientId, msg.transactionId,
+                    Coordinator.pick(msg.keys, serverIndexes.getValue())), client);
+        }
+    }
+
+    private void onWriteMsg(Message.WriteMsg msg) {
+        ActorRef server = mapServerByKey.get(partitioner.serverOf(msg.key));
+        participants.add(server);
+        writers.add(server);
+        server.tell(msg, getSelf());
+    }
+
+    private void onWriteBatchMsg(Message.WriteBatchMsg msg) {
+        HashMap<Integer, ArrayList<Integer>> indexes = Coordinator.indexesByServer(partitioner, msg.keys);
+        for (Map.Entry<Integer, ArrayList<Integer>> serverIndexes : indexes.entrySet()) {
+            ActorRef server = mapServerByKey.get(serverIndexes.getKey());
+            participants.add(server);
+            writers.add(server);
+            server.tell(new Message.WriteBatchMsg(msg.clientId, msg.transactionId,
+                    Coordinator.pick(msg.keys, serverIndexes.getValue()),
+                    Coordinator.pick(msg.values, serverIndexes.getValue())), getSelf());
+        }
+    }
+
+    private void onTxnEndMsg(Message.TxnEndMsg msg) {
+        getContext().getParent().tell(new Message.TxnEnded(transactionId, msg.commit, participants, writers), getSelf());
+        getContext().stop(getSelf());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Message.ReadMsg.class, this::onReadMsg)
+                .match(Message.ReadBatchMsg.class, this::onReadBatchMsg)
+                .match(Message.WriteMsg.class, this::onWriteMsg)
+                .match(Message.WriteBatchMsg.class, this::onWriteBatchMsg)
+                .match(Message.TxnEndMsg.class, this::onTxnEndMsg)
+                .build();
+    }
+}
@@ -0,0 +1,29 @@
+package it.unitn.ds1;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.PriorityGenerator;
+import akka.dispatch.UnboundedStablePriorityMailbox;
+import com.typesafe.config.Config;
+
+/*
+ * Mailbox of the servers and coordinators (mailbox-type of their dispatcher in application.conf): new transactions
+ * and reads wait behind the writes, votes and decisions of the running transactions, which hold validation locks.
+ * Messages of the same priority stay in order, so the writes of a transaction still reach a server before its vote
+ * request, and a transaction only ends once its reads are answered
+ */
+public class TxnPriorityMailbox extends UnboundedStablePriorityMailbox {
+    static final PriorityGenerator PRIORITY = new PriorityGenerator() {
+        @Override
+        public int gen(Object message) {
+            if (message instanceof Message.ReadMsg || message instanceof Message.ReadBatchMsg
+                    || message instanceof Message.TxnBeginMsg) {
+                return 1;
+            }
+            return 0;
+        }
+    };
+
+    public TxnPriorityMailbox(ActorSystem.Settings settings, Config config) {
+        super(PRIORITY);
+    }
+}
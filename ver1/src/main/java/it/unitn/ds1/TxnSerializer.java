@@ -0,0 +1,175 @@
+package it.unitn.ds1;
+
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializerWithStringManifest;
+import it.unitn.ds1.serial.BinaryReader;
+import it.unitn.ds1.serial.BinaryWriter;
+import it.unitn.ds1.txn.AbortCause;
+
+import java.io.NotSerializableException;
+
+/*
+ * Binary encoding of the protocol messages (the ProtocolMessage ones), bound to them in application.conf so that
+ * they do not go through Java serialization between JVMs. The manifest names the message class, the fields
+ * follow in a fixed order as varints (see BinaryWriter): a message takes a few bytes instead of the class
+ * descriptors of Java serialization.
+ * The setup and benchmark messages (WelcomeMsg, InitialSetting, ...) keep Java serialization
+ */
+public class TxnSerializer extends SerializerWithStringManifest {
+    // unique among the serializers of the actor system, 0-40 are taken by Akka
+    private static final int IDENTIFIER = 4201;
+    private static final int EXPECTED_SIZE = 32;
+    private final ExtendedActorSystem system;
+
+    public TxnSerializer(ExtendedActorSystem system) {
+        this.system = system;
+    }
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public String manifest(Object o) {
+        if (o instanceof Message.TxnBeginMsg) return "TB";
+        if (o instanceof Message.TxnAcceptMsg) return "TA";
+        if (o instanceof Message.ReadMsg) return "R";
+        if (o instanceof Message.WriteMsg) return "W";
+        if (o instanceof Message.ReadBatchMsg) return "RB";
+        if (o instanceof Message.WriteBatchMsg) return "WB";
+        if (o instanceof Message.ReadResultMsg) return "RR";
+        if (o instanceof Message.ReadBatchResultMsg) return "RBR";
+        if (o instanceof Message.TxnEndMsg) return "TE";
+        if (o instanceof Message.TxnResultMsg) return "TR";
+        if (o instanceof Message.VoteRequestMsg) return "VQ";
+        if (o instanceof Message.VoteResponseMsg) return "VR";
+        if (o instanceof Message.DecisionMsg) return "D";
+        if (o instanceof Message.DecisionAckMsg) return "DA";
+        if (o instanceof Message.DecisionRequest) return "DQ";
+        if (o instanceof Message.SnapshotMarker) return "SM";
+        if (o instanceof Message.CheckConsistentResponse) return "SR";
+        throw new IllegalArgumentException("no binary encoding for " + o.getClass());
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        BinaryWriter out = new BinaryWriter(EXPECTED_SIZE);
+        if (o instanceof Message.TxnBeginMsg) {
+            Message.TxnBeginMsg msg = (Message.TxnBeginMsg) o;
+            out.writeVarInt(msg.clientId).writeVarInt(msg.requestId);
+        } else if (o instanceof Message.TxnAcceptMsg) {
+            Message.TxnAcceptMsg msg = (Message.TxnAcceptMsg) o;
+            out.writeVarInt(msg.requestId).writeVarLong(msg.transactionId);
+        } else if (o instanceof Message.ReadMsg) {
+            Message.ReadMsg msg = (Message.ReadMsg) o;
+            out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeVarInt(msg.key);
+        } else if (o instanceof Message.WriteMsg) {
+            Message.WriteMsg msg = (Message.WriteMsg) o;
+            out.writeVarInt(msg.clientId).writeVarLong(msg.transactionID).writeVarInt(msg.key)
+                    .writeSignedVarInt(msg.value);
+        } else if (o instanceof Message.ReadBatchMsg) {
+            Message.ReadBatchMsg msg = (Message.ReadBatchMsg) o;
+            out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeIntArray(msg.keys);
+        } else if (o instanceof Message.WriteBatchMsg) {
+            Message.WriteBatchMsg msg = (Message.WriteBatchMsg) o;
+            out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeIntArray(msg.keys)
+                    .writeIntArray(msg.values);
+        } else if (o instanceof Message.ReadResultMsg) {
+            Message.ReadResultMsg msg = (Message.ReadResultMsg) o;
+            out.writeVarInt(msg.key).writeSignedVarInt(msg.value).writeVarLong(msg.transactionId);
+        } else if (o instanceof Message.ReadBatchResultMsg) {
+            Message.ReadBatchResultMsg msg = (Message.ReadBatchResultMsg) o;
+            out.writeVarLong(msg.transactionId).writeIntArray(msg.keys).writeIntArray(msg.values);
+        } else if (o instanceof Message.TxnEndMsg) {
+            Message.TxnEndMsg msg = (Message.TxnEndMsg) o;
+            out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeBoolean(msg.commit);
+        } else if (o instanceof Message.TxnResultMsg) {
+            Message.TxnResultMsg msg = (Message.TxnResultMsg) o;
+            out.writeBoolean(msg.commit).writeVarLong(msg.transactionId);
+            writeCause(out, msg.cause);
+        } else if (o instanceof Message.VoteRequestMsg) {
+            Message.VoteRequestMsg msg = (Message.VoteRequestMsg) o;
+            out.writeVarLong(msg.transactionId).writeBoolean(msg.readOnly);
+        } else if (o instanceof Message.VoteResponseMsg) {
+            Message.VoteResponseMsg msg = (Message.VoteResponseMsg) o;
+            out.writeVarLong(msg.transactionId);
+            writeCause(out, msg.cause);
+        } else if (o instanceof Message.DecisionMsg) {
+            Message.DecisionMsg msg = (Message.DecisionMsg) o;
+            out.writeVarLong(msg.transactionId).writeBoolean(msg.commit);
+        } else if (o instanceof Message.DecisionAckMsg) {
+            out.writeVarLong(((Message.DecisionAckMsg) o).transactionId);
+        } else if (o instanceof Message.DecisionRequest) {
+            out.writeVarLong(((Message.DecisionRequest) o).transactionId);
+        } else if (o instanceof Message.SnapshotMarker) {
+            Message.SnapshotMarker msg = (Message.SnapshotMarker) o;
+            out.writeVarInt(msg.snapshotId).writeString(Serialization.serializedActorPath(msg.checker));
+        } else if (o instanceof Message.CheckConsistentResponse) {
+            Message.CheckConsistentResponse msg = (Message.CheckConsistentResponse) o;
+            out.writeSignedVarInt(msg.sum).writeVarInt(msg.checkId);
+        } else {
+            throw new IllegalArgumentException("no binary encoding for " + o.getClass());
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+        BinaryReader in = new BinaryReader(bytes);
+        switch (manifest) {
+            case "TB":
+                return new Message.TxnBeginMsg(in.readVarInt(), in.readVarInt());
+            case "TA":
+                return new Message.TxnAcceptMsg(in.readVarInt(), in.readVarLong());
+            case "R":
+                return new Message.ReadMsg(in.readVarInt(), in.readVarLong(), in.readVarInt());
+            case "W":
+                return new Message.WriteMsg(in.readVarInt(), in.readVarLong(), in.readVarInt(), in.readSignedVarInt());
+            case "RB":
+                return new Message.ReadBatchMsg(in.readVarInt(), in.readVarLong(), in.readIntArray());
+            case "WB":
+                return new Message.WriteBatchMsg(in.readVarInt(), in.readVarLong(), in.readIntArray(), in.readIntArray());
+            case "RR":
+                return new Message.ReadResultMsg(in.readVarInt(), in.readSignedVarInt(), in.readVarLong());
+            case "RBR":
+                return new Message.ReadBatchResultMsg(in.readVarLong(), in.readIntArray(), in.readIntArray());
+            case "TE":
+                return new Message.TxnEndMsg(in.readVarInt(), in.readVarLong(), in.readBoolean());
+            case "TR":
+                return new Message.TxnResultMsg(in.readBoolean(), in.readVarLong(), readCause(in));
+            case "VQ":
+                return new Message.VoteRequestMsg(in.readVarLong(), in.readBoolean());
+            case "VR":
+                return new Message.VoteResponseMsg(in.readVarLong(), readCause(in));
+            case "D":
+                return new Message.DecisionMsg(in.readVarLong(), in.readBoolean());
+            case "DA":
+                return new Message.DecisionAckMsg(in.readVarLong());
+            case "DQ":
+                return new Message.DecisionRequest(in.readVarLong());
+            case "SM":
+                return new Message.SnapshotMarker(in.readVarInt(), readActorRef(in));
+            case "SR":
+                return new Message.CheckConsistentResponse(in.readSignedVarInt(), in.readVarInt());
+            default:
+                throw new NotSerializableException("unknown manifest " + manifest);
+        }
+    }
+
+    // 0 for none, the ordinal + 1 otherwise
+    private static void writeCause(BinaryWriter out, AbortCause cause) {
+        out.writeVarInt(cause == null ? 0 : cause.ordinal() + 1);
+    }
+
+    private static AbortCause readCause(BinaryReader in) {
+        int cause = in.readVarInt();
+        return cause == 0 ? null : AbortCause.values()[cause - 1];
+    }
+
+    private ActorRef readActorRef(BinaryReader in) {
+        return system.provider().resolveActorRef(in.readString());
+    }
+}
@@ -0,0 +1,121 @@
+package it.unitn.ds1;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.SerializerWithStringManifest;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.TransactionIds;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/*
+ * Every protocol message is bound to TxnSerializer by application.conf and comes back from its binary encoding
+ * with the same fields
+ */
+class TxnSerializerTest {
+    //Manifests of TxnSerializer
+    private static final int MESSAGE_TYPES = 17;
+    //Coordinator bits set, takes the longest varint
+    private static final long TXN = TransactionIds.of(3, (1L << 40) - 1);
+
+    private static ActorSystem system;
+    private static Serialization serialization;
+
+    @BeforeAll
+    static void start() {
+        system = ActorSystem.create("serializer-test");
+        serialization = SerializationExtension.get(system);
+    }
+
+    @AfterAll
+    static void stop() {
+        system.terminate();
+    }
+
+    @Test
+    void everyMessageRoundTrips() throws Exception {
+        Set<String> manifests = new HashSet<>();
+        for (Serializable message : messages()) {
+            manifests.add(assertRoundTrip(message));
+        }
+        assertEquals(MESSAGE_TYPES, manifests.size());
+    }
+
+    @Test
+    void extremeValuesRoundTrip() throws Exception {
+        assertRoundTrip(new Message.WriteMsg(Integer.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE));
+        assertRoundTrip(new Message.ReadResultMsg(0, -1, 1));
+        assertRoundTrip(new Message.CheckConsistentResponse(Integer.MIN_VALUE, 0));
+        assertRoundTrip(new Message.ReadBatchMsg(0, 1, new int[0]));
+    }
+
+    private static List<Serializable> messages() {
+        return Arrays.asList(
+                new Message.TxnBeginMsg(7, 12),
+                new Message.TxnAcceptMsg(12, TXN),
+                new Message.ReadMsg(7, TXN, 4),
+                new Message.WriteMsg(7, TXN, 4, -30),
+                new Message.ReadBatchMsg(7, TXN, new int[]{4, 9}),
+                new Message.WriteBatchMsg(7, TXN, new int[]{4, 9}, new int[]{-30, 130}),
+                new Message.ReadResultMsg(4, 100, TXN),
+                new Message.ReadBatchResultMsg(TXN, new int[]{4, 9}, new int[]{100, -100}),
+                new Message.TxnEndMsg(7, TXN, true),
+                new Message.TxnResultMsg(false, TXN, AbortCause.LOCK_CONFLICT),
+                new Message.TxnResultMsg(true, TXN, null),
+                new Message.VoteRequestMsg(TXN, true),
+                new Message.VoteResponseMsg(TXN, null),
+                new Message.VoteResponseMsg(TXN, AbortCause.STALE_READ),
+                new Message.DecisionMsg(TXN, true),
+                new Message.DecisionAckMsg(TXN),
+                new Message.DecisionRequest(TXN),
+                new Message.SnapshotMarker(5, system.deadLetters()),
+                new Message.CheckConsistentResponse(1000, 5));
+    }
+
+    /*
+     * Returns the manifest of the message
+     */
+    private static String assertRoundTrip(Serializable message) throws Exception {
+        SerializerWithStringManifest serializer =
+                (SerializerWithStringManifest) serialization.findSerializerFor(message);
+        assertEquals(TxnSerializer.class, serializer.getClass());
+        String manifest = serializer.manifest(message);
+        assertSameFields(message, serializer.fromBinary(serializer.toBinary(message), manifest));
+        return manifest;
+    }
+
+    //Field by field, as the messages do not implement equals
+    private static void assertSameFields(Object expected, Object actual) throws IllegalAccessException {
+        assertSame(expected.getClass(), actual.getClass());
+        for (Field field : expected.getClass().getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            field.setAccessible(true);
+            Object value = field.get(expected);
+            Object copy = field.get(actual);
+            if (value == null) {
+                assertNull(copy, field.getName());
+            } else if (value instanceof int[]) {
+                assertArrayEquals((int[]) value, (int[]) copy, field.getName());
+            } else {
+                assertEquals(value, copy, field.getName());
+            }
+        }
+    }
+}
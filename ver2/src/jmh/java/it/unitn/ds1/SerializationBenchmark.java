@@ -0,0 +1,146 @@
+package it.unitn.ds1;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import it.unitn.ds1.TxnCoordinator.Batch;
+import it.unitn.ds1.TxnCoordinator.Decision;
+import it.unitn.ds1.TxnCoordinator.DecisionResponse;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchResultMsg;
+import it.unitn.ds1.TxnCoordinator.Vote;
+import it.unitn.ds1.TxnCoordinator.VoteReponse;
+import it.unitn.ds1.TxnCoordinator.VoteRequest;
+import it.unitn.ds1.model.RowValue;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.TransactionIds;
+
+/**
+ * Round trip of a protocol message through TxnSerializer and through Java
+ * serialization, as done by Akka when the actors are on different JVMs. The
+ * setup checks that the binary encoding gives the message back (encoding it
+ * again gives the same bytes) and prints the size of both encodings.
+ *
+ * A VoteRequest is only checked by the setup: Java serialization cannot encode
+ * its RowValues. Marker is left out, its ActorRef needs an actor system to be
+ * resolved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SerializationBenchmark {
+  @Param({ "read", "writeBatch", "readDataBatchResult", "voteResponse", "decision", "batch" })
+  public String message;
+
+  @Param({ "8" })
+  public int txnSize;
+
+  private TxnSerializer serializer;
+  private Serializable msg;
+  private String manifest;
+
+  @Setup
+  public void setup() throws IOException {
+    serializer = new TxnSerializer(null);
+    checkVoteRequest();
+    msg = message(message, txnSize);
+    manifest = serializer.manifest(msg);
+    byte[] bytes = serializer.toBinary(msg);
+    Object decoded = serializer.fromBinary(bytes, manifest);
+    if (decoded.getClass() != msg.getClass() || !Arrays.equals(serializer.toBinary(decoded), bytes))
+      throw new IllegalStateException("round trip of " + message + " changed the message");
+    System.out.println(message + ": " + bytes.length + " bytes, Java serialization " + javaBytes(msg).length);
+  }
+
+  @Benchmark
+  public Object binaryRoundTrip() throws NotSerializableException {
+    return serializer.fromBinary(serializer.toBinary(msg), manifest);
+  }
+
+  @Benchmark
+  public Object javaRoundTrip() throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(javaBytes(msg)))) {
+      return in.readObject();
+    }
+  }
+
+  static Serializable message(String name, int txnSize) {
+    long transactionId = TransactionIds.of(3, 123456);
+    SplittableRandom random = new SplittableRandom(42);
+    int[] keys = new int[txnSize];
+    int[] values = new int[txnSize];
+    int[] versions = new int[txnSize];
+    for (int i = 0; i < txnSize; i++) {
+      keys[i] = random.nextInt(100000);
+      values[i] = random.nextInt(-100, 200);
+      versions[i] = random.nextInt(1000);
+    }
+    switch (name) {
+    case "read":
+      return new TxnClient.ReadMsg(17, transactionId, keys[0]);
+    case "writeBatch":
+      return new TxnClient.WriteBatchMsg(17, transactionId, keys, values);
+    case "readDataBatchResult":
+      return new ReadDataBatchResultMsg(transactionId, keys, values, versions);
+    case "voteResponse":
+      return new VoteReponse(Vote.NO, AbortCause.LOCK_CONFLICT, 4, transactionId);
+    case "decision":
+      return new DecisionResponse(Decision.COMMIT, transactionId);
+    case "batch": {
+      // votes of a server for several transactions, as sent back by onBatch
+      List<Serializable> votes = new ArrayList<>();
+      for (int i = 0; i < txnSize; i++)
+        votes.add(new VoteReponse(Vote.YES, null, 4, transactionId + i));
+      return new Batch(votes);
+    }
+    default:
+      throw new IllegalArgumentException("unknown message " + name);
+    }
+  }
+
+  private void checkVoteRequest() throws NotSerializableException {
+    Map<Integer, RowValue> changes = new HashMap<>();
+    for (int key = 0; key < 64; key++)
+      changes.put(key * 997, new RowValue(key, key - 32));
+    VoteRequest request = new VoteRequest(TransactionIds.of(3, 123456), changes, false);
+    VoteRequest decoded = (VoteRequest) serializer.fromBinary(serializer.toBinary(request),
+        serializer.manifest(request));
+    boolean same = decoded.transactionId == request.transactionId && decoded.readOnly == request.readOnly
+        && decoded.changes.size() == request.changes.size();
+    for (Map.Entry<Integer, RowValue> change : request.changes.entrySet()) {
+      RowValue row = decoded.changes.get(change.getKey());
+      same &= row != null && row.getVersion() == change.getValue().getVersion()
+          && row.getValue() == change.getValue().getValue();
+    }
+    if (!same)
+      throw new IllegalStateException("round trip of a VoteRequest changed the message");
+  }
+
+  private static byte[] javaBytes(Serializable msg) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(msg);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,122 @@
+package it.unitn.ds1;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import it.unitn.ds1.model.RowValue;
+import it.unitn.ds1.store.RowStore;
+import it.unitn.ds1.txn.AbortCause;
+
+/**
+ * Validation (onVoteRequest) and update (onDecisionResponse) of a server,
+ * driven through ServerState without actors.
+ *
+ * Each operation validates one transaction of txnSize keys and decides the
+ * oldest of the inFlight transactions still holding their locks, so that a
+ * larger inFlight or a smaller key space means more lock conflicts.
+ *
+ * The change sets are built in setup and cycled through: an operation only
+ * refreshes their versions and values, so it measures the server and not the
+ * allocation of the maps a coordinator would send.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServerStateBenchmark {
+  // more than the transactions in flight, a change set is never reused while
+  // prepared
+  private static final int CHANGE_SETS = 1 << 12;
+
+  @Param({ "1000", "100000" })
+  public int keys;
+
+  @Param({ "2", "8" })
+  public int txnSize;
+
+  @Param({ "0", "16" })
+  public int inFlight;
+
+  private ServerState state;
+  private Map<Integer, RowValue>[] changeSets;
+  // keys and rows of each change set, to refresh them without iterating the map
+  private int[][] changeKeys;
+  private RowValue[][] changeRows;
+  private int nextChangeSet;
+  private long[] prepared;
+  private long nextTransaction;
+
+  @Setup
+  public void setup() {
+    RowStore data = TxnSystem.ROW_STORE.create(keys);
+    for (int key = 0; key < keys; key++)
+      data.put(key, 0, 100);
+    state = new ServerState(data);
+    SplittableRandom random = new SplittableRandom(42);
+    changeSets = newChangeSets(CHANGE_SETS);
+    changeKeys = new int[CHANGE_SETS][];
+    changeRows = new RowValue[CHANGE_SETS][];
+    for (int i = 0; i < CHANGE_SETS; i++) {
+      Map<Integer, RowValue> changes = new HashMap<>();
+      while (changes.size() < Math.min(txnSize, keys))
+        changes.computeIfAbsent(random.nextInt(keys), key -> new RowValue(0, 0));
+      changeSets[i] = changes;
+      changeKeys[i] = new int[changes.size()];
+      changeRows[i] = new RowValue[changes.size()];
+      int j = 0;
+      for (Map.Entry<Integer, RowValue> change : changes.entrySet()) {
+        changeKeys[i][j] = change.getKey();
+        changeRows[i][j++] = change.getValue();
+      }
+    }
+    prepared = new long[inFlight + 1];
+  }
+
+  @Benchmark
+  public AbortCause prepareAndDecide() {
+    long transactionId = ++nextTransaction;
+    AbortCause noVote = state.prepare(transactionId, nextChanges(1));
+    // ring of the transactions waiting for their decision
+    int slot = (int) (transactionId % prepared.length);
+    if (prepared[slot] != 0)
+      state.decide(prepared[slot], true);
+    prepared[slot] = noVote == null ? transactionId : 0;
+    return noVote;
+  }
+
+  @Benchmark
+  public AbortCause validateReads() {
+    return state.validateReads(nextChanges(0));
+  }
+
+  /**
+   * Changes of the next transaction, refreshed against the current versions as
+   * the coordinator builds them after reading
+   */
+  private Map<Integer, RowValue> nextChanges(int delta) {
+    RowStore data = state.getData();
+    int next = nextChangeSet++ & (CHANGE_SETS - 1);
+    int[] changeKey = changeKeys[next];
+    RowValue[] changeRow = changeRows[next];
+    for (int i = 0; i < changeKey.length; i++) {
+      changeRow[i].setVersion(data.getVersion(changeKey[i]));
+      changeRow[i].setValue(data.getValue(changeKey[i]) + delta);
+    }
+    return changeSets[next];
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<Integer, RowValue>[] newChangeSets(int size) {
+    return new Map[size];
+  }
+}
@@ -0,0 +1,72 @@
+package it.unitn.ds1;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import it.unitn.ds1.model.PrivateWorkspace;
+import it.unitn.ds1.model.RowValue;
+import it.unitn.ds1.partition.Partitioner;
+
+/**
+ * Coordinator side of a transaction: lookups in the private workspace
+ * (onReadMsg, onWriteMsg) and the split of the workspace by server done by
+ * validationPhase
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WorkspaceBenchmark {
+  @Param({ "1000", "100000" })
+  public int keys;
+
+  @Param({ "2", "8", "64" })
+  public int txnSize;
+
+  @Param({ "10" })
+  public int servers;
+
+  private Partitioner partitioner;
+  private PrivateWorkspace privateWorkspace;
+  private int[] lookups;
+
+  @Setup
+  public void setup() {
+    partitioner = TxnSystem.PARTITION_SCHEME.create(keys, servers);
+    privateWorkspace = new PrivateWorkspace();
+    SplittableRandom random = new SplittableRandom(42);
+    lookups = new int[txnSize * 2];
+    for (int i = 0; i < lookups.length; i++) {
+      lookups[i] = random.nextInt(keys);
+      // half of the lookups hit the workspace
+      if (i % 2 == 0)
+        privateWorkspace.getData().put(lookups[i], new RowValue(1, 100));
+    }
+  }
+
+  @Benchmark
+  public int lookup() {
+    int found = 0;
+    Map<Integer, RowValue> data = privateWorkspace.getData();
+    for (int key : lookups) {
+      RowValue row = data.get(key);
+      if (row != null)
+        found += row.getValue();
+    }
+    return found;
+  }
+
+  @Benchmark
+  public Map<Integer, Map<Integer, RowValue>> changesByServer() {
+    return TxnCoordinator.changesByServer(privateWorkspace.getData(), partitioner);
+  }
+}
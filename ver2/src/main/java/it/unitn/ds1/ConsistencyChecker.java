@@ -0,0 +1,225 @@
+package it.unitn.ds1;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import it.unitn.ds1.TxnServer.SumTestRequest;
+import it.unitn.ds1.TxnServer.SumTestResponse;
+import it.unitn.ds1.serial.ProtocolMessage;
+import scala.concurrent.duration.Duration;
+
+/**
+ * Checks that the sum of the values of all the servers does not change, on a
+ * SumTestRequest and every checkInterval ms if not 0.
+ *
+ * Each test is a consistent snapshot (Chandy-Lamport) of the running system:
+ * the checker sends a Marker to every coordinator and server, the servers
+ * record their sum and the decisions in flight towards them (see
+ * LocalSnapshot) and send their part back. The total is compared with the one
+ * of the first test. The results are written to a single file, one line per
+ * test, and sent to the sender of the request as a CheckResult.
+ *
+ * A snapshot is given up after SNAPSHOT_TIMEOUT: a crashed node does not pass
+ * the markers on.
+ */
+public class ConsistencyChecker extends AbstractActor {
+  private static final int SNAPSHOT_TIMEOUT = 5000;
+  LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+  private final List<ActorRef> coordinators;
+  private final List<ActorRef> servers;
+  private final String fileName;
+  private final int checkInterval;
+  private BufferedWriter out;
+  // sum of the first test, null until then
+  private Integer expectedSum;
+  private int violations;
+  private int nextSnapshotId;
+  // tests waiting for the servers, by snapshot id
+  private final Map<Integer, Check> running = new HashMap<>();
+
+  private static class Check {
+    private final int testId;
+    private final ActorRef replyTo;
+    private int answered;
+    private int sum;
+
+    Check(int testId, ActorRef replyTo) {
+      this.testId = testId;
+      this.replyTo = replyTo;
+    }
+  }
+
+  public ConsistencyChecker(List<ActorRef> coordinators, List<ActorRef> servers, String fileName,
+      int checkInterval) {
+    this.coordinators = coordinators;
+    this.servers = servers;
+    this.fileName = fileName;
+    this.checkInterval = checkInterval;
+  }
+
+  /**
+   * @param coordinators
+   * @param servers
+   * @param fileName      file the results are appended to, null to only log
+   *                      them
+   * @param checkInterval ms between two tests, 0 to test only when asked
+   * @return
+   */
+  static public Props props(List<ActorRef> coordinators, List<ActorRef> servers, String fileName,
+      int checkInterval) {
+    return Props.create(ConsistencyChecker.class,
+        () -> new ConsistencyChecker(coordinators, servers, fileName, checkInterval));
+  }
+
+  /*-- Message classes ------------------------------------------------------ */
+  /**
+   * Marker of a snapshot, sent on every channel from the coordinators to the
+   * servers and from the servers to the coordinators
+   */
+  public static class Marker implements ProtocolMessage {
+    public final int snapshotId;
+    // collects the parts of the snapshot
+    public final ActorRef checker;
+
+    public Marker(int snapshotId, ActorRef checker) {
+      this.snapshotId = snapshotId;
+      this.checker = checker;
+    }
+  }
+
+  /**
+   * Sum of all the servers in the snapshot taken for a SumTestRequest, and
+   * whether it is the one of the first test
+   */
+  public static class CheckResult implements Serializable {
+    public final int testId;
+    public final int sum;
+    public final boolean consistent;
+    // tests so far which found another sum than the first one
+    public final int violations;
+
+    public CheckResult(int testId, int sum, boolean consistent, int violations) {
+      this.testId = testId;
+      this.sum = sum;
+      this.consistent = consistent;
+      this.violations = violations;
+    }
+  }
+
+  public static class CheckTick implements Serializable {
+  }
+
+  public static class CheckTimeout implements Serializable {
+    public final int snapshotId;
+
+    public CheckTimeout(int snapshotId) {
+      this.snapshotId = snapshotId;
+    }
+  }
+
+  /*-- Actor methods -------------------------------------------------------- */
+  @Override
+  public void preStart() throws IOException {
+    if (fileName != null)
+      out = Files.newBufferedWriter(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    if (checkInterval > 0)
+      schedule(checkInterval, new CheckTick());
+  }
+
+  @Override
+  public void postStop() throws IOException {
+    if (out != null)
+      out.close();
+  }
+
+  private void onSumTestRequest(SumTestRequest request) {
+    startSnapshot(request.testId, getSender());
+  }
+
+  private void onCheckTick(CheckTick tick) {
+    startSnapshot(-1, getContext().getSystem().deadLetters());
+    schedule(checkInterval, tick);
+  }
+
+  /**
+   * Send the markers of a new snapshot to every coordinator and server
+   *
+   * @param testId
+   * @param replyTo
+   */
+  private void startSnapshot(int testId, ActorRef replyTo) {
+    int snapshotId = nextSnapshotId++;
+    running.put(snapshotId, new Check(testId, replyTo));
+    Marker marker = new Marker(snapshotId, getSelf());
+    for (ActorRef coordinator : coordinators)
+      coordinator.tell(marker, getSelf());
+    for (ActorRef server : servers)
+      server.tell(marker, getSelf());
+    schedule(SNAPSHOT_TIMEOUT, new CheckTimeout(snapshotId));
+  }
+
+  /**
+   * Add the part of a server, the test is over once all of them answered
+   *
+   * @param response part of the snapshot, testId is the snapshot id
+   */
+  private void onSumTestResponse(SumTestResponse response) {
+    Check check = running.get(response.testId);
+    if (check == null)
+      return;
+    check.sum += response.sum;
+    if (++check.answered < servers.size())
+      return;
+    running.remove(response.testId);
+    if (expectedSum == null)
+      expectedSum = check.sum;
+    boolean consistent = check.sum == expectedSum;
+    if (!consistent)
+      violations++;
+    log.info("Sum check snapshot " + response.testId + ": value " + check.sum + (consistent ? " OK" : " VIOLATED"));
+    if (out != null) {
+      try {
+        out.write(response.testId + ", " + check.sum + ", " + (consistent ? "OK" : "VIOLATED"));
+        out.newLine();
+        out.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    if (!check.replyTo.equals(getContext().getSystem().deadLetters()))
+      check.replyTo.tell(new CheckResult(check.testId, check.sum, consistent, violations), getSelf());
+  }
+
+  private void onCheckTimeout(CheckTimeout timeout) {
+    Check check = running.remove(timeout.snapshotId);
+    if (check != null)
+      log.warning("Sum check snapshot " + timeout.snapshotId + " incomplete: " + check.answered + " servers of "
+          + servers.size());
+  }
+
+  private void schedule(int delay, Serializable msg) {
+    getContext().system().scheduler().scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS), getSelf(), msg,
+        getContext().system().dispatcher(), getSelf());
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder().match(SumTestRequest.class, this::onSumTestRequest)
+        .match(SumTestResponse.class, this::onSumTestResponse).match(CheckTick.class, this::onCheckTick)
+        .match(CheckTimeout.class, this::onCheckTimeout).build();
+  }
+}
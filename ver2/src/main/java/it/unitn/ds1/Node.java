@@ -1,16 +1,22 @@
 package it.unitn.ds1;
 
 import java.io.Serializable;
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithTimers;
+import it.unitn.ds1.txn.AdaptiveTimeout;
 import scala.concurrent.duration.Duration;
 
 /**
- * Abstract class for basic crash simulation
+ * Abstract class for basic crash simulation. The timeouts of the protocol are
+ * timers of the node keyed by transaction (TimerKey), cancelled once they are
+ * no longer needed
  */
-public abstract class Node extends AbstractActor {
+public abstract class Node extends AbstractActorWithTimers {
   protected int id; // node ID
+  protected boolean crashed; // between crash() and recover()
+  private final Random random = new Random();
 
   public Node(int id) {
     super();
@@ -20,16 +26,45 @@ public abstract class Node extends AbstractActor {
   public static class Recovery implements Serializable {
   }
 
+  /**
+   * Asked by TxnBenchmark, the node replies with the TimeoutStats of its
+   * adaptive timeouts
+   */
+  public static class TimeoutStatsRequest implements Serializable {
+  }
+
   // abstract method to be implemented in extending classes
   protected abstract void onRecovery(Recovery msg);
 
   void crash(int recoverIn) {
+    crashed = true;
     getContext().become(crashed());
     print("CRASH!!!");
     getContext().system().scheduler().scheduleOnce(Duration.create(recoverIn, TimeUnit.MILLISECONDS), getSelf(),
         new Recovery(), getContext().system().dispatcher(), getSelf());
   }
 
+  /**
+   * Whether to simulate a crash now, with probability CRASH_PROBABILITY
+   */
+  boolean shouldCrash() {
+    return TxnSystem.injectCrashes && random.nextDouble() < TxnSystem.CRASH_PROBABILITY;
+  }
+
+  /**
+   * New adaptive timeout, starting from the given one
+   *
+   * @param initial ms
+   */
+  static AdaptiveTimeout adaptiveTimeout(int initial) {
+    return new AdaptiveTimeout(initial, TxnSystem.MIN_TIMEOUT, TxnSystem.MAX_TIMEOUT, TxnSystem.TIMEOUT_DEVIATIONS);
+  }
+
+  void recover() {
+    crashed = false;
+    getContext().become(createReceive());
+  }
+
   void delay(int d) {
     try {
       Thread.sleep(d);
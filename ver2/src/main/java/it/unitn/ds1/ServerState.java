@@ -0,0 +1,191 @@
+package it.unitn.ds1;
+
+import java.util.Map;
+
+import it.unitn.ds1.bench.LockHoldStats;
+import it.unitn.ds1.lock.ValidationLockTable;
+import it.unitn.ds1.model.RowValue;
+import it.unitn.ds1.store.ChangeSet;
+import it.unitn.ds1.store.RowStore;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.util.LongMap;
+
+/**
+ * Rows of a server and the validation state of the transactions voting on
+ * them. TxnServer handles the messages, this class does the validation and the
+ * update, so that they can also be driven without an actor system
+ */
+public class ServerState {
+  private final RowStore data;
+  private final ValidationLockTable validationLocks;
+  // changes of the transactions which voted yes, until decided
+  private final LongMap<ChangeSet> transactionChange;
+  // when the transactions which voted yes took their locks (System.nanoTime())
+  private final LongMap<Long> lockedSince;
+  private final LockHoldStats lockHold;
+  // sum of the values, updated by each commit
+  private int sum;
+
+  public ServerState(RowStore data) {
+    this.data = data;
+    this.validationLocks = new ValidationLockTable(data.size());
+    this.transactionChange = new LongMap<>();
+    this.lockedSince = new LongMap<>();
+    this.lockHold = new LockHoldStats();
+    int[] total = { 0 };
+    data.forEach((key, version, value) -> total[0] += value);
+    this.sum = total[0];
+  }
+
+  /**
+   * Validate the changes of a transaction and lock them until the decision
+   *
+   * @param transactionId
+   * @param changeData    version read and value written for each key
+   * @return null (vote yes) if the changes are kept, locked, until decide(),
+   *         otherwise why the vote is no
+   */
+  public AbortCause prepare(long transactionId, Map<Integer, RowValue> changeData) {
+    for (Map.Entry<Integer, RowValue> change : changeData.entrySet())
+      // Check data version, if it violate version contraint then abort transaction
+      if (data.getVersion(change.getKey()) > change.getValue().getVersion())
+        return AbortCause.STALE_READ;
+    // If it didn't violate any contraint, thus lock changed key
+    ChangeSet changes = new ChangeSet(changeData.size());
+    for (Map.Entry<Integer, RowValue> change : changeData.entrySet()) {
+      if (!validationLocks.tryLock(change.getKey(), transactionId)) {
+        // locked by another transaction: release what we took and abort
+        releaseLocks(transactionId, changes);
+        return AbortCause.LOCK_CONFLICT;
+      }
+      // store the changes in the sever
+      changes.add(change.getKey(), change.getValue().getValue());
+    }
+    transactionChange.put(transactionId, changes);
+    lockedSince.put(transactionId, System.nanoTime());
+    return null;
+  }
+
+  /**
+   * Validate the versions read by a read-only transaction without locking
+   * them: reads of a transaction which also writes are prepared instead
+   *
+   * @param reads version read for each key
+   * @return null (vote yes) if the reads are still valid, otherwise why not
+   */
+  public AbortCause validateReads(Map<Integer, RowValue> reads) {
+    for (Map.Entry<Integer, RowValue> read : reads.entrySet()) {
+      // changed since read, or about to be changed by a prepared transaction
+      if (data.getVersion(read.getKey()) > read.getValue().getVersion())
+        return AbortCause.STALE_READ;
+      if (validationLocks.isLocked(read.getKey()))
+        return AbortCause.LOCK_CONFLICT;
+    }
+    return null;
+  }
+
+  /**
+   * Apply (commit) or drop (abort) the changes of a prepared transaction and
+   * release its locks
+   *
+   * @param transactionId
+   * @param commit
+   * @return the changes, null if the transaction was not prepared here
+   */
+  public ChangeSet decide(long transactionId, boolean commit) {
+    ChangeSet changes = transactionChange.remove(transactionId);
+    if (changes == null)
+      return null;
+    if (commit)
+      applyChanges(changes);
+    releaseLocks(transactionId, changes);
+    // not timed if prepared before a restart
+    Long since = lockedSince.remove(transactionId);
+    if (since != null)
+      lockHold.recordHold(System.nanoTime() - since);
+    return changes;
+  }
+
+  /**
+   * Take back a transaction prepared before a restart, its keys are locked by
+   * relock() once the whole log is replayed
+   *
+   * @param transactionId
+   * @param changes
+   */
+  public void restore(long transactionId, ChangeSet changes) {
+    transactionChange.put(transactionId, changes);
+  }
+
+  public void relock() {
+    transactionChange.forEach((transactionId, changes) -> {
+      for (int i = 0; i < changes.size(); i++)
+        validationLocks.tryLock(changes.keyAt(i), transactionId);
+    });
+  }
+
+  public boolean isPrepared(long transactionId) {
+    return transactionChange.containsKey(transactionId);
+  }
+
+  public RowStore getData() {
+    return data;
+  }
+
+  public ValidationLockTable getValidationLocks() {
+    return validationLocks;
+  }
+
+  /**
+   * @return time the locks were held by the decided transactions
+   */
+  public LockHoldStats getLockHold() {
+    return lockHold;
+  }
+
+  /**
+   * @return sum of the values, without visiting them
+   */
+  public int sum() {
+    return sum;
+  }
+
+  /**
+   * @return change of sum() each prepared transaction would make if committed
+   *         now
+   */
+  public LongMap<Integer> preparedSumChanges() {
+    LongMap<Integer> sumChanges = new LongMap<>(transactionChange.size());
+    transactionChange.forEach((transactionId, changes) -> {
+      int change = 0;
+      for (int i = 0; i < changes.size(); i++)
+        change += changes.valueAt(i) - data.getValue(changes.keyAt(i));
+      sumChanges.put(transactionId, change);
+    });
+    return sumChanges;
+  }
+
+  public LongMap<ChangeSet> getTransactionChange() {
+    return transactionChange;
+  }
+
+  /**
+   * Write the changes of a committed transaction in the storage
+   *
+   * @param changes
+   */
+  private void applyChanges(ChangeSet changes) {
+    for (int i = 0; i < changes.size(); i++) {
+      int key = changes.keyAt(i);
+      if (data.getValue(key) != changes.valueAt(i)) {
+        sum += changes.valueAt(i) - data.getValue(key);
+        data.put(key, data.getVersion(key) + 1, changes.valueAt(i));
+      }
+    }
+  }
+
+  private void releaseLocks(long transactionId, ChangeSet changes) {
+    for (int i = 0; i < changes.size(); i++)
+      validationLocks.unlock(changes.keyAt(i), transactionId);
+  }
+}
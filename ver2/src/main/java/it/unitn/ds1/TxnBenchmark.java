@@ -0,0 +1,174 @@
+package it.unitn.ds1;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import it.unitn.ds1.ConsistencyChecker.CheckResult;
+import it.unitn.ds1.Node.TimeoutStatsRequest;
+import it.unitn.ds1.TxnClient.MeasureMsg;
+import it.unitn.ds1.TxnClient.ReportMsg;
+import it.unitn.ds1.TxnClient.WelcomeMsg;
+import it.unitn.ds1.TxnCoordinator.StartMsg;
+import it.unitn.ds1.TxnServer.CoordinatorsMsg;
+import it.unitn.ds1.TxnServer.LockStatsRequest;
+import it.unitn.ds1.TxnServer.SumTestRequest;
+import it.unitn.ds1.bench.BenchmarkOptions;
+import it.unitn.ds1.bench.LockHoldStats;
+import it.unitn.ds1.bench.TimeoutStats;
+import it.unitn.ds1.bench.TxnStats;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.partition.Partitioner;
+
+/**
+ * Headless run of the system under a fixed load, instead of the interactive
+ * TxnSystem: ./gradlew :ver2:benchmark --args='--clients 20 --duration 60'
+ * (see BenchmarkOptions).
+ *
+ * Reports commits/s, the abort rate by cause and the latency of the
+ * transactions, then checks that the sum of the values did not change. Exits
+ * with status 1 if it did.
+ */
+public class TxnBenchmark {
+  // waiting for the stats of a client, and for the sum of a server
+  private static final Duration REPORT_TIMEOUT = Duration.ofMinutes(30);
+  private static final Duration SUM_TIMEOUT = Duration.ofSeconds(10);
+
+  public static void main(String[] args) throws Exception {
+    BenchmarkOptions options = new BenchmarkOptions(TxnSystem.N_SERVERS, TxnSystem.N_CORDINATORS, TxnSystem.N_CLIENTS,
+        TxnSystem.WORKLOAD).parse(args);
+    TxnSystem.injectCrashes = options.crashes;
+    TxnSystem.walDir = options.createWalDir().toString();
+    EventLog.setLevel(options.logLevel);
+    final Partitioner partitioner = TxnSystem.PARTITION_SCHEME.create(options.keys, options.servers);
+    System.out.println("Benchmark: " + options);
+    System.out.println("WAL: " + TxnSystem.walDir);
+
+    final ActorSystem system;
+    List<ActorRef> servers;
+    List<ActorRef> coordinators;
+    TxnCluster cluster = null;
+    if (options.serverNodes > 0) {
+      cluster = TxnCluster.start(options.servers, options.coordinators, options.keys, options.serverNodes,
+          options.coordinatorNodes, options.config());
+      system = cluster.system;
+      servers = cluster.servers;
+      coordinators = cluster.coordinators;
+    } else {
+      system = ActorSystem.create("txnbenchmark",
+          ConfigFactory.parseString(options.config()).withFallback(ConfigFactory.load()));
+      servers = new ArrayList<>();
+      for (int i = 0; i < options.servers; i++)
+        servers.add(system.actorOf(TxnServer.props(i, partitioner), "server" + i));
+      coordinators = new ArrayList<>();
+      for (int i = 0; i < options.coordinators; i++)
+        coordinators.add(system.actorOf(TxnCoordinator.props(i), "coordinator" + i));
+    }
+    List<ActorRef> clients = new ArrayList<>();
+    for (int i = 0; i < options.clients; i++)
+      clients.add(system.actorOf(TxnClient.props(i, options.clientRate()), "client" + i));
+    CoordinatorsMsg coordinatorsMsg = new CoordinatorsMsg(coordinators);
+    for (ActorRef server : servers)
+      server.tell(coordinatorsMsg, ActorRef.noSender());
+    StartMsg startMsg = new StartMsg(servers, partitioner);
+    for (ActorRef coordinator : coordinators)
+      coordinator.tell(startMsg, ActorRef.noSender());
+
+    // the servers start empty, from the WAL directory of this run only: the
+    // first test gives the reference sum
+    ActorRef checker = system.actorOf(ConsistencyChecker.props(coordinators, servers, null, options.checkInterval), "checker");
+    int initialSum = sumTest(checker, 0).sum;
+    WelcomeMsg welcomeMsg = new WelcomeMsg(options.keys - 1, coordinators, options.workload);
+    for (int i = 0; i < clients.size(); i++) {
+      clients.get(i).tell(new MeasureMsg(options.transactionsOf(i)), ActorRef.noSender());
+      clients.get(i).tell(welcomeMsg, ActorRef.noSender());
+    }
+    long start = System.nanoTime();
+    if (options.transactions == 0)
+      Thread.sleep(options.durationSeconds * 1000L);
+
+    // with a number of transactions, the clients reply once they ran theirs
+    List<CompletableFuture<Object>> reports = new ArrayList<>();
+    for (ActorRef client : clients)
+      reports.add(Patterns.ask(client, new ReportMsg(), REPORT_TIMEOUT).toCompletableFuture());
+    TxnStats stats = new TxnStats();
+    for (CompletableFuture<Object> report : reports)
+      stats.add((TxnStats) report.get());
+    double seconds = (System.nanoTime() - start) / 1e9;
+    stats.report(System.out, seconds);
+
+    // let the transactions still running when the clients stopped be decided
+    Thread.sleep(2 * TxnSystem.DECISION_TIMEOUT + (options.crashes ? TxnSystem.CRASH_TIME : 0));
+    // once no server is crashed
+    lockHold(servers).report(System.out);
+    timeouts(servers, coordinators).report(System.out);
+    CheckResult finalTest = sumTest(checker, 1);
+    int finalSum = finalTest.sum;
+    // including the tests taken every checkInterval during the run
+    boolean consistent = finalTest.violations == 0;
+    System.out.println("sum invariant   " + (consistent ? "OK" : "VIOLATED") + " (initial " + initialSum
+        + ", final " + finalSum
+        + (finalTest.violations > 0 ? ", " + finalTest.violations + " snapshots violating it" : "") + ")");
+    if (cluster != null)
+      cluster.stop();
+    else
+      system.terminate();
+    if (!consistent)
+      System.exit(1);
+  }
+
+  /**
+   * Time the locks were held on all the servers
+   *
+   * @param servers
+   * @return
+   * @throws Exception if a server did not answer in time
+   */
+  private static LockHoldStats lockHold(List<ActorRef> servers) throws Exception {
+    List<CompletableFuture<Object>> responses = new ArrayList<>();
+    for (ActorRef server : servers)
+      responses.add(Patterns.ask(server, new LockStatsRequest(), SUM_TIMEOUT).toCompletableFuture());
+    LockHoldStats lockHold = new LockHoldStats();
+    for (CompletableFuture<Object> response : responses)
+      lockHold.add((LockHoldStats) response.get());
+    return lockHold;
+  }
+
+  /**
+   * Adaptive timeouts of all the servers and coordinators
+   *
+   * @param servers
+   * @param coordinators
+   * @return
+   * @throws Exception if a node did not answer in time
+   */
+  private static TimeoutStats timeouts(List<ActorRef> servers, List<ActorRef> coordinators) throws Exception {
+    List<CompletableFuture<Object>> responses = new ArrayList<>();
+    List<ActorRef> nodes = new ArrayList<>(coordinators);
+    nodes.addAll(servers);
+    for (ActorRef node : nodes)
+      responses.add(Patterns.ask(node, new TimeoutStatsRequest(), SUM_TIMEOUT).toCompletableFuture());
+    TimeoutStats timeouts = new TimeoutStats();
+    for (CompletableFuture<Object> response : responses)
+      timeouts.add((TimeoutStats) response.get());
+    return timeouts;
+  }
+
+  /**
+   * Sum of the values of all the servers, by the ConsistencyChecker
+   *
+   * @param checker
+   * @param testId
+   * @return
+   * @throws Exception if a server did not answer in time
+   */
+  private static CheckResult sumTest(ActorRef checker, int testId) throws Exception {
+    return (CheckResult) Patterns.ask(checker, new SumTestRequest(testId), SUM_TIMEOUT).toCompletableFuture().get();
+  }
+}
@@ -0,0 +1,23 @@
+package it.unitn.ds1;
+
+import java.util.concurrent.TimeUnit;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.BoundedStablePriorityMailbox;
+import scala.concurrent.duration.Duration;
+
+/**
+ * TxnPriorityMailbox holding at most mailbox-capacity messages: a sender
+ * waits up to mailbox-push-timeout-time for room, then the message goes to
+ * the dead letters and the timeouts of the protocol take over (the client
+ * begins a new transaction, the coordinator aborts, the server asks for the
+ * decision).
+ */
+public class TxnBoundedPriorityMailbox extends BoundedStablePriorityMailbox {
+  public TxnBoundedPriorityMailbox(ActorSystem.Settings settings, Config config) {
+    super(TxnPriorityMailbox.PRIORITY, config.getInt("mailbox-capacity"),
+        Duration.create(config.getDuration("mailbox-push-timeout-time").toNanos(), TimeUnit.NANOSECONDS));
+  }
+}
@@ -4,258 +4,475 @@ import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 import akka.actor.*;
+import it.unitn.ds1.bench.TxnStats;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.serial.ProtocolMessage;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.TransactionIds;
+import it.unitn.ds1.util.LongMap;
+import it.unitn.ds1.workload.KeyDistribution;
+import it.unitn.ds1.workload.Workload;
 import scala.concurrent.duration.Duration;
 
 public class TxnClient extends AbstractActor {
-  private static final double COMMIT_PROBABILITY = 0.8;
-  private static final double WRITE_PROBABILITY = 0.5;
-  private static final int MIN_TXN_LENGTH = 20;
-  private static final int MAX_TXN_LENGTH = 40;
-  private static final int RAND_LENGTH_RANGE = MAX_TXN_LENGTH - MIN_TXN_LENGTH + 1;
+  // closed loop: delay between the outcome of a TXN and the begin of the next one
+  private static final int THINK_TIME = 10;
+  // open loop: the TXNs due are begun every ARRIVAL_TICK ms
+  private static final int ARRIVAL_TICK = 10;
+  private static final int ACCEPT_TIMEOUT = 500;
 
   private final Integer clientId;
+  // TXNs begun per second in open loop, regardless of the outcome of the
+  // previous ones; 0 for a closed loop (one TXN at a time)
+  private final double rate;
   private List<ActorRef> coordinators;
 
   // the maximum key associated to items of the store
   private Integer maxKey;
 
+  // what the TXNs do (see Workload), and the keys they access
+  private Workload workload;
+  private KeyDistribution keys;
+
   // keep track of the number of TXNs (attempted, successfully committed)
   private Integer numAttemptedTxn;
   private Integer numCommittedTxn;
 
-  // TXN operation (move some amount from a value to another)
-  private Boolean acceptedTxn;
-  private ActorRef currentCoordinator;
-  private Integer firstKey, secondKey;
-  private Integer firstValue, secondValue;
-  private Integer numOpTotal;
-  private Integer numOpDone;
-  private Cancellable acceptTimeout;
+  // TXNs waiting for TxnAcceptMsg, by request id, then running, by TXN id
+  private int lastRequestId;
+  private final Map<Integer, Txn> beginningTxn;
+  private final LongMap<Txn> runningTxn;
+  // open loop: time of the first arrival and number of TXNs begun since
+  private long arrivalStart;
+  private long numArrivals;
   private final Random r;
 
+  // outcomes recorded for TxnBenchmark (null otherwise), and the TXNs to run (0
+  // for no limit)
+  private TxnStats stats;
+  private int maxTxn;
+  // no TXN is begun once stopped, the benchmark is waiting for the stats
+  private boolean stopped;
+  private ActorRef reportTo;
+
+  // a TXN of the client (operations moving some amount from a value to the others)
+  private static class Txn {
+    ActorRef coordinator;
+    long transactionId;
+    // when the TXN was due to begin, the latency is measured from there
+    long start;
+    boolean readOnly;
+    int[] opKeys;
+    Integer[] opValues;
+    int numValuesRead;
+    int numOpTotal;
+    int numOpDone;
+    Cancellable acceptTimeout;
+  }
+
   /*-- Actor constructor ---------------------------------------------------- */
 
-  public TxnClient(int clientId) {
+  public TxnClient(int clientId, double rate) {
     this.clientId = clientId;
+    this.rate = rate;
     this.numAttemptedTxn = 0;
     this.numCommittedTxn = 0;
+    this.beginningTxn = new HashMap<>();
+    this.runningTxn = new LongMap<>();
     this.r = new Random();
   }
 
   static public Props props(int clientId) {
-    return Props.create(TxnClient.class, () -> new TxnClient(clientId));
+    return props(clientId, 0);
+  }
+
+  /**
+   * @param clientId
+   * @param rate     TXNs begun per second (open loop), 0 for a closed loop
+   */
+  static public Props props(int clientId, double rate) {
+    return Props.create(TxnClient.class, () -> new TxnClient(clientId, rate))
+            .withDispatcher(TxnSystem.CLIENT_DISPATCHER);
   }
 
   /*-- Message classes ------------------------------------------------------ */
 
-  // send this message to the client at startup to inform it about the coordinators and the keys
+  // send this message to the client at startup to inform it about the coordinators, the keys and the workload
   public static class WelcomeMsg implements  Serializable {
     public final Integer maxKey;
     public final List<ActorRef> coordinators;
-    public WelcomeMsg(int maxKey, List<ActorRef> coordinators) {
+    public final Workload workload;
+    public WelcomeMsg(int maxKey, List<ActorRef> coordinators, Workload workload) {
       this.maxKey = maxKey;
       this.coordinators = Collections.unmodifiableList(new ArrayList<>(coordinators));
+      this.workload = workload;
     }
   }
 
   // stop the client
   public static class StopMsg implements Serializable {}
 
-  // message the client sends to a coordinator to begin the TXN
-  public static class TxnBeginMsg implements Serializable {
+  // sent by TxnBenchmark before WelcomeMsg: record the outcome of each TXN and
+  // stop after the given number of TXNs (0 for no limit)
+  public static class MeasureMsg implements Serializable {
+    public final Integer transactions;
+    public MeasureMsg(int transactions) {
+      this.transactions = transactions;
+    }
+  }
+
+  // sent by TxnBenchmark: stop beginning TXNs and reply with the TxnStats,
+  // once the number of TXNs of MeasureMsg is reached
+  public static class ReportMsg implements Serializable {}
+
+  // message the client sends to a coordinator to begin a TXN
+  public static class TxnBeginMsg implements ProtocolMessage {
     public final Integer clientId;
-    public TxnBeginMsg(int clientId) {
+    public final Integer requestId; // returned in TxnAcceptMsg
+    public TxnBeginMsg(int clientId, int requestId) {
       this.clientId = clientId;
+      this.requestId = requestId;
     }
   }
 
-  // reply from the coordinator receiving TxnBeginMsg
-  public static class TxnAcceptMsg implements Serializable {}
+  // reply from the coordinator receiving TxnBeginMsg, with the id of the new TXN
+  public static class TxnAcceptMsg implements ProtocolMessage {
+    public final Integer requestId;
+    public final long transactionId;
+    public TxnAcceptMsg(int requestId, long transactionId) {
+      this.requestId = requestId;
+      this.transactionId = transactionId;
+    }
+  }
 
   // the client may timeout waiting for TXN begin confirmation (TxnAcceptMsg)
-  public static class TxnAcceptTimeoutMsg implements Serializable {}
+  public static class TxnAcceptTimeoutMsg implements Serializable {
+    public final Integer requestId;
+    public TxnAcceptTimeoutMsg(int requestId) {
+      this.requestId = requestId;
+    }
+  }
+
+  // sent to itself: the think time elapsed (closed loop), or the next arrival tick (open loop)
+  public static class NextTxnMsg implements Serializable {}
 
   // message the client sends to a coordinator to end the TXN;
-  // it may ask for commit (with probability COMMIT_PROBABILITY), or abort
-  public static class TxnEndMsg implements Serializable {
+  // it may ask for commit (with the commit probability of the workload), or abort
+  public static class TxnEndMsg implements ProtocolMessage {
     public final Integer clientId;
+    public final long transactionId;
     public final Boolean commit; // if false, the transaction should abort
-    public TxnEndMsg(int clientId, boolean commit) {
+    public TxnEndMsg(int clientId, long transactionId, boolean commit) {
       this.clientId = clientId;
+      this.transactionId = transactionId;
       this.commit = commit;
     }
   }
 
   // READ request from the client to the coordinator
-  public static class ReadMsg implements Serializable {
+  public static class ReadMsg implements ProtocolMessage {
     public final Integer clientId;
+    public final long transactionId;
     public final Integer key; // the key of the value to read
-    public ReadMsg(int clientId, int key) {
+    public ReadMsg(int clientId, long transactionId, int key) {
       this.clientId = clientId;
+      this.transactionId = transactionId;
       this.key = key;
     }
   }
 
   // WRITE request from the client to the coordinator
-  public static class WriteMsg implements Serializable {
+  public static class WriteMsg implements ProtocolMessage {
     public final Integer clientId;
+    public final long transactionId;
     public final Integer key; // the key of the value to write
     public final Integer value; // the new value to write
-    public WriteMsg(int clientId, int key, int value) {
+    public WriteMsg(int clientId, long transactionId, int key, int value) {
       this.clientId = clientId;
+      this.transactionId = transactionId;
       this.key = key;
       this.value = value;
     }
   }
 
+  // READ request for several keys at once, answered with a ReadBatchResultMsg per server
+  public static class ReadBatchMsg implements ProtocolMessage {
+    public final Integer clientId;
+    public final long transactionId;
+    public final int[] keys; // the keys of the values to read
+    public ReadBatchMsg(int clientId, long transactionId, int[] keys) {
+      this.clientId = clientId;
+      this.transactionId = transactionId;
+      this.keys = keys;
+    }
+  }
+
+  // WRITE request for several keys at once
+  public static class WriteBatchMsg implements ProtocolMessage {
+    public final Integer clientId;
+    public final long transactionId;
+    public final int[] keys; // the keys of the values to write
+    public final int[] values; // the new values, in the order of the keys
+    public WriteBatchMsg(int clientId, long transactionId, int[] keys, int[] values) {
+      this.clientId = clientId;
+      this.transactionId = transactionId;
+      this.keys = keys;
+      this.values = values;
+    }
+  }
+
   // reply from the coordinator when requested a READ on a given key
-  public static class ReadResultMsg implements Serializable {
+  public static class ReadResultMsg implements ProtocolMessage {
+    public final long transactionId;
     public final Integer key; // the key associated to the requested item
     public final Integer value; // the value found in the data store for that item
-    public ReadResultMsg(int key, int value) {
+    public ReadResultMsg(long transactionId, int key, int value) {
+      this.transactionId = transactionId;
       this.key = key;
       this.value = value;
     }
   }
 
+  // reply from the coordinator to a ReadBatchMsg, with the values of some of its keys
+  public static class ReadBatchResultMsg implements ProtocolMessage {
+    public final long transactionId;
+    public final int[] keys;
+    public final int[] values; // in the order of the keys
+    public ReadBatchResultMsg(long transactionId, int[] keys, int[] values) {
+      this.transactionId = transactionId;
+      this.keys = keys;
+      this.values = values;
+    }
+  }
+
   // message from the coordinator to the client with the outcome of the TXN
-  public static class TxnResultMsg implements Serializable {
+  public static class TxnResultMsg implements ProtocolMessage {
+    public final long transactionId;
     public final Boolean commit; // if false, the transaction was aborted
-    public TxnResultMsg(boolean commit) {
+    public final AbortCause cause; // why it was aborted, null if committed
+    public TxnResultMsg(long transactionId, boolean commit, AbortCause cause) {
+      this.transactionId = transactionId;
       this.commit = commit;
+      this.cause = cause;
     }
   }
 
   /*-- Actor methods -------------------------------------------------------- */
 
-  // start a new TXN: choose a random coordinator, send TxnBeginMsg and set timeout
-  void beginTxn() {
-
-    // some delay between transactions from the same client
-    try { Thread.sleep(10); }
-    catch (InterruptedException e) { e.printStackTrace(); }
-
-    acceptedTxn = false;
+  // start a new TXN, due at the given time (System.nanoTime())
+  void beginTxn(long start) {
+    if (stopped) return;
     numAttemptedTxn++;
 
-    // contact a random coordinator and begin TXN
-    currentCoordinator = coordinators.get(r.nextInt(coordinators.size()));
-    currentCoordinator.tell(new TxnBeginMsg(clientId), getSelf());
-
+    Txn txn = new Txn();
+    txn.start = start;
     // how many operations (taking some amount and adding it somewhere else)?
-    int numExtraOp = RAND_LENGTH_RANGE > 0 ? r.nextInt(RAND_LENGTH_RANGE) : 0;
-    numOpTotal = MIN_TXN_LENGTH + numExtraOp;
-    numOpDone = 0;
+    txn.numOpTotal = workload.nextOps(r);
+    txn.readOnly = workload.nextReadOnly(r);
+    requestBegin(txn);
+  }
+
+  // choose a random coordinator, send TxnBeginMsg and set timeout
+  void requestBegin(Txn txn) {
+    int requestId = ++lastRequestId;
+    beginningTxn.put(requestId, txn);
+    txn.coordinator = coordinators.get(r.nextInt(coordinators.size()));
+    txn.coordinator.tell(new TxnBeginMsg(clientId, requestId), getSelf());
 
     // timeout for confirmation of TXN by the coordinator (sent to self)
-    acceptTimeout = getContext().system().scheduler().scheduleOnce(
-            Duration.create(500, TimeUnit.MILLISECONDS),
+    txn.acceptTimeout = getContext().system().scheduler().scheduleOnce(
+            Duration.create(ACCEPT_TIMEOUT, TimeUnit.MILLISECONDS),
             getSelf(),
-            new TxnAcceptTimeoutMsg(), // message sent to myself
+            new TxnAcceptTimeoutMsg(requestId), // message sent to myself
             getContext().system().dispatcher(), getSelf()
     );
-    System.out.println("CLIENT " + clientId + " BEGIN");
+    EventLog.debug(name(), "begin", TransactionIds.NONE, "request", requestId);
   }
 
-  // end the current TXN sending TxnEndMsg to the coordinator
-  void endTxn() {
-    boolean doCommit = r.nextDouble() < COMMIT_PROBABILITY;
-    currentCoordinator.tell(new TxnEndMsg(clientId, doCommit), getSelf());
-    firstValue = null;
-    secondValue = null;
-    System.out.println("CLIENT " + clientId + " END");
+  // end the TXN sending TxnEndMsg to the coordinator
+  void endTxn(Txn txn) {
+    boolean doCommit = workload.nextCommit(r);
+    txn.coordinator.tell(new TxnEndMsg(clientId, txn.transactionId, doCommit), getSelf());
+    txn.opValues = null;
+    EventLog.debug(name(), "end", txn.transactionId, "commit", doCommit);
   }
 
-  // READ two items (will move some amount from the value of the first to the second)
-  void readTwo() {
+  // READ the items of an operation (will move some amount from the value of the first to the others)
+  void readKeys(Txn txn) {
 
-    // read two different keys
-    firstKey = r.nextInt(maxKey + 1);
-    int randKeyOffset = 1 + r.nextInt(maxKey - 1);
-    secondKey = (firstKey + randKeyOffset) % (maxKey + 1);
+    // read different keys, chosen by the workload
+    txn.opKeys = workload.nextKeys(keys, r);
+    txn.opValues = new Integer[txn.opKeys.length];
+    txn.numValuesRead = 0;
 
-    // READ requests
-    currentCoordinator.tell(new ReadMsg(clientId, firstKey), getSelf());
-    currentCoordinator.tell(new ReadMsg(clientId, secondKey), getSelf());
+    // READ request for all the keys
+    txn.coordinator.tell(new ReadBatchMsg(clientId, txn.transactionId, txn.opKeys), getSelf());
 
-    // delete the current read values
-    firstValue = null;
-    secondValue = null;
-
-    System.out.println("CLIENT " + clientId + " READ #"+ numOpDone + " (" + firstKey + "), (" + secondKey + ")");
+    if (EventLog.enabled(EventLog.Level.DEBUG))
+      EventLog.debug(name(), "read", txn.transactionId, "op", txn.numOpDone, "keys", Arrays.toString(txn.opKeys));
   }
 
-  // WRITE two items (called with probability WRITE_PROBABILITY after readTwo() values are returned)
-  void writeTwo() {
+  // WRITE the items of an operation (called with the write probability of the workload after readKeys() values are returned)
+  void writeKeys(Txn txn) {
+
+    // take some amount from one value and pass it to the others, then request writes
+    int[] read = new int[txn.opValues.length];
+    for(int i = 0; i < read.length; i++) read[i] = txn.opValues[i];
+    int[] written = Workload.transfer(read, r);
+    txn.coordinator.tell(new WriteBatchMsg(clientId, txn.transactionId, txn.opKeys, written), getSelf());
+    if (EventLog.enabled(EventLog.Level.DEBUG))
+      EventLog.debug(name(), "write", txn.transactionId, "op", txn.numOpDone, "keys", Arrays.toString(txn.opKeys),
+          "read", Arrays.toString(read), "written", Arrays.toString(written));
+  }
 
-    // take some amount from one value and pass it to the other, then request writes
-    Integer amountTaken = 0;
-    if(firstValue >= 1) amountTaken = 1 + r.nextInt(firstValue);
-    currentCoordinator.tell(new WriteMsg(clientId, firstKey, firstValue - amountTaken), getSelf());
-    currentCoordinator.tell(new WriteMsg(clientId, secondKey, secondValue + amountTaken), getSelf());
-    System.out.println("CLIENT " + clientId + " WRITE #"+ numOpDone
-            + " taken " + amountTaken
-            + " (" + firstKey + ", " + (firstValue - amountTaken) + "), ("
-            + secondKey + ", " + (secondValue + amountTaken) + ")");
+  // send NextTxnMsg to itself after the given delay
+  void scheduleNextTxn(int delay) {
+    getContext().system().scheduler().scheduleOnce(
+            Duration.create(delay, TimeUnit.MILLISECONDS),
+            getSelf(),
+            new NextTxnMsg(),
+            getContext().system().dispatcher(), getSelf()
+    );
   }
 
   /*-- Message handlers ----------------------------------------------------- */
 
   private void onWelcomeMsg(WelcomeMsg msg) {
     this.coordinators = msg.coordinators;
-    System.out.println(coordinators);
     this.maxKey = msg.maxKey;
-    beginTxn();
+    this.workload = msg.workload;
+    this.keys = workload.keys(maxKey + 1);
+    arrivalStart = System.nanoTime();
+    if (rate > 0) onNextTxnMsg(new NextTxnMsg());
+    else beginTxn(arrivalStart);
   }
 
   private void onStopMsg(StopMsg msg) {
     getContext().stop(getSelf());
   }
 
+  private void onMeasureMsg(MeasureMsg msg) {
+    stats = new TxnStats();
+    maxTxn = msg.transactions;
+  }
+
+  private void onReportMsg(ReportMsg msg) {
+    reportTo = getSender();
+    if (maxTxn == 0 || stopped) {
+      stopped = true;
+      report();
+    }
+  }
+
+  // closed loop: begin the next TXN; open loop: begin the TXNs due by now at
+  // the arrival rate, however many are still running
+  private void onNextTxnMsg(NextTxnMsg msg) {
+    if (rate <= 0) {
+      beginTxn(System.nanoTime());
+      return;
+    }
+    if (stopped) return;
+    long due = (long) ((System.nanoTime() - arrivalStart) * rate / 1e9);
+    // with a number of TXNs to run, no more than that are begun
+    if (maxTxn > 0) due = Math.min(due, maxTxn);
+    for (; numArrivals < due; numArrivals++)
+      beginTxn(arrivalStart + (long) (numArrivals * 1e9 / rate));
+    scheduleNextTxn(ARRIVAL_TICK);
+  }
+
   private void onTxnAcceptMsg(TxnAcceptMsg msg) {
-    acceptedTxn = true;
-    acceptTimeout.cancel();
-    readTwo();
+    Txn txn = beginningTxn.remove(msg.requestId);
+    if (txn == null) {
+      // accepted after the timeout, the TXN was begun again elsewhere
+      getSender().tell(new TxnEndMsg(clientId, msg.transactionId, false), getSelf());
+      return;
+    }
+    txn.acceptTimeout.cancel();
+    txn.transactionId = msg.transactionId;
+    // the coordinator may run the TXN in a TxnHandler child, which accepted it
+    txn.coordinator = getSender();
+    runningTxn.put(txn.transactionId, txn);
+    readKeys(txn);
   }
 
-  private void onTxnAcceptTimeoutMsg(TxnAcceptTimeoutMsg msg) throws InterruptedException {
-    if(!acceptedTxn) beginTxn();
+  private void onTxnAcceptTimeoutMsg(TxnAcceptTimeoutMsg msg) {
+    Txn txn = beginningTxn.remove(msg.requestId);
+    if (txn != null) requestBegin(txn);
   }
 
   private void onReadResultMsg(ReadResultMsg msg) {
-    System.out.println("CLIENT " + clientId + " READ RESULT (" + msg.key + ", " + msg.value + ")");
+    // the TXN may have been aborted by the coordinator meanwhile
+    Txn txn = runningTxn.get(msg.transactionId);
+    if (txn == null || txn.opValues == null) return;
+    saveValue(txn, msg.key, msg.value);
+    continueTxn(txn);
+  }
+
+  private void onReadBatchResultMsg(ReadBatchResultMsg msg) {
+    Txn txn = runningTxn.get(msg.transactionId);
+    if (txn == null || txn.opValues == null) return;
+    for(int i = 0; i < msg.keys.length; i++)
+      saveValue(txn, msg.keys[i], msg.values[i]);
+    continueTxn(txn);
+  }
 
-    // save the read value(s)
-    if(msg.key.equals(firstKey)) firstValue = msg.value;
-    if(msg.key.equals(secondKey)) secondValue = msg.value;
+  // save a value read by the current operation of the TXN
+  private void saveValue(Txn txn, int key, int value) {
+    EventLog.debug(name(), "readResult", txn.transactionId, "key", key, "value", value);
+    for(int i = 0; i < txn.opKeys.length; i++)
+      if(txn.opKeys[i] == key && txn.opValues[i] == null) {
+        txn.opValues[i] = value;
+        txn.numValuesRead++;
+      }
+  }
 
-    boolean opDone = (firstValue != null && secondValue != null);
+  // once all the values of the operation are read, write them, then go on with the next operation or end
+  private void continueTxn(Txn txn) {
+    boolean opDone = txn.numValuesRead == txn.opKeys.length;
+    if(!opDone) return;
 
     // do we only read or also write?
-    double writeRandom = r.nextDouble();
-    boolean doWrite = writeRandom < WRITE_PROBABILITY;
-    if(doWrite && opDone) writeTwo();
-    
+    if(!txn.readOnly && workload.nextWrite(r)) writeKeys(txn);
+
     // check if the transaction should end;
-    // otherwise, read two again
-    if(opDone) numOpDone++;
-    if(numOpDone >= numOpTotal) {
-      endTxn();
+    // otherwise, read again
+    txn.numOpDone++;
+    if(txn.numOpDone >= txn.numOpTotal) {
+      endTxn(txn);
     }
-    else if(opDone) {
-      readTwo();
+    else {
+      readKeys(txn);
     }
   }
 
-  private void onTxnResultMsg(TxnResultMsg msg) throws InterruptedException {
-    if(msg.commit) {
-      numCommittedTxn++;
-      System.out.println("CLIENT " + clientId + " COMMIT OK ("+numCommittedTxn+"/"+numAttemptedTxn+")");
-    }
-    else {
-      System.out.println("CLIENT " + clientId + " COMMIT FAIL ("+(numAttemptedTxn - numCommittedTxn)+"/"+numAttemptedTxn+")");
+  private void onTxnResultMsg(TxnResultMsg msg) {
+    Txn txn = runningTxn.remove(msg.transactionId);
+    if (txn == null) return;
+    if (stats != null && !stopped) record(txn, msg);
+    if(msg.commit) numCommittedTxn++;
+    EventLog.info(name(), "result", msg.transactionId, "commit", msg.commit, "committed", numCommittedTxn,
+        "attempted", numAttemptedTxn);
+    if (rate <= 0) scheduleNextTxn(THINK_TIME);
+  }
+
+  // record the outcome and latency of the TXN, stopping once maxTxn are done
+  private void record(Txn txn, TxnResultMsg msg) {
+    long latency = System.nanoTime() - txn.start;
+    if(msg.commit) stats.recordCommit(latency);
+    else stats.recordAbort(msg.cause, latency);
+    if(maxTxn > 0 && stats.transactions() >= maxTxn) {
+      stopped = true;
+      if(reportTo != null) report();
     }
-    beginTxn();
+  }
+
+  private void report() {
+    reportTo.tell(stats, getSelf());
+    reportTo = null;
+  }
+
+  private String name() {
+    return getSelf().path().name();
   }
 
   @Override
@@ -264,9 +481,13 @@ public class TxnClient extends AbstractActor {
             .match(WelcomeMsg.class,  this::onWelcomeMsg)
             .match(TxnAcceptMsg.class,  this::onTxnAcceptMsg)
             .match(TxnAcceptTimeoutMsg.class,  this::onTxnAcceptTimeoutMsg)
+            .match(NextTxnMsg.class,  this::onNextTxnMsg)
             .match(ReadResultMsg.class,  this::onReadResultMsg)
+            .match(ReadBatchResultMsg.class,  this::onReadBatchResultMsg)
             .match(TxnResultMsg.class,  this::onTxnResultMsg)
             .match(StopMsg.class,  this::onStopMsg)
+            .match(MeasureMsg.class,  this::onMeasureMsg)
+            .match(ReportMsg.class,  this::onReportMsg)
             .build();
   }
 }
@@ -1,31 +1,42 @@
 package it.unitn.ds1;
 
 import java.io.Serializable;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
 import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import it.unitn.ds1.ConsistencyChecker.Marker;
+import it.unitn.ds1.TxnClient.ReadBatchMsg;
 import it.unitn.ds1.TxnClient.ReadMsg;
-import it.unitn.ds1.TxnClient.ReadResultMsg;
 import it.unitn.ds1.TxnClient.TxnAcceptMsg;
 import it.unitn.ds1.TxnClient.TxnBeginMsg;
 import it.unitn.ds1.TxnClient.TxnEndMsg;
 import it.unitn.ds1.TxnClient.TxnResultMsg;
+import it.unitn.ds1.TxnClient.WriteBatchMsg;
 import it.unitn.ds1.TxnClient.WriteMsg;
+import it.unitn.ds1.bench.TimeoutStats;
 import it.unitn.ds1.model.PrivateWorkspace;
 import it.unitn.ds1.model.RowValue;
-import scala.concurrent.duration.Duration;
+import it.unitn.ds1.partition.Partitioner;
+import it.unitn.ds1.serial.ProtocolMessage;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.AdaptiveTimeout;
+import it.unitn.ds1.txn.DecisionHistory;
+import it.unitn.ds1.txn.SequenceLease;
+import it.unitn.ds1.txn.TimerKey;
+import it.unitn.ds1.txn.TransactionIds;
+import it.unitn.ds1.util.LongMap;
+import it.unitn.ds1.wal.DecisionLog;
 
 /**
  * Coordinators manage transaction request and manipulate it among servers
@@ -33,35 +44,65 @@ import scala.concurrent.duration.Duration;
 public class TxnCoordinator extends Node {
   LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
   private List<ActorRef> servers;
+  private Partitioner partitioner;
 
   // state varibale
-  private List<Integer> processingClientIds;
-  private Map<Integer, String> currentTransaction;
-  private Map<String, Integer> mapCurrentTransaction;
-  private Map<String, ActorRef> mapCurrentTransactionActor;
-  private Map<String, PrivateWorkspace> processingPrivateWorkspace;
-
-  private Map<String, Set<Integer>> requiredServerVote;
-  // history
-  private Map<String, Decision> historyTransaction;
+  // sequence numbers of the transaction ids, never reused by a restarted
+  // coordinator
+  private SequenceLease sequences;
+  // txn.txn-actors: each transaction run by a TxnHandler child until its end
+  private boolean txnActors;
+  // workspace and client of each running transaction, clients name the
+  // transaction in their requests and may run several at once
+  private LongMap<TxnExecution> running;
+  // children still running the execution phase of a transaction
+  private LongMap<ActorRef> handlers;
+
+  private LongMap<Set<Integer>> requiredServerVote;
+  // when the vote requests of a transaction were sent (System.nanoTime())
+  private LongMap<Long> voteSentAt;
+  // timeout of the votes of each server, following their latency
+  private AdaptiveTimeout[] voteTimeouts;
+  // history, and servers which have not acknowledged a decision yet
+  private DecisionHistory historyTransaction;
+  private LongMap<Set<Integer>> awaitingAck;
+  // commits made durable before they are sent, null without walDir
+  private DecisionLog decisionLog;
+  // messages waiting to be sent to each server in a batch
+  private List<List<Serializable>> outbox;
+  private int lastSnapshotId = -1;
 
   public TxnCoordinator(int id) {
     super(id);
   }
 
   static public Props props(int id) {
-    return Props.create(TxnCoordinator.class, () -> new TxnCoordinator(id));
+    return Props.create(TxnCoordinator.class, () -> new TxnCoordinator(id))
+        .withDispatcher(TxnSystem.COORDINATOR_DISPATCHER);
   }
 
   @Override
   public void preStart() {
-    processingClientIds = new ArrayList<>();
-    mapCurrentTransaction = new HashMap<>();
-    currentTransaction = new HashMap<>();
-    processingPrivateWorkspace = new HashMap<>();
-    mapCurrentTransactionActor = new HashMap<>();
-    requiredServerVote = new HashMap<>();
-    historyTransaction = new HashMap<>();
+    txnActors = getContext().getSystem().settings().config().getBoolean("txn.txn-actors");
+    sequences = new SequenceLease(
+        TxnSystem.walDir != null ? Paths.get(TxnSystem.walDir, "coordinator" + id + ".seq") : null);
+    running = new LongMap<>();
+    handlers = new LongMap<>();
+    requiredServerVote = new LongMap<>();
+    voteSentAt = new LongMap<>();
+    historyTransaction = new DecisionHistory();
+    awaitingAck = new LongMap<>();
+    if (TxnSystem.walDir != null) {
+      decisionLog = new DecisionLog(Paths.get(TxnSystem.walDir, "coordinator" + id + ".log"),
+          TxnSystem.CHECKPOINT_LOG_SIZE);
+      log.info("Coordinator " + id + " recovered " + decisionLog);
+    }
+  }
+
+  @Override
+  public void postStop() {
+    if (decisionLog != null)
+      decisionLog.close();
   }
 
   /*-- Message classes ------------------------------------------------------ */
@@ -74,87 +115,145 @@ public class TxnCoordinator extends Node {
     ABORT, COMMIT
   }
 
-  public static class VoteRequest implements Serializable {
-    public final String transactionId;
+  public static class VoteRequest implements ProtocolMessage {
+    public final long transactionId;
     public final Map<Integer, RowValue> changes;
+    // the transaction wrote nothing: no lock is taken and no decision will
+    // follow
+    public final boolean readOnly;
 
-    public VoteRequest(String transactionId, Map<Integer, RowValue> changes) {
+    public VoteRequest(long transactionId, Map<Integer, RowValue> changes, boolean readOnly) {
       this.transactionId = transactionId;
       this.changes = changes;
+      this.readOnly = readOnly;
     }
 
   }
 
-  public static class VoteReponse implements Serializable {
+  public static class VoteReponse implements ProtocolMessage {
     public final Vote vote;
+    // why the vote is NO, null for YES
+    public final AbortCause cause;
     public final Integer clientId;
-    public final String transactionId;
+    public final long transactionId;
 
-    public VoteReponse(Vote vote, Integer clientId, String transactionId) {
+    public VoteReponse(Vote vote, AbortCause cause, Integer clientId, long transactionId) {
       this.vote = vote;
+      this.cause = cause;
       this.clientId = clientId;
       this.transactionId = transactionId;
     }
 
   }
 
+  /**
+   * Some participants of the transaction did not vote in time
+   */
   public static class Timeout implements Serializable {
-    public final String transactionId;
-    public final int serverId;
+    public final long transactionId;
 
-    public Timeout(String transactionId, int serverId) {
+    public Timeout(long transactionId) {
       this.transactionId = transactionId;
-      this.serverId = serverId;
     }
 
   }
 
-  public static class DecisionRequest implements Serializable {
-    public final String transactionId;
+  public static class DecisionRequest implements ProtocolMessage {
+    public final long transactionId;
 
-    public DecisionRequest(String transactionId) {
+    public DecisionRequest(long transactionId) {
       this.transactionId = transactionId;
     }
 
   }
 
-  public static class DecisionResponse implements Serializable {
+  public static class DecisionResponse implements ProtocolMessage {
     public final Decision decision;
-    public final String transactionId;
+    public final long transactionId;
 
-    public DecisionResponse(Decision decision, String transactionId) {
+    public DecisionResponse(Decision decision, long transactionId) {
       this.decision = decision;
       this.transactionId = transactionId;
     }
 
   }
 
+  /**
+   * A server applied (or discarded) the changes of a decided transaction
+   */
+  public static class DecisionAck implements ProtocolMessage {
+    public final long transactionId;
+    public final int serverId;
+
+    public DecisionAck(long transactionId, int serverId) {
+      this.transactionId = transactionId;
+      this.serverId = serverId;
+    }
+
+  }
+
+  public static class AckTimeout implements Serializable {
+    public final long transactionId;
+    // ms waited, doubled for the next one
+    public final int delay;
+
+    public AckTimeout(long transactionId, int delay) {
+      this.transactionId = transactionId;
+      this.delay = delay;
+    }
+
+  }
+
+  /**
+   * Several 2PC messages exchanged between a coordinator and a server, handled
+   * in order as if they were received one by one
+   */
+  public static class Batch implements ProtocolMessage {
+    public final List<Serializable> messages;
+
+    public Batch(List<Serializable> messages) {
+      this.messages = Collections.unmodifiableList(messages);
+    }
+
+  }
+
+  public static class FlushBatch implements Serializable {
+    public final int serverId;
+
+    public FlushBatch(int serverId) {
+      this.serverId = serverId;
+    }
+
+  }
+
   public static class StartMsg implements Serializable {
     public final List<ActorRef> servers;
+    public final Partitioner partitioner;
 
-    public StartMsg(List<ActorRef> servers) {
+    public StartMsg(List<ActorRef> servers, Partitioner partitioner) {
       this.servers = Collections.unmodifiableList(new ArrayList<>(servers));
+      this.partitioner = partitioner;
     }
   }
 
-  public static class ReadDataMsg implements Serializable {
-    public final String transactionId;
+  public static class ReadDataMsg implements ProtocolMessage {
+    public final long transactionId;
     public final Integer key;
 
-    public ReadDataMsg(String transactionId, Integer key) {
+    public ReadDataMsg(long transactionId, Integer key) {
       this.transactionId = transactionId;
       this.key = key;
     }
 
   }
 
-  public static class ReadDataResultMsg implements Serializable {
-    public final String transactionId;
+  public static class ReadDataResultMsg implements ProtocolMessage {
+    public final long transactionId;
     public final Integer key;
     public final Integer value;
     public final Integer version;
 
-    public ReadDataResultMsg(String transactionId, Integer key, Integer value, Integer version) {
+    public ReadDataResultMsg(long transactionId, Integer key, Integer value, Integer version) {
       this.transactionId = transactionId;
       this.key = key;
       this.value = value;
@@ -163,9 +262,46 @@ public class TxnCoordinator extends Node {
 
   }
 
+  /**
+   * Read of the keys of a server for a transaction, answered at once
+   */
+  public static class ReadDataBatchMsg implements ProtocolMessage {
+    public final long transactionId;
+    public final int[] keys;
+
+    public ReadDataBatchMsg(long transactionId, int[] keys) {
+      this.transactionId = transactionId;
+      this.keys = keys;
+    }
+
+  }
+
+  public static class ReadDataBatchResultMsg implements ProtocolMessage {
+    public final long transactionId;
+    public final int[] keys;
+    // in the order of the keys
+    public final int[] values;
+    public final int[] versions;
+
+    public ReadDataBatchResultMsg(long transactionId, int[] keys, int[] values, int[] versions) {
+      this.transactionId = transactionId;
+      this.keys = keys;
+      this.values = values;
+      this.versions = versions;
+    }
+
+  }
+
   /*-- Message handlers ----------------------------------------------------- */
   private void onStartMsg(StartMsg welcomeMsg) {
     this.servers = welcomeMsg.servers;
+    this.partitioner = welcomeMsg.partitioner;
+    this.outbox = new ArrayList<>();
+    this.voteTimeouts = new AdaptiveTimeout[servers.size()];
+    for (int i = 0; i < servers.size(); i++) {
+      outbox.add(new ArrayList<>());
+      voteTimeouts[i] = adaptiveTimeout(TxnSystem.VOTE_TIMEOUT);
+    }
     log.info("Coordinator " + id + " recognize " + servers.size() + " servers");
   }
 
@@ -175,19 +311,20 @@ public class TxnCoordinator extends Node {
    * @param txnBeginMsg
    */
   private void onBeginTxnMsg(TxnBeginMsg txnBeginMsg) {
-    // store client Id
-    this.processingClientIds.add(txnBeginMsg.clientId);
-    // create transaction id
-    String transactionId = UUID.randomUUID().toString();
-    // store useful information about client and associated with transaction
-    currentTransaction.put(txnBeginMsg.clientId, transactionId);
-    mapCurrentTransaction.put(transactionId, txnBeginMsg.clientId);
-    mapCurrentTransactionActor.put(transactionId, getSender());
-    // init private workspace
-    processingPrivateWorkspace.put(transactionId, new PrivateWorkspace());
-    ActorRef sender = getSender();
+    // create transaction id: coordinator id and local sequence number
+    long transactionId = TransactionIds.of(id, sequences.next());
+    // store the client associated with transaction, with an empty private
+    // workspace
+    TxnExecution execution = new TxnExecution(transactionId, getSender(), servers, partitioner);
+    if (txnActors) {
+      // the handler accepts the transaction
+      handlers.put(transactionId, getContext().actorOf(TxnHandler.props(execution, txnBeginMsg.requestId),
+          "txn" + TransactionIds.sequenceOf(transactionId)));
+      return;
+    }
+    running.put(transactionId, execution);
     // accept transaction
-    sender.tell(new TxnAcceptMsg(), getSelf());
+    getSender().tell(new TxnAcceptMsg(txnBeginMsg.requestId, transactionId), getSelf());
   }
 
   /**
@@ -196,17 +333,23 @@ public class TxnCoordinator extends Node {
    * @param writeMsg
    */
   private void onWriteMsg(WriteMsg writeMsg) {
-    Integer clientId = writeMsg.clientId;
-    String transactionId = currentTransaction.get(clientId);
-    // RowValue readValue = getDataFromPrivateWorkSpace(writeMsg.key,
-    // transactionId);
+    TxnExecution execution = running.get(writeMsg.transactionId);
+    // already aborted, the client was told
+    if (execution == null)
+      return;
     // Save write operator to private workspace
-    PrivateWorkspace privateWorkspace = processingPrivateWorkspace.get(transactionId);
-    RowValue rowValue = privateWorkspace.getData().get(writeMsg.key);
-    rowValue.setValue(writeMsg.value);
-    Map<Integer, RowValue> data = privateWorkspace.getData();
-    data.put(writeMsg.key, rowValue);
-    privateWorkspace.setData(data);
+    execution.onWrite(writeMsg);
+  }
+
+  /**
+   * Process a write of several keys
+   * 
+   * @param writeMsg
+   */
+  private void onWriteBatchMsg(WriteBatchMsg writeMsg) {
+    TxnExecution execution = running.get(writeMsg.transactionId);
+    if (execution != null)
+      execution.onWriteBatch(writeMsg);
   }
 
   /**
@@ -215,20 +358,22 @@ public class TxnCoordinator extends Node {
    * @param readMsg
    */
   private void onReadMsg(ReadMsg readMsg) {
-    Integer clientId = readMsg.clientId;
-    RowValue readValue = null;
-    String transactionId = currentTransaction.get(clientId);
-    // Check if key is in private workspace or not
-    if (exitsInPrivateWorkSpace(readMsg.key, transactionId)) {
-      // if data has already in private workspace, the send it to client
-      readValue = getDataFromPrivateWorkSpace(readMsg.key, transactionId);
-      getSender().tell(new ReadResultMsg(readMsg.key, readValue.getValue()), getSelf());
-    } else {
-      // read data from server by key
-      mapCurrentTransactionActor.put(transactionId, getSender());
-      getDataByKey(readMsg.key, transactionId);
-    }
+    TxnExecution execution = running.get(readMsg.transactionId);
+    // already aborted, the client was told
+    if (execution != null)
+      execution.onRead(readMsg, getSender(), getSelf());
+  }
 
+  /**
+   * Handle a read of several keys: the ones already in the private workspace
+   * are answered at once, the others are asked with one message per server
+   * 
+   * @param readMsg
+   */
+  private void onReadBatchMsg(ReadBatchMsg readMsg) {
+    TxnExecution execution = running.get(readMsg.transactionId);
+    if (execution != null)
+      execution.onReadBatch(readMsg, getSender(), getSelf());
   }
 
   /**
@@ -238,16 +383,17 @@ public class TxnCoordinator extends Node {
    */
   private void onVoteResponse(VoteReponse vReponse) {
     // check if coordinator decided or not
-    if (!historyTransaction.containsKey(vReponse.transactionId)) {
+    if (decisionOf(vReponse.transactionId) == null && requiredServerVote.containsKey(vReponse.transactionId)) {
+      voteTimeouts[vReponse.clientId].sample(System.nanoTime() - voteSentAt.get(vReponse.transactionId));
       if (vReponse.vote == Vote.YES) {
         // check number of vote
         Set<Integer> requireVote = requiredServerVote.get(vReponse.transactionId);
         requireVote.remove(vReponse.clientId);
         requiredServerVote.put(vReponse.transactionId, requireVote);
         if (requireVote.size() <= 0)
-          commitTransaction(vReponse.transactionId);
+          commitDurably(vReponse.transactionId);
       } else
-        abortTransaction(vReponse.transactionId);
+        abortTransaction(vReponse.transactionId, vReponse.cause);
     }
   }
 
@@ -257,14 +403,25 @@ public class TxnCoordinator extends Node {
    * @param decisionRequest
    */
   private void onDecisionRequest(DecisionRequest decisionRequest) {
-    if (historyTransaction.containsKey(decisionRequest.transactionId))
-      // return decision store in historied transaction
-      getSender().tell(
-          new DecisionResponse(historyTransaction.get(decisionRequest.transactionId), decisionRequest.transactionId),
-          getSelf());
-    else
-      // if the transaction has not decided yet, log error to screen
-      log.error("EROOR anonymous transaction or not decide yet");
+    long transactionId = decisionRequest.transactionId;
+    Decision decision = decisionOf(transactionId);
+    if (decision == null && decisionLog != null && decisionLog.committed(transactionId))
+      decision = Decision.COMMIT;
+    if (decision == null) {
+      // not decided yet (or its commit is not durable yet): the decision will
+      // be sent once taken
+      if (TransactionIds.coordinatorOf(transactionId) != id || running.containsKey(transactionId)
+          || handlers.containsKey(transactionId) || requiredServerVote.containsKey(transactionId))
+        return;
+      // unknown, forgotten or started by an earlier incarnation of this
+      // coordinator: a commit is logged before it is sent, so this one was
+      // never committed, presumed abort
+      log.debug("presumed abort of {} (first sequence of this coordinator {})",
+          TransactionIds.toString(transactionId), sequences.first());
+      decision = Decision.ABORT;
+    }
+    // return decision store in historied transaction
+    getSender().tell(new DecisionResponse(decision, transactionId), getSelf());
   }
 
   /**
@@ -273,7 +430,13 @@ public class TxnCoordinator extends Node {
    * @param endMsg
    */
   private void onEndTxnMsg(TxnEndMsg endMsg) {
-    validationPhase(currentTransaction.get(endMsg.clientId));
+    // already aborted, or ended by a client which was late accepting it
+    if (!running.containsKey(endMsg.transactionId))
+      return;
+    if (endMsg.commit)
+      validationPhase(endMsg.transactionId);
+    else
+      abortTransaction(endMsg.transactionId, AbortCause.CLIENT);
   }
 
   /**
@@ -282,16 +445,40 @@ public class TxnCoordinator extends Node {
    * @param readDataResultMsg
    */
   private void onReadResultMsg(ReadDataResultMsg readDataResultMsg) {
-    ActorRef client = mapCurrentTransactionActor.get(readDataResultMsg.transactionId);
-    // update private workspace
-    PrivateWorkspace privateWorkspace = processingPrivateWorkspace.get(readDataResultMsg.transactionId);
-    RowValue rowValue = new RowValue(readDataResultMsg.version, readDataResultMsg.value);
-    Map<Integer, RowValue> data = privateWorkspace.getData();
+    TxnExecution execution = running.get(readDataResultMsg.transactionId);
+    if (execution != null)
+      execution.onReadResult(readDataResultMsg, getSelf());
+  }
+
+  /**
+   * Handle the reply of a server to a ReadDataBatchMsg, forwarded to the client
+   * as a single message
+   * 
+   * @param resultMsg
+   */
+  private void onReadBatchResultMsg(ReadDataBatchResultMsg resultMsg) {
+    TxnExecution execution = running.get(resultMsg.transactionId);
+    if (execution != null)
+      execution.onReadBatchResult(resultMsg, getSelf());
+  }
 
-    data.put(readDataResultMsg.key, rowValue);
-    privateWorkspace.setData(data);
-    // tell client result
-    client.tell(new ReadResultMsg(readDataResultMsg.key, readDataResultMsg.value), getSelf());
+  /**
+   * A TxnHandler child ended the execution phase of a transaction: validate
+   * its workspace, or abort it. While crashed, it is kept for the recovery to
+   * abort, as a TxnEndMsg is ignored
+   * 
+   * @param ended
+   */
+  private void onHandlerEnded(TxnHandler.Ended ended) {
+    long transactionId = ended.execution.transactionId;
+    handlers.remove(transactionId);
+    running.put(transactionId, ended.execution);
+    if (crashed)
+      return;
+    if (ended.cause == null)
+      validationPhase(transactionId);
+    else
+      abortTransaction(transactionId, ended.cause);
   }
 
   /**
@@ -301,11 +488,74 @@ public class TxnCoordinator extends Node {
    */
   private void onTimeout(Timeout timeout) {
     // check if transaction is decided or not
-    if (!historyTransaction.containsKey(timeout.transactionId))
-      // if transaction has not decided yet, abort it
-      if (requiredServerVote.get(timeout.transactionId).contains(timeout.serverId)) {
-        abortTransaction(timeout.transactionId);
-      }
+    // if transaction has not decided yet, abort it (the timer is cancelled once
+    // decided, a timeout may still be in the mailbox). No vote missing: its
+    // commit is being logged
+    Set<Integer> missing = requiredServerVote.get(timeout.transactionId);
+    if (decisionOf(timeout.transactionId) == null && missing != null && !missing.isEmpty()) {
+      // the next transactions wait longer for these servers
+      for (int serverId : requiredServerVote.get(timeout.transactionId))
+        voteTimeouts[serverId].expired();
+      abortTransaction(timeout.transactionId, AbortCause.TIMEOUT);
+    }
+  }
+
+  /**
+   * Handle the acknowledgement of a decision: once every informed server
+   * acknowledged, the decision may be evicted from the history
+   * 
+   * @param ack
+   */
+  private void onDecisionAck(DecisionAck ack) {
+    Set<Integer> waiting = awaitingAck.get(ack.transactionId);
+    if (waiting == null)
+      return;
+    waiting.remove(ack.serverId);
+    if (waiting.isEmpty()) {
+      awaitingAck.remove(ack.transactionId);
+      historyTransaction.acknowledged(ack.transactionId);
+      if (decisionLog != null)
+        decisionLog.acknowledged(ack.transactionId);
+      getTimers().cancel(TimerKey.ack(ack.transactionId));
+    }
+  }
+
+  /**
+   * Re-send the decision to the servers which have not acknowledged it
+   * 
+   * @param timeout
+   */
+  private void onAckTimeout(AckTimeout timeout) {
+    Set<Integer> waiting = awaitingAck.get(timeout.transactionId);
+    if (waiting == null)
+      return;
+    Decision decision = decisionOf(timeout.transactionId);
+    for (Integer serverId : waiting)
+      sendToServer(serverId, new DecisionResponse(decision, timeout.transactionId));
+    setAckTimeout(timeout.transactionId, backOff(timeout.delay));
+  }
+
+  /**
+   * Handle the replies of a server to a batch
+   * 
+   * @param batch
+   */
+  private void onBatch(Batch batch) {
+    for (Serializable msg : batch.messages) {
+      if (msg instanceof VoteReponse)
+        onVoteResponse((VoteReponse) msg);
+      else if (msg instanceof DecisionAck)
+        onDecisionAck((DecisionAck) msg);
+    }
+  }
+
+  /**
+   * The batch window of a server expired: send what is pending
+   * 
+   * @param flush
+   */
+  private void onFlushBatch(FlushBatch flush) {
+    flush(flush.serverId);
   }
 
   /**
@@ -314,11 +564,21 @@ public class TxnCoordinator extends Node {
   @Override
   protected void onRecovery(Recovery msg) {
     // update handle message
-    getContext().become(createReceive());
-    // abort any transaction has not decided and lost voteresponse
-    for (String transactionId : mapCurrentTransaction.keySet()) {
-      abortTransaction(transactionId);
+    recover();
+    // the commits logged before crashing are durable once synced: they are
+    // sent, any other transaction not decided and lost voteresponse is aborted
+    // (both remove it from the map, iterate over a copy of the keys)
+    if (decisionLog != null)
+      decisionLog.sync();
+    for (long transactionId : running.keys()) {
+      if (decisionLog != null && decisionLog.committed(transactionId))
+        commitTransaction(transactionId);
+      else
+        abortTransaction(transactionId, AbortCause.COORDINATOR_CRASH);
     }
+    // the ones still run by a handler once it gave them back
+    for (long transactionId : handlers.keys())
+      handlers.get(transactionId).tell(new TxnHandler.Abort(), getSelf());
   }
 
   /**
@@ -326,84 +586,105 @@ public class TxnCoordinator extends Node {
    * 
    * @param transactionId
    */
-  private void validationPhase(String transactionId) {
+  private void validationPhase(long transactionId) {
     // get data from private workspace
-    PrivateWorkspace privateWorkspace = processingPrivateWorkspace.get(transactionId);
+    PrivateWorkspace privateWorkspace = running.get(transactionId).privateWorkspace;
     Map<Integer, RowValue> data = privateWorkspace.getData();
-    Set<Integer> requiredVote = new HashSet<>();
-    Map<Integer, Map<Integer, RowValue>> changesByServer = new HashMap<>();
-    // organize changes by server
-    for (int key : data.keySet()) {
-      Map<Integer, RowValue> dataChanges = null;
-      if (changesByServer.containsKey(getServerIdByKey(key)))
-        dataChanges = changesByServer.get(getServerIdByKey(key));
-      else
-        dataChanges = new HashMap();
-      dataChanges.put(key, new RowValue(data.get(key).getVersion(), data.get(key).getValue()));
-      changesByServer.put(getServerIdByKey(key), dataChanges);
-      requiredVote.add(getServerIdByKey(key));
-    }
-    // ask server validate changes and set timeout event
-    for (Integer server : requiredVote) {
-      servers.get(server).tell(new VoteRequest(transactionId, changesByServer.get(server)), getSelf());
-      setTimeout(transactionId, server, TxnSystem.VOTE_TIMEOUT);
+    // a read-only transaction in snapshot mode is committed without validation
+    if (TxnSystem.SNAPSHOT_READS && privateWorkspace.getWritten().isEmpty()) {
+      commitTransaction(transactionId);
+      return;
     }
+    // a read-only transaction is validated in a single lock-free round; the
+    // servers of a writing one all lock what they validate, including the ones
+    // it only read from, until the decision (no write skew)
+    boolean readOnly = privateWorkspace.getWritten().isEmpty();
+    Map<Integer, Map<Integer, RowValue>> changesByServer = changesByServer(data, partitioner);
+    Set<Integer> requiredVote = new HashSet<>(changesByServer.keySet());
+    // ask server validate changes
+    for (Integer server : requiredVote)
+      sendToServer(server, new VoteRequest(transactionId, changesByServer.get(server), readOnly));
     // mark required server
     requiredServerVote.put(transactionId, requiredVote);
+    voteSentAt.put(transactionId, System.nanoTime());
+    // nothing was read nor written
+    if (requiredVote.isEmpty())
+      commitTransaction(transactionId);
+    else
+      // one timeout for all the votes, the one of the slowest server, cancelled
+      // once decided
+      setTimeout(transactionId, timeoutOf(requiredVote));
     // simulate crash
     // crash(5000);
   }
 
   /**
-   * Get data with key from a proper server
+   * Organize the rows of a private workspace by the server owning them, copying
+   * the version read and the value to write
    * 
-   * @param key
-   * @param clientId
+   * @param data
+   * @param partitioner
+   * @return changes of each server, by server id
    */
-
-  private void getDataByKey(Integer key, String transactionId) {
-    ActorRef server = getServerByKey(key);
-    server.tell(new ReadDataMsg(transactionId, key), getSelf());
+  static Map<Integer, Map<Integer, RowValue>> changesByServer(Map<Integer, RowValue> data, Partitioner partitioner) {
+    Map<Integer, Map<Integer, RowValue>> changesByServer = new HashMap<>();
+    for (Map.Entry<Integer, RowValue> row : data.entrySet()) {
+      Map<Integer, RowValue> dataChanges = changesByServer.get(partitioner.serverOf(row.getKey()));
+      if (dataChanges == null) {
+        dataChanges = new HashMap<>();
+        changesByServer.put(partitioner.serverOf(row.getKey()), dataChanges);
+      }
+      dataChanges.put(row.getKey(), new RowValue(row.getValue().getVersion(), row.getValue().getValue()));
+    }
+    return changesByServer;
   }
 
   /**
-   * Get data from private workspace
+   * Clear private workspace after using
    * 
-   * @param key
-   * @param clientId
-   * @return
+   * @param transactionId
    */
-  private RowValue getDataFromPrivateWorkSpace(Integer key, String transactionId) {
-    return processingPrivateWorkspace.get(transactionId).getData().get(key);
+  private void clearPrivateWorkspace(long transactionId) {
+    running.remove(transactionId);
+    if (requiredServerVote.remove(transactionId) != null) {
+      voteSentAt.remove(transactionId);
+      getTimers().cancel(TimerKey.vote(transactionId));
+    }
   }
 
   /**
-   * Check if data has already in private workspace
+   * Every participant voted yes: log the commit and send it once durable,
+   * sharing one sync with the commits of up to GROUP_COMMIT_WINDOW ms or
+   * GROUP_COMMIT_SIZE transactions. A transaction which wrote nothing leaves
+   * no participant to recover, its commit is sent at once
    * 
-   * @param key
-   * @param clientId
-   * @return
+   * @param transactionId
    */
-  private boolean exitsInPrivateWorkSpace(Integer key, String transactionId) {
-    if (processingPrivateWorkspace.containsKey(transactionId))
-      if (processingPrivateWorkspace.get(transactionId).getData().containsKey(key))
-        return true;
-    return false;
+  private void commitDurably(long transactionId) {
+    if (decisionLog == null || serversPrepared(running.get(transactionId).privateWorkspace).isEmpty()) {
+      commitTransaction(transactionId);
+      return;
+    }
+    decisionLog.logCommit(transactionId);
+    // decided, the votes are no longer waited for
+    getTimers().cancel(TimerKey.vote(transactionId));
+    if (decisionLog.pending() >= TxnSystem.GROUP_COMMIT_SIZE)
+      syncDecisionLog();
+    else if (decisionLog.pending() == 1)
+      getTimers().startSingleTimer(TimerKey.SYNC, new TxnServer.SyncLog(),
+          Duration.ofMillis(TxnSystem.GROUP_COMMIT_WINDOW));
   }
 
   /**
-   * Clear private workspace after using
-   * 
-   * @param transactionId
+   * Sync the decision log and send the commits it made durable. If sending
+   * them crashes the coordinator, the recovery sends the rest
    */
-  private void clearPrivateWorkspace(String transactionId) {
-    Integer clientId = mapCurrentTransaction.get(transactionId);
-    currentTransaction.remove(clientId);
-    mapCurrentTransaction.remove(transactionId);
-    processingPrivateWorkspace.remove(transactionId);
-    processingClientIds.remove(processingClientIds.indexOf(clientId));
-    requiredServerVote.remove(transactionId);
-    mapCurrentTransactionActor.remove(transactionId);
+  private void syncDecisionLog() {
+    // synced before the end of its window
+    getTimers().cancel(TimerKey.SYNC);
+    for (long transactionId : decisionLog.sync())
+      if (!crashed)
+        commitTransaction(transactionId);
   }
 
   /**
@@ -411,26 +692,23 @@ public class TxnCoordinator extends Node {
    * 
    * @param transactionId
    */
-  private void commitTransaction(String transactionId) {
+  private void commitTransaction(long transactionId) {
+    TxnExecution execution = running.get(transactionId);
+    execution.client.tell(new TxnResultMsg(transactionId, true, null), getSelf());
+    // servers which validated a read-only transaction hold nothing for it
+    Set<Integer> informingServer = serversPrepared(execution.privateWorkspace);
     // record decision to history transaction map
-    historyTransaction.put(transactionId, Decision.COMMIT);
-    mapCurrentTransactionActor.get(transactionId).tell(new TxnResultMsg(true), getSelf());
-    Set<ActorRef> informingServer = new HashSet<>();
-    PrivateWorkspace privateWorkspace = processingPrivateWorkspace.get(transactionId);
-    Map<Integer, RowValue> data = privateWorkspace.getData();
-    for (int key : data.keySet()) {
-      informingServer.add(getServerByKey(key));
-    }
+    recordDecision(transactionId, Decision.COMMIT, informingServer);
     // clear private workspace
     clearPrivateWorkspace(transactionId);
     // inform related server
-    for (ActorRef actor : informingServer) {
-      if (new Random().nextDouble() < TxnSystem.CRASH_PROBABILITY)
+    for (Integer serverId : informingServer) {
+      if (shouldCrash())
         if (this.id == 2){
           crash(TxnSystem.CRASH_TIME);
           return;
         }
-      actor.tell(new DecisionResponse(Decision.COMMIT, transactionId), getSelf());
+      sendToServer(serverId, new DecisionResponse(Decision.COMMIT, transactionId));
     }
   }
 
@@ -438,33 +716,119 @@ public class TxnCoordinator extends Node {
    * Update phase arbort transaction
    * 
    * @param transactionId
+   * @param cause         reported to the client
    */
-  private void abortTransaction(String transactionId) {
+  private void abortTransaction(long transactionId, AbortCause cause) {
+    TxnExecution execution = running.get(transactionId);
+    execution.client.tell(new TxnResultMsg(transactionId, false, cause), getSelf());
+    // inform decision to the servers which may hold changes of the transaction
+    Set<Integer> informingServer = serversPrepared(execution.privateWorkspace);
     // record decision to history transaction map
-    historyTransaction.put(transactionId, Decision.ABORT);
-    mapCurrentTransactionActor.get(transactionId).tell(new TxnResultMsg(false), getSelf());
-    Set<ActorRef> informingServer = new HashSet<>();
-    PrivateWorkspace privateWorkspace = processingPrivateWorkspace.get(transactionId);
-    Map<Integer, RowValue> data = privateWorkspace.getData();
-    // inform decision to related server
-    for (int key : data.keySet()) {
-      informingServer.add(getServerByKey(key));
-    }
-    for (ActorRef actor : informingServer)
-      actor.tell(new DecisionResponse(Decision.ABORT, transactionId), getSelf());
+    recordDecision(transactionId, Decision.ABORT, informingServer);
+    for (Integer serverId : informingServer)
+      sendToServer(serverId, new DecisionResponse(Decision.ABORT, transactionId));
     // clear private workspace
     clearPrivateWorkspace(transactionId);
 
   }
 
   /**
-   * Get Server ActorRef by storage key
+   * Send a vote request or a decision to a server, batching it with the other
+   * messages for the same server when batching is enabled
    * 
-   * @param key
+   * @param serverId
+   * @param msg
+   */
+  private void sendToServer(int serverId, Serializable msg) {
+    if (TxnSystem.BATCH_WINDOW <= 0) {
+      servers.get(serverId).tell(msg, getSelf());
+      return;
+    }
+    List<Serializable> pending = outbox.get(serverId);
+    pending.add(msg);
+    if (pending.size() >= TxnSystem.BATCH_MAX_SIZE)
+      flush(serverId);
+    else if (pending.size() == 1)
+      getTimers().startSingleTimer(TimerKey.flush(serverId), new FlushBatch(serverId),
+          Duration.ofMillis(TxnSystem.BATCH_WINDOW));
+  }
+
+  /**
+   * First marker of a snapshot: pass it on to every server, after the messages
+   * waiting in the outbox, which were sent before it. The state of the
+   * coordinator is not part of the snapshot, the markers only separate the
+   * decisions sent before it from the ones sent after
+   * 
+   * @param marker
+   */
+  private void onMarker(Marker marker) {
+    if (marker.snapshotId <= lastSnapshotId)
+      return;
+    lastSnapshotId = marker.snapshotId;
+    for (int serverId = 0; serverId < servers.size(); serverId++) {
+      flush(serverId);
+      servers.get(serverId).tell(marker, getSelf());
+    }
+  }
+
+  /**
+   * Send the pending messages of a server as a single batch
+   * 
+   * @param serverId
+   */
+  private void flush(int serverId) {
+    List<Serializable> pending = outbox.get(serverId);
+    if (pending.isEmpty())
+      return;
+    servers.get(serverId).tell(new Batch(pending), getSelf());
+    outbox.set(serverId, new ArrayList<>());
+    // sent before the end of its window
+    getTimers().cancel(TimerKey.flush(serverId));
+  }
+
+  /**
+   * Record a decision in the history, keeping it until the informed servers
+   * acknowledged it
+   * 
+   * @param transactionId
+   * @param decision
+   * @param informingServer
+   */
+  private void recordDecision(long transactionId, Decision decision, Set<Integer> informingServer) {
+    historyTransaction.record(transactionId, decision == Decision.COMMIT, !informingServer.isEmpty());
+    if (!informingServer.isEmpty()) {
+      awaitingAck.put(transactionId, new HashSet<>(informingServer));
+      setAckTimeout(transactionId, timeoutOf(informingServer));
+    }
+  }
+
+  /**
+   * Get the decision of a transaction from the history
+   * 
+   * @param transactionId
+   * @return null if not decided yet (or forgotten)
+   */
+  private Decision decisionOf(long transactionId) {
+    Boolean commit = historyTransaction.lookup(transactionId);
+    if (commit == null)
+      return null;
+    return commit ? Decision.COMMIT : Decision.ABORT;
+  }
+
+  /**
+   * Get the ids of the servers which may hold the transaction prepared: the
+   * owners of a key read or written, unless nothing was written
+   * 
+   * @param privateWorkspace
    * @return
    */
-  private ActorRef getServerByKey(Integer key) {
-    return servers.get(key / 10);
+  private Set<Integer> serversPrepared(PrivateWorkspace privateWorkspace) {
+    Set<Integer> serverIds = new HashSet<>();
+    if (privateWorkspace.getWritten().isEmpty())
+      return serverIds;
+    for (int key : privateWorkspace.getData().keySet())
+      serverIds.add(getServerIdByKey(key));
+    return serverIds;
   }
 
   /**
@@ -474,15 +838,22 @@ public class TxnCoordinator extends Node {
    * @return
    */
   private Integer getServerIdByKey(Integer key) {
-    return key / 10;
+    return partitioner.serverOf(key);
   }
 
   @Override
   public Receive createReceive() {
     return receiveBuilder().match(StartMsg.class, this::onStartMsg).match(TxnBeginMsg.class, this::onBeginTxnMsg)
         .match(ReadMsg.class, this::onReadMsg).match(ReadDataResultMsg.class, this::onReadResultMsg)
-        .match(WriteMsg.class, this::onWriteMsg).match(TxnEndMsg.class, this::onEndTxnMsg)
+        .match(ReadBatchMsg.class, this::onReadBatchMsg).match(ReadDataBatchResultMsg.class, this::onReadBatchResultMsg)
+        .match(WriteMsg.class, this::onWriteMsg).match(WriteBatchMsg.class, this::onWriteBatchMsg)
+        .match(TxnEndMsg.class, this::onEndTxnMsg)
         .match(VoteReponse.class, this::onVoteResponse).match(DecisionRequest.class, this::onDecisionRequest)
+        .match(DecisionAck.class, this::onDecisionAck).match(AckTimeout.class, this::onAckTimeout)
+        .match(Batch.class, this::onBatch).match(FlushBatch.class, this::onFlushBatch)
+        .match(Marker.class, this::onMarker).match(TxnHandler.Ended.class, this::onHandlerEnded)
+        .match(TimeoutStatsRequest.class, this::onTimeoutStatsRequest)
+        .match(TxnServer.SyncLog.class, msg -> syncDecisionLog())
         .match(Timeout.class, this::onTimeout).match(Recovery.class, this::onRecovery).build(); // why have recovery
                                                                                                 // here ?
   }
@@ -493,22 +864,73 @@ public class TxnCoordinator extends Node {
   public Receive crashed() {
     return receiveBuilder().match(StartMsg.class, this::onStartMsg).match(TxnBeginMsg.class, this::onBeginTxnMsg)
         .match(ReadMsg.class, this::onReadMsg).match(ReadDataResultMsg.class, this::onReadResultMsg)
-        .match(WriteMsg.class, this::onWriteMsg).match(TxnEndMsg.class, msg -> {
+        .match(ReadBatchMsg.class, this::onReadBatchMsg).match(ReadDataBatchResultMsg.class, this::onReadBatchResultMsg)
+        .match(WriteMsg.class, this::onWriteMsg).match(WriteBatchMsg.class, this::onWriteBatchMsg)
+        .match(TxnEndMsg.class, msg -> {
         }).match(VoteReponse.class, msg -> {
         }).match(DecisionRequest.class, msg -> {
-        }).match(Timeout.class, this::onTimeout).match(Recovery.class, this::onRecovery).build(); // why have recovery
+        }).match(DecisionAck.class, msg -> {
+        }).match(AckTimeout.class, msg -> setAckTimeout(msg.transactionId, backOff(msg.delay)))
+        .match(Batch.class, msg -> {
+        }).match(FlushBatch.class, this::onFlushBatch) // already sent before crashing
+        .match(TxnHandler.Ended.class, this::onHandlerEnded)
+        .match(TimeoutStatsRequest.class, this::onTimeoutStatsRequest)
+        .match(TxnServer.SyncLog.class, msg -> {
+        }) // synced and sent on recovery
+        .match(Timeout.class, this::onTimeout).match(Recovery.class, this::onRecovery).build(); // why have recovery
                                                                                                   // here ?
   }
 
   /**
-   * Create time out event (message)
+   * Start the timer of the votes of a transaction
+   * 
+   * @param transactionId
+   * @param time
+   */
+  void setTimeout(long transactionId, int time) {
+    getTimers().startSingleTimer(TimerKey.vote(transactionId), new Timeout(transactionId), Duration.ofMillis(time));
+  }
+
+  /**
+   * Start the timer re-sending a decision which was not acknowledged
    * 
    * @param transactionId
-   * @param serverId
    * @param time
    */
-  void setTimeout(String transactionId, Integer serverId, int time) {
-    getContext().system().scheduler().scheduleOnce(Duration.create(time, TimeUnit.MILLISECONDS), getSelf(),
-        new Timeout(transactionId, serverId), getContext().system().dispatcher(), getSelf());
+  void setAckTimeout(long transactionId, int time) {
+    getTimers().startSingleTimer(TimerKey.ack(transactionId), new AckTimeout(transactionId, time),
+        Duration.ofMillis(time));
+  }
+
+  /**
+   * Longest vote timeout of the given servers: the acknowledgements of a
+   * decision are expected as fast as the votes
+   * 
+   * @param serverIds
+   * @return ms
+   */
+  private int timeoutOf(Set<Integer> serverIds) {
+    int timeout = TxnSystem.MIN_TIMEOUT;
+    for (int serverId : serverIds)
+      timeout = Math.max(timeout, voteTimeouts[serverId].timeout());
+    return timeout;
+  }
+
+  /**
+   * Delay of the next re-sending of a decision
+   * 
+   * @param delay ms waited so far
+   * @return ms
+   */
+  private static int backOff(int delay) {
+    return Math.min(2 * delay, TxnSystem.MAX_TIMEOUT);
+  }
+
+  private void onTimeoutStatsRequest(TimeoutStatsRequest msg) {
+    TimeoutStats stats = new TimeoutStats();
+    if (voteTimeouts != null)
+      for (int serverId = 0; serverId < voteTimeouts.length; serverId++)
+        stats.addVote("coordinator" + id + " votes of server" + serverId, voteTimeouts[serverId]);
+    getSender().tell(stats, getSelf());
   }
 }
@@ -0,0 +1,149 @@
+package it.unitn.ds1;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import akka.actor.ActorRef;
+import it.unitn.ds1.TxnClient.ReadBatchMsg;
+import it.unitn.ds1.TxnClient.ReadBatchResultMsg;
+import it.unitn.ds1.TxnClient.ReadMsg;
+import it.unitn.ds1.TxnClient.ReadResultMsg;
+import it.unitn.ds1.TxnClient.WriteBatchMsg;
+import it.unitn.ds1.TxnClient.WriteMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchResultMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataResultMsg;
+import it.unitn.ds1.model.PrivateWorkspace;
+import it.unitn.ds1.model.RowValue;
+import it.unitn.ds1.partition.Partitioner;
+
+/**
+ * Execution phase of a transaction at its coordinator: the private workspace,
+ * filled by the reads from the servers and the writes of the client until the
+ * client ends the transaction. Run by the TxnCoordinator itself, or by a
+ * TxnHandler child of it; self is the actor running it, which the servers
+ * answer.
+ */
+class TxnExecution {
+  final long transactionId;
+  // client of the transaction, which gets the results of the reads
+  ActorRef client;
+  final PrivateWorkspace privateWorkspace = new PrivateWorkspace();
+  private final List<ActorRef> servers;
+  private final Partitioner partitioner;
+
+  TxnExecution(long transactionId, ActorRef client, List<ActorRef> servers, Partitioner partitioner) {
+    this.transactionId = transactionId;
+    this.client = client;
+    this.servers = servers;
+    this.partitioner = partitioner;
+  }
+
+  /**
+   * Save a write in the private workspace, over the value read
+   *
+   * @param writeMsg
+   */
+  void onWrite(WriteMsg writeMsg) {
+    writeToPrivateWorkspace(writeMsg.key, writeMsg.value);
+  }
+
+  /**
+   * Save a write of several keys
+   *
+   * @param writeMsg
+   */
+  void onWriteBatch(WriteBatchMsg writeMsg) {
+    for (int i = 0; i < writeMsg.keys.length; i++)
+      writeToPrivateWorkspace(writeMsg.keys[i], writeMsg.values[i]);
+  }
+
+  /**
+   * Answer a read from the private workspace, or ask the server of the key
+   *
+   * @param readMsg
+   * @param sender
+   * @param self
+   */
+  void onRead(ReadMsg readMsg, ActorRef sender, ActorRef self) {
+    RowValue readValue = privateWorkspace.getData().get(readMsg.key);
+    if (readValue != null) {
+      // if data has already in private workspace, the send it to client
+      sender.tell(new ReadResultMsg(transactionId, readMsg.key, readValue.getValue()), self);
+    } else {
+      // read data from server by key
+      client = sender;
+      servers.get(partitioner.serverOf(readMsg.key)).tell(new ReadDataMsg(transactionId, readMsg.key), self);
+    }
+  }
+
+  /**
+   * Handle a read of several keys: the ones already in the private workspace
+   * are answered at once, the others are asked with one message per server
+   *
+   * @param readMsg
+   * @param sender
+   * @param self
+   */
+  void onReadBatch(ReadBatchMsg readMsg, ActorRef sender, ActorRef self) {
+    client = sender;
+    List<Integer> cached = new ArrayList<>();
+    Map<Integer, List<Integer>> keysByServer = new HashMap<>();
+    for (int key : readMsg.keys) {
+      if (privateWorkspace.getData().containsKey(key))
+        cached.add(key);
+      else
+        keysByServer.computeIfAbsent(partitioner.serverOf(key), serverId -> new ArrayList<>()).add(key);
+    }
+    if (!cached.isEmpty()) {
+      int[] keys = new int[cached.size()];
+      int[] values = new int[keys.length];
+      for (int i = 0; i < keys.length; i++) {
+        keys[i] = cached.get(i);
+        values[i] = privateWorkspace.getData().get(keys[i]).getValue();
+      }
+      sender.tell(new ReadBatchResultMsg(transactionId, keys, values), self);
+    }
+    for (Map.Entry<Integer, List<Integer>> serverKeys : keysByServer.entrySet()) {
+      int[] keys = new int[serverKeys.getValue().size()];
+      for (int i = 0; i < keys.length; i++)
+        keys[i] = serverKeys.getValue().get(i);
+      servers.get(serverKeys.getKey()).tell(new ReadDataBatchMsg(transactionId, keys), self);
+    }
+  }
+
+  /**
+   * Handle result from server for read operator
+   *
+   * @param readDataResultMsg
+   * @param self
+   */
+  void onReadResult(ReadDataResultMsg readDataResultMsg, ActorRef self) {
+    // update private workspace
+    privateWorkspace.getData().put(readDataResultMsg.key,
+        new RowValue(readDataResultMsg.version, readDataResultMsg.value));
+    // tell client result
+    client.tell(new ReadResultMsg(transactionId, readDataResultMsg.key, readDataResultMsg.value), self);
+  }
+
+  /**
+   * Handle the reply of a server to a ReadDataBatchMsg, forwarded to the client
+   * as a single message
+   *
+   * @param resultMsg
+   * @param self
+   */
+  void onReadBatchResult(ReadDataBatchResultMsg resultMsg, ActorRef self) {
+    for (int i = 0; i < resultMsg.keys.length; i++)
+      privateWorkspace.getData().put(resultMsg.keys[i], new RowValue(resultMsg.versions[i], resultMsg.values[i]));
+    client.tell(new ReadBatchResultMsg(transactionId, resultMsg.keys, resultMsg.values), self);
+  }
+
+  private void writeToPrivateWorkspace(int key, int value) {
+    privateWorkspace.getData().get(key).setValue(value);
+    privateWorkspace.getWritten().add(key);
+  }
+}
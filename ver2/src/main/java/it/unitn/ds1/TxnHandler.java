@@ -0,0 +1,90 @@
+package it.unitn.ds1;
+
+import java.io.Serializable;
+
+import akka.actor.AbstractActor;
+import akka.actor.Props;
+import it.unitn.ds1.TxnClient.ReadBatchMsg;
+import it.unitn.ds1.TxnClient.ReadMsg;
+import it.unitn.ds1.TxnClient.TxnAcceptMsg;
+import it.unitn.ds1.TxnClient.TxnEndMsg;
+import it.unitn.ds1.TxnClient.WriteBatchMsg;
+import it.unitn.ds1.TxnClient.WriteMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchResultMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataResultMsg;
+import it.unitn.ds1.txn.AbortCause;
+
+/**
+ * Child of a TxnCoordinator running the execution phase of one of its
+ * transactions, when txn.txn-actors is on in application.conf. The handler
+ * accepts the transaction, so that the client sends it the reads and writes
+ * directly, and keeps the private workspace. At the end of the transaction it
+ * gives the workspace back to the coordinator, which runs the two phase commit
+ * as for its own transactions, and stops.
+ *
+ * The transactions of a coordinator so run on all the threads of its
+ * dispatcher instead of one message at a time in its mailbox. The votes and
+ * decisions stay with the coordinator, which batches them by server and sends
+ * the snapshot markers after them.
+ */
+public class TxnHandler extends AbstractActor {
+  private final TxnExecution execution;
+  private final int requestId;
+
+  public TxnHandler(TxnExecution execution, int requestId) {
+    this.execution = execution;
+    this.requestId = requestId;
+  }
+
+  static Props props(TxnExecution execution, int requestId) {
+    return Props.create(TxnHandler.class, () -> new TxnHandler(execution, requestId))
+        .withDispatcher(TxnSystem.COORDINATOR_DISPATCHER);
+  }
+
+  /*-- Message classes ------------------------------------------------------ */
+  /**
+   * End of the execution phase, sent to the coordinator with the workspace
+   */
+  public static class Ended implements Serializable {
+    final TxnExecution execution;
+    // null to validate and commit the transaction
+    public final AbortCause cause;
+
+    Ended(TxnExecution execution, AbortCause cause) {
+      this.execution = execution;
+      this.cause = cause;
+    }
+  }
+
+  /**
+   * The coordinator recovered from a crash: end the transaction, it aborts
+   */
+  public static class Abort implements Serializable {
+  }
+
+  /*-- Actor methods -------------------------------------------------------- */
+  @Override
+  public void preStart() {
+    execution.client.tell(new TxnAcceptMsg(requestId, execution.transactionId), getSelf());
+  }
+
+  private void onTxnEndMsg(TxnEndMsg endMsg) {
+    end(endMsg.commit ? null : AbortCause.CLIENT);
+  }
+
+  private void end(AbortCause cause) {
+    getContext().getParent().tell(new Ended(execution, cause), getSelf());
+    getContext().stop(getSelf());
+  }
+
+  @Override
+  public Receive createReceive() {
+    return receiveBuilder().match(ReadMsg.class, msg -> execution.onRead(msg, getSender(), getSelf()))
+        .match(ReadBatchMsg.class, msg -> execution.onReadBatch(msg, getSender(), getSelf()))
+        .match(ReadDataResultMsg.class, msg -> execution.onReadResult(msg, getSelf()))
+        .match(ReadDataBatchResultMsg.class, msg -> execution.onReadBatchResult(msg, getSelf()))
+        .match(WriteMsg.class, execution::onWrite).match(WriteBatchMsg.class, execution::onWriteBatch)
+        .match(TxnEndMsg.class, this::onTxnEndMsg).match(Abort.class, msg -> end(AbortCause.COORDINATOR_CRASH))
+        .build();
+  }
+}
@@ -0,0 +1,37 @@
+package it.unitn.ds1;
+
+import com.typesafe.config.Config;
+
+import akka.actor.ActorSystem;
+import akka.dispatch.PriorityGenerator;
+import akka.dispatch.UnboundedStablePriorityMailbox;
+import it.unitn.ds1.TxnClient.ReadBatchMsg;
+import it.unitn.ds1.TxnClient.ReadMsg;
+import it.unitn.ds1.TxnClient.TxnBeginMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataMsg;
+
+/**
+ * Mailbox of the servers and coordinators (mailbox-type of their dispatcher in
+ * application.conf): new transactions and reads wait behind the votes,
+ * decisions and writes of the running transactions, which hold validation
+ * locks. Messages of the same priority stay in order.
+ *
+ * A transaction only ends once its reads are answered, so none of its own
+ * messages can be overtaken by one of its reads.
+ */
+public class TxnPriorityMailbox extends UnboundedStablePriorityMailbox {
+  static final PriorityGenerator PRIORITY = new PriorityGenerator() {
+    @Override
+    public int gen(Object message) {
+      if (message instanceof ReadDataMsg || message instanceof ReadDataBatchMsg || message instanceof ReadMsg
+          || message instanceof ReadBatchMsg || message instanceof TxnBeginMsg)
+        return 1;
+      return 0;
+    }
+  };
+
+  public TxnPriorityMailbox(ActorSystem.Settings settings, Config config) {
+    super(PRIORITY);
+  }
+}
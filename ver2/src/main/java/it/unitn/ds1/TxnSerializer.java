@@ -0,0 +1,294 @@
+package it.unitn.ds1;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializerWithStringManifest;
+import it.unitn.ds1.ConsistencyChecker.Marker;
+import it.unitn.ds1.TxnClient.ReadBatchMsg;
+import it.unitn.ds1.TxnClient.ReadBatchResultMsg;
+import it.unitn.ds1.TxnClient.ReadMsg;
+import it.unitn.ds1.TxnClient.ReadResultMsg;
+import it.unitn.ds1.TxnClient.TxnAcceptMsg;
+import it.unitn.ds1.TxnClient.TxnBeginMsg;
+import it.unitn.ds1.TxnClient.TxnEndMsg;
+import it.unitn.ds1.TxnClient.TxnResultMsg;
+import it.unitn.ds1.TxnClient.WriteBatchMsg;
+import it.unitn.ds1.TxnClient.WriteMsg;
+import it.unitn.ds1.TxnCoordinator.Batch;
+import it.unitn.ds1.TxnCoordinator.Decision;
+import it.unitn.ds1.TxnCoordinator.DecisionAck;
+import it.unitn.ds1.TxnCoordinator.DecisionRequest;
+import it.unitn.ds1.TxnCoordinator.DecisionResponse;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchResultMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataResultMsg;
+import it.unitn.ds1.TxnCoordinator.Vote;
+import it.unitn.ds1.TxnCoordinator.VoteReponse;
+import it.unitn.ds1.TxnCoordinator.VoteRequest;
+import it.unitn.ds1.TxnServer.SumTestResponse;
+import it.unitn.ds1.model.RowValue;
+import it.unitn.ds1.serial.BinaryReader;
+import it.unitn.ds1.serial.BinaryWriter;
+import it.unitn.ds1.txn.AbortCause;
+
+/**
+ * Binary encoding of the protocol messages (the ProtocolMessage ones), bound
+ * to them in application.conf so that they do not go through Java
+ * serialization between JVMs. The manifest names the message class, the fields
+ * follow in a fixed order as varints (see BinaryWriter); the changes of a
+ * VoteRequest are a count and (key, version, value) triples, a Batch the
+ * manifest and fields of each of its messages.
+ *
+ * The setup and benchmark messages (WelcomeMsg, StartMsg, ...) keep Java
+ * serialization.
+ */
+public class TxnSerializer extends SerializerWithStringManifest {
+  // unique among the serializers of the actor system, 0-40 are taken by Akka
+  private static final int IDENTIFIER = 4202;
+  private static final int EXPECTED_SIZE = 32;
+  private final ExtendedActorSystem system;
+
+  public TxnSerializer(ExtendedActorSystem system) {
+    this.system = system;
+  }
+
+  @Override
+  public int identifier() {
+    return IDENTIFIER;
+  }
+
+  @Override
+  public String manifest(Object o) {
+    if (o instanceof TxnBeginMsg)
+      return "TB";
+    if (o instanceof TxnAcceptMsg)
+      return "TA";
+    if (o instanceof ReadMsg)
+      return "R";
+    if (o instanceof WriteMsg)
+      return "W";
+    if (o instanceof ReadBatchMsg)
+      return "RB";
+    if (o instanceof WriteBatchMsg)
+      return "WB";
+    if (o instanceof ReadResultMsg)
+      return "RR";
+    if (o instanceof ReadBatchResultMsg)
+      return "RBR";
+    if (o instanceof TxnEndMsg)
+      return "TE";
+    if (o instanceof TxnResultMsg)
+      return "TR";
+    if (o instanceof ReadDataMsg)
+      return "RD";
+    if (o instanceof ReadDataResultMsg)
+      return "RDR";
+    if (o instanceof ReadDataBatchMsg)
+      return "RDB";
+    if (o instanceof ReadDataBatchResultMsg)
+      return "RDBR";
+    if (o instanceof VoteRequest)
+      return "VQ";
+    if (o instanceof VoteReponse)
+      return "VR";
+    if (o instanceof DecisionRequest)
+      return "DQ";
+    if (o instanceof DecisionResponse)
+      return "D";
+    if (o instanceof DecisionAck)
+      return "DA";
+    if (o instanceof Batch)
+      return "B";
+    if (o instanceof Marker)
+      return "SM";
+    if (o instanceof SumTestResponse)
+      return "SR";
+    throw new IllegalArgumentException("no binary encoding for " + o.getClass());
+  }
+
+  @Override
+  public byte[] toBinary(Object o) {
+    BinaryWriter out = new BinaryWriter(EXPECTED_SIZE);
+    write(out, o);
+    return out.toByteArray();
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+    return read(new BinaryReader(bytes), manifest);
+  }
+
+  private void write(BinaryWriter out, Object o) {
+    if (o instanceof TxnBeginMsg) {
+      TxnBeginMsg msg = (TxnBeginMsg) o;
+      out.writeVarInt(msg.clientId).writeVarInt(msg.requestId);
+    } else if (o instanceof TxnAcceptMsg) {
+      TxnAcceptMsg msg = (TxnAcceptMsg) o;
+      out.writeVarInt(msg.requestId).writeVarLong(msg.transactionId);
+    } else if (o instanceof ReadMsg) {
+      ReadMsg msg = (ReadMsg) o;
+      out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeVarInt(msg.key);
+    } else if (o instanceof WriteMsg) {
+      WriteMsg msg = (WriteMsg) o;
+      out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeVarInt(msg.key)
+          .writeSignedVarInt(msg.value);
+    } else if (o instanceof ReadBatchMsg) {
+      ReadBatchMsg msg = (ReadBatchMsg) o;
+      out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeIntArray(msg.keys);
+    } else if (o instanceof WriteBatchMsg) {
+      WriteBatchMsg msg = (WriteBatchMsg) o;
+      out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeIntArray(msg.keys)
+          .writeIntArray(msg.values);
+    } else if (o instanceof ReadResultMsg) {
+      ReadResultMsg msg = (ReadResultMsg) o;
+      out.writeVarLong(msg.transactionId).writeVarInt(msg.key).writeSignedVarInt(msg.value);
+    } else if (o instanceof ReadBatchResultMsg) {
+      ReadBatchResultMsg msg = (ReadBatchResultMsg) o;
+      out.writeVarLong(msg.transactionId).writeIntArray(msg.keys).writeIntArray(msg.values);
+    } else if (o instanceof TxnEndMsg) {
+      TxnEndMsg msg = (TxnEndMsg) o;
+      out.writeVarInt(msg.clientId).writeVarLong(msg.transactionId).writeBoolean(msg.commit);
+    } else if (o instanceof TxnResultMsg) {
+      TxnResultMsg msg = (TxnResultMsg) o;
+      out.writeVarLong(msg.transactionId).writeBoolean(msg.commit);
+      writeCause(out, msg.cause);
+    } else if (o instanceof ReadDataMsg) {
+      ReadDataMsg msg = (ReadDataMsg) o;
+      out.writeVarLong(msg.transactionId).writeVarInt(msg.key);
+    } else if (o instanceof ReadDataResultMsg) {
+      ReadDataResultMsg msg = (ReadDataResultMsg) o;
+      out.writeVarLong(msg.transactionId).writeVarInt(msg.key).writeSignedVarInt(msg.value)
+          .writeVarInt(msg.version);
+    } else if (o instanceof ReadDataBatchMsg) {
+      ReadDataBatchMsg msg = (ReadDataBatchMsg) o;
+      out.writeVarLong(msg.transactionId).writeIntArray(msg.keys);
+    } else if (o instanceof ReadDataBatchResultMsg) {
+      ReadDataBatchResultMsg msg = (ReadDataBatchResultMsg) o;
+      out.writeVarLong(msg.transactionId).writeIntArray(msg.keys).writeIntArray(msg.values)
+          .writeIntArray(msg.versions);
+    } else if (o instanceof VoteRequest) {
+      VoteRequest msg = (VoteRequest) o;
+      out.writeVarLong(msg.transactionId).writeBoolean(msg.readOnly).writeVarInt(msg.changes.size());
+      for (Map.Entry<Integer, RowValue> change : msg.changes.entrySet())
+        out.writeVarInt(change.getKey()).writeVarInt(change.getValue().getVersion())
+            .writeSignedVarInt(change.getValue().getValue());
+    } else if (o instanceof VoteReponse) {
+      VoteReponse msg = (VoteReponse) o;
+      out.writeByte(msg.vote.ordinal());
+      writeCause(out, msg.cause);
+      // clientId + 1, 0 for none
+      out.writeVarInt(msg.clientId == null ? 0 : msg.clientId + 1).writeVarLong(msg.transactionId);
+    } else if (o instanceof DecisionRequest) {
+      out.writeVarLong(((DecisionRequest) o).transactionId);
+    } else if (o instanceof DecisionResponse) {
+      DecisionResponse msg = (DecisionResponse) o;
+      out.writeByte(msg.decision.ordinal()).writeVarLong(msg.transactionId);
+    } else if (o instanceof DecisionAck) {
+      DecisionAck msg = (DecisionAck) o;
+      out.writeVarLong(msg.transactionId).writeVarInt(msg.serverId);
+    } else if (o instanceof Batch) {
+      Batch msg = (Batch) o;
+      out.writeVarInt(msg.messages.size());
+      for (Serializable nested : msg.messages) {
+        out.writeString(manifest(nested));
+        write(out, nested);
+      }
+    } else if (o instanceof Marker) {
+      Marker msg = (Marker) o;
+      out.writeVarInt(msg.snapshotId).writeString(Serialization.serializedActorPath(msg.checker));
+    } else if (o instanceof SumTestResponse) {
+      SumTestResponse msg = (SumTestResponse) o;
+      out.writeVarInt(msg.testId).writeSignedVarInt(msg.sum);
+    } else {
+      throw new IllegalArgumentException("no binary encoding for " + o.getClass());
+    }
+  }
+
+  private Serializable read(BinaryReader in, String manifest) throws NotSerializableException {
+    switch (manifest) {
+    case "TB":
+      return new TxnBeginMsg(in.readVarInt(), in.readVarInt());
+    case "TA":
+      return new TxnAcceptMsg(in.readVarInt(), in.readVarLong());
+    case "R":
+      return new ReadMsg(in.readVarInt(), in.readVarLong(), in.readVarInt());
+    case "W":
+      return new WriteMsg(in.readVarInt(), in.readVarLong(), in.readVarInt(), in.readSignedVarInt());
+    case "RB":
+      return new ReadBatchMsg(in.readVarInt(), in.readVarLong(), in.readIntArray());
+    case "WB":
+      return new WriteBatchMsg(in.readVarInt(), in.readVarLong(), in.readIntArray(), in.readIntArray());
+    case "RR":
+      return new ReadResultMsg(in.readVarLong(), in.readVarInt(), in.readSignedVarInt());
+    case "RBR":
+      return new ReadBatchResultMsg(in.readVarLong(), in.readIntArray(), in.readIntArray());
+    case "TE":
+      return new TxnEndMsg(in.readVarInt(), in.readVarLong(), in.readBoolean());
+    case "TR":
+      return new TxnResultMsg(in.readVarLong(), in.readBoolean(), readCause(in));
+    case "RD":
+      return new ReadDataMsg(in.readVarLong(), in.readVarInt());
+    case "RDR":
+      return new ReadDataResultMsg(in.readVarLong(), in.readVarInt(), in.readSignedVarInt(), in.readVarInt());
+    case "RDB":
+      return new ReadDataBatchMsg(in.readVarLong(), in.readIntArray());
+    case "RDBR":
+      return new ReadDataBatchResultMsg(in.readVarLong(), in.readIntArray(), in.readIntArray(), in.readIntArray());
+    case "VQ": {
+      long transactionId = in.readVarLong();
+      boolean readOnly = in.readBoolean();
+      int size = in.readVarInt();
+      Map<Integer, RowValue> changes = new HashMap<>(size * 2);
+      for (int i = 0; i < size; i++) {
+        int key = in.readVarInt();
+        int version = in.readVarInt();
+        changes.put(key, new RowValue(version, in.readSignedVarInt()));
+      }
+      return new VoteRequest(transactionId, changes, readOnly);
+    }
+    case "VR": {
+      Vote vote = Vote.values()[in.readByte()];
+      AbortCause cause = readCause(in);
+      int clientId = in.readVarInt();
+      return new VoteReponse(vote, cause, clientId == 0 ? null : clientId - 1, in.readVarLong());
+    }
+    case "DQ":
+      return new DecisionRequest(in.readVarLong());
+    case "D":
+      return new DecisionResponse(Decision.values()[in.readByte()], in.readVarLong());
+    case "DA":
+      return new DecisionAck(in.readVarLong(), in.readVarInt());
+    case "B": {
+      int size = in.readVarInt();
+      List<Serializable> messages = new ArrayList<>(size);
+      for (int i = 0; i < size; i++)
+        messages.add(read(in, in.readString()));
+      return new Batch(messages);
+    }
+    case "SM":
+      return new Marker(in.readVarInt(), system.provider().resolveActorRef(in.readString()));
+    case "SR":
+      return new SumTestResponse(in.readVarInt(), in.readSignedVarInt());
+    default:
+      throw new NotSerializableException("unknown manifest " + manifest);
+    }
+  }
+
+  // 0 for none, the ordinal + 1 otherwise
+  private static void writeCause(BinaryWriter out, AbortCause cause) {
+    out.writeVarInt(cause == null ? 0 : cause.ordinal() + 1);
+  }
+
+  private static AbortCause readCause(BinaryReader in) {
+    int cause = in.readVarInt();
+    return cause == 0 ? null : AbortCause.values()[cause - 1];
+  }
+}
@@ -1,28 +1,44 @@
 package it.unitn.ds1;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
-import java.util.concurrent.TimeUnit;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import it.unitn.ds1.ConsistencyChecker.Marker;
+import it.unitn.ds1.TxnCoordinator.Batch;
 import it.unitn.ds1.TxnCoordinator.Decision;
+import it.unitn.ds1.TxnCoordinator.DecisionAck;
 import it.unitn.ds1.TxnCoordinator.DecisionRequest;
 import it.unitn.ds1.TxnCoordinator.DecisionResponse;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchResultMsg;
 import it.unitn.ds1.TxnCoordinator.ReadDataMsg;
 import it.unitn.ds1.TxnCoordinator.ReadDataResultMsg;
 import it.unitn.ds1.TxnCoordinator.Vote;
 import it.unitn.ds1.TxnCoordinator.VoteReponse;
 import it.unitn.ds1.TxnCoordinator.VoteRequest;
-import it.unitn.ds1.model.RowValue;
-import scala.concurrent.duration.Duration;
+import it.unitn.ds1.bench.TimeoutStats;
+import it.unitn.ds1.partition.Partitioner;
+import it.unitn.ds1.serial.ProtocolMessage;
+import it.unitn.ds1.snapshot.LocalSnapshot;
+import it.unitn.ds1.store.ChangeSet;
+import it.unitn.ds1.store.RowStore;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.AdaptiveTimeout;
+import it.unitn.ds1.txn.TimerKey;
+import it.unitn.ds1.txn.TransactionIds;
+import it.unitn.ds1.util.LongMap;
+import it.unitn.ds1.wal.Checkpoint;
+import it.unitn.ds1.wal.StorageLayout;
+import it.unitn.ds1.wal.WriteAheadLog;
 
 /**
  * TxnServer is a actor in order to manipulate data
@@ -30,36 +46,124 @@ import scala.concurrent.duration.Duration;
 public class TxnServer extends Node {
   LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
   // data
-  private Map<Integer, RowValue> data;
+  private final Partitioner partitioner;
+  private ServerState state;
 
   // operated variables
-  private Map<Integer, String> validationLocks;
-  private Map<String, Map<Integer, Integer>> transactionChange;
-  private Map<String, ActorRef> mapTransactionCoordinator;
+  private List<ActorRef> coordinators;
+  // replies to the batch being handled, null outside of a batch
+  private List<Serializable> batchReplies;
+  // durable log, and the replies waiting for the sync covering their record
+  private WriteAheadLog wal;
+  // keys, partitioning and id the durable state was written for (see
+  // StorageLayout)
+  private long layout;
+  private List<ActorRef> deferredTo;
+  private List<Serializable> deferredReplies;
+  // snapshot being taken, null once its part was sent to the checker
+  private LocalSnapshot<ActorRef> snapshot;
+  private int lastSnapshotId = -1;
+  // when the prepared transactions voted yes (System.nanoTime()), and the
+  // time the decisions took. No timer is armed after a yes vote: the estimate
+  // only times the decisions asked for after a restart or a recovery
+  private final LongMap<Long> votedAt = new LongMap<>();
+  private final AdaptiveTimeout decisionTimeout = adaptiveTimeout(TxnSystem.DECISION_TIMEOUT);
 
-  public TxnServer(int id) {
+  public TxnServer(int id, Partitioner partitioner) {
     super(id);
+    this.partitioner = partitioner;
   }
 
-  static public Props props(int id) {
-    return Props.create(TxnServer.class, () -> new TxnServer(id));
+  static public Props props(int id, Partitioner partitioner) {
+    return Props.create(TxnServer.class, () -> new TxnServer(id, partitioner))
+        .withDispatcher(TxnSystem.SERVER_DISPATCHER);
   }
 
   @Override
   public void preStart() {
-    data = new HashMap<>();
-    // init data
-    for (int i = 10 * id; i < 10 * (id + 1); i++) {
-      data.put(i, new RowValue(0, 100));
+    deferredTo = new ArrayList<>();
+    deferredReplies = new ArrayList<>();
+    Checkpoint checkpoint = null;
+    // state left by a run with other keys or servers is not recovered
+    layout = StorageLayout.of(partitioner, id);
+    if (TxnSystem.walDir != null)
+      checkpoint = Checkpoint.read(storageFile(".ckpt"), TxnSystem.ROW_STORE, layout);
+    if (checkpoint != null) {
+      // rows of the latest checkpoint, the log holds what happened after it
+      state = new ServerState(checkpoint.data());
+      checkpoint.prepared().forEach(state::restore);
+    } else {
+      // init data of the keys this server owns
+      int[] keys = partitioner.keysOf(id);
+      RowStore data = TxnSystem.ROW_STORE.create(keys.length);
+      for (int key : keys) {
+        data.put(key, 0, 100);
+      }
+      state = new ServerState(data);
     }
-    validationLocks = new HashMap<>();
-    transactionChange = new HashMap<>();
-    mapTransactionCoordinator = new HashMap<>();
+    if (TxnSystem.walDir != null)
+      replayLog(new WriteAheadLog(storageFile(".wal"), layout), checkpoint);
+  }
+
+  @Override
+  public void postStop() {
+    if (wal != null)
+      wal.close();
+  }
+
+  /**
+   * Rebuild the state left by a previous run from the log: apply the committed
+   * changes and lock again the transactions still prepared
+   * 
+   * @param writeAheadLog
+   * @param checkpoint    the checkpoint the state was loaded from, or null
+   */
+  private void replayLog(WriteAheadLog writeAheadLog, Checkpoint checkpoint) {
+    wal = writeAheadLog;
+    if (wal.discarded())
+      log.warning("Server " + id + " discarded " + wal.getFile() + ", written with another layout");
+    // a log older than the checkpoint is already part of it (crash between
+    // writing the checkpoint and resetting the log)
+    if (checkpoint != null && wal.generation() < checkpoint.generation())
+      wal.reset(checkpoint.generation());
+    wal.replay(new WriteAheadLog.Replay() {
+      @Override
+      public void prepared(long transactionId, ChangeSet changes) {
+        state.restore(transactionId, changes);
+      }
+
+      @Override
+      public void decided(long transactionId, boolean commit) {
+        state.decide(transactionId, commit);
+      }
+    });
+    state.relock();
+    for (long transactionId : state.getTransactionChange().keys()) {
+      // the decision is asked to the coordinator on timeout
+      setTimeout(transactionId, decisionTimeout.timeout());
+    }
+    log.info("Server " + id + " recovered " + wal + ", " + state.getTransactionChange().size()
+        + " prepared transactions");
+  }
+
+  /**
+   * Write the rows and the prepared transactions to a new checkpoint and start
+   * a new generation of the log. The log must be synced.
+   */
+  private void checkpoint() {
+    long generation = wal.generation() + 1;
+    Checkpoint.write(storageFile(".ckpt"), generation, layout, state.getData(), state.getTransactionChange());
+    wal.reset(generation);
+  }
+
+  private Path storageFile(String extension) {
+    return Paths.get(TxnSystem.walDir, "server" + id + extension);
   }
 
   /*-- Message classes ------------------------------------------------------ */
   /**
-   * Message caculate the correctness of the system
+   * Message caculate the correctness of the system, sent to the
+   * ConsistencyChecker
    */
   public static class SumTestRequest implements Serializable {
     public final int testId;
@@ -70,27 +174,83 @@ public class TxnServer extends Node {
 
   }
 
+  /**
+   * Part of a snapshot taken by a server, sent to the ConsistencyChecker once
+   * complete
+   */
+  public static class SumTestResponse implements ProtocolMessage {
+    // of the snapshot
+    public final int testId;
+    public final int sum;
+
+    public SumTestResponse(int testId, int sum) {
+      this.testId = testId;
+      this.sum = sum;
+    }
+
+  }
+
+  /**
+   * Asked by TxnBenchmark, answered with a copy of the LockHoldStats
+   */
+  public static class LockStatsRequest implements Serializable {
+  }
+
   public static class Timeout implements Serializable {
-    public final String transactionId;
+    public final long transactionId;
 
-    public Timeout(String transactionId) {
+    public Timeout(long transactionId) {
       this.transactionId = transactionId;
     }
 
   }
 
+  public static class CoordinatorsMsg implements Serializable {
+    public final List<ActorRef> coordinators;
+
+    public CoordinatorsMsg(List<ActorRef> coordinators) {
+      this.coordinators = Collections.unmodifiableList(new ArrayList<>(coordinators));
+    }
+
+  }
+
+  /**
+   * End of the group commit window
+   */
+  public static class SyncLog implements Serializable {
+  }
+
   /*-- Message handlers ----------------------------------------------------- */
+  private void onCoordinatorsMsg(CoordinatorsMsg msg) {
+    this.coordinators = msg.coordinators;
+  }
+
   /**
    * Handle read message from coordinator
    * 
    * @param readMsg
    */
   private void onReadMsg(ReadDataMsg readMsg) {
-    RowValue readValue = data.get(readMsg.key);
     // send back the coordinator data by key
-    getSender().tell(
-        new ReadDataResultMsg(readMsg.transactionId, readMsg.key, readValue.getValue(), readValue.getVersion()),
-        getSelf());
+    RowStore data = state.getData();
+    getSender().tell(new ReadDataResultMsg(readMsg.transactionId, readMsg.key, data.getValue(readMsg.key),
+        data.getVersion(readMsg.key)), getSelf());
+  }
+
+  /**
+   * Handle a read of several keys, answered with a single message
+   * 
+   * @param readMsg
+   */
+  private void onReadBatchMsg(ReadDataBatchMsg readMsg) {
+    RowStore data = state.getData();
+    int[] values = new int[readMsg.keys.length];
+    int[] versions = new int[readMsg.keys.length];
+    for (int i = 0; i < readMsg.keys.length; i++) {
+      values[i] = data.getValue(readMsg.keys[i]);
+      versions[i] = data.getVersion(readMsg.keys[i]);
+    }
+    getSender().tell(new ReadDataBatchResultMsg(readMsg.transactionId, readMsg.keys, values, versions), getSelf());
   }
 
   /**
@@ -99,72 +259,86 @@ public class TxnServer extends Node {
    * @param timeout
    */
   private void onTimeout(Timeout timeout) {
-    if (transactionChange.containsKey(timeout.transactionId)) {
+    if (state.isPrepared(timeout.transactionId)) {
       // re-sent DecisionRequest
-      mapTransactionCoordinator.get(timeout.transactionId).tell(new DecisionRequest(timeout.transactionId), getSelf());
+      askDecision(timeout.transactionId);
       // set timeout again
-      setTimeout(timeout.transactionId, TxnSystem.DECISION_TIMEOUT);
+      decisionTimeout.expired();
+      setTimeout(timeout.transactionId, decisionTimeout.timeout());
     }
   }
 
   /**
-   * Handle Sumtest Request for calculate sum in order to check correctness of
-   * system
+   * The first marker of a snapshot records the sum and the prepared
+   * transactions, then a marker is sent to every coordinator. The part of the
+   * snapshot goes to the checker once a marker came from every coordinator
    * 
-   * @param sumTestRequest
+   * @param marker
    */
-  private void onSumTestRequest(SumTestRequest sumTestRequest) {
-    Integer sum = 0;
-    for (Integer key : data.keySet()) {
-      sum += data.get(key).getValue();
+  private void onMarker(Marker marker) {
+    if (marker.snapshotId > lastSnapshotId) {
+      lastSnapshotId = marker.snapshotId;
+      // the replies waiting for the log are sent before the marker
+      if (wal != null)
+        syncLog();
+      snapshot = new LocalSnapshot<>(marker.snapshotId, state.sum(), state.preparedSumChanges(), coordinators);
+      for (ActorRef coordinator : coordinators)
+        coordinator.tell(marker, getSelf());
     }
-    log.info("Sum test server :" + id + " test id is " + sumTestRequest.testId + " sum =" + sum);
-    BufferedWriter writer;
-    try {
-      writer = new BufferedWriter(new FileWriter(TxnSystem.LOG_SUM_FILENAME, true));
-      // writer.write("Sum test server :" + id + " test id is " +
-      // sumTestRequest.testId + " sum =" + sum + "\n");
-      writer.write(sumTestRequest.testId + ", " + sum + "\n");
-      // writer.write(sum + "\n");
-
-      writer.close();
-    } catch (IOException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    if (snapshot != null && snapshot.id() == marker.snapshotId && snapshot.onMarker(getSender())) {
+      log.debug("Sum test server :{} snapshot {} sum ={} validation locks: {}", id, marker.snapshotId,
+          snapshot.sum(), state.getValidationLocks());
+      marker.checker.tell(new SumTestResponse(marker.snapshotId, snapshot.sum()), getSelf());
+      snapshot = null;
     }
   }
 
+  /**
+   * Asked by TxnBenchmark once the load is drained
+   * 
+   * @param msg
+   */
+  private void onLockStatsRequest(LockStatsRequest msg) {
+    getSender().tell(state.getLockHold().copy(), getSelf());
+  }
+
+  /**
+   * Asked by TxnBenchmark along with the lock stats
+   * 
+   * @param msg
+   */
+  private void onTimeoutStatsRequest(TimeoutStatsRequest msg) {
+    getSender().tell(new TimeoutStats().addDecision("server" + id + " decisions", decisionTimeout), getSelf());
+  }
+
   /**
    * Handle vote request and validate changes
    * 
    * @param vRequest
    */
   private void onVoteRequest(VoteRequest vRequest) {
-    Random r = new Random();
-    if (r.nextDouble() < TxnSystem.CRASH_PROBABILITY)
+    if (shouldCrash())
       if (this.id == 0) {
         crash(TxnSystem.CRASH_TIME);
         return;
       }
-    Map<Integer, RowValue> changeData = vRequest.changes;
-    Map<Integer, Integer> changes = new HashMap<>();
-    for (Integer key : changeData.keySet())
-      // Check lock and data version if it violate version contraint or locks, then
-      // abort transaction
-      if (validationLocks.containsKey(key) || data.get(key).getVersion() > changeData.get(key).getVersion())
-        // abort transaction
-        getSender().tell(new VoteReponse(Vote.NO, id, vRequest.transactionId), getSelf());
-    // If it didn't violate any contraint, thus lock changed key
-    for (Integer key : changeData.keySet()) {
-      validationLocks.put(key, vRequest.transactionId);
-      // store the changes in the sever
-      changes.put(key, changeData.get(key).getValue());
-    }
-    transactionChange.put(vRequest.transactionId, changes);
-    mapTransactionCoordinator.put(vRequest.transactionId, getSender());
-    // send vote to coordinator
-    getSender().tell(new VoteReponse(Vote.YES, id, vRequest.transactionId), getSelf());
-    if (r.nextDouble() < TxnSystem.CRASH_PROBABILITY)
+    if (vRequest.readOnly) {
+      // the server keeps nothing and gets no decision for it
+      AbortCause cause = state.validateReads(vRequest.changes);
+      reply(new VoteReponse(cause == null ? Vote.YES : Vote.NO, cause, id, vRequest.transactionId));
+      return;
+    }
+    AbortCause cause = state.prepare(vRequest.transactionId, vRequest.changes);
+    if (cause != null) {
+      reply(new VoteReponse(Vote.NO, cause, id, vRequest.transactionId));
+      return;
+    }
+    if (wal != null)
+      wal.logPrepare(vRequest.transactionId, state.getTransactionChange().get(vRequest.transactionId));
+    // send vote to coordinator, once the prepared changes are durable
+    replyDurably(new VoteReponse(Vote.YES, null, id, vRequest.transactionId));
+    votedAt.put(vRequest.transactionId, System.nanoTime());
+    if (shouldCrash())
       if(this.id==5)
       crash(TxnSystem.CRASH_TIME);
   }
@@ -175,31 +349,121 @@ public class TxnServer extends Node {
    * @param decisionResponse
    */
   private void onDecisionResponse(DecisionResponse decisionResponse) {
-    Map<Integer, Integer> changes = transactionChange.get(decisionResponse.transactionId);
-    // if the decision is Yes, then update storage
-    if (decisionResponse.decision == Decision.COMMIT) {
-      for (Integer key : changes.keySet()) {
-        RowValue record = data.get(key);
-        if (record.getValue() != changes.get(key)) {
-          RowValue newRecord = new RowValue(record.getVersion() + 1, changes.get(key));
-
-          data.put(key, newRecord);
-        }
-      }
+    // if the decision is Yes, then update storage, in both case remove lock and
+    // transaction changes
+    boolean commit = decisionResponse.decision == Decision.COMMIT;
+    if (snapshot != null)
+      snapshot.onDecision(getSender(), decisionResponse.transactionId, commit);
+    ChangeSet changes = state.decide(decisionResponse.transactionId, commit);
+    // nothing to do if this server voted no or never got the vote request
+    if (changes == null) {
+      // acknowledge, so that the coordinator can forget the decision
+      reply(new DecisionAck(decisionResponse.transactionId, id));
+      return;
     }
-    // if the decision is not, it means abort, then do nothing
-    // both case remove lock and transaction changes
-    transactionChange.remove(decisionResponse.transactionId);
-    for (Integer key : changes.keySet())
-      validationLocks.remove(key);
+    // asked for after a restart
+    getTimers().cancel(TimerKey.decision(decisionResponse.transactionId));
+    Long voted = votedAt.remove(decisionResponse.transactionId);
+    if (voted != null)
+      decisionTimeout.sample(System.nanoTime() - voted);
+    if (wal != null)
+      wal.logDecision(decisionResponse.transactionId, commit);
+    replyDurably(new DecisionAck(decisionResponse.transactionId, id));
+  }
+
+  /**
+   * Handle a batch of vote requests and decisions in one pass, answering with a
+   * single batch of votes and acknowledgements
+   * 
+   * @param batch
+   */
+  private void onBatch(Batch batch) {
+    batchReplies = new ArrayList<>();
+    for (Serializable msg : batch.messages) {
+      if (msg instanceof VoteRequest)
+        onVoteRequest((VoteRequest) msg);
+      else if (msg instanceof DecisionResponse)
+        onDecisionResponse((DecisionResponse) msg);
+      // the rest of the batch is lost with the crash
+      if (crashed)
+        break;
+    }
+    // one sync covers the records of the whole batch
+    if (wal != null)
+      syncLog();
+    if (!batchReplies.isEmpty())
+      getSender().tell(new Batch(batchReplies), getSelf());
+    batchReplies = null;
+  }
+
+  /**
+   * Answer the coordinator, directly or within the reply to the current batch
+   * 
+   * @param msg
+   */
+  private void reply(Serializable msg) {
+    if (batchReplies != null)
+      batchReplies.add(msg);
+    else
+      getSender().tell(msg, getSelf());
+  }
+
+  /**
+   * Reply once the records logged so far are durable: replies are held until
+   * GROUP_COMMIT_SIZE of them are waiting or the GROUP_COMMIT_WINDOW expires,
+   * so that they share one sync. Within a batch, the sync is done at its end.
+   * 
+   * @param msg
+   */
+  private void replyDurably(Serializable msg) {
+    if (wal == null || batchReplies != null) {
+      reply(msg);
+      return;
+    }
+    deferredTo.add(getSender());
+    deferredReplies.add(msg);
+    if (deferredReplies.size() >= TxnSystem.GROUP_COMMIT_SIZE)
+      syncLog();
+    else if (deferredReplies.size() == 1)
+      getTimers().startSingleTimer(TimerKey.SYNC, new SyncLog(), Duration.ofMillis(TxnSystem.GROUP_COMMIT_WINDOW));
+  }
+
+  /**
+   * Make the log durable and send the replies which were waiting for it
+   */
+  private void syncLog() {
+    // synced before the end of its window
+    getTimers().cancel(TimerKey.SYNC);
+    wal.sync();
+    for (int i = 0; i < deferredReplies.size(); i++)
+      deferredTo.get(i).tell(deferredReplies.get(i), getSelf());
+    deferredTo.clear();
+    deferredReplies.clear();
+    if (wal.size() >= TxnSystem.CHECKPOINT_LOG_SIZE)
+      checkpoint();
+  }
+
+  /**
+   * Ask the coordinator of a transaction for its decision
+   * 
+   * @param transactionId
+   */
+  private void askDecision(long transactionId) {
+    // unknown until the system sent the coordinators (just restarted)
+    if (coordinators != null)
+      coordinators.get(TransactionIds.coordinatorOf(transactionId)).tell(new DecisionRequest(transactionId), getSelf());
   }
 
   @Override
   public Receive createReceive() {
     // TODO Auto-generated method stub
-    return receiveBuilder().match(ReadDataMsg.class, this::onReadMsg).match(VoteRequest.class, this::onVoteRequest)
-        .match(DecisionResponse.class, this::onDecisionResponse).match(SumTestRequest.class, this::onSumTestRequest)
-        .match(Timeout.class, this::onTimeout).build();
+    return receiveBuilder().match(ReadDataMsg.class, this::onReadMsg).match(ReadDataBatchMsg.class, this::onReadBatchMsg)
+        .match(VoteRequest.class, this::onVoteRequest)
+        .match(DecisionResponse.class, this::onDecisionResponse).match(Batch.class, this::onBatch)
+        .match(Marker.class, this::onMarker).match(Timeout.class, this::onTimeout)
+        .match(LockStatsRequest.class, this::onLockStatsRequest)
+        .match(TimeoutStatsRequest.class, this::onTimeoutStatsRequest)
+        .match(CoordinatorsMsg.class, this::onCoordinatorsMsg).match(SyncLog.class, msg -> syncLog()).build();
   }
 
 /**
@@ -208,9 +472,16 @@ public class TxnServer extends Node {
   @Override
   public Receive crashed() {
     // TODO Auto-generated method stub
-    return receiveBuilder().match(ReadDataMsg.class, this::onReadMsg).match(VoteRequest.class, msg -> {
+    return receiveBuilder().match(ReadDataMsg.class, this::onReadMsg).match(ReadDataBatchMsg.class, this::onReadBatchMsg)
+        .match(VoteRequest.class, msg -> {
     }).match(DecisionResponse.class, msg -> {
-    }).match(SumTestRequest.class, this::onSumTestRequest).match(Timeout.class, this::onTimeout).build();
+    }).match(Batch.class, msg -> {
+    }).match(Timeout.class, this::onTimeout)
+        .match(LockStatsRequest.class, this::onLockStatsRequest)
+        .match(TimeoutStatsRequest.class, this::onTimeoutStatsRequest)
+        .match(CoordinatorsMsg.class, this::onCoordinatorsMsg)
+        .match(SyncLog.class, msg -> syncLog()) // replies produced before crashing
+        .build();
   }
 
   /**
@@ -219,24 +490,27 @@ public class TxnServer extends Node {
   @Override
   protected void onRecovery(Recovery msg) {
     // change handle message
-    getContext().become(createReceive());
-    for (String transactionId : transactionChange.keySet()) {
+    recover();
+    for (long transactionId : state.getTransactionChange().keys()) {
       print("Recovery. Asking the coordinator.");
       // ask coordinator about the transaction remain in server
-      mapTransactionCoordinator.get(transactionId).tell(new DecisionRequest(transactionId), getSelf());
+      askDecision(transactionId);
       // set timeout event
-      setTimeout(transactionId, TxnSystem.DECISION_TIMEOUT);
+      setTimeout(transactionId, decisionTimeout.timeout());
     }
   }
 
   /**
-   * Set timeout event
+   * Start the timer asking the decision of a transaction again, replacing the
+   * running one
    * 
    * @param transactionId
    * @param time
    */
-  void setTimeout(String transactionId, int time) {
-    getContext().system().scheduler().scheduleOnce(Duration.create(time, TimeUnit.MILLISECONDS), getSelf(),
-        new Timeout(transactionId), getContext().system().dispatcher(), getSelf());
+  void setTimeout(long transactionId, int time) {
+    // asked again, the time the decision takes is no longer a sample
+    votedAt.remove(transactionId);
+    getTimers().startSingleTimer(TimerKey.decision(transactionId), new Timeout(transactionId),
+        Duration.ofMillis(time));
   }
 }
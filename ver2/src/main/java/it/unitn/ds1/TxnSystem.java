@@ -1,13 +1,21 @@
 package it.unitn.ds1;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.pattern.Patterns;
+import it.unitn.ds1.log.EventLog;
+import it.unitn.ds1.partition.PartitionScheme;
+import it.unitn.ds1.partition.Partitioner;
+import it.unitn.ds1.store.RowStoreType;
+import it.unitn.ds1.workload.Workload;
 import it.unitn.ds1.TxnClient.WelcomeMsg;
 import it.unitn.ds1.TxnCoordinator.StartMsg;
+import it.unitn.ds1.TxnServer.CoordinatorsMsg;
 import it.unitn.ds1.TxnServer.SumTestRequest;
 /**
  *  - Start simulation
@@ -16,66 +24,139 @@ import it.unitn.ds1.TxnServer.SumTestRequest;
 public class TxnSystem {
   // Number of Servers
   final static int N_SERVERS = 10;
+  // Number of keys, spread over the servers by PARTITION_SCHEME
+  final static int N_KEYS = 10 * N_SERVERS;
+  final static PartitionScheme PARTITION_SCHEME = PartitionScheme.RANGE;
   // Number of Cordinators
   final static int N_CORDINATORS = 10;
   // Using N_CLIENTS= 10 for correctness simulation and N_CLIENTS =1 for crash simulation
   //final static int N_CLIENTS = 10;
   final static int N_CLIENTS = 1;
-  // LOG File for checking correctness
+  // LOG File for checking correctness, one line per sum test of the
+  // ConsistencyChecker, taken on the running system every SUM_TEST_INTERVAL ms
+  // (0 for only on demand)
   public final static String LOG_SUM_FILENAME = "sum.txt";
+  public final static int SUM_TEST_INTERVAL = 1000;
+  public final static Duration SUM_TEST_TIMEOUT = Duration.ofSeconds(10);
+  // Initial timeouts of the votes and of the decisions, in ms. Each channel
+  // then follows its observed latency: smoothed latency plus
+  // TIMEOUT_DEVIATIONS times its deviation, within [MIN_TIMEOUT, MAX_TIMEOUT]
+  // (see AdaptiveTimeout). The floor keeps a few fast samples from timing out
+  // on a GC pause or a checkpoint
   public final static int DECISION_TIMEOUT= 2000;
   public final static int VOTE_TIMEOUT= 1000;
+  public static final int TIMEOUT_DEVIATIONS = 4;
+  public static final int MIN_TIMEOUT = 500;
+  public static final int MAX_TIMEOUT = 10000;
   public static final double CRASH_PROBABILITY = 0.1;
   public static final int CRASH_TIME = 5000;
+  // Read-only transactions commit without validation, so they never abort, but
+  // their reads are only read-committed: they may mix values of different
+  // transactions. false validates them with a single lock-free round
+  public static final boolean SNAPSHOT_READS = false;
+  // Vote requests and decisions for the same server are coalesced for up to
+  // BATCH_WINDOW ms or BATCH_MAX_SIZE messages, BATCH_WINDOW = 0 sends them one by one
+  public static final int BATCH_WINDOW = 5;
+  public static final int BATCH_MAX_SIZE = 64;
+  // Directory of the servers' write-ahead logs, null keeps the servers in memory
+  // only (TxnBenchmark gives each run a directory of its own). Replies waiting
+  // for their record to be durable share one sync for up to
+  // GROUP_COMMIT_WINDOW ms or GROUP_COMMIT_SIZE replies
+  static String walDir = "wal";
+  public static final int GROUP_COMMIT_WINDOW = 2;
+  public static final int GROUP_COMMIT_SIZE = 64;
+  // A server checkpoints its rows and starts a new log once the log reaches
+  // this size, a restart loads the checkpoint and replays only the log
+  public static final long CHECKPOINT_LOG_SIZE = 4 << 20;
+  // Storage used by servers for their rows
+  public static final RowStoreType ROW_STORE = RowStoreType.PRIMITIVE;
+  // What the clients run: 20-40 transfers between two uniform keys, half of
+  // them writing, 80% of the transactions asking for the commit. See Workload
+  // for skewed keys (withZipfian, withHotspot) and the YCSB-style presets
+  public static final Workload WORKLOAD = new Workload(20, 40, 0.5, 0.8);
+  // TXNs begun per second by each client whatever the outcome of its running
+  // ones (open loop), 0 for one TXN at a time (closed loop)
+  public static final double CLIENT_RATE = 0;
+  // Dispatchers (thread pools and mailboxes) of the actors, in application.conf
+  public static final String SERVER_DISPATCHER = "txn.server-dispatcher";
+  public static final String COORDINATOR_DISPATCHER = "txn.coordinator-dispatcher";
+  public static final String CLIENT_DISPATCHER = "txn.client-dispatcher";
+  // Events logged by the clients (see EventLog), DEBUG for every operation
+  public static final EventLog.Level LOG_LEVEL = EventLog.Level.INFO;
+  // Turned off by TxnBenchmark: the simulated crashes, unless asked for
+  static boolean injectCrashes = true;
 
-  public static void main(String[] args) {
-    // Create the actor system
-    final ActorSystem system = ActorSystem.create("tnxsystem");
+  public static void main(String[] args) throws Exception {
+    EventLog.setLevel(LOG_LEVEL);
+    final Partitioner partitioner = PARTITION_SCHEME.create(N_KEYS, N_SERVERS);
+    final ActorSystem system;
+    List<ActorRef> servers;
+    List<ActorRef> coordinators;
+    // --cluster: servers and coordinators in processes of their own, see TxnCluster
+    TxnCluster cluster = null;
+    if (args.length > 0 && args[0].equals("--cluster")) {
+      cluster = TxnCluster.start(N_SERVERS, N_CORDINATORS, N_KEYS, 0, 0, "");
+      System.out.println("Cluster: " + cluster.layout);
+      system = cluster.system;
+      servers = cluster.servers;
+      coordinators = cluster.coordinators;
+    } else {
+      // Create the actor system
+      system = ActorSystem.create("tnxsystem");
 
-    // Create servers and put them to a list
-    List<ActorRef> servers = new ArrayList<>();
-    for (int i = 0; i < N_SERVERS; i++) {
-      servers.add(system.actorOf(TxnServer.props(i), "server" + i));
-    }
+      // Create servers and put them to a list
+      servers = new ArrayList<>();
+      for (int i = 0; i < N_SERVERS; i++) {
+        servers.add(system.actorOf(TxnServer.props(i, partitioner), "server" + i));
+      }
 
-    // Create coordinators and put them to a list
-    List<ActorRef> coordinators = new ArrayList<>();
-    for (int i = 0; i < N_CORDINATORS; i++) {
-      coordinators.add(system.actorOf(TxnCoordinator.props(i), "coordinator" + i));
+      // Create coordinators and put them to a list
+      coordinators = new ArrayList<>();
+      for (int i = 0; i < N_CORDINATORS; i++) {
+        coordinators.add(system.actorOf(TxnCoordinator.props(i), "coordinator" + i));
+      }
     }
 
     // create client and put them to a list
 
     List<ActorRef> clients = new ArrayList<>();
     for (int i = 0; i < N_CLIENTS; i++) {
-      clients.add(system.actorOf(TxnClient.props(i), "client" + i));
+      clients.add(system.actorOf(TxnClient.props(i, CLIENT_RATE), "client" + i));
     }
+    // tell servers the coordinators, to ask decisions after a restart
+    CoordinatorsMsg coordinatorsMsg = new CoordinatorsMsg(coordinators);
+    for (ActorRef server : servers)
+      server.tell(coordinatorsMsg, ActorRef.noSender());
     // start cooordinator
-    StartMsg startMsg = new StartMsg(servers);
+    StartMsg startMsg = new StartMsg(servers, partitioner);
     for (ActorRef coordinator : coordinators)
       coordinator.tell(startMsg, ActorRef.noSender());
+    // the first sum test gives the sum the next ones must find, taken before the
+    // clients start
+    ActorRef checker = system.actorOf(ConsistencyChecker.props(coordinators, servers, LOG_SUM_FILENAME, SUM_TEST_INTERVAL), "checker");
+    int numberOfTest = 0;
+    Patterns.ask(checker, new SumTestRequest(numberOfTest++), SUM_TEST_TIMEOUT).toCompletableFuture().get();
     // start client
-    WelcomeMsg welcomeMsg = new WelcomeMsg(N_SERVERS * 10 - 1, coordinators);
+    WelcomeMsg welcomeMsg = new WelcomeMsg(N_KEYS - 1, coordinators, WORKLOAD);
     for (ActorRef client : clients)
       client.tell(welcomeMsg, ActorRef.noSender());
-    int numberOfTest = 0;
     try {
       do {
         System.out.println(">>> Press 1 to make a sum test and ENTER to exit <<<");
         int inChar = System.in.read();
         if (inChar == '1') {
-          for (ActorRef server : servers) {
-            server.tell(new SumTestRequest(numberOfTest), ActorRef.noSender());
-          }
-          numberOfTest++;
+          checker.tell(new SumTestRequest(numberOfTest++), ActorRef.noSender());
         } else
           break;
       } while (true);
 
     } catch (IOException ioe) {
     }
-    for (ActorRef server : servers)
-      server.tell(new SumTestRequest(numberOfTest), ActorRef.noSender());
-    system.terminate();
+    // wait for the last test before stopping the checker
+    Patterns.ask(checker, new SumTestRequest(numberOfTest), SUM_TEST_TIMEOUT).toCompletableFuture().get();
+    if (cluster != null)
+      cluster.stop();
+    else
+      system.terminate();
   }
 }
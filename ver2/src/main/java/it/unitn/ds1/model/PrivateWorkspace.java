@@ -1,16 +1,21 @@
 package it.unitn.ds1.model;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import lombok.Data;
 
 @Data
 public class PrivateWorkspace {
 	private Map<Integer, RowValue> data;
+	// keys written by the transaction, the others were only read
+	private Set<Integer> written;
 
 	public PrivateWorkspace() {
 		this.data = new HashMap<>();
+		this.written = new HashSet<>();
 	}
 	
 }
@@ -0,0 +1,171 @@
+package it.unitn.ds1;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.SerializerWithStringManifest;
+import it.unitn.ds1.ConsistencyChecker.Marker;
+import it.unitn.ds1.TxnClient.ReadBatchMsg;
+import it.unitn.ds1.TxnClient.ReadBatchResultMsg;
+import it.unitn.ds1.TxnClient.ReadMsg;
+import it.unitn.ds1.TxnClient.ReadResultMsg;
+import it.unitn.ds1.TxnClient.TxnAcceptMsg;
+import it.unitn.ds1.TxnClient.TxnBeginMsg;
+import it.unitn.ds1.TxnClient.TxnEndMsg;
+import it.unitn.ds1.TxnClient.TxnResultMsg;
+import it.unitn.ds1.TxnClient.WriteBatchMsg;
+import it.unitn.ds1.TxnClient.WriteMsg;
+import it.unitn.ds1.TxnCoordinator.Batch;
+import it.unitn.ds1.TxnCoordinator.Decision;
+import it.unitn.ds1.TxnCoordinator.DecisionAck;
+import it.unitn.ds1.TxnCoordinator.DecisionRequest;
+import it.unitn.ds1.TxnCoordinator.DecisionResponse;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataBatchResultMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataMsg;
+import it.unitn.ds1.TxnCoordinator.ReadDataResultMsg;
+import it.unitn.ds1.TxnCoordinator.Vote;
+import it.unitn.ds1.TxnCoordinator.VoteReponse;
+import it.unitn.ds1.TxnCoordinator.VoteRequest;
+import it.unitn.ds1.TxnServer.SumTestResponse;
+import it.unitn.ds1.model.RowValue;
+import it.unitn.ds1.txn.AbortCause;
+import it.unitn.ds1.txn.TransactionIds;
+
+/**
+ * Every protocol message is bound to TxnSerializer by application.conf and
+ * comes back from its binary encoding with the same fields
+ */
+class TxnSerializerTest {
+  // manifests of TxnSerializer
+  private static final int MESSAGE_TYPES = 22;
+  // coordinator bits set, takes the longest varint
+  private static final long TXN = TransactionIds.of(3, (1L << 40) - 1);
+
+  private static ActorSystem system;
+  private static Serialization serialization;
+
+  @BeforeAll
+  static void start() {
+    system = ActorSystem.create("serializer-test");
+    serialization = SerializationExtension.get(system);
+  }
+
+  @AfterAll
+  static void stop() {
+    system.terminate();
+  }
+
+  @Test
+  void everyMessageRoundTrips() throws Exception {
+    Set<String> manifests = new HashSet<>();
+    for (Serializable message : messages())
+      manifests.add(assertRoundTrip(message));
+    assertEquals(MESSAGE_TYPES, manifests.size());
+  }
+
+  @Test
+  void extremeValuesRoundTrip() throws Exception {
+    assertRoundTrip(new WriteMsg(Integer.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE));
+    assertRoundTrip(new ReadResultMsg(1, 0, -1));
+    assertRoundTrip(new SumTestResponse(0, Integer.MIN_VALUE));
+    assertRoundTrip(new ReadBatchMsg(0, 1, new int[0]));
+    assertRoundTrip(new VoteRequest(TXN, new HashMap<>(), true));
+    assertRoundTrip(new Batch(Arrays.asList()));
+  }
+
+  private static List<Serializable> messages() {
+    Map<Integer, RowValue> changes = new HashMap<>();
+    changes.put(4, new RowValue(2, -30));
+    changes.put(9, new RowValue(0, 130));
+    return Arrays.asList(
+        new TxnBeginMsg(7, 12),
+        new TxnAcceptMsg(12, TXN),
+        new ReadMsg(7, TXN, 4),
+        new WriteMsg(7, TXN, 4, -30),
+        new ReadBatchMsg(7, TXN, new int[] { 4, 9 }),
+        new WriteBatchMsg(7, TXN, new int[] { 4, 9 }, new int[] { -30, 130 }),
+        new ReadResultMsg(TXN, 4, 100),
+        new ReadBatchResultMsg(TXN, new int[] { 4, 9 }, new int[] { 100, 100 }),
+        new TxnEndMsg(7, TXN, true),
+        new TxnResultMsg(TXN, false, AbortCause.LOCK_CONFLICT),
+        new TxnResultMsg(TXN, true, null),
+        new ReadDataMsg(TXN, 4),
+        new ReadDataResultMsg(TXN, 4, 100, 3),
+        new ReadDataBatchMsg(TXN, new int[] { 4, 9 }),
+        new ReadDataBatchResultMsg(TXN, new int[] { 4, 9 }, new int[] { 100, -100 }, new int[] { 3, 0 }),
+        new VoteRequest(TXN, changes, false),
+        new VoteReponse(Vote.YES, null, null, TXN),
+        new VoteReponse(Vote.NO, AbortCause.STALE_READ, 7, TXN),
+        new DecisionRequest(TXN),
+        new DecisionResponse(Decision.COMMIT, TXN),
+        new DecisionAck(TXN, 2),
+        new Batch(Arrays.asList(new VoteRequest(TXN, changes, false), new DecisionResponse(Decision.ABORT, TXN + 1))),
+        new Marker(5, system.deadLetters()),
+        new SumTestResponse(5, 1000));
+  }
+
+  /**
+   * @return manifest of the message
+   */
+  private static String assertRoundTrip(Serializable message) throws Exception {
+    SerializerWithStringManifest serializer = (SerializerWithStringManifest) serialization
+        .findSerializerFor(message);
+    assertEquals(TxnSerializer.class, serializer.getClass());
+    String manifest = serializer.manifest(message);
+    assertSameFields(message, serializer.fromBinary(serializer.toBinary(message), manifest));
+    return manifest;
+  }
+
+  private static void assertSameFields(Object expected, Object actual) throws IllegalAccessException {
+    assertSame(expected.getClass(), actual.getClass());
+    for (Field field : expected.getClass().getDeclaredFields())
+      if (!Modifier.isStatic(field.getModifiers())) {
+        field.setAccessible(true);
+        assertSameValue(field.getName(), field.get(expected), field.get(actual));
+      }
+  }
+
+  // messages and rows field by field, as they do not implement equals
+  private static void assertSameValue(String name, Object value, Object copy) throws IllegalAccessException {
+    if (value == null)
+      assertNull(copy, name);
+    else if (value instanceof int[])
+      assertArrayEquals((int[]) value, (int[]) copy, name);
+    else if (value instanceof List) {
+      List<?> values = (List<?>) value;
+      List<?> copies = (List<?>) copy;
+      assertEquals(values.size(), copies.size(), name);
+      for (int i = 0; i < values.size(); i++)
+        assertSameValue(name + "[" + i + "]", values.get(i), copies.get(i));
+    } else if (value instanceof Map) {
+      Map<?, ?> values = (Map<?, ?>) value;
+      Map<?, ?> copies = (Map<?, ?>) copy;
+      assertEquals(values.keySet(), copies.keySet(), name);
+      for (Map.Entry<?, ?> entry : values.entrySet())
+        assertSameValue(name + "[" + entry.getKey() + "]", entry.getValue(), copies.get(entry.getKey()));
+    } else if (value.getClass().getName().startsWith("it.unitn.ds1.") && !(value instanceof Enum))
+      assertSameFields(value, copy);
+    else
+      assertEquals(value, copy, name);
+  }
+}